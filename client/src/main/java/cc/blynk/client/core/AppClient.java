@@ -6,6 +6,7 @@ import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.utils.properties.ServerProperties;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
@@ -30,7 +31,12 @@ public class AppClient extends BaseClient {
     }
 
     protected AppClient(String host, int port, Random msgIdGenerator, ServerProperties properties) {
-        super(host, port, msgIdGenerator, properties);
+        this(host, port, msgIdGenerator, properties, new NioEventLoopGroup(1));
+    }
+
+    protected AppClient(String host, int port, Random msgIdGenerator, ServerProperties properties,
+                        NioEventLoopGroup nioEventLoopGroup) {
+        super(host, port, msgIdGenerator, properties, nioEventLoopGroup);
         log.info("Creating app client. Host {}, sslPort : {}", host, port);
         File serverCert = makeCertificateFile("server.ssl.cert");
         File clientCert = makeCertificateFile("client.ssl.cert");
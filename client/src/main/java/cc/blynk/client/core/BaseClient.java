@@ -67,10 +67,15 @@ public abstract class BaseClient {
     }
 
     public BaseClient(String host, int port, Random messageIdGenerator, NioEventLoopGroup nioEventLoopGroup) {
+        this(host, port, messageIdGenerator, new ServerProperties(Collections.emptyMap()), nioEventLoopGroup);
+    }
+
+    public BaseClient(String host, int port, Random messageIdGenerator, ServerProperties serverProperties,
+                      NioEventLoopGroup nioEventLoopGroup) {
         this.host = host;
         this.port = port;
         this.random = messageIdGenerator;
-        this.props = new ServerProperties(Collections.emptyMap());
+        this.props = serverProperties;
         this.nioEventLoopGroup = nioEventLoopGroup;
     }
 
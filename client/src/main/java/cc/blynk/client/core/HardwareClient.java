@@ -4,8 +4,10 @@ import cc.blynk.client.handlers.ClientReplayingMessageDecoder;
 import cc.blynk.server.core.protocol.handlers.encoders.MessageEncoder;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
 import cc.blynk.server.core.stats.GlobalStats;
+import cc.blynk.utils.properties.ServerProperties;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 
 import java.util.Random;
@@ -23,6 +25,16 @@ public class HardwareClient extends BaseClient {
     public HardwareClient(String host, int port) {
         super(host, port, new Random());
         log.info("Creating hardware client. Host : {}, port : {}", host, port);
+        schedulePing();
+    }
+
+    public HardwareClient(String host, int port, ServerProperties props, NioEventLoopGroup nioEventLoopGroup) {
+        super(host, port, new Random(), props, nioEventLoopGroup);
+        log.info("Creating hardware client. Host : {}, port : {}", host, port);
+        schedulePing();
+    }
+
+    private void schedulePing() {
         //pinging for hardware client to avoid closing from server side for inactivity
         nioEventLoopGroup.scheduleAtFixedRate(() -> send(new StringMessage(777, PING, "")), 12, 12, TimeUnit.SECONDS);
     }
@@ -0,0 +1,55 @@
+package cc.blynk.client.load;
+
+import cc.blynk.server.core.stats.metrics.Histogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency and error counters of one load command. Latency is in microseconds.
+ * Interval histogram is reset on every report, total one is kept till the end of the run.
+ */
+final class CommandStats {
+
+    final String name;
+    private final Histogram interval = new Histogram();
+    private final Histogram total = new Histogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder totalErrors = new LongAdder();
+
+    CommandStats(String name) {
+        this.name = name;
+    }
+
+    void record(long startNanos) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        interval.record(micros);
+        total.record(micros);
+    }
+
+    void error() {
+        errors.increment();
+        totalErrors.increment();
+    }
+
+    String intervalReport(long periodMillis) {
+        return report(interval.snapshot(true), errors.sumThenReset(), periodMillis);
+    }
+
+    String totalReport(long periodMillis) {
+        return report(total.snapshot(false), totalErrors.sum(), periodMillis);
+    }
+
+    private String report(Histogram.Snapshot snapshot, long errorsCount, long periodMillis) {
+        double throughput = periodMillis == 0 ? 0 : snapshot.count * 1000D / periodMillis;
+        return String.format("%-14s %10.1f %10d %10d %10d %10d %10d %8d",
+                name, throughput, snapshot.count,
+                snapshot.percentile(50), snapshot.percentile(99), snapshot.percentile(99.9), snapshot.max,
+                errorsCount);
+    }
+
+    static String header() {
+        return String.format("%-14s %10s %10s %10s %10s %10s %10s %8s",
+                "command", "req/sec", "count", "p50 us", "p99 us", "p999 us", "max us", "errors");
+    }
+
+}
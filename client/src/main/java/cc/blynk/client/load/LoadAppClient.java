@@ -0,0 +1,259 @@
+package cc.blynk.client.load;
+
+import cc.blynk.client.core.AppClient;
+import cc.blynk.client.handlers.decoders.ClientMessageDecoder;
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.serialization.JsonParser;
+import cc.blynk.server.core.protocol.handlers.encoders.MessageEncoder;
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
+import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.stats.GlobalStats;
+import cc.blynk.utils.AppNameUtil;
+import cc.blynk.utils.properties.ServerProperties;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import org.asynchttpclient.AsyncHttpClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static cc.blynk.server.core.protocol.enums.Command.GET_DEVICES;
+import static cc.blynk.server.core.protocol.enums.Command.GET_GRAPH_DATA_RESPONSE;
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static cc.blynk.server.core.protocol.enums.Command.RESPONSE;
+import static cc.blynk.server.core.protocol.enums.Response.NO_DATA;
+import static cc.blynk.server.core.protocol.enums.Response.OK;
+import static cc.blynk.utils.StringUtils.BODY_SEPARATOR;
+
+/**
+ * App client of the load generator. Registers the user, creates projects with devices
+ * and after that sends appSync, getGraphData and http api requests in closed loop:
+ * next request is sent only after response for the previous one is received.
+ * Also measures latency of the hardware commands forwarded to the app.
+ */
+final class LoadAppClient extends AppClient {
+
+    private final LoadStats stats;
+    private final int timeoutMillis;
+    private final Map<Integer, CompletableFuture<MessageBase>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger msgId = new AtomicInteger();
+
+    //devices number per project, project ids start from 1
+    private int[] projects;
+    private final List<String> tokens = new ArrayList<>();
+    private volatile boolean inFlight;
+
+    LoadAppClient(String host, int port, ServerProperties props, NioEventLoopGroup group,
+                  LoadStats stats, int timeoutMillis) {
+        super(host, port, new Random(), props, group);
+        this.stats = stats;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public ChannelInitializer<SocketChannel> getChannelInitializer() {
+        return new ChannelInitializer<SocketChannel>() {
+            @Override
+            public void initChannel(SocketChannel ch) {
+                ChannelPipeline pipeline = ch.pipeline();
+                if (sslCtx != null) {
+                    pipeline.addLast(sslCtx.newHandler(ch.alloc(), host, port));
+                }
+                pipeline.addLast(new ClientMessageDecoder());
+                pipeline.addLast(new MessageEncoder(new GlobalStats()));
+                pipeline.addLast(new ResponseHandler());
+            }
+        };
+    }
+
+    /**
+     * Registers user (if not registered yet) and recreates its projects.
+     *
+     * @return tokens of created devices
+     */
+    List<String> setup(LoadConfig config, int appIndex) throws Exception {
+        String email = config.emailOf(appIndex);
+        //user may be registered by previous run
+        await(request("register " + email + " " + config.pass + " " + AppNameUtil.BLYNK));
+        expectOk(await(request("login " + email + " " + config.pass + " Android 2.27.0")), "login " + email);
+
+        int devices = config.devicesOf(appIndex);
+        this.projects = new int[(devices + config.devicesPerDash - 1) / config.devicesPerDash];
+        for (int i = 0; i < projects.length; i++) {
+            int dashId = i + 1;
+            projects[i] = Math.min(config.devicesPerDash, devices - i * config.devicesPerDash);
+            createProject(dashId, projects[i]);
+        }
+        return tokens;
+    }
+
+    private void createProject(int dashId, int devicesNum) throws Exception {
+        //leftover of previous run
+        await(request("deletedash " + dashId));
+
+        DashBoard dash = new DashBoard();
+        dash.id = dashId;
+        dash.name = "Load " + dashId;
+        dash.devices = new Device[devicesNum];
+        for (int i = 0; i < devicesNum; i++) {
+            dash.devices[i] = new Device(i, "Load device " + i, "ESP8266");
+        }
+        expectOk(await(request("createdash " + dash.toString())), "createDash " + dashId);
+        //responds with "device not in network" as devices are not connected yet
+        await(request("activate " + dashId));
+
+        MessageBase response = await(request("getdevices " + dashId));
+        if (response.command != GET_DEVICES) {
+            throw new IOException("Error getting devices of project " + dashId + ". " + response);
+        }
+        for (Device device : JsonParser.readAny(((StringMessage) response).body, Device[].class)) {
+            tokens.add(device.token);
+        }
+    }
+
+    void startLoad(LoadConfig config, AsyncHttpClient httpClient) {
+        if (config.appRate <= 0) {
+            return;
+        }
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / config.appRate);
+        long initialDelay = ThreadLocalRandom.current().nextLong(periodNanos);
+        channel.eventLoop().scheduleAtFixedRate(() -> nextRequest(config, httpClient),
+                initialDelay, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void nextRequest(LoadConfig config, AsyncHttpClient httpClient) {
+        if (inFlight || !channel.isActive()) {
+            return;
+        }
+        int totalWeight = config.syncWeight + config.graphWeight + config.httpWeight;
+        if (totalWeight <= 0) {
+            return;
+        }
+        inFlight = true;
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int dashId = random.nextInt(projects.length) + 1;
+        int choice = random.nextInt(totalWeight);
+        if (choice < config.syncWeight) {
+            tracked(request("appsync " + dashId), stats.appSync);
+        } else if (choice < config.syncWeight + config.graphWeight) {
+            int deviceId = random.nextInt(projects[dashId - 1]);
+            tracked(request("getgraphdata " + dashId + "-" + deviceId + " v 1 24 h"), stats.graph);
+        } else {
+            String token = tokens.get(random.nextInt(tokens.size()));
+            String url = "http://" + host + ":" + config.httpPort + "/" + token + "/get/V1";
+            long start = System.nanoTime();
+            httpClient.prepareGet(url).execute().toCompletableFuture().whenComplete((response, error) -> {
+                if (error != null || response.getStatusCode() != 200) {
+                    stats.http.error();
+                }
+                if (error == null) {
+                    stats.http.record(start);
+                }
+                inFlight = false;
+            });
+        }
+    }
+
+    private void tracked(CompletableFuture<MessageBase> request, CommandStats commandStats) {
+        long start = System.nanoTime();
+        request.whenComplete((response, error) -> {
+            if (error == null) {
+                commandStats.record(start);
+            }
+            if (error != null || isError(response)) {
+                commandStats.error();
+            }
+            inFlight = false;
+        });
+    }
+
+    private static boolean isError(MessageBase response) {
+        return response.command == RESPONSE && response.length != OK && response.length != NO_DATA;
+    }
+
+    private CompletableFuture<MessageBase> request(String line) {
+        int id = msgId.updateAndGet(prev -> prev >= 0xFFFF ? 1 : prev + 1);
+        CompletableFuture<MessageBase> future = new CompletableFuture<>();
+        pending.put(id, future);
+        send(produceMessageBaseOnUserInput(line, id));
+        channel.eventLoop().schedule(() -> {
+            if (pending.remove(id, future)) {
+                future.completeExceptionally(new TimeoutException("No response for " + line));
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    private MessageBase await(CompletableFuture<MessageBase> future) throws Exception {
+        return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static void expectOk(MessageBase response, String action) throws IOException {
+        if (response.command != RESPONSE || response.length != OK) {
+            throw new IOException("Error on " + action + ". " + response);
+        }
+    }
+
+    void close() {
+        channel.close();
+    }
+
+    private final class ResponseHandler extends SimpleChannelInboundHandler<MessageBase> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, MessageBase msg) {
+            switch (msg.command) {
+                case HARDWARE :
+                    recordHardware(((StringMessage) msg).body);
+                    break;
+                case RESPONSE :
+                case GET_DEVICES :
+                case GET_GRAPH_DATA_RESPONSE :
+                    CompletableFuture<MessageBase> future = pending.remove(msg.id);
+                    if (future != null) {
+                        future.complete(msg);
+                    }
+                    break;
+                default :
+                    //syncs and other notifications from the server are not tracked
+                    break;
+            }
+        }
+
+        //"1-0 vw 1 {nanoTime of the send}"
+        private void recordHardware(String body) {
+            int valueStart = body.lastIndexOf(BODY_SEPARATOR) + 1;
+            try {
+                stats.hardware.record(Long.parseLong(body.substring(valueStart)));
+            } catch (NumberFormatException e) {
+                //not sent by load generator
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            IOException closed = new IOException("Server closed app connection.");
+            for (CompletableFuture<MessageBase> future : pending.values()) {
+                future.completeExceptionally(closed);
+            }
+            pending.clear();
+            super.channelInactive(ctx);
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+package cc.blynk.client.load;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+
+/**
+ * Load generator settings, see {@link #OPTIONS} for the description.
+ */
+final class LoadConfig {
+
+    static final Options OPTIONS = new Options()
+            .addOption("host", true, "Server host or ip. localhost by default.")
+            .addOption("hardPort", true, "Hardware port. 8442 by default.")
+            .addOption("appPort", true, "Application port. 8443 by default.")
+            .addOption("httpPort", true, "HTTP API port. 8080 by default.")
+            .addOption("devices", true, "Number of hardware clients. 1000 by default.")
+            .addOption("apps", true, "Number of app clients, every app is separate user. 10 by default.")
+            .addOption("devicesPerDash", true, "Max devices in one project, should be within "
+                    + "user.devices.limit of the server. 25 by default.")
+            .addOption("writeRate", true, "'vw' commands per second sent by every device. 1 by default.")
+            .addOption("appRate", true, "Max requests per second sent by every app client. "
+                    + "App waits for the response before next request. 10 by default.")
+            .addOption("sync", true, "Weight of appSync among app requests. 1 by default.")
+            .addOption("graph", true, "Weight of getGraphData among app requests. 1 by default.")
+            .addOption("http", true, "Weight of http api 'get pin' among app requests. 1 by default.")
+            .addOption("duration", true, "Duration of the load in seconds. 60 by default.")
+            .addOption("report", true, "Stats report interval in seconds. 10 by default.")
+            .addOption("timeout", true, "Request timeout in milliseconds. 5000 by default.")
+            .addOption("threads", true, "Number of client io threads. Number of cores by default.")
+            .addOption("email", true, "Email suffix of created users. @loadtest.blynk.cc by default.")
+            .addOption("pass", true, "Password of created users. 1 by default.")
+            .addOption("help", false, "Prints usage.");
+
+    final String host;
+    final int hardPort;
+    final int appPort;
+    final int httpPort;
+    final int devices;
+    final int apps;
+    final int devicesPerDash;
+    final double writeRate;
+    final double appRate;
+    final int syncWeight;
+    final int graphWeight;
+    final int httpWeight;
+    final int durationSec;
+    final int reportSec;
+    final int timeoutMillis;
+    final int threads;
+    final String emailSuffix;
+    final String pass;
+
+    LoadConfig(CommandLine cmd) {
+        this.host = cmd.getOptionValue("host", "localhost");
+        this.hardPort = getInt(cmd, "hardPort", 8442);
+        this.appPort = getInt(cmd, "appPort", 8443);
+        this.httpPort = getInt(cmd, "httpPort", 8080);
+        this.devices = getInt(cmd, "devices", 1000);
+        this.apps = Math.max(1, getInt(cmd, "apps", 10));
+        this.devicesPerDash = Math.max(1, getInt(cmd, "devicesPerDash", 25));
+        this.writeRate = Double.parseDouble(cmd.getOptionValue("writeRate", "1"));
+        this.appRate = Double.parseDouble(cmd.getOptionValue("appRate", "10"));
+        this.syncWeight = getInt(cmd, "sync", 1);
+        this.graphWeight = getInt(cmd, "graph", 1);
+        this.httpWeight = getInt(cmd, "http", 1);
+        this.durationSec = getInt(cmd, "duration", 60);
+        this.reportSec = Math.max(1, getInt(cmd, "report", 10));
+        this.timeoutMillis = getInt(cmd, "timeout", 5000);
+        this.threads = getInt(cmd, "threads", Runtime.getRuntime().availableProcessors());
+        this.emailSuffix = cmd.getOptionValue("email", "@loadtest.blynk.cc");
+        this.pass = cmd.getOptionValue("pass", "1");
+    }
+
+    private static int getInt(CommandLine cmd, String option, int defaultValue) {
+        String value = cmd.getOptionValue(option);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    int devicesOf(int appIndex) {
+        return devices / apps + (appIndex < devices % apps ? 1 : 0);
+    }
+
+    String emailOf(int appIndex) {
+        return "load" + appIndex + emailSuffix;
+    }
+
+}
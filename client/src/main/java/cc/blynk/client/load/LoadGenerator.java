@@ -0,0 +1,117 @@
+package cc.blynk.client.load;
+
+import cc.blynk.utils.properties.ServerProperties;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.DefaultAsyncHttpClient;
+import org.asynchttpclient.DefaultAsyncHttpClientConfig;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates users with projects and devices on the server, connects app and hardware clients
+ * and runs the load for configured duration, printing throughput and latency percentiles
+ * per command every report interval and for the whole run at the end.
+ */
+final class LoadGenerator {
+
+    private final LoadConfig config;
+    private final LoadStats stats = new LoadStats();
+    private final List<LoadAppClient> apps = new ArrayList<>();
+    private final List<LoadHardwareClient> devices = new ArrayList<>();
+    //loading of properties is slow, so they are shared by all clients
+    private final ServerProperties props = new ServerProperties(Collections.emptyMap());
+
+    LoadGenerator(LoadConfig config) {
+        this.config = config;
+    }
+
+    void run() throws Exception {
+        NioEventLoopGroup group = new NioEventLoopGroup(config.threads);
+        AsyncHttpClient httpClient = new DefaultAsyncHttpClient(new DefaultAsyncHttpClientConfig.Builder()
+                .setEventLoopGroup(group)
+                .setRequestTimeout(config.timeoutMillis)
+                .setKeepAlive(true)
+                .build());
+        try {
+            List<String> tokens = connectApps(group);
+            connectDevices(group, tokens);
+            runLoad(httpClient);
+        } finally {
+            for (LoadHardwareClient device : devices) {
+                device.close();
+            }
+            for (LoadAppClient app : apps) {
+                app.close();
+            }
+            httpClient.close();
+            group.shutdownGracefully().syncUninterruptibly();
+        }
+    }
+
+    private List<String> connectApps(NioEventLoopGroup group) throws Exception {
+        List<String> tokens = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < config.apps; i++) {
+            LoadAppClient app = new LoadAppClient(config.host, config.appPort, props, group,
+                    stats, config.timeoutMillis);
+            app.start();
+            apps.add(app);
+            tokens.addAll(app.setup(config, i));
+        }
+        System.out.println(config.apps + " users with " + tokens.size() + " devices created in "
+                + (System.currentTimeMillis() - start) + " ms.");
+        return tokens;
+    }
+
+    private void connectDevices(NioEventLoopGroup group, List<String> tokens) throws Exception {
+        long start = System.currentTimeMillis();
+        List<CompletableFuture<Boolean>> logins = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            LoadHardwareClient device = new LoadHardwareClient(config.host, config.hardPort, props, group, stats);
+            device.start();
+            devices.add(device);
+            logins.add(device.login(token));
+        }
+
+        int failed = 0;
+        for (CompletableFuture<Boolean> login : logins) {
+            try {
+                if (!login.get(config.timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    failed++;
+                }
+            } catch (Exception e) {
+                failed++;
+            }
+        }
+        System.out.println((tokens.size() - failed) + " devices logged in, " + failed + " failed in "
+                + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    private void runLoad(AsyncHttpClient httpClient) throws InterruptedException {
+        System.out.println("Running load for " + config.durationSec + " seconds.");
+        stats.start();
+        for (LoadHardwareClient device : devices) {
+            device.startLoad(config.writeRate);
+        }
+        for (LoadAppClient app : apps) {
+            app.startLoad(config, httpClient);
+        }
+
+        long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(config.durationSec);
+        long now;
+        while ((now = System.currentTimeMillis()) < end) {
+            Thread.sleep(Math.min(TimeUnit.SECONDS.toMillis(config.reportSec), end - now));
+            System.out.println(stats.intervalReport());
+            System.out.println();
+        }
+
+        System.out.println("Total:");
+        System.out.println(stats.totalReport());
+    }
+
+}
@@ -0,0 +1,37 @@
+package cc.blynk.client.load;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+
+/**
+ * Entry point for the load generator. Simulates many hardware devices and apps against the server
+ * in order to find out how much load single node could handle. For example:
+ *
+ * java -cp client.jar cc.blynk.client.load.LoadGeneratorLauncher -devices 5000 -apps 50 -writeRate 2
+ *
+ * Every app is separate user with devices/apps devices. Server quota limits
+ * (user.message.quota.limit, user.total.message.quota.limit) and user.devices.limit
+ * should allow configured load, otherwise part of the commands is rejected.
+ */
+public final class LoadGeneratorLauncher {
+
+    private LoadGeneratorLauncher() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLine cmd = new DefaultParser().parse(LoadConfig.OPTIONS, args);
+        if (cmd.hasOption("help")) {
+            new HelpFormatter().printHelp("LoadGeneratorLauncher", LoadConfig.OPTIONS);
+            return;
+        }
+
+        //client logs every message on trace level
+        Configurator.setRootLevel(Level.WARN);
+
+        new LoadGenerator(new LoadConfig(cmd)).run();
+    }
+
+}
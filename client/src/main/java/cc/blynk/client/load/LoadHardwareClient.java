@@ -0,0 +1,108 @@
+package cc.blynk.client.load;
+
+import cc.blynk.client.core.HardwareClient;
+import cc.blynk.client.handlers.decoders.ClientMessageDecoder;
+import cc.blynk.server.core.protocol.handlers.encoders.MessageEncoder;
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
+import cc.blynk.server.core.protocol.model.messages.ResponseMessage;
+import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.stats.GlobalStats;
+import cc.blynk.utils.properties.ServerProperties;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static cc.blynk.server.core.protocol.enums.Command.LOGIN;
+import static cc.blynk.server.core.protocol.enums.Response.OK;
+
+/**
+ * Hardware client of the load generator. Sends "vw 1 {nanoTime}" with fixed rate,
+ * so app client could measure delivery latency. Hardware doesn't wait for any response,
+ * so error responses (e.g. quota limit) are only counted.
+ */
+final class LoadHardwareClient extends HardwareClient {
+
+    private static final int LOGIN_MSG_ID = 1;
+    private static final String WRITE_PREFIX = "vw\u00001\0";
+
+    private final LoadStats stats;
+    private final CompletableFuture<Boolean> loggedIn = new CompletableFuture<>();
+    private int msgId = LOGIN_MSG_ID;
+
+    LoadHardwareClient(String host, int port, ServerProperties props, NioEventLoopGroup group, LoadStats stats) {
+        super(host, port, props, group);
+        this.stats = stats;
+    }
+
+    @Override
+    public ChannelInitializer<SocketChannel> getChannelInitializer() {
+        return new ChannelInitializer<SocketChannel>() {
+            @Override
+            public void initChannel(SocketChannel ch) {
+                ChannelPipeline pipeline = ch.pipeline();
+                pipeline.addLast(new ClientMessageDecoder());
+                pipeline.addLast(new MessageEncoder(new GlobalStats()));
+                pipeline.addLast(new ResponseHandler());
+            }
+        };
+    }
+
+    /**
+     * @return future completed with true when login is successful
+     */
+    CompletableFuture<Boolean> login(String token) {
+        send(new StringMessage(LOGIN_MSG_ID, LOGIN, token));
+        return loggedIn;
+    }
+
+    void startLoad(double writeRate) {
+        if (writeRate <= 0 || !loggedIn.getNow(false)) {
+            return;
+        }
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / writeRate);
+        long initialDelay = ThreadLocalRandom.current().nextLong(periodNanos);
+        channel.eventLoop().scheduleAtFixedRate(this::write, initialDelay, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void write() {
+        if (channel.isActive()) {
+            msgId = msgId >= 0xFFFF ? LOGIN_MSG_ID + 1 : msgId + 1;
+            channel.writeAndFlush(new StringMessage(msgId, HARDWARE, WRITE_PREFIX + System.nanoTime()),
+                    channel.voidPromise());
+        }
+    }
+
+    void close() {
+        channel.close();
+    }
+
+    private final class ResponseHandler extends SimpleChannelInboundHandler<MessageBase> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, MessageBase msg) {
+            if (msg instanceof ResponseMessage) {
+                if (msg.id == LOGIN_MSG_ID && !loggedIn.isDone()) {
+                    loggedIn.complete(msg.length == OK);
+                } else if (msg.length != OK) {
+                    stats.hardware.error();
+                }
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            loggedIn.completeExceptionally(new IOException("Server closed hardware connection."));
+            super.channelInactive(ctx);
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+package cc.blynk.client.load;
+
+/**
+ * Stats of all commands sent by load generator.
+ *
+ * hardware - time from "vw" sent by device till it is received by the app (value is nanoTime of the send).
+ * appSync, graph - app request till response.
+ * http - http api "get pin" request till response.
+ */
+final class LoadStats {
+
+    final CommandStats hardware = new CommandStats("hardware");
+    final CommandStats appSync = new CommandStats("appSync");
+    final CommandStats graph = new CommandStats("getGraphData");
+    final CommandStats http = new CommandStats("httpGetPin");
+
+    private final CommandStats[] all = {hardware, appSync, graph, http};
+
+    private long start = System.currentTimeMillis();
+    private long lastReport = start;
+
+    synchronized void start() {
+        this.start = System.currentTimeMillis();
+        this.lastReport = start;
+    }
+
+    synchronized String intervalReport() {
+        long now = System.currentTimeMillis();
+        long period = now - lastReport;
+        lastReport = now;
+        StringBuilder sb = new StringBuilder(CommandStats.header());
+        for (CommandStats stats : all) {
+            sb.append(System.lineSeparator()).append(stats.intervalReport(period));
+        }
+        return sb.toString();
+    }
+
+    synchronized String totalReport() {
+        long period = System.currentTimeMillis() - start;
+        StringBuilder sb = new StringBuilder(CommandStats.header());
+        for (CommandStats stats : all) {
+            sb.append(System.lineSeparator()).append(stats.totalReport(period));
+        }
+        return sb.toString();
+    }
+
+}
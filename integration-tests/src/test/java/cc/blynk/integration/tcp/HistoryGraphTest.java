@@ -27,10 +27,12 @@ import cc.blynk.server.core.model.widgets.ui.tiles.TileTemplate;
 import cc.blynk.server.core.protocol.model.messages.BinaryMessage;
 import cc.blynk.server.core.protocol.model.messages.ResponseMessage;
 import cc.blynk.server.core.protocol.model.messages.common.HardwareMessage;
+import cc.blynk.server.core.reporting.RetentionPolicy;
+import cc.blynk.server.core.reporting.average.AverageAggregatorProcessor;
 import cc.blynk.server.hardware.HardwareServer;
 import cc.blynk.server.internal.ReportingUtil;
 import cc.blynk.server.workers.HistoryGraphUnusedPinDataCleanerWorker;
-import cc.blynk.server.workers.ReportingTruncateWorker;
+import cc.blynk.server.workers.ReportingRetentionWorker;
 import cc.blynk.utils.FileUtils;
 import org.junit.After;
 import org.junit.Before;
@@ -1868,7 +1870,8 @@ Device device = clientPair.appClient.getDevice();
 
     @Test
     public void truncateReportingDataWorks() throws Exception {
-        ReportingTruncateWorker truncateWorker = new ReportingTruncateWorker(holder.reportingDao);
+        ReportingRetentionWorker retentionWorker = new ReportingRetentionWorker(holder.reportingDao.storage,
+                new RetentionPolicy(holder.props), 100);
         String tempDir = holder.props.getProperty("data.folder");
 
         Path userReportFolder = Paths.get(tempDir, "data", DEFAULT_TEST_USER);
@@ -1876,27 +1879,28 @@ Device device = clientPair.appClient.getDevice();
             Files.createDirectories(userReportFolder);
         }
 
-        //this file has corresponding history graph
         Path pinReportingDataPath1 = Paths.get(tempDir, "data", DEFAULT_TEST_USER,
                 ReportingDao.generateFilename(1, 0, PinType.ANALOG.pintTypeChar, (byte) 7, GraphGranularityType.MINUTE.label));
 
         Path pinReportingDataPath2 = Paths.get(tempDir, "data", DEFAULT_TEST_USER,
                 ReportingDao.generateFilename(1, 0, PinType.VIRTUAL.pintTypeChar, (byte) 7, GraphGranularityType.MINUTE.label));
-        FileUtils.write(pinReportingDataPath2, 1.11D, 1);
+        long now = System.currentTimeMillis();
+        FileUtils.write(pinReportingDataPath2, 1.11D, now);
 
         Path pinReportingDataPath3 = Paths.get(tempDir, "data", DEFAULT_TEST_USER,
                 ReportingDao.generateFilename(1, 0, PinType.VIRTUAL.pintTypeChar, (byte) 7, GraphGranularityType.HOURLY.label));
 
-        //write max amount of data for 1 week + 1 point
+        //minute points are stored for 30 days. first point is outdated
+        long firstTs = now - 30 * AverageAggregatorProcessor.DAY - 30_000;
         for (int i = 0; i < 30 * 24 * 60 + 1; i++) {
-            FileUtils.write(pinReportingDataPath1, 1.11D, i);
-            FileUtils.write(pinReportingDataPath3, 1.11D, i);
+            FileUtils.write(pinReportingDataPath1, 1.11D, firstTs + i * AverageAggregatorProcessor.MINUTE);
+            FileUtils.write(pinReportingDataPath3, 1.11D, firstTs + i * AverageAggregatorProcessor.MINUTE);
         }
 
         assertEquals((30 * 24 * 60 + 1) * ReportingUtil.REPORTING_RECORD_SIZE, Files.size(pinReportingDataPath1));
         assertEquals(16, Files.size(pinReportingDataPath2));
         assertEquals((30 * 24 * 60 + 1) * ReportingUtil.REPORTING_RECORD_SIZE, Files.size(pinReportingDataPath3));
-        truncateWorker.run();
+        retentionWorker.run();
 
         //expecting truncated file here
         assertEquals(30 * 24 * 60 * ReportingUtil.REPORTING_RECORD_SIZE, Files.size(pinReportingDataPath1));
@@ -1909,20 +1913,21 @@ Device device = clientPair.appClient.getDevice();
 
         for (int i = 1; i < 30 * 24 * 60 + 1; i++) {
             assertEquals(1.11D, bb.getDouble(), 0.001D);
-            assertEquals(i, bb.getLong());
+            assertEquals(firstTs + i * AverageAggregatorProcessor.MINUTE, bb.getLong());
         }
 
         bb = FileUtils.read(pinReportingDataPath3, 30 * 24 * 60 + 1);
         bb.flip();
         for (int i = 0; i < 30 * 24 * 60 + 1; i++) {
             assertEquals(1.11D, bb.getDouble(), 0.001D);
-            assertEquals(i, bb.getLong());
+            assertEquals(firstTs + i * AverageAggregatorProcessor.MINUTE, bb.getLong());
         }
     }
 
     @Test
     public void doNotTruncateFileWithCorrectSize() throws Exception {
-        ReportingTruncateWorker truncateWorker = new ReportingTruncateWorker(holder.reportingDao);
+        ReportingRetentionWorker retentionWorker = new ReportingRetentionWorker(holder.reportingDao.storage,
+                new RetentionPolicy(holder.props), 100);
         String tempDir = holder.props.getProperty("data.folder");
 
         Path userReportFolder = Paths.get(tempDir, "data", DEFAULT_TEST_USER);
@@ -1930,19 +1935,18 @@ Device device = clientPair.appClient.getDevice();
             Files.createDirectories(userReportFolder);
         }
 
-        //this file has corresponding history graph
         Path pinReportingDataPath1 = Paths.get(tempDir, "data", DEFAULT_TEST_USER,
                 ReportingDao.generateFilename(1, 0, PinType.ANALOG.pintTypeChar, (byte) 7, GraphGranularityType.MINUTE.label));
 
-        //write max amount of data for 1 week + 1 point
+        //write data for 1 week
+        long firstTs = System.currentTimeMillis() - 7 * AverageAggregatorProcessor.DAY;
         for (int i = 0; i < 7 * 24 * 60; i++) {
-            FileUtils.write(pinReportingDataPath1, 1.11D, i);
+            FileUtils.write(pinReportingDataPath1, 1.11D, firstTs + i * AverageAggregatorProcessor.MINUTE);
         }
 
         assertEquals((7 * 24 * 60) * ReportingUtil.REPORTING_RECORD_SIZE, Files.size(pinReportingDataPath1));
-        truncateWorker.run();
+        retentionWorker.run();
 
-        //expecting truncated file here
         assertEquals(7 * 24 * 60 * ReportingUtil.REPORTING_RECORD_SIZE, Files.size(pinReportingDataPath1));
 
         //check no truncate
@@ -1951,22 +1955,23 @@ Device device = clientPair.appClient.getDevice();
 
         for (int i = 0; i < 7 * 24 * 60; i++) {
             assertEquals(1.11D, bb.getDouble(), 0.001D);
-            assertEquals(i, bb.getLong());
+            assertEquals(firstTs + i * AverageAggregatorProcessor.MINUTE, bb.getLong());
         }
     }
 
     @Test
     public void truncateReportingDataDontFailsInEmptyFolder() throws Exception {
-        ReportingTruncateWorker truncateWorker = new ReportingTruncateWorker(holder.reportingDao);
+        ReportingRetentionWorker retentionWorker = new ReportingRetentionWorker(holder.reportingDao.storage,
+                new RetentionPolicy(holder.props), 100);
         String tempDir = holder.props.getProperty("data.folder");
 
         Path userReportFolder = Paths.get(tempDir, "data", DEFAULT_TEST_USER);
 
-        truncateWorker.run();
+        retentionWorker.run();
 
         if (Files.notExists(userReportFolder)) {
             Files.createDirectories(userReportFolder);
         }
-        truncateWorker.run();
+        retentionWorker.run();
     }
 }
@@ -1162,10 +1162,11 @@ public class MainWorkflowTest extends IntegrationBase {
     public void testTryReachQuotaLimit() throws Exception {
         String body = "aw 100 100";
 
-        //within 1 second sending more messages than default limit 100.
+        //quota is token bucket with 100 req/sec rate and 100 burst,
+        //so sending 200 messages within ~0.5 second exceeds it.
         for (int i = 0; i < 200; i++) {
             clientPair.hardwareClient.send("hardware " + body);
-            sleep(5);
+            sleep(2);
         }
 
         ArgumentCaptor<ResponseMessage> objectArgumentCaptor = ArgumentCaptor.forClass(ResponseMessage.class);
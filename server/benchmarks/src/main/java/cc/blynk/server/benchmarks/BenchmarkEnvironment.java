@@ -0,0 +1,128 @@
+package cc.blynk.server.benchmarks;
+
+import cc.blynk.server.Holder;
+import cc.blynk.server.core.dao.UserKey;
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.DataStream;
+import cc.blynk.server.core.model.auth.Session;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.others.eventor.Eventor;
+import cc.blynk.server.core.model.widgets.others.eventor.Rule;
+import cc.blynk.server.core.model.widgets.others.eventor.model.action.BaseAction;
+import cc.blynk.server.core.model.widgets.others.eventor.model.action.SetPinAction;
+import cc.blynk.server.core.model.widgets.others.eventor.model.condition.number.GreaterThan;
+import cc.blynk.server.core.model.widgets.outputs.ValueDisplay;
+import cc.blynk.server.core.protocol.handlers.decoders.MessageDecoder;
+import cc.blynk.server.core.protocol.handlers.encoders.AppMessageEncoder;
+import cc.blynk.server.core.protocol.handlers.encoders.MessageEncoder;
+import cc.blynk.server.core.session.HardwareStateHolder;
+import cc.blynk.server.hardware.handlers.hardware.HardwareHandler;
+import cc.blynk.utils.AppNameUtil;
+import cc.blynk.utils.properties.GCMProperties;
+import cc.blynk.utils.properties.MailProperties;
+import cc.blynk.utils.properties.ServerProperties;
+import cc.blynk.utils.properties.SmsProperties;
+import cc.blynk.utils.properties.TwitterProperties;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Server components wired the same way as in the running server, but without sockets:
+ * one user with one dash and device, hardware channel with the real hardware pipeline
+ * and app channels that discard everything they receive.
+ *
+ * Dash has widgetsNum value displays on virtual pins 0..widgetsNum-1 and eventor with
+ * widgetsNum rules (one per pin) that never fire, so the whole dash and all rules are scanned
+ * on every update.
+ */
+final class BenchmarkEnvironment {
+
+    static final int DEVICE_ID = 0;
+
+    final Holder holder;
+    final User user;
+    final UserKey userKey;
+    final DashBoard dash;
+    final Session session;
+    final EmbeddedChannel hardChannel;
+    private final EmbeddedChannel[] appChannels;
+
+    BenchmarkEnvironment(int widgetsNum, int appChannelsNum) throws IOException {
+        Map<String, String> props = new HashMap<>();
+        props.put("data.folder", Files.createTempDirectory("blynk-benchmarks").toString());
+        //quota is not what is measured
+        props.put("user.message.quota.limit", "0");
+        props.put("user.total.message.quota.limit", "0");
+        Map<String, String> empty = Collections.emptyMap();
+        this.holder = new Holder(new ServerProperties(props), new MailProperties(empty),
+                new SmsProperties(empty), new GCMProperties(empty), new TwitterProperties(empty), false);
+
+        this.user = new User("benchmark@blynk.cc", "123", AppNameUtil.BLYNK, "local", "127.0.0.1", false, false);
+        this.userKey = new UserKey(user);
+
+        Device device = new Device(DEVICE_ID, "Benchmark", "ESP8266");
+        this.dash = new DashBoard();
+        dash.id = 1;
+        dash.name = "Benchmark";
+        dash.isActive = true;
+        dash.devices = new Device[] {device};
+        dash.widgets = makeWidgets(widgetsNum);
+        user.profile.dashBoards = new DashBoard[] {dash};
+        holder.userDao.add(user);
+
+        HardwareStateHolder state = new HardwareStateHolder(user, dash, device);
+        this.hardChannel = new EmbeddedChannel(DiscardOutboundHandler.INSTANCE,
+                new MessageDecoder(holder.stats, true),
+                new MessageEncoder(holder.stats),
+                new HardwareHandler(holder, state));
+        this.session = holder.sessionDao.getOrCreateSessionByUser(userKey, hardChannel.eventLoop());
+        session.addHardChannel(hardChannel);
+
+        this.appChannels = new EmbeddedChannel[appChannelsNum];
+        for (int i = 0; i < appChannelsNum; i++) {
+            appChannels[i] = new EmbeddedChannel(DiscardOutboundHandler.INSTANCE,
+                    new AppMessageEncoder(holder.stats));
+            session.addAppChannel(appChannels[i]);
+        }
+    }
+
+    private static Widget[] makeWidgets(int widgetsNum) {
+        Widget[] widgets = new Widget[widgetsNum + 1];
+        Rule[] rules = new Rule[widgetsNum];
+        for (int i = 0; i < widgetsNum; i++) {
+            ValueDisplay valueDisplay = new ValueDisplay();
+            valueDisplay.id = i + 1;
+            valueDisplay.deviceId = DEVICE_ID;
+            valueDisplay.pin = (byte) i;
+            valueDisplay.pinType = PinType.VIRTUAL;
+            widgets[i] = valueDisplay;
+
+            rules[i] = new Rule(new DataStream((byte) i, PinType.VIRTUAL), null, new GreaterThan(Double.MAX_VALUE),
+                    new BaseAction[] {new SetPinAction((byte) i, PinType.VIRTUAL, "1")}, true);
+        }
+        Eventor eventor = new Eventor(rules);
+        eventor.id = widgetsNum + 1;
+        eventor.deviceId = DEVICE_ID;
+        widgets[widgetsNum] = eventor;
+        return widgets;
+    }
+
+    void close() throws IOException {
+        hardChannel.finishAndReleaseAll();
+        for (EmbeddedChannel appChannel : appChannels) {
+            appChannel.finishAndReleaseAll();
+        }
+        holder.close();
+        //not closed by holder, its timer thread keeps forked jvm alive
+        holder.asyncHttpClient.close();
+    }
+
+}
@@ -0,0 +1,38 @@
+package cc.blynk.server.benchmarks;
+
+import cc.blynk.utils.JarUtil;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point for benchmarks run. Accepts usual JMH arguments, for example:
+ *
+ * java -jar benchmarks.jar HardwarePathBenchmark -p widgetsPerDash=10
+ *
+ * Unless other is specified, results are written as JSON to "benchmarks-{version}.json",
+ * so results of different releases could be compared.
+ */
+public final class BenchmarksLauncher {
+
+    private BenchmarksLauncher() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cmdOptions);
+
+        if (!cmdOptions.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!cmdOptions.getResult().hasValue()) {
+            String version = JarUtil.getServerVersion();
+            options.result("benchmarks" + (version.isEmpty() ? "" : "-" + version) + ".json");
+        }
+
+        new Runner(options.build()).run();
+    }
+
+}
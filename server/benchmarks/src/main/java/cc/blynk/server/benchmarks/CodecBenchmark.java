@@ -0,0 +1,89 @@
+package cc.blynk.server.benchmarks;
+
+import cc.blynk.server.core.protocol.enums.Command;
+import cc.blynk.server.core.protocol.handlers.decoders.MessageDecoder;
+import cc.blynk.server.core.protocol.handlers.encoders.MessageEncoder;
+import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hardware command decoding and encoding, passed through the channel pipeline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class CodecBenchmark {
+
+    @Param({"vw 1 1", "vw 99 22222.32", "aw 10 dsfdsfdsfdsfdsfdsfdsfdsfd gfdsgdfg"})
+    public String body;
+
+    private EmbeddedChannel decoderChannel;
+    private EmbeddedChannel encoderChannel;
+    private ByteBuf frame;
+    private StringMessage message;
+
+    @Setup
+    public void setup() {
+        GlobalStats stats = new GlobalStats();
+        decoderChannel = new EmbeddedChannel(new MessageDecoder(stats, true), new ChannelInboundHandlerAdapter() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                ReferenceCountUtil.release(msg);
+            }
+        });
+        encoderChannel = new EmbeddedChannel(DiscardOutboundHandler.INSTANCE, new MessageEncoder(stats));
+        encoderChannel.config().setOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+
+        String protocolBody = body.replaceAll(" ", "\0");
+        byte[] bodyBytes = protocolBody.getBytes(CharsetUtil.UTF_8);
+        frame = PooledByteBufAllocator.DEFAULT.directBuffer();
+        frame.writeByte(Command.HARDWARE)
+             .writeShort(1)
+             .writeShort(bodyBytes.length)
+             .writeBytes(bodyBytes);
+        message = new StringMessage(1, Command.HARDWARE, protocolBody);
+    }
+
+    @TearDown
+    public void tearDown() {
+        frame.release();
+        decoderChannel.finishAndReleaseAll();
+        encoderChannel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public void decode() {
+        decoderChannel.writeInbound(frame.retainedDuplicate());
+    }
+
+    @Benchmark
+    public void encode() {
+        encoderChannel.writeAndFlush(message, encoderChannel.voidPromise());
+    }
+
+}
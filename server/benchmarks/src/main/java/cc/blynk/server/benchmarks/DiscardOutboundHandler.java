@@ -0,0 +1,27 @@
+package cc.blynk.server.benchmarks;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Releases everything written to the channel, so EmbeddedChannel doesn't accumulate
+ * outbound messages between benchmark invocations. Should be first in the pipeline.
+ */
+@ChannelHandler.Sharable
+final class DiscardOutboundHandler extends ChannelOutboundHandlerAdapter {
+
+    static final DiscardOutboundHandler INSTANCE = new DiscardOutboundHandler();
+
+    private DiscardOutboundHandler() {
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        ReferenceCountUtil.release(msg);
+        promise.trySuccess();
+    }
+
+}
@@ -0,0 +1,96 @@
+package cc.blynk.server.benchmarks;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.protocol.enums.Command;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.CharsetUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static cc.blynk.server.benchmarks.BenchmarkEnvironment.DEVICE_ID;
+
+/**
+ * Hardware write command ("vw 0 value") processing: whole path from the frame to the app channels
+ * (decoder, HardwareHandler, HardwareLogic, encoders) and every step of HardwareLogic separately.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class HardwarePathBenchmark {
+
+    private static final byte PIN = 0;
+    private static final String VALUE = "22222.32";
+    private static final String BODY = "vw\0" + PIN + "\0" + VALUE;
+
+    @Param({"1", "10", "100"})
+    public int widgetsPerDash;
+
+    @Param({"0", "1", "10"})
+    public int channelsPerSession;
+
+    private BenchmarkEnvironment env;
+    private ByteBuf frame;
+
+    @Setup
+    public void setup() throws IOException {
+        env = new BenchmarkEnvironment(widgetsPerDash, channelsPerSession);
+
+        byte[] bodyBytes = BODY.getBytes(CharsetUtil.UTF_8);
+        frame = PooledByteBufAllocator.DEFAULT.directBuffer();
+        frame.writeByte(Command.HARDWARE)
+             .writeShort(1)
+             .writeShort(bodyBytes.length)
+             .writeBytes(bodyBytes);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        frame.release();
+        env.close();
+    }
+
+    @Benchmark
+    public void hardwareMessage() {
+        env.hardChannel.writeInbound(frame.retainedDuplicate());
+    }
+
+    @Benchmark
+    public void dashUpdate() {
+        env.dash.update(DEVICE_ID, PIN, PinType.VIRTUAL, VALUE, System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public void reportingProcess() {
+        env.holder.reportingDao.process(env.user, env.dash, DEVICE_ID, PIN, PinType.VIRTUAL,
+                VALUE, System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public void eventorProcess() {
+        env.holder.eventorProcessor.process(env.user, env.session, env.dash, DEVICE_ID, PIN, PinType.VIRTUAL,
+                VALUE, System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public void sendToApps() {
+        env.session.sendToApps(Command.HARDWARE, 1, env.dash.id, DEVICE_ID, BODY);
+    }
+
+}
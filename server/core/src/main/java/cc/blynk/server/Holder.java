@@ -7,7 +7,13 @@ import cc.blynk.server.core.dao.SessionDao;
 import cc.blynk.server.core.dao.TokenManager;
 import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.dao.ota.OTAManager;
+import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.processors.EventorProcessor;
+import cc.blynk.server.core.quota.QuotaManager;
+import cc.blynk.server.core.reporting.storage.FileReportingStorage;
+import cc.blynk.server.core.reporting.storage.MappedReportingFileCache;
+import cc.blynk.server.core.reporting.storage.ReportingStorage;
+import cc.blynk.server.core.reporting.storage.SegmentedReportingStorage;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.db.DBManager;
 import cc.blynk.server.notifications.mail.MailWrapper;
@@ -25,10 +31,13 @@ import cc.blynk.utils.properties.SmsProperties;
 import cc.blynk.utils.properties.TwitterProperties;
 import io.netty.channel.epoll.Epoll;
 import io.netty.util.internal.SystemPropertyUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.asynchttpclient.DefaultAsyncHttpClient;
 import org.asynchttpclient.DefaultAsyncHttpClientConfig;
 
 import java.io.Closeable;
+import java.util.concurrent.atomic.LongAdder;
 
 import static cc.blynk.server.internal.ReportingUtil.getReportingFolder;
 
@@ -41,6 +50,8 @@ import static cc.blynk.server.internal.ReportingUtil.getReportingFolder;
  */
 public class Holder implements Closeable {
 
+    private static final Logger log = LogManager.getLogger(Holder.class);
+
     public final FileManager fileManager;
 
     public final SessionDao sessionDao;
@@ -74,6 +85,8 @@ public class Holder implements Closeable {
 
     public final Limits limits;
 
+    public final QuotaManager quotaManager;
+
     public final String csvDownloadUrl;
 
     public final String host;
@@ -91,10 +104,14 @@ public class Holder implements Closeable {
 
         String dataFolder = serverProperties.getProperty("data.folder");
         this.fileManager = new FileManager(dataFolder, host);
-        this.sessionDao = new SessionDao();
+        this.limits = new Limits(props);
+        this.quotaManager = new QuotaManager(limits);
+        this.sessionDao = new SessionDao(quotaManager);
+        this.stats = new GlobalStats(serverProperties.getBoolProperty("stats.latency.enabled", true));
         this.blockingIOProcessor = new BlockingIOProcessor(
                 serverProperties.getIntProperty("blocking.processor.thread.pool.limit", 6),
-                serverProperties.getIntProperty("notifications.queue.limit", 2000)
+                serverProperties.getIntProperty("notifications.queue.limit", 2000),
+                stats.latency
         );
         this.dbManager = new DBManager(blockingIOProcessor, serverProperties.getBoolProperty("enable.db"));
 
@@ -107,13 +124,16 @@ public class Holder implements Closeable {
                 throw new RuntimeException(e);
             }
         } else {
-            this.userDao = new UserDao(fileManager.deserializeUsers(), this.region, host);
+            this.userDao = new UserDao(
+                    fileManager.loadUsers(serverProperties.getBoolProperty("profile.snapshot.enabled", false)),
+                    this.region, host);
         }
 
-        this.tokenManager = new TokenManager(this.userDao.users, dbManager, host);
-        this.stats = new GlobalStats();
+        //token caches, timers and series are filled in single pass over users, see indexUsers()
+        this.tokenManager = new TokenManager(dbManager, host);
         final String reportingFolder = getReportingFolder(dataFolder);
         this.reportingDao = new ReportingDao(reportingFolder,
+                createReportingStorage(serverProperties, reportingFolder),
                 serverProperties.isRawDBEnabled() && dbManager.isDBEnabled());
 
         this.transportTypeHolder = new TransportTypeHolder(serverProperties);
@@ -135,9 +155,9 @@ public class Holder implements Closeable {
 
         this.eventorProcessor = new EventorProcessor(
                 gcmWrapper, mailWrapper, twitterWrapper, blockingIOProcessor, stats);
-        this.timerWorker = new TimerWorker(userDao, sessionDao, gcmWrapper);
+        this.timerWorker = new TimerWorker(userDao, sessionDao, gcmWrapper, false);
         this.readingWidgetsWorker = new ReadingWidgetsWorker(sessionDao, userDao, props.getAllowWithoutActiveApp());
-        this.limits = new Limits(props);
+        indexUsers();
 
         this.csvDownloadUrl = FileUtils.csvDownloadUrl(host, props.getProperty("http.port"));
 
@@ -158,18 +178,22 @@ public class Holder implements Closeable {
 
         String dataFolder = serverProperties.getProperty("data.folder");
         this.fileManager = new FileManager(dataFolder, host);
-        this.sessionDao = new SessionDao();
+        this.limits = new Limits(props);
+        this.quotaManager = new QuotaManager(limits);
+        this.sessionDao = new SessionDao(quotaManager);
         this.userDao = new UserDao(fileManager.deserializeUsers(), this.region, host);
+        this.stats = new GlobalStats(serverProperties.getBoolProperty("stats.latency.enabled", true));
         this.blockingIOProcessor = new BlockingIOProcessor(
                 serverProperties.getIntProperty("blocking.processor.thread.pool.limit", 5),
-                serverProperties.getIntProperty("notifications.queue.limit", 2000)
+                serverProperties.getIntProperty("notifications.queue.limit", 2000),
+                stats.latency
         );
 
         this.dbManager = new DBManager(dbFileName, blockingIOProcessor, serverProperties.getBoolProperty("enable.db"));
         this.tokenManager = new TokenManager(this.userDao.users, dbManager, host);
-        this.stats = new GlobalStats();
         final String reportingFolder = getReportingFolder(dataFolder);
         this.reportingDao = new ReportingDao(reportingFolder,
+                createReportingStorage(serverProperties, reportingFolder),
                 serverProperties.isRawDBEnabled() && dbManager.isDBEnabled());
 
         this.transportTypeHolder = new TransportTypeHolder(serverProperties);
@@ -193,13 +217,43 @@ public class Holder implements Closeable {
 
         this.timerWorker = new TimerWorker(userDao, sessionDao, gcmWrapper);
         this.readingWidgetsWorker = new ReadingWidgetsWorker(sessionDao, userDao, props.getAllowWithoutActiveApp());
-        this.limits = new Limits(props);
 
         this.csvDownloadUrl = FileUtils.csvDownloadUrl(host, props.getProperty("http.port"));
 
         this.sslContextHolder = new SslContextHolder(props, "test@blynk.cc");
     }
 
+    /**
+     * Fills token caches, timers and reporting series of all loaded users in one parallel pass.
+     */
+    private void indexUsers() {
+        long start = System.currentTimeMillis();
+        LongAdder timers = new LongAdder();
+        LongAdder series = new LongAdder();
+        userDao.users.entrySet().parallelStream().forEach(entry -> {
+            User user = entry.getValue();
+            tokenManager.index(user);
+            timers.add(timerWorker.index(entry.getKey(), user));
+            series.add(reportingDao.registerSeries(user));
+        });
+        log.info("Indexed {} users. Timers : {}. Series : {}. Time {} ms.",
+                userDao.users.size(), timers.sum(), series.sum(), System.currentTimeMillis() - start);
+    }
+
+    private static ReportingStorage createReportingStorage(ServerProperties props, String reportingFolder) {
+        if ("segmented".equals(props.getProperty("reporting.storage.type"))) {
+            long segmentSize = props.getLongProperty("reporting.storage.segment.size", 64) * 1024 * 1024;
+            return new SegmentedReportingStorage(reportingFolder, segmentSize);
+        }
+        long mmapCacheSize = props.getLongProperty("reporting.storage.mmap.cache.size", 0) * 1024 * 1024;
+        MappedReportingFileCache mappedFilesCache = mmapCacheSize > 0
+                ? new MappedReportingFileCache(mmapCacheSize,
+                        props.getIntProperty("reporting.storage.mmap.max.files", 10_000))
+                : null;
+        return new FileReportingStorage(reportingFolder, mappedFilesCache,
+                props.getIntProperty("reporting.flush.threads", 4));
+    }
+
     private static void disableNettyLeakDetector() {
         String leakProperty = SystemPropertyUtil.get("io.netty.leakDetection.level");
         //we do not pass any with JVM option
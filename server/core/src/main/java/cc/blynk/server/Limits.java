@@ -25,6 +25,8 @@ public class Limits {
     //hardware side limits
     public final long notificationPeriodLimitSec;
     public final int userQuotaLimit;
+    public final int userTotalQuotaLimit;
+    public final int globalQuotaLimit;
     public final long webhookPeriodLimitation;
     public final int webhookResponseSuzeLimitBytes;
     public final int webhookFailureLimit;
@@ -47,6 +49,8 @@ public class Limits {
         this.notificationPeriodLimitSec =
                 props.getLongProperty("notifications.frequency.user.quota.limit", 15L) * 1000L;
         this.userQuotaLimit = props.getIntProperty("user.message.quota.limit", 100);
+        this.userTotalQuotaLimit = props.getIntProperty("user.total.message.quota.limit", 0);
+        this.globalQuotaLimit = props.getIntProperty("global.message.quota.limit", 0);
         this.webhookPeriodLimitation =
                 isUnlimited(props.getLongProperty("webhooks.frequency.user.quota.limit", 1000), -1L);
         this.webhookResponseSuzeLimitBytes = props.getIntProperty("webhooks.response.size.limit", 64) * 1024;
@@ -1,5 +1,7 @@
 package cc.blynk.server.core;
 
+import cc.blynk.server.core.stats.LatencyStats;
+
 import java.io.Closeable;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -26,7 +28,14 @@ public class BlockingIOProcessor implements Closeable {
     //separate pool for history graph data
     private final ThreadPoolExecutor historyExecutor;
 
+    private final LatencyStats latency;
+
     public BlockingIOProcessor(int poolSize, int maxQueueSize) {
+        this(poolSize, maxQueueSize, new LatencyStats(false));
+    }
+
+    public BlockingIOProcessor(int poolSize, int maxQueueSize, LatencyStats latency) {
+        this.latency = latency;
         this.messagingExecutor = new ThreadPoolExecutor(
                 poolSize / 4, poolSize / 3,
                 2L, TimeUnit.MINUTES,
@@ -43,15 +52,15 @@ public class BlockingIOProcessor implements Closeable {
     }
 
     public void execute(Runnable task) {
-        messagingExecutor.execute(task);
+        messagingExecutor.execute(latency.wrap(task, latency.messaging));
     }
 
     public void executeDB(Runnable task) {
-        dbExecutor.execute(task);
+        dbExecutor.execute(latency.wrap(task, latency.db));
     }
 
     public void executeHistory(Runnable task) {
-        historyExecutor.execute(task);
+        historyExecutor.execute(latency.wrap(task, latency.history));
     }
 
     @Override
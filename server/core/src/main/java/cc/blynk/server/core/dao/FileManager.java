@@ -1,6 +1,8 @@
 package cc.blynk.server.core.dao;
 
 import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.PinStorageKey;
+import cc.blynk.server.core.model.PinStorageKeyDeserializer;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.device.Device;
 import cc.blynk.server.core.model.serialization.JsonParser;
@@ -11,16 +13,22 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
@@ -41,6 +49,10 @@ public class FileManager {
 
     private static final Logger log = LogManager.getLogger(FileManager.class);
     private static final String USER_FILE_EXTENSION = ".user";
+    private static final String PINS_FILE_EXTENSION = ".pins";
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+    private static final String SNAPSHOT_FILE_NAME = "users.snapshot";
+    private static final PinStorageKeyDeserializer pinKeyDeserializer = new PinStorageKeyDeserializer();
 
     /**
      * Folder where all user profiles are stored locally.
@@ -101,6 +113,13 @@ public class FileManager {
         return Paths.get(dataDir.toString(), email + "." + appName + USER_FILE_EXTENSION);
     }
 
+    /**
+     * Log of the pin values changed since last profile snapshot (user file).
+     */
+    public Path generatePinsFileName(String email, String appName) {
+        return Paths.get(dataDir.toString(), email + "." + appName + PINS_FILE_EXTENSION);
+    }
+
     public Path generateBackupFileName(String email, String appName) {
         return Paths.get(backupDataDir.toString(), email + "." + appName + ".user."
                 + new SimpleDateFormat("yyyy-MM-dd").format(new Date()));
@@ -115,12 +134,148 @@ public class FileManager {
         return FileUtils.move(file, this.deletedDataDir);
     }
 
-    public void overrideUserFile(User user) throws IOException {
+    /**
+     * Writes user profile to temp file and renames it to user file,
+     * so user file is never left partially written.
+     * Temp file is forced to disk before rename, otherwise rename may reach the disk
+     * before the data and power failure leaves empty user file.
+     * Pins are marked as saved and pins log is removed only after user file is renamed.
+     * Pins log left by crash before its removal has previous generation and is ignored on load.
+     *
+     * @return - bytes written
+     */
+    public long overrideUserFile(User user) throws IOException {
         Path path = generateFileName(user.email, user.appName);
 
-        JsonParser.writeUser(path.toFile(), user);
+        //copied before serialization, so every copied value is part of the snapshot
+        DashBoard[] dashBoards = user.profile.dashBoards;
+        List<Map<PinStorageKey, String>> savedPins = new ArrayList<>(dashBoards.length);
+        for (DashBoard dash : dashBoards) {
+            savedPins.add(dash.copyDirtyPins());
+        }
+
+        long generation = user.pinsLogGeneration;
+        user.pinsLogGeneration = generation + 1;
+        byte[] data;
+        try {
+            data = JsonParser.writeUserAsBytes(user);
+            Path tempPath = Paths.get(path.toString() + TEMP_FILE_EXTENSION);
+            try (FileChannel channel = FileChannel.open(tempPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                write(channel, data);
+                channel.force(true);
+            }
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            user.pinsLogGeneration = generation;
+            throw e;
+        }
+
+        //snapshot has all pin values, so pins log is not needed anymore
+        for (int i = 0; i < dashBoards.length; i++) {
+            dashBoards[i].markPinsSaved(savedPins.get(i));
+        }
+        Files.deleteIfExists(generatePinsFileName(user.email, user.appName));
 
         removeOldFile(user.email);
+        return data.length;
+    }
+
+    /**
+     * Copies user file to backup folder in case it was modified after given time.
+     *
+     * @return - bytes copied, 0 if file wasn't changed
+     */
+    public long backupUserFile(User user, long modifiedAfter) throws IOException {
+        Path path = generateFileName(user.email, user.appName);
+        if (!Files.exists(path) || Files.getLastModifiedTime(path).toMillis() <= modifiedAfter) {
+            return 0;
+        }
+        Path backupPath = generateBackupFileName(user.email, user.appName);
+        Files.copy(path, backupPath, StandardCopyOption.REPLACE_EXISTING);
+        return Files.size(backupPath);
+    }
+
+    /**
+     * Appends pin values changed since last save to the user pins log.
+     * Every line is ["generation", "dashId", "deviceId-pin", "value"] json array,
+     * where generation is generation of the user file the log is applied to.
+     * Log is forced to disk when it is started for the new generation, so it can't
+     * disappear after crash while later appends of that generation are still in page cache.
+     *
+     * @return - bytes appended, 0 if there were no changes.
+     */
+    public long appendPinValues(User user) throws IOException {
+        String generation = String.valueOf(user.pinsLogGeneration);
+        DashBoard[] dashBoards = user.profile.dashBoards;
+        List<Map<PinStorageKey, String>> savedPins = new ArrayList<>(dashBoards.length);
+        StringBuilder sb = new StringBuilder();
+        for (DashBoard dash : dashBoards) {
+            String dashId = String.valueOf(dash.id);
+            Map<PinStorageKey, String> pins = dash.copyDirtyPins();
+            for (Map.Entry<PinStorageKey, String> entry : pins.entrySet()) {
+                sb.append(JsonParser.toJson(new String[] {generation, dashId,
+                        entry.getKey().toString(), entry.getValue()})).append('\n');
+            }
+            savedPins.add(pins);
+        }
+        if (sb.length() == 0) {
+            return 0;
+        }
+        byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(generatePinsFileName(user.email, user.appName),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            //log is removed with every snapshot, so empty log means first append of the generation
+            boolean generationStart = channel.size() == 0;
+            write(channel, data);
+            if (generationStart) {
+                channel.force(true);
+            }
+        }
+
+        for (int i = 0; i < dashBoards.length; i++) {
+            dashBoards[i].markPinsSaved(savedPins.get(i));
+        }
+        return data.length;
+    }
+
+    private static void write(FileChannel channel, byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    public long getPinsFileSize(User user) throws IOException {
+        Path path = generatePinsFileName(user.email, user.appName);
+        return Files.exists(path) ? Files.size(path) : 0;
+    }
+
+    /**
+     * Applies pins log on top of the user profile. Records of other generations are left
+     * from the interrupted snapshot and are already part of the user file.
+     */
+    private void applyPinValues(User user) {
+        Path path = generatePinsFileName(user.email, user.appName);
+        try {
+            if (!Files.exists(path)) {
+                return;
+            }
+            String generation = String.valueOf(user.pinsLogGeneration);
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                String[] record = JsonParser.readAny(line, String[].class);
+                //last line may be partially written
+                if (record == null || record.length != 4 || !generation.equals(record[0])) {
+                    continue;
+                }
+                DashBoard dash = user.profile.getDashById(Integer.parseInt(record[1]));
+                if (dash != null) {
+                    dash.restorePinValue(pinKeyDeserializer.deserializeKey(record[2], null), record[3]);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error applying pins log '{}'. Error : {}", path, e.getMessage());
+        }
     }
 
     private void removeOldFile(String email) {
@@ -133,6 +288,60 @@ public class FileManager {
         }
     }
 
+    public Path getSnapshotPath() {
+        return Paths.get(dataDir.toString(), SNAPSHOT_FILE_NAME);
+    }
+
+    /**
+     * Stores all users to single snapshot file. Should be called on shutdown, after all profiles are saved.
+     *
+     * @return - bytes written
+     */
+    public long writeSnapshot(Collection<User> users) throws IOException {
+        long start = System.currentTimeMillis();
+        long written = UserSnapshot.write(getSnapshotPath(), users);
+        log.info("Stored {} users to snapshot. {} bytes. Time {} ms.",
+                users.size(), written, System.currentTimeMillis() - start);
+        return written;
+    }
+
+    /**
+     * Loads all users from snapshot if it is allowed and exists, otherwise from user files.
+     * Snapshot is removed right after reading, as it is valid only till first profile save.
+     */
+    public ConcurrentMap<UserKey, User> loadUsers(boolean useSnapshot) {
+        long start = System.currentTimeMillis();
+        Path snapshotPath = getSnapshotPath();
+        if (Files.exists(snapshotPath)) {
+            try {
+                if (useSnapshot) {
+                    ConcurrentMap<UserKey, User> users = UserSnapshot.read(snapshotPath);
+                    users.values().parallelStream().forEach(this::makeProfileChanges);
+                    log.info("Loaded {} users from snapshot. Time {} ms.", users.size(),
+                            System.currentTimeMillis() - start);
+                    return users;
+                }
+            } catch (Exception e) {
+                log.error("Error reading user snapshot '{}', falling back to user files. Error : {}",
+                        snapshotPath, e.getMessage());
+                start = System.currentTimeMillis();
+            } finally {
+                removeSnapshot(snapshotPath);
+            }
+        }
+        ConcurrentMap<UserKey, User> users = deserializeUsers();
+        log.info("Loaded {} users from files. Time {} ms.", users.size(), System.currentTimeMillis() - start);
+        return users;
+    }
+
+    private static void removeSnapshot(Path snapshotPath) {
+        try {
+            Files.deleteIfExists(snapshotPath);
+        } catch (IOException e) {
+            log.error("Error removing user snapshot '{}'.", snapshotPath, e);
+        }
+    }
+
     /**
      * Loads all user profiles one by one from disk using dataDir as starting point.
      *
@@ -149,6 +358,7 @@ public class FileManager {
                     .flatMap(path -> {
                         try {
                             User user = JsonParser.parseUserFromFile(path);
+                            applyPinValues(user);
                             makeProfileChanges(user);
 
                             return Stream.of(user);
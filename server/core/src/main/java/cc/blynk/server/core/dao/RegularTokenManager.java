@@ -22,21 +22,36 @@ class RegularTokenManager {
     protected final ConcurrentMap<String, TokenValue> cache;
 
     RegularTokenManager(Iterable<User> users) {
-        this.cache = new ConcurrentHashMap<String, TokenValue>() {
-            {
-                for (User user : users) {
-                    if (user.profile != null) {
-                        for (DashBoard dashBoard : user.profile.dashBoards) {
-                            for (Device device : dashBoard.devices) {
-                                if (device.token != null) {
-                                    put(device.token, new TokenValue(user, dashBoard, device));
-                                }
-                            }
-                        }
+        this.cache = new ConcurrentHashMap<>();
+        for (User user : users) {
+            index(user);
+        }
+    }
+
+    /**
+     * Adds all device tokens of the user to cache. Safe to call from multiple threads for different users.
+     */
+    void index(User user) {
+        if (user.profile != null) {
+            for (DashBoard dashBoard : user.profile.dashBoards) {
+                for (Device device : dashBoard.devices) {
+                    if (device.token != null) {
+                        cache.put(device.token, new TokenValue(user, dashBoard, device));
                     }
                 }
             }
-        };
+        }
+    }
+
+    void markCold(User user) {
+        TokenValue coldValue = new TokenValue(user, null, null);
+        for (DashBoard dashBoard : user.profile.dashBoards) {
+            for (Device device : dashBoard.devices) {
+                if (device.token != null) {
+                    cache.put(device.token, coldValue);
+                }
+            }
+        }
     }
 
     String assignToken(User user, DashBoard dash, Device device, String newToken) {
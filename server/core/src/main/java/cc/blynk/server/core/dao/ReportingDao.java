@@ -1,36 +1,42 @@
 package cc.blynk.server.core.dao;
 
-import cc.blynk.server.core.dao.functions.GraphFunction;
+import cc.blynk.server.core.dao.functions.GraphSeriesMerger;
 import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.DataStream;
 import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.device.Device;
 import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.Target;
+import cc.blynk.server.core.model.widgets.Widget;
 import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
+import cc.blynk.server.core.model.widgets.outputs.graph.EnhancedHistoryGraph;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphDataStream;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.protocol.exceptions.NoDataException;
 import cc.blynk.server.core.reporting.GraphPinRequest;
+import cc.blynk.server.core.reporting.SeriesRegistry;
 import cc.blynk.server.core.reporting.average.AverageAggregatorProcessor;
 import cc.blynk.server.core.reporting.raw.BaseReportingKey;
-import cc.blynk.server.core.reporting.raw.GraphValue;
 import cc.blynk.server.core.reporting.raw.RawDataCacheForGraphProcessor;
 import cc.blynk.server.core.reporting.raw.RawDataProcessor;
+import cc.blynk.server.core.reporting.storage.FileReportingStorage;
+import cc.blynk.server.core.reporting.storage.ReportingStorage;
+import cc.blynk.server.core.reporting.storage.Rollups;
 import cc.blynk.utils.FileUtils;
 import cc.blynk.utils.NumberUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.Closeable;
+import java.io.IOException;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Map;
-import java.util.TreeMap;
 import java.util.function.Function;
 
+import static cc.blynk.server.core.reporting.storage.Rollups.SIZE_OF_ROLLUP;
+import static cc.blynk.server.core.reporting.storage.Rollups.toRollupFilename;
 import static cc.blynk.server.internal.EmptyArraysUtil.EMPTY_BYTES;
-import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
 import static cc.blynk.utils.StringUtils.DEVICE_SEPARATOR;
 
 /**
@@ -42,6 +48,7 @@ public class ReportingDao implements Closeable {
 
     private static final Logger log = LogManager.getLogger(ReportingDao.class);
 
+    public final SeriesRegistry seriesRegistry;
     public final AverageAggregatorProcessor averageAggregator;
     private final RawDataCacheForGraphProcessor rawDataCacheForGraphProcessor;
     public final RawDataProcessor rawDataProcessor;
@@ -49,6 +56,8 @@ public class ReportingDao implements Closeable {
 
     public final String dataFolder;
 
+    public final ReportingStorage storage;
+
     private final boolean enableRawDbDataStore;
 
     private static final Function<Path, Boolean> NO_FILTER = s -> true;
@@ -56,18 +65,26 @@ public class ReportingDao implements Closeable {
     //for test only
     public ReportingDao(String reportingFolder, AverageAggregatorProcessor averageAggregator,
                         boolean isEnabled) {
+        this.seriesRegistry = new SeriesRegistry();
         this.averageAggregator = averageAggregator;
-        this.rawDataCacheForGraphProcessor = new RawDataCacheForGraphProcessor();
+        this.rawDataCacheForGraphProcessor = new RawDataCacheForGraphProcessor(seriesRegistry);
         this.dataFolder = reportingFolder;
+        this.storage = new FileReportingStorage(reportingFolder);
         this.enableRawDbDataStore = isEnabled;
         this.rawDataProcessor = new RawDataProcessor(enableRawDbDataStore);
         this.csvGenerator = new CSVGenerator(this);
     }
 
     public ReportingDao(String reportingFolder, boolean isEnabled) {
-        this.averageAggregator = new AverageAggregatorProcessor(reportingFolder);
-        this.rawDataCacheForGraphProcessor = new RawDataCacheForGraphProcessor();
+        this(reportingFolder, new FileReportingStorage(reportingFolder), isEnabled);
+    }
+
+    public ReportingDao(String reportingFolder, ReportingStorage storage, boolean isEnabled) {
+        this.seriesRegistry = new SeriesRegistry();
+        this.averageAggregator = new AverageAggregatorProcessor(reportingFolder, seriesRegistry);
+        this.rawDataCacheForGraphProcessor = new RawDataCacheForGraphProcessor(seriesRegistry);
         this.dataFolder = reportingFolder;
+        this.storage = storage;
         this.enableRawDbDataStore = isEnabled;
         this.rawDataProcessor = new RawDataProcessor(enableRawDbDataStore);
         this.csvGenerator = new CSVGenerator(this);
@@ -76,71 +93,110 @@ public class ReportingDao implements Closeable {
     public ByteBuffer getByteBufferFromDisk(User user, int dashId, int deviceId,
                                             PinType pinType, byte pin, int count,
                                             GraphGranularityType type, int skipCount) {
-        Path userDataFile = Paths.get(
-                dataFolder,
-                FileUtils.getUserReportingDir(user.email, user.appName),
-                generateFilename(dashId, deviceId, pinType.pintTypeChar, pin, type.label)
-        );
-        if (Files.exists(userDataFile)) {
-            try {
-                return FileUtils.read(userDataFile, count, skipCount);
-            } catch (Exception ioe) {
-                log.error(ioe);
-            }
+        try {
+            return storage.read(
+                    FileUtils.getUserReportingDir(user.email, user.appName),
+                    generateFilename(dashId, deviceId, pinType.pintTypeChar, pin, type.label),
+                    count, skipCount
+            );
+        } catch (Exception ioe) {
+            log.error(ioe);
         }
 
         return null;
     }
 
-    private static boolean hasData(byte[][] data) {
-        for (byte[] pinData : data) {
-            if (pinData.length > 0) {
+    private static boolean hasData(ByteBuffer[] data) {
+        for (ByteBuffer pinData : data) {
+            if (pinData.hasRemaining()) {
                 return true;
             }
         }
         return false;
     }
 
-    private ByteBuffer getDataForTag(User user, GraphPinRequest graphPinRequest) {
-        TreeMap<Long, GraphFunction> data = new TreeMap<>();
-        for (int deviceId : graphPinRequest.deviceIds) {
-            ByteBuffer localByteBuf = getByteBufferFromDisk(user,
-                    graphPinRequest.dashId, deviceId,
+    /**
+     * Reads min, max, sum and count of every bucket of the series.
+     * In case storage doesn't keep rollups every bucket is built from its average.
+     *
+     * @return - rollups with position at the end of data or null if there is no data
+     */
+    private ByteBuffer getRollupsFromDisk(User user, int dashId, int deviceId,
+                                          PinType pinType, byte pin, int count,
+                                          GraphGranularityType type, int skipCount) throws IOException {
+        String userReportingDir = FileUtils.getUserReportingDir(user.email, user.appName);
+        String fileName = generateFilename(dashId, deviceId, pinType.pintTypeChar, pin, type.label);
+        if (!storage.storesRollups()) {
+            ByteBuffer averages = storage.read(userReportingDir, fileName, count, skipCount);
+            return averages == null ? null : Rollups.merge(averages, null);
+        }
+
+        ByteBuffer rollups = storage.read(userReportingDir, toRollupFilename(fileName), count, skipCount);
+        int rollupsCount = rollups == null ? 0 : rollups.position() / SIZE_OF_ROLLUP;
+        if (rollupsCount == count) {
+            return rollups;
+        }
+
+        //older points of the series may be stored before rollups were introduced,
+        //rollup goes with every newer average, so only points before the first rollup are read
+        ByteBuffer averages = storage.read(userReportingDir, fileName,
+                count - rollupsCount, skipCount + rollupsCount);
+        if (averages == null) {
+            return rollups;
+        }
+        return Rollups.merge(averages, rollups);
+    }
+
+    /**
+     * MIN, MAX and SUM of single device are answered from bucket rollups,
+     * so result covers all values collected within the bucket and not only its average.
+     */
+    private ByteBuffer getDataForDevice(User user, GraphPinRequest graphPinRequest) throws IOException {
+        if (Rollups.isRollupFunction(graphPinRequest.functionType)) {
+            ByteBuffer rollups = getRollupsFromDisk(user,
+                    graphPinRequest.dashId, graphPinRequest.deviceId,
                     graphPinRequest.pinType, graphPinRequest.pin,
                     graphPinRequest.count, graphPinRequest.type,
                     graphPinRequest.skipCount
             );
-            addBufferToResult(data, graphPinRequest.functionType, localByteBuf);
+            return rollups == null ? null : Rollups.toSeries(rollups, graphPinRequest.functionType);
         }
-
-        return toByteBuf(data);
+        return getByteBufferFromDisk(user,
+                graphPinRequest.dashId, graphPinRequest.deviceId,
+                graphPinRequest.pinType, graphPinRequest.pin,
+                graphPinRequest.count, graphPinRequest.type,
+                graphPinRequest.skipCount
+        );
     }
 
-    private static void addBufferToResult(TreeMap<Long, GraphFunction> data,
-                                          AggregationFunctionType functionType,
-                                          ByteBuffer localByteBuf) {
-        if (localByteBuf != null) {
-            ((Buffer) localByteBuf).flip();
-            while (localByteBuf.hasRemaining()) {
-                double newVal = localByteBuf.getDouble();
-                Long ts = localByteBuf.getLong();
-                GraphFunction graphFunctionObj = data.get(ts);
-                if (graphFunctionObj == null) {
-                    graphFunctionObj = functionType.produce();
-                    data.put(ts, graphFunctionObj);
-                }
-                graphFunctionObj.apply(newVal);
+    private ByteBuffer getDataForTag(User user, GraphPinRequest graphPinRequest) throws IOException {
+        AggregationFunctionType functionType = graphPinRequest.functionType == null
+                ? AggregationFunctionType.AVG
+                : graphPinRequest.functionType;
+
+        ByteBuffer[] data = new ByteBuffer[graphPinRequest.deviceIds.length];
+        //median can't be calculated from rollups, so it is calculated over averages of devices
+        if (functionType == AggregationFunctionType.MED) {
+            for (int i = 0; i < data.length; i++) {
+                data[i] = getByteBufferFromDisk(user,
+                        graphPinRequest.dashId, graphPinRequest.deviceIds[i],
+                        graphPinRequest.pinType, graphPinRequest.pin,
+                        graphPinRequest.count, graphPinRequest.type,
+                        graphPinRequest.skipCount
+                );
             }
+            return GraphSeriesMerger.mergeMedian(data);
         }
-    }
 
-    private static ByteBuffer toByteBuf(TreeMap<Long, GraphFunction> data) {
-        ByteBuffer result = ByteBuffer.allocate(data.size() * SIZE_OF_REPORT_ENTRY);
-        for (Map.Entry<Long, GraphFunction> entry : data.entrySet()) {
-            result.putDouble(entry.getValue().getResult())
-                    .putLong(entry.getKey());
+        for (int i = 0; i < data.length; i++) {
+            data[i] = getRollupsFromDisk(user,
+                    graphPinRequest.dashId, graphPinRequest.deviceIds[i],
+                    graphPinRequest.pinType, graphPinRequest.pin,
+                    graphPinRequest.count, graphPinRequest.type,
+                    graphPinRequest.skipCount
+            );
         }
-        return result;
+        return GraphSeriesMerger.mergeRollups(data, functionType);
     }
 
     private ByteBuffer getByteBufferFromDisk(User user, GraphPinRequest graphPinRequest) {
@@ -148,12 +204,7 @@ public class ReportingDao implements Closeable {
             if (graphPinRequest.isTag) {
                 return getDataForTag(user, graphPinRequest);
             } else {
-                return getByteBufferFromDisk(user,
-                        graphPinRequest.dashId, graphPinRequest.deviceId,
-                        graphPinRequest.pinType, graphPinRequest.pin,
-                        graphPinRequest.count, graphPinRequest.type,
-                        graphPinRequest.skipCount
-                );
+                return getDataForDevice(user, graphPinRequest);
             }
         } catch (Exception e) {
             log.error("Error getting data from disk.", e);
@@ -161,51 +212,75 @@ public class ReportingDao implements Closeable {
         }
     }
 
-    private Path getUserReportingFolderPath(User user) {
-        return Paths.get(dataFolder, FileUtils.getUserReportingDir(user.email, user.appName));
-    }
-
     public int delete(User user) {
+        removeSeries(user);
         return delete(user, NO_FILTER);
     }
 
-    public int delete(User user, Function<Path, Boolean> filter) {
-        log.debug("Removing all reporting data for {}", user.email);
-        Path reportingFolderPath = getUserReportingFolderPath(user);
-
-        int removedFilesCounter = 0;
-        try {
-            if (Files.exists(reportingFolderPath)) {
-                try (DirectoryStream<Path> reportingFolder = Files.newDirectoryStream(reportingFolderPath, "*")) {
-                    for (Path reportingFile : reportingFolder) {
-                        if (filter.apply(reportingFile)) {
-                            log.trace("Removing {}", reportingFile);
-                            FileUtils.deleteQuietly(reportingFile);
-                            removedFilesCounter++;
-                        }
-                    }
-                }
+    /**
+     * Removes all series of the user from the registry. Reporting files are not touched.
+     */
+    public int removeSeries(User user) {
+        for (DashBoard dash : user.profile.dashBoards) {
+            for (Device device : dash.devices) {
+                device.seriesIds.clear();
             }
-        } catch (Exception e) {
-            log.error("Error removing file : {}.", reportingFolderPath);
         }
-        return removedFilesCounter;
+        return seriesRegistry.removeAll(key -> key.email.equals(user.email) && key.appName.equals(user.appName));
+    }
+
+    /**
+     * Removes all series of the dash from the registry. Reporting files are not touched.
+     */
+    public int removeSeries(User user, DashBoard dash) {
+        for (Device device : dash.devices) {
+            device.seriesIds.clear();
+        }
+        return seriesRegistry.removeAll(key -> key.dashId == dash.id
+                && key.email.equals(user.email) && key.appName.equals(user.appName));
+    }
+
+    /**
+     * Removes all series of the device from the registry. Reporting files are not touched.
+     */
+    public int removeSeries(User user, int dashId, Device device) {
+        device.seriesIds.clear();
+        return seriesRegistry.removeAll(key -> key.dashId == dashId && key.deviceId == device.id
+                && key.email.equals(user.email) && key.appName.equals(user.appName));
+    }
+
+    /**
+     * Recycles ids of removed series which minute, hourly and daily buckets are already flushed.
+     * Should be called periodically, after reporting flush.
+     */
+    public int recycleRemovedSeries() {
+        return seriesRegistry.recycle(averageAggregator::hasPending, seriesId -> {
+            averageAggregator.clear(seriesId);
+            rawDataCacheForGraphProcessor.clear(seriesId);
+        });
+    }
+
+    public int delete(User user, Function<Path, Boolean> filter) {
+        log.debug("Removing all reporting data for {}", user.email);
+        return storage.delete(FileUtils.getUserReportingDir(user.email, user.appName), filter);
     }
 
     public void delete(User user, int dashId, int deviceId, PinType pinType, byte pin) {
         log.debug("Removing {}{} pin data for dashId {}, deviceId {}.", pinType.pintTypeChar, pin, dashId, deviceId);
-        String userReportingDir = getUserReportingFolderPath(user).toString();
+        String userReportingDir = FileUtils.getUserReportingDir(user.email, user.appName);
 
         for (GraphGranularityType reportGranularity : GraphGranularityType.values()) {
-            delete(userReportingDir, dashId, deviceId, pinType, pin, reportGranularity);
+            String fileName = generateFilename(dashId, deviceId, pinType.pintTypeChar, pin, reportGranularity.label);
+            storage.delete(userReportingDir, fileName);
+            storage.delete(userReportingDir, toRollupFilename(fileName));
         }
-    }
 
-    private static void delete(String userReportingDir, int dashId, int deviceId, PinType pinType, byte pin,
-                               GraphGranularityType reportGranularity) {
-        Path userDataFile = Paths.get(userReportingDir,
-                generateFilename(dashId, deviceId, pinType.pintTypeChar, pin, reportGranularity.label));
-        FileUtils.deleteQuietly(userDataFile);
+        DashBoard dash = user.profile.getDashById(dashId);
+        Device device = dash == null ? null : dash.getDeviceById(deviceId);
+        if (device != null) {
+            device.seriesIds.remove(pinType.pintTypeChar, pin);
+        }
+        seriesRegistry.remove(new BaseReportingKey(user.email, user.appName, dashId, deviceId, pinType, pin));
     }
 
     public static String generateFilename(int dashId, int deviceId, char pinType, byte pin, String type) {
@@ -228,10 +303,14 @@ public class ReportingDao implements Closeable {
 
     private void process(User user, DashBoard dash, int deviceId, byte pin, PinType pinType,
                          String value, long ts, double doubleVal) {
+        int seriesId = getSeriesId(user, dash, deviceId, pin, pinType);
+
         if (enableRawDbDataStore) {
-            rawDataProcessor.collect(
-                    new BaseReportingKey(user.email, user.appName, dash.id, deviceId, pinType, pin),
-                    ts, value, doubleVal);
+            BaseReportingKey key = seriesRegistry.getKey(seriesId);
+            if (key == null) {
+                key = new BaseReportingKey(user.email, user.appName, dash.id, deviceId, pinType, pin);
+            }
+            rawDataProcessor.collect(key, ts, value, doubleVal);
         }
 
         //not a number, nothing to aggregate
@@ -239,15 +318,67 @@ public class ReportingDao implements Closeable {
             return;
         }
 
-        BaseReportingKey key = new BaseReportingKey(user.email, user.appName, dash.id, deviceId, pinType, pin);
-        averageAggregator.collect(key, ts, doubleVal);
+        averageAggregator.collect(seriesId, ts, doubleVal);
         if (dash.needRawDataForGraph(deviceId, pin, pinType)) {
-            rawDataCacheForGraphProcessor.collect(key, new GraphValue(doubleVal, ts));
+            rawDataCacheForGraphProcessor.collect(seriesId, doubleVal, ts);
         }
     }
 
-    public byte[][] getReportingData(User user, GraphPinRequest[] requestedPins) throws NoDataException {
-        byte[][] values = new byte[requestedPins.length][];
+    /**
+     * Registers series of all graph data streams of the user, so series ids are assigned
+     * at startup and not on the first reported value. Safe to call from multiple threads for different users.
+     *
+     * @return - number of registered series
+     */
+    public int registerSeries(User user) {
+        int counter = 0;
+        for (DashBoard dash : user.profile.dashBoards) {
+            for (Widget widget : dash.widgets) {
+                if (widget instanceof EnhancedHistoryGraph) {
+                    for (GraphDataStream graphDataStream : ((EnhancedHistoryGraph) widget).dataStreams) {
+                        DataStream dataStream = graphDataStream.dataStream;
+                        Target target = dash.getTarget(graphDataStream.targetId);
+                        if (dataStream == null || !dataStream.isValid() || target == null) {
+                            continue;
+                        }
+                        for (int deviceId : target.getDeviceIds()) {
+                            getSeriesId(user, dash, deviceId, dataStream.pin, dataStream.pinType);
+                            counter++;
+                        }
+                    }
+                }
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Series id is cached within device, so in most cases reporting key is not created at all.
+     */
+    private int getSeriesId(User user, DashBoard dash, int deviceId, byte pin, PinType pinType) {
+        Device device = dash.getDeviceById(deviceId);
+        if (device != null) {
+            int seriesId = device.seriesIds.get(pinType.pintTypeChar, pin);
+            if (seriesId != -1) {
+                return seriesId;
+            }
+        }
+
+        int seriesId = seriesRegistry.getOrCreateId(
+                new BaseReportingKey(user.email, user.appName, dash.id, deviceId, pinType, pin));
+        if (device != null) {
+            device.seriesIds.put(pinType.pintTypeChar, pin, seriesId);
+        }
+        return seriesId;
+    }
+
+    /**
+     * Returns data for every requested pin. Returned buffers are ready to be read
+     * and may be read-only slices of memory mapped files, so they should not be kept
+     * after the request is served.
+     */
+    public ByteBuffer[] getReportingData(User user, GraphPinRequest[] requestedPins) throws NoDataException {
+        ByteBuffer[] values = new ByteBuffer[requestedPins.length];
 
         for (int i = 0; i < requestedPins.length; i++) {
             GraphPinRequest graphPinRequest = requestedPins[i];
@@ -257,9 +388,14 @@ public class ReportingDao implements Closeable {
                         //live graph data is not on disk but in memory
                         ? rawDataCacheForGraphProcessor.getLiveGraphData(user, graphPinRequest)
                         : getByteBufferFromDisk(user, graphPinRequest);
-                values[i] = byteBuffer == null ? EMPTY_BYTES : byteBuffer.array();
+                if (byteBuffer == null) {
+                    values[i] = ByteBuffer.wrap(EMPTY_BYTES);
+                } else {
+                    ((Buffer) byteBuffer).flip();
+                    values[i] = byteBuffer;
+                }
             } else {
-                values[i] = EMPTY_BYTES;
+                values[i] = ByteBuffer.wrap(EMPTY_BYTES);
             }
         }
 
@@ -274,5 +410,6 @@ public class ReportingDao implements Closeable {
     public void close() {
         System.out.println("Stopping aggregator...");
         this.averageAggregator.close();
+        this.storage.close();
     }
 }
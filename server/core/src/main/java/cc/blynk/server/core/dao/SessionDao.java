@@ -2,6 +2,7 @@ package cc.blynk.server.core.dao;
 
 import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.quota.QuotaManager;
 import io.netty.channel.EventLoop;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.HttpHeaderNames;
@@ -30,12 +31,18 @@ public class SessionDao {
 
     public final ConcurrentMap<UserKey, Session> userSession = new ConcurrentHashMap<>();
 
+    private final QuotaManager quotaManager;
+
+    public SessionDao(QuotaManager quotaManager) {
+        this.quotaManager = quotaManager;
+    }
+
     //threadsafe
     public Session getOrCreateSessionByUser(UserKey key, EventLoop initialEventLoop) {
         Session group = userSession.get(key);
         //only one side came
         if (group == null) {
-            Session value = new Session(initialEventLoop);
+            Session value = new Session(initialEventLoop, quotaManager.newUserQuota());
             group = userSession.putIfAbsent(key, value);
             if (group == null) {
                 log.trace("Creating unique session for user: {}", key);
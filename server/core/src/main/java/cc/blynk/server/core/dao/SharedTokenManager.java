@@ -22,17 +22,18 @@ public class SharedTokenManager {
     protected final ConcurrentMap<String, SharedTokenValue> cache;
 
     SharedTokenManager(Iterable<User> users) {
-        this.cache = new ConcurrentHashMap<String, SharedTokenValue>() {
-            {
-                for (User user : users) {
-                    for (DashBoard dashBoard : user.profile.dashBoards) {
-                        if (dashBoard.sharedToken != null) {
-                            put(dashBoard.sharedToken, new SharedTokenValue(user, dashBoard.id));
-                        }
-                    }
-                }
+        this.cache = new ConcurrentHashMap<>();
+        for (User user : users) {
+            index(user);
+        }
+    }
+
+    void index(User user) {
+        for (DashBoard dashBoard : user.profile.dashBoards) {
+            if (dashBoard.sharedToken != null) {
+                cache.put(dashBoard.sharedToken, new SharedTokenValue(user, dashBoard.id));
             }
-        };
+        }
     }
 
     public void assignToken(User user, DashBoard dash, String newToken) {
@@ -7,6 +7,7 @@ import cc.blynk.server.db.DBManager;
 import cc.blynk.utils.TokenGeneratorUtil;
 
 import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 /**
@@ -29,6 +30,21 @@ public class TokenManager {
         this.host = host;
     }
 
+    /**
+     * Creates empty token manager, users are added via {@link #index(User)}.
+     */
+    public TokenManager(DBManager dbManager, String host) {
+        this(new ConcurrentHashMap<>(), dbManager, host);
+    }
+
+    /**
+     * Adds all regular and shared tokens of the user. Safe to call from multiple threads for different users.
+     */
+    public void index(User user) {
+        regularTokenManager.index(user);
+        sharedTokenManager.index(user);
+    }
+
     public void deleteDevice(Device device) {
         String token = regularTokenManager.deleteDeviceToken(device);
         if (token != null) {
@@ -43,12 +59,48 @@ public class TokenManager {
         dbManager.removeToken(removedTokens);
     }
 
+    /**
+     * Returns token value with profile in memory. Cold user is hydrated and its tokens are indexed again,
+     * token is read again after hydration, as user could be evicted and hydrated between the calls.
+     */
     public TokenValue getTokenValueByToken(String token) {
-        return regularTokenManager.getUserByToken(token);
+        TokenValue tokenValue = regularTokenManager.getUserByToken(token);
+        if (tokenValue == null) {
+            return null;
+        }
+        User user = tokenValue.user;
+        user.hydrate();
+        tokenValue = regularTokenManager.getUserByToken(token);
+        if (tokenValue != null && tokenValue.isCold()) {
+            regularTokenManager.index(user);
+            tokenValue = regularTokenManager.getUserByToken(token);
+        }
+        return tokenValue;
     }
 
     public SharedTokenValue getUserBySharedToken(String token) {
-        return sharedTokenManager.getUserByToken(token);
+        SharedTokenValue sharedTokenValue = sharedTokenManager.getUserByToken(token);
+        if (sharedTokenValue != null) {
+            hydrate(sharedTokenValue.user);
+        }
+        return sharedTokenValue;
+    }
+
+    /**
+     * Loads profile of the cold user to memory and points its tokens to the loaded profile.
+     */
+    public void hydrate(User user) {
+        if (user.hydrate()) {
+            regularTokenManager.index(user);
+        }
+    }
+
+    /**
+     * Releases references to the profile objects of the user that is going to be evicted.
+     * Should be called under user lock, right before {@link User#evict()}.
+     */
+    public void markCold(User user) {
+        regularTokenManager.markCold(user);
     }
 
     public void assignToken(User user, DashBoard dash, Device device, String newToken) {
@@ -22,4 +22,11 @@ public final class TokenValue {
         this.dash = dash;
         this.device = device;
     }
+
+    /**
+     * Token of the cold user, profile has to be hydrated, see {@link TokenManager#getTokenValueByToken(String)}.
+     */
+    public boolean isCold() {
+        return dash == null;
+    }
 }
@@ -94,7 +94,7 @@ public class UserDao {
     public Map<String, Integer> getBoardsUsage() {
         Map<String, Integer> boards = new HashMap<>();
         for (User user : users.values()) {
-            for (DashBoard dashBoard : user.profile.dashBoards) {
+            for (DashBoard dashBoard : user.readProfile().dashBoards) {
                 for (Device device : dashBoard.devices) {
                     Integer i = boards.getOrDefault(device.boardType, 0);
                     boards.put(device.boardType, ++i);
@@ -119,7 +119,7 @@ public class UserDao {
     public Map<String, Integer> getWidgetsUsage() {
         Map<String, Integer> widgets = new HashMap<>();
         for (User user : users.values()) {
-            for (DashBoard dashBoard : user.profile.dashBoards) {
+            for (DashBoard dashBoard : user.readProfile().dashBoards) {
                 if (dashBoard.widgets != null) {
                     for (Widget widget : dashBoard.widgets) {
                         Integer i = widgets.getOrDefault(widget.getClass().getSimpleName(), 0);
@@ -134,7 +134,7 @@ public class UserDao {
     public Map<String, Integer> getProjectsPerUser() {
         Map<String, Integer> projectsPerUser = new HashMap<>();
         for (User user : users.values()) {
-            String key = String.valueOf(user.profile.dashBoards.length);
+            String key = String.valueOf(user.readProfile().dashBoards.length);
             Integer i = projectsPerUser.getOrDefault(key, 0);
             projectsPerUser.put(key, ++i);
         }
@@ -144,7 +144,7 @@ public class UserDao {
     public Map<String, Integer> getLibraryVersion() {
         Map<String, Integer> data = new HashMap<>();
         for (User user : users.values()) {
-            for (DashBoard dashBoard : user.profile.dashBoards) {
+            for (DashBoard dashBoard : user.readProfile().dashBoards) {
                 for (Device device : dashBoard.devices) {
                     if (device.hardwareInfo != null && device.hardwareInfo.version != null) {
                         String key = device.hardwareInfo.version;
@@ -160,7 +160,7 @@ public class UserDao {
     public Map<String, Integer> getCpuType() {
         Map<String, Integer> data = new HashMap<>();
         for (User user : users.values()) {
-            for (DashBoard dashBoard : user.profile.dashBoards) {
+            for (DashBoard dashBoard : user.readProfile().dashBoards) {
                 for (Device device : dashBoard.devices) {
                     if (device.hardwareInfo != null && device.hardwareInfo.cpuType != null) {
                         String key = device.hardwareInfo.cpuType;
@@ -176,7 +176,7 @@ public class UserDao {
     public Map<String, Integer> getConnectionType() {
         Map<String, Integer> data = new HashMap<>();
         for (User user : users.values()) {
-            for (DashBoard dashBoard : user.profile.dashBoards) {
+            for (DashBoard dashBoard : user.readProfile().dashBoards) {
                 for (Device device : dashBoard.devices) {
                     if (device.hardwareInfo != null && device.hardwareInfo.connectionType != null) {
                         String key = device.hardwareInfo.connectionType;
@@ -192,7 +192,7 @@ public class UserDao {
     public Map<String, Integer> getHardwareBoards() {
         Map<String, Integer> data = new HashMap<>();
         for (User user : users.values()) {
-            for (DashBoard dashBoard : user.profile.dashBoards) {
+            for (DashBoard dashBoard : user.readProfile().dashBoards) {
                 for (Device device : dashBoard.devices) {
                     if (device.hardwareInfo != null && device.hardwareInfo.boardType != null) {
                         String key = device.hardwareInfo.boardType;
@@ -208,7 +208,7 @@ public class UserDao {
     public Map<String, Integer> getFilledSpace() {
         Map<String, Integer> filledSpace = new HashMap<>();
         for (User user : users.values()) {
-            for (DashBoard dashBoard : user.profile.dashBoards) {
+            for (DashBoard dashBoard : user.readProfile().dashBoards) {
                 int sum = 0;
                 for (Widget widget : dashBoard.widgets) {
                     if (widget.height < 0 || widget.width < 0) {
@@ -229,7 +229,7 @@ public class UserDao {
     public Map<String, Integer> getWebHookHosts() {
         Map<String, Integer> data = new HashMap<>();
         for (User user : users.values()) {
-            for (DashBoard dashBoard : user.profile.dashBoards) {
+            for (DashBoard dashBoard : user.readProfile().dashBoards) {
                 for (Widget widget : dashBoard.widgets) {
                     if (widget instanceof WebHook) {
                         WebHook webHook = (WebHook) widget;
@@ -0,0 +1,151 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.serialization.JsonParser;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Consolidated snapshot of the whole user DB in single file, so startup doesn't need
+ * to open and parse every user file separately.
+ *
+ * Format : [int magic][int version] followed by segments.
+ * Every segment is [int segment size][int users count] and users as [int size][user json] records.
+ * Segments are memory mapped and parsed in parallel.
+ */
+public final class UserSnapshot {
+
+    private static final int MAGIC = 0x424C5553;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int SEGMENT_HEADER_SIZE = 8;
+    private static final int SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    private UserSnapshot() {
+    }
+
+    /**
+     * Writes users to temp file and renames it to snapshot file, so snapshot is never partially written.
+     *
+     * @return - bytes written
+     */
+    public static long write(Path path, Collection<User> users) throws IOException {
+        Path tempPath = Paths.get(path.toString() + ".tmp");
+        long written = HEADER_SIZE;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            ByteArrayOutputStream segment = new ByteArrayOutputStream(SEGMENT_SIZE);
+            DataOutputStream segmentOut = new DataOutputStream(segment);
+            int count = 0;
+            for (User user : users) {
+                byte[] data = JsonParser.writeUserAsBytes(user);
+                segmentOut.writeInt(data.length);
+                segmentOut.write(data);
+                count++;
+                if (segment.size() >= SEGMENT_SIZE) {
+                    written += writeSegment(out, segment, count);
+                    count = 0;
+                }
+            }
+            if (count > 0) {
+                written += writeSegment(out, segment, count);
+            }
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return written;
+    }
+
+    private static long writeSegment(DataOutputStream out, ByteArrayOutputStream segment, int count)
+            throws IOException {
+        int size = segment.size();
+        out.writeInt(size);
+        out.writeInt(count);
+        segment.writeTo(out);
+        segment.reset();
+        return SEGMENT_HEADER_SIZE + size;
+    }
+
+    /**
+     * Reads all users from snapshot. Users are returned as they were stored,
+     * without any changes applied.
+     */
+    public static ConcurrentMap<UserKey, User> read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Unsupported user snapshot format.");
+            }
+
+            //only segment headers are read here, segments themselves are mapped
+            List<MappedByteBuffer> segments = new ArrayList<>();
+            int totalUsers = 0;
+            long position = HEADER_SIZE;
+            while (position < fileSize) {
+                ByteBuffer segmentHeader = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+                readFully(channel, segmentHeader, position);
+                int size = segmentHeader.getInt(0);
+                position += SEGMENT_HEADER_SIZE;
+                if (size < 0 || position + size > fileSize) {
+                    throw new IOException("User snapshot is truncated.");
+                }
+                segments.add(channel.map(FileChannel.MapMode.READ_ONLY, position, size));
+                totalUsers += segmentHeader.getInt(4);
+                position += size;
+            }
+
+            ConcurrentMap<UserKey, User> users = new ConcurrentHashMap<>(totalUsers);
+            try {
+                segments.parallelStream().forEach(segment -> readSegment(segment, users));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return users;
+        }
+    }
+
+    private static void readSegment(ByteBuffer segment, ConcurrentMap<UserKey, User> users) {
+        while (segment.hasRemaining()) {
+            int size = segment.getInt();
+            ByteBuffer record = segment.slice();
+            record.limit(size);
+            segment.position(segment.position() + size);
+            try {
+                User user = JsonParser.parseUserFromStream(new ByteBufferBackedInputStream(record));
+                users.put(new UserKey(user), user);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("User snapshot is truncated.");
+            }
+        }
+    }
+
+}
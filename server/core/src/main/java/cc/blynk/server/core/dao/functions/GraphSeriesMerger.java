@@ -0,0 +1,214 @@
+package cc.blynk.server.core.dao.functions;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
+import cc.blynk.server.core.reporting.storage.Rollups;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static cc.blynk.server.core.reporting.storage.Rollups.SIZE_OF_ROLLUP;
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Merges series of many devices (tag graph) into single series.
+ * Every device series is already ordered by ts, so series are merged with k-way merge
+ * over cursors kept in binary heap ordered by ts of current point. All points with the same ts
+ * are folded with primitive accumulators straight into the result buffer,
+ * so no object is created per point.
+ */
+public final class GraphSeriesMerger {
+
+    private GraphSeriesMerger() {
+    }
+
+    /**
+     * @param rollups      - rollups of every device with position at the end of data, may contain nulls.
+     *                       See {@link cc.blynk.server.core.reporting.storage.Rollups}.
+     * @param functionType - MIN, MAX, SUM or AVG
+     * @return - merged series with position at the end of data
+     */
+    public static ByteBuffer mergeRollups(ByteBuffer[] rollups, AggregationFunctionType functionType) {
+        return merge(rollups, SIZE_OF_ROLLUP, functionType);
+    }
+
+    /**
+     * Median can't be calculated from rollups, so it is calculated over averages of devices.
+     *
+     * @param averages - average series of every device with position at the end of data, may contain nulls
+     * @return - merged series with position at the end of data
+     */
+    public static ByteBuffer mergeMedian(ByteBuffer[] averages) {
+        return merge(averages, SIZE_OF_REPORT_ENTRY, AggregationFunctionType.MED);
+    }
+
+    private static ByteBuffer merge(ByteBuffer[] series, int pointSize, AggregationFunctionType functionType) {
+        //ts is the last field of both points and rollups
+        int tsOffset = pointSize - 8;
+        //heap of cursors, ts of the current point of every cursor is kept next to it
+        int[] heap = new int[series.length];
+        long[] heapTs = new long[series.length];
+        int heapSize = 0;
+        int maxPoints = 0;
+        for (int i = 0; i < series.length; i++) {
+            ByteBuffer cursor = series[i];
+            if (cursor != null) {
+                ((Buffer) cursor).flip();
+                if (cursor.hasRemaining()) {
+                    heap[heapSize] = i;
+                    heapTs[heapSize] = cursor.getLong(cursor.position() + tsOffset);
+                    heapSize++;
+                    maxPoints = Math.max(maxPoints, cursor.remaining() / pointSize);
+                }
+            }
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(heap, heapTs, heapSize, i, heap[i], heapTs[i]);
+        }
+
+        //devices usually report within the same buckets, so the longest series is a good estimate
+        ByteBuffer result = ByteBuffer.allocate(maxPoints * SIZE_OF_REPORT_ENTRY);
+        double[] medianValues = functionType == AggregationFunctionType.MED ? new double[series.length] : null;
+
+        while (heapSize > 0) {
+            long ts = heapTs[0];
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            double sum = 0;
+            long count = 0;
+            int valuesCount = 0;
+
+            do {
+                int cursorIndex = heap[0];
+                ByteBuffer cursor = series[cursorIndex];
+                int position = cursor.position();
+                if (medianValues == null) {
+                    min = Math.min(min, Rollups.getMin(cursor, position));
+                    max = Math.max(max, Rollups.getMax(cursor, position));
+                    sum += Rollups.getSum(cursor, position);
+                    count += Rollups.getCount(cursor, position);
+                } else {
+                    //same device may have few points with the same ts
+                    if (valuesCount == medianValues.length) {
+                        medianValues = Arrays.copyOf(medianValues, valuesCount * 2);
+                    }
+                    medianValues[valuesCount++] = cursor.getDouble(position);
+                }
+                position += pointSize;
+                ((Buffer) cursor).position(position);
+
+                if (position < cursor.limit()) {
+                    siftDown(heap, heapTs, heapSize, 0, cursorIndex, cursor.getLong(position + tsOffset));
+                } else if (--heapSize > 0) {
+                    siftDown(heap, heapTs, heapSize, 0, heap[heapSize], heapTs[heapSize]);
+                }
+            } while (heapSize > 0 && heapTs[0] == ts);
+
+            if (!result.hasRemaining()) {
+                result = grow(result);
+            }
+            result.putDouble(getResult(functionType, min, max, sum, count, medianValues, valuesCount))
+                  .putLong(ts);
+        }
+
+        return result;
+    }
+
+    private static double getResult(AggregationFunctionType functionType,
+                                    double min, double max, double sum, long count,
+                                    double[] medianValues, int valuesCount) {
+        switch (functionType) {
+            case MIN :
+                return min;
+            case MAX :
+                return max;
+            case SUM :
+                return sum;
+            case MED :
+                return median(medianValues, valuesCount);
+            default :
+                return sum / count;
+        }
+    }
+
+    private static double median(double[] values, int size) {
+        int middle = size / 2;
+        double upper = select(values, size, middle);
+        if (size % 2 == 0) {
+            //after select all values before middle are not greater than it
+            double lower = values[0];
+            for (int i = 1; i < middle; i++) {
+                lower = Math.max(lower, values[i]);
+            }
+            return (upper + lower) / 2;
+        }
+        return upper;
+    }
+
+    /**
+     * Quickselect. Doesn't sort values and doesn't allocate.
+     *
+     * @return - k-th smallest value
+     */
+    private static double select(double[] values, int size, int k) {
+        int left = 0;
+        int right = size - 1;
+        while (left < right) {
+            double pivot = values[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    double tmp = values[i];
+                    values[i] = values[j];
+                    values[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                break;
+            }
+        }
+        return values[k];
+    }
+
+    /**
+     * Places cursor with given ts to the heap starting from index.
+     */
+    private static void siftDown(int[] heap, long[] heapTs, int heapSize, int index, int cursorIndex, long ts) {
+        int half = heapSize >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < heapSize && heapTs[right] < heapTs[child]) {
+                child = right;
+            }
+            if (ts <= heapTs[child]) {
+                break;
+            }
+            heap[index] = heap[child];
+            heapTs[index] = heapTs[child];
+            index = child;
+        }
+        heap[index] = cursorIndex;
+        heapTs[index] = ts;
+    }
+
+    private static ByteBuffer grow(ByteBuffer result) {
+        ByteBuffer newResult = ByteBuffer.allocate(Math.max(result.capacity() * 2, SIZE_OF_REPORT_ENTRY));
+        ((Buffer) result).flip();
+        return newResult.put(result);
+    }
+
+}
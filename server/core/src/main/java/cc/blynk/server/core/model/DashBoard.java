@@ -29,6 +29,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static cc.blynk.server.core.model.widgets.AppSyncWidget.ANY_TARGET;
 import static cc.blynk.server.internal.EmptyArraysUtil.EMPTY_DEVICES;
@@ -80,7 +81,23 @@ public class DashBoard {
     @JsonDeserialize(keyUsing = PinStorageKeyDeserializer.class)
     public Map<PinStorageKey, String> pinsStorage = Collections.emptyMap();
 
+    //pin values are not a part of profile changes (updatedAt), they are persisted separately
+    public transient volatile long pinsUpdatedAt;
+
+    //pins changed since last save -> latest value
+    private final transient ConcurrentHashMap<PinStorageKey, String> dirtyPins = new ConcurrentHashMap<>();
+
     public void update(int deviceId, byte pin, PinType type, String value, long now) {
+        restorePinValue(deviceId, pin, type, value);
+        dirtyPins.put(new PinStorageKey(deviceId, type, pin), value);
+        this.pinsUpdatedAt = now;
+    }
+
+    /**
+     * Same as {@link #update(int, byte, PinType, String, long)}, but pin isn't marked as changed.
+     * Used for applying already persisted pin values.
+     */
+    public void restorePinValue(int deviceId, byte pin, PinType type, String value) {
         boolean hasWidget = false;
         for (Widget widget : widgets) {
             if (widget.updateIfSame(deviceId, pin, type, value)) {
@@ -91,8 +108,31 @@ public class DashBoard {
         if (!hasWidget) {
             putPinStorageValue(deviceId, type, pin, value);
         }
+    }
+
+    public void restorePinValue(PinStorageKey key, String value) {
+        restorePinValue(key.deviceId, key.pin, PinType.getPinType(key.pinTypeChar), value);
+    }
 
-        this.updatedAt = now;
+    public boolean hasDirtyPins() {
+        return !dirtyPins.isEmpty();
+    }
+
+    /**
+     * Copy of the pins changed since last save. Pins are still marked as changed,
+     * see {@link #markPinsSaved(Map)}.
+     */
+    public Map<PinStorageKey, String> copyDirtyPins() {
+        return dirtyPins.isEmpty() ? Collections.emptyMap() : new HashMap<>(dirtyPins);
+    }
+
+    /**
+     * Marks pins as saved. Pin updated concurrently with the other value stays changed.
+     */
+    public void markPinsSaved(Map<PinStorageKey, String> savedPins) {
+        for (Map.Entry<PinStorageKey, String> entry : savedPins.entrySet()) {
+            dirtyPins.remove(entry.getKey(), entry.getValue());
+        }
     }
 
     public String getNameOrEmpty() {
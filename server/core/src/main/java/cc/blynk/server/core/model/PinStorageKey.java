@@ -20,7 +20,7 @@ public class PinStorageKey {
 
     final byte pin;
 
-    private final char pinTypeChar;
+    final char pinTypeChar;
 
     public PinStorageKey(int deviceId, PinType pinType, byte pin) {
         this.deviceId = deviceId;
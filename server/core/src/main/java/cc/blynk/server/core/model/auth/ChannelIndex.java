@@ -0,0 +1,98 @@
+package cc.blynk.server.core.model.auth;
+
+import io.netty.channel.Channel;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+
+import java.util.Arrays;
+
+/**
+ * Channels of the session grouped by key (dash id, dash id + device id).
+ * Index is changed only on login/logout, while lookups are done for every message.
+ * So on every change map is copied and published as immutable snapshot,
+ * lookups are lock free and don't allocate.
+ */
+final class ChannelIndex {
+
+    static final Channel[] EMPTY = {};
+
+    private volatile LongObjectMap<Channel[]> channels = new LongObjectHashMap<>(0);
+
+    static long key(int dashId, int deviceId) {
+        return ((long) dashId << 32) | (deviceId & 0xFFFFFFFFL);
+    }
+
+    Channel[] get(long key) {
+        Channel[] result = channels.get(key);
+        return result == null ? EMPTY : result;
+    }
+
+    synchronized void add(long key, Channel channel) {
+        LongObjectMap<Channel[]> copy = copy();
+        Channel[] existing = copy.get(key);
+        if (existing == null) {
+            copy.put(key, new Channel[] {channel});
+        } else {
+            Channel[] updated = Arrays.copyOf(existing, existing.length + 1);
+            updated[existing.length] = channel;
+            copy.put(key, updated);
+        }
+        this.channels = copy;
+    }
+
+    synchronized void remove(long key, Channel channel) {
+        Channel[] existing = channels.get(key);
+        if (existing != null && indexOf(existing, channel) != -1) {
+            LongObjectMap<Channel[]> copy = copy();
+            remove(copy, key, existing, channel);
+            this.channels = copy;
+        }
+    }
+
+    /**
+     * Removes channel when key is unknown, iterates over all keys.
+     */
+    synchronized void remove(Channel channel) {
+        LongObjectMap<Channel[]> copy = null;
+        for (LongObjectMap.PrimitiveEntry<Channel[]> entry : channels.entries()) {
+            if (indexOf(entry.value(), channel) != -1) {
+                if (copy == null) {
+                    copy = copy();
+                }
+                remove(copy, entry.key(), entry.value(), channel);
+            }
+        }
+        if (copy != null) {
+            this.channels = copy;
+        }
+    }
+
+    private static void remove(LongObjectMap<Channel[]> map, long key, Channel[] existing, Channel channel) {
+        if (existing.length == 1) {
+            map.remove(key);
+        } else {
+            int index = indexOf(existing, channel);
+            Channel[] updated = new Channel[existing.length - 1];
+            System.arraycopy(existing, 0, updated, 0, index);
+            System.arraycopy(existing, index + 1, updated, index, existing.length - index - 1);
+            map.put(key, updated);
+        }
+    }
+
+    private static int indexOf(Channel[] channels, Channel channel) {
+        for (int i = 0; i < channels.length; i++) {
+            if (channels[i] == channel) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private LongObjectMap<Channel[]> copy() {
+        LongObjectMap<Channel[]> current = this.channels;
+        LongObjectMap<Channel[]> copy = new LongObjectHashMap<>(current.size() + 1);
+        copy.putAll(current);
+        return copy;
+    }
+
+}
@@ -1,10 +1,12 @@
 package cc.blynk.server.core.model.auth;
 
-import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.protocol.handlers.OutboundConflationHandler;
+import cc.blynk.server.core.protocol.handlers.encoders.BroadcastEncoder;
+import cc.blynk.server.core.quota.TokenBucket;
+import cc.blynk.server.core.quota.UserQuota;
 import cc.blynk.server.core.session.HardwareStateHolder;
-import cc.blynk.server.core.stats.metrics.InstanceLoadMeter;
 import cc.blynk.server.handlers.BaseSimpleChannelInboundHandler;
-import cc.blynk.utils.ArrayUtil;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.EventLoop;
@@ -12,14 +14,15 @@ import io.netty.util.internal.ConcurrentSet;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.HashSet;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
-import static cc.blynk.server.internal.CommonByteBufUtil.deviceOffline;
-import static cc.blynk.server.internal.CommonByteBufUtil.makeUTF8StringMessage;
+import static cc.blynk.server.core.model.auth.ChannelIndex.key;
+import static cc.blynk.server.core.protocol.enums.Command.DEVICE_OFFLINE;
 import static cc.blynk.server.internal.StateHolderUtil.getHardState;
-import static cc.blynk.server.internal.StateHolderUtil.isSameDash;
-import static cc.blynk.server.internal.StateHolderUtil.isSameDashAndDeviceId;
+import static cc.blynk.utils.StringUtils.BODY_SEPARATOR;
 import static cc.blynk.utils.StringUtils.DEVICE_SEPARATOR;
 import static cc.blynk.utils.StringUtils.prependDashIdAndDeviceId;
 
@@ -29,32 +32,70 @@ import static cc.blynk.utils.StringUtils.prependDashIdAndDeviceId;
  * Created on 2/1/2015.
  * <p>
  * DefaultChannelGroup.java too complicated. so doing in simple way for now.
+ * Channels are indexed by dash id and dash id + device id on add/remove,
+ * so sending to the dash/device doesn't iterate over all channels of the user.
  */
 public class Session {
 
     private static final Logger log = LogManager.getLogger(Session.class);
 
-    public final EventLoop initialEventLoop;
+    //key for main app channels, as they receive messages for all dashes. dash ids are ints, so no collision
+    private static final long ALL_DASHES = Long.MIN_VALUE;
+
+    //all channels of the user are served by this loop, so user state is not shared between threads
+    private volatile EventLoop eventLoop;
     public final Set<Channel> appChannels = new ConcurrentSet<>();
     public final Set<Channel> hardwareChannels = new ConcurrentSet<>();
+    public final UserQuota quota;
+
+    private final ChannelIndex appsByDash = new ChannelIndex();
+    private final ChannelIndex hardByDash = new ChannelIndex();
+    private final ChannelIndex hardByDevice = new ChannelIndex();
+
+    //channels that are bound to the event loop, but not added yet (re-registration in progress). guarded by this
+    private final List<Channel> pendingChannels = new ArrayList<>();
 
     private final ChannelFutureListener appRemover = future -> removeAppChannel(future.channel());
     private final ChannelFutureListener hardRemover = future -> removeHardChannel(future.channel());
 
     public Session(EventLoop initialEventLoop) {
-        this.initialEventLoop = initialEventLoop;
+        this(initialEventLoop, new UserQuota(TokenBucket.UNLIMITED));
     }
 
-    private static int getRequestRate(Set<Channel> channels) {
-        double sum = 0;
-        for (Channel c : channels) {
-            BaseSimpleChannelInboundHandler handler = c.pipeline().get(BaseSimpleChannelInboundHandler.class);
-            if (handler != null) {
-                InstanceLoadMeter loadMeter = handler.getQuotaMeter();
-                sum += loadMeter.getOneMinuteRateNoTick();
-            }
+    public Session(EventLoop initialEventLoop, UserQuota quota) {
+        this.eventLoop = initialEventLoop;
+        this.quota = quota;
+    }
+
+    public EventLoop getEventLoop() {
+        return eventLoop;
+    }
+
+    /**
+     * Binds logging in channel to the session event loop.
+     * Session outlives its channels, so when user has no other channels (for example, device reconnect)
+     * session is moved to the event loop of the channel instead of moving the channel.
+     *
+     * @return true if channel is already served by session event loop,
+     *         false if channel has to be re-registered on {@link #getEventLoop()}
+     */
+    public synchronized boolean bindEventLoop(Channel channel) {
+        pendingChannels.removeIf(pending -> !pending.isActive());
+        EventLoop channelLoop = channel.eventLoop();
+        if (eventLoop != channelLoop
+                && appChannels.isEmpty() && hardwareChannels.isEmpty() && pendingChannels.isEmpty()) {
+            eventLoop = channelLoop;
         }
-        return (int) sum;
+        pendingChannels.add(channel);
+        return eventLoop == channelLoop;
+    }
+
+    /**
+     * Called when bound channel is added to the session or, for short living channels
+     * that are never added (http), when request is processed.
+     */
+    public synchronized void bindCompleted(Channel channel) {
+        pendingChannels.remove(channel);
     }
 
     public static boolean needSync(Channel channel, String sharedToken) {
@@ -62,71 +103,119 @@ public class Session {
         return appHandler != null && appHandler.getState().contains(sharedToken);
     }
 
+    /**
+     * Adds main app channel, that receives messages for all dashes.
+     */
     public void addAppChannel(Channel appChannel) {
+        addAppChannel(appChannel, ALL_DASHES);
+    }
+
+    /**
+     * Adds shared app channel, that receives messages only for the shared dash.
+     */
+    public void addSharedAppChannel(Channel appChannel, int dashId) {
+        addAppChannel(appChannel, dashId);
+    }
+
+    private void addAppChannel(Channel appChannel, long key) {
         if (appChannels.add(appChannel)) {
+            bindCompleted(appChannel);
+            appsByDash.add(key, appChannel);
             appChannel.closeFuture().addListener(appRemover);
         }
     }
 
     public void removeAppChannel(Channel appChannel) {
         if (appChannels.remove(appChannel)) {
+            appsByDash.remove(appChannel);
             appChannel.closeFuture().removeListener(appRemover);
         }
     }
 
     public void addHardChannel(Channel hardChannel) {
         if (hardwareChannels.add(hardChannel)) {
+            bindCompleted(hardChannel);
+            HardwareStateHolder state = getHardState(hardChannel);
+            if (state != null) {
+                hardByDash.add(state.dash.id, hardChannel);
+                hardByDevice.add(key(state.dash.id, state.device.id), hardChannel);
+            }
             hardChannel.closeFuture().addListener(hardRemover);
         }
     }
 
     public void removeHardChannel(Channel hardChannel) {
         if (hardwareChannels.remove(hardChannel)) {
-            hardChannel.closeFuture().removeListener(hardRemover);
-        }
-    }
-
-    private Set<Channel> filter(int activeDashId, int[] deviceIds) {
-        Set<Channel> targetChannels = new HashSet<>();
-        for (Channel channel : hardwareChannels) {
-            HardwareStateHolder hardwareState = getHardState(channel);
-            if (hardwareState != null && hardwareState.dash.id == activeDashId
-                    && (deviceIds.length == 0 || ArrayUtil.contains(deviceIds, hardwareState.device.id))) {
-                targetChannels.add(channel);
-            }
-        }
-        return targetChannels;
-    }
-
-    private Set<Channel> filter(int activeDashId, int deviceId) {
-        Set<Channel> targetChannels = new HashSet<>();
-        for (Channel channel : hardwareChannels) {
-            if (isSameDashAndDeviceId(channel, activeDashId, deviceId)) {
-                targetChannels.add(channel);
+            HardwareStateHolder state = getHardState(hardChannel);
+            if (state == null) {
+                hardByDash.remove(hardChannel);
+                hardByDevice.remove(hardChannel);
+            } else {
+                hardByDash.remove(state.dash.id, hardChannel);
+                hardByDevice.remove(key(state.dash.id, state.device.id), hardChannel);
             }
+            hardChannel.closeFuture().removeListener(hardRemover);
         }
-        return targetChannels;
     }
 
     public boolean sendMessageToHardware(int activeDashId, short cmd, int msgId, String body, int deviceId) {
-        return hardwareChannels.size() == 0 || sendMessageToHardware(filter(activeDashId, deviceId), cmd, msgId, body);
+        return sendMessageToHardware(hardByDevice.get(key(activeDashId, deviceId)), cmd, msgId, body);
     }
 
     public boolean sendMessageToHardware(int activeDashId, short cmd, int msgId, String body, int... deviceIds) {
-        return hardwareChannels.size() == 0 || sendMessageToHardware(filter(activeDashId, deviceIds), cmd, msgId, body);
+        if (deviceIds.length == 0) {
+            return sendMessageToHardware(hardByDash.get(activeDashId), cmd, msgId, body);
+        }
+        if (deviceIds.length == 1) {
+            return sendMessageToHardware(activeDashId, cmd, msgId, body, deviceIds[0]);
+        }
+
+        BroadcastEncoder broadcast = null;
+        try {
+            for (int deviceId : deviceIds) {
+                Channel[] targetChannels = hardByDevice.get(key(activeDashId, deviceId));
+                if (targetChannels.length > 0) {
+                    if (broadcast == null) {
+                        broadcast = new BroadcastEncoder(cmd, msgId, body);
+                    }
+                    write(broadcast, targetChannels);
+                }
+            }
+        } finally {
+            if (broadcast != null) {
+                broadcast.release();
+            }
+        }
+        return broadcast == null;
     }
 
     public boolean sendMessageToHardware(short cmd, int msgId, String body) {
-        return sendMessageToHardware(hardwareChannels, cmd, msgId, body);
+        if (hardwareChannels.size() == 0) {
+            return true; // -> no active hardware
+        }
+
+        BroadcastEncoder broadcast = new BroadcastEncoder(cmd, msgId, body);
+        try {
+            for (Channel channel : hardwareChannels) {
+                write(broadcast, channel);
+            }
+        } finally {
+            broadcast.release();
+        }
+        return false;
     }
 
-    private boolean sendMessageToHardware(Set<Channel> targetChannels, short cmd, int msgId, String body) {
-        int channelsNum = targetChannels.size();
-        if (channelsNum == 0) {
+    private static boolean sendMessageToHardware(Channel[] targetChannels, short cmd, int msgId, String body) {
+        if (targetChannels.length == 0) {
             return true; // -> no active hardware
         }
 
-        send(targetChannels, cmd, msgId, body);
+        BroadcastEncoder broadcast = new BroadcastEncoder(cmd, msgId, body);
+        try {
+            write(broadcast, targetChannels);
+        } finally {
+            broadcast.release();
+        }
 
         return false; // -> there is active hardware
     }
@@ -136,21 +225,11 @@ public class Session {
     }
 
     public boolean isHardwareConnected(int dashId, int deviceId) {
-        for (Channel channel : hardwareChannels) {
-            if (isSameDashAndDeviceId(channel, dashId, deviceId)) {
-                return true;
-            }
-        }
-        return false;
+        return hardByDevice.get(key(dashId, deviceId)).length > 0;
     }
 
     public boolean isHardwareConnected(int dashId) {
-        for (Channel channel : hardwareChannels) {
-            if (isSameDash(channel, dashId)) {
-                return true;
-            }
-        }
-        return false;
+        return hardByDash.get(dashId).length > 0;
     }
 
     public void sendOfflineMessageToApps(int dashId, int deviceId) {
@@ -158,8 +237,15 @@ public class Session {
         if (targetsNum > 0) {
             log.trace("Sending device offline message.");
 
-            StringMessage deviceOfflineMessage = deviceOffline(dashId, deviceId);
-            sendMessageToMultipleReceivers(appChannels, deviceOfflineMessage);
+            BroadcastEncoder broadcast = new BroadcastEncoder(DEVICE_OFFLINE, 0,
+                    String.valueOf(dashId) + DEVICE_SEPARATOR + deviceId);
+            try {
+                for (Channel channel : appChannels) {
+                    write(broadcast, channel);
+                }
+            } finally {
+                broadcast.release();
+            }
         }
     }
 
@@ -177,49 +263,105 @@ public class Session {
         }
     }
 
-    private void sendToApps(short cmd, int msgId, int dashId, String finalBody) {
-        Set<Channel> targetChannels = filterByDash(dashId);
-
-        int targetsNum = targetChannels.size();
-        if (targetsNum > 0) {
-            send(targetChannels, cmd, msgId, finalBody);
+    /**
+     * Same as {@link #sendToApps(short, int, int, int, String)}, but body is taken from the buffer
+     * as is, so no string is created for it. Frames sent to the apps keep retained duplicate
+     * of the buffer, so body is not copied either. Buffer indexes are not changed.
+     */
+    public void sendToApps(short cmd, int msgId, int dashId, int deviceId, ByteBuf body) {
+        if (isAppConnected()) {
+            Channel[] mainAppChannels = appsByDash.get(ALL_DASHES);
+            Channel[] sharedAppChannels = appsByDash.get(dashId);
+            if (mainAppChannels.length > 0 || sharedAppChannels.length > 0) {
+                byte[] prefix = ("" + dashId + DEVICE_SEPARATOR + deviceId + BODY_SEPARATOR)
+                        .getBytes(StandardCharsets.US_ASCII);
+                send(mainAppChannels, sharedAppChannels, new BroadcastEncoder(cmd, msgId, prefix, body));
+            }
         }
     }
 
-    private Set<Channel> filterByDash(int dashId) {
-        Set<Channel> targetChannels = new HashSet<>();
-        for (Channel channel : appChannels) {
-            if (isSameDash(channel, dashId)) {
-                targetChannels.add(channel);
+    /**
+     * Sends same body for every device to the apps. Used by timers with multi device target,
+     * so app channels are selected only once.
+     */
+    public void sendToApps(short cmd, int msgId, int dashId, int[] deviceIds, String body) {
+        if (isAppConnected()) {
+            Channel[] mainAppChannels = appsByDash.get(ALL_DASHES);
+            Channel[] sharedAppChannels = appsByDash.get(dashId);
+            if (mainAppChannels.length > 0 || sharedAppChannels.length > 0) {
+                for (int deviceId : deviceIds) {
+                    send(mainAppChannels, sharedAppChannels, cmd, msgId,
+                            prependDashIdAndDeviceId(dashId, deviceId, body));
+                }
             }
         }
-        return targetChannels;
     }
 
-    private static void sendMessageToMultipleReceivers(Set<Channel> targets, StringMessage msg) {
+    private void sendToApps(short cmd, int msgId, int dashId, String finalBody) {
+        Channel[] mainAppChannels = appsByDash.get(ALL_DASHES);
+        Channel[] sharedAppChannels = appsByDash.get(dashId);
+        if (mainAppChannels.length > 0 || sharedAppChannels.length > 0) {
+            send(mainAppChannels, sharedAppChannels, cmd, msgId, finalBody);
+        }
+    }
+
+    /**
+     * Frame is encoded only once for all targets, every channel gets retained duplicate of it.
+     */
+    private static void send(Channel[] mainAppChannels, Channel[] sharedAppChannels,
+                             short cmd, int msgId, String body) {
+        send(mainAppChannels, sharedAppChannels, new BroadcastEncoder(cmd, msgId, body));
+    }
+
+    private static void send(Channel[] mainAppChannels, Channel[] sharedAppChannels, BroadcastEncoder broadcast) {
+        try {
+            write(broadcast, mainAppChannels);
+            write(broadcast, sharedAppChannels);
+        } finally {
+            broadcast.release();
+        }
+    }
+
+    private static void write(BroadcastEncoder broadcast, Channel[] targets) {
         for (Channel channel : targets) {
-            if (channel.isWritable()) {
-                channel.writeAndFlush(msg, channel.voidPromise());
-            }
+            write(broadcast, channel);
         }
     }
 
-    private static void send(Set<Channel> targets, short cmd, int msgId, String body) {
-        StringMessage msg = makeUTF8StringMessage(cmd, msgId, body);
-        sendMessageToMultipleReceivers(targets, msg);
+    //not writable channel is handled by the pipeline, see OutboundConflationHandler
+    private static void write(BroadcastEncoder broadcast, Channel channel) {
+        broadcast.writeAndFlush(channel);
     }
 
-    public void sendToSharedApps(Channel sendingChannel, String sharedToken, short cmd, int msgId, String body) {
-        Set<Channel> targetChannels = new HashSet<>();
-        for (Channel channel : appChannels) {
-            if (channel != sendingChannel && needSync(channel, sharedToken)) {
-                targetChannels.add(channel);
+    /**
+     * Stops reading from the hardware channel while one of the app channels can't keep up with the updates.
+     */
+    public void pauseIfAppsSaturated(Channel hardChannel) {
+        for (Channel appChannel : appChannels) {
+            if (!appChannel.isWritable()) {
+                OutboundConflationHandler handler = appChannel.pipeline().get(OutboundConflationHandler.class);
+                if (handler != null && handler.pauseIfSaturated(hardChannel)) {
+                    return;
+                }
             }
         }
+    }
 
-        int channelsNum = targetChannels.size();
-        if (channelsNum > 0) {
-            send(targetChannels, cmd, msgId, body);
+    public void sendToSharedApps(Channel sendingChannel, String sharedToken, short cmd, int msgId, String body) {
+        BroadcastEncoder broadcast = null;
+        try {
+            for (Channel channel : appChannels) {
+                if (channel != sendingChannel && needSync(channel, sharedToken)) {
+                    if (broadcast == null) {
+                        broadcast = new BroadcastEncoder(cmd, msgId, body);
+                    }
+                    write(broadcast, channel);
+                }
+            }
+        } finally {
+            if (broadcast != null) {
+                broadcast.release();
+            }
         }
     }
 
@@ -228,26 +370,22 @@ public class Session {
     }
 
     public int getAppRequestRate() {
-        return getRequestRate(appChannels);
+        return quota.appRate.getRate();
     }
 
     public int getHardRequestRate() {
-        return getRequestRate(hardwareChannels);
+        return quota.hardRate.getRate();
     }
 
     public void closeHardwareChannelByDeviceId(int dashId, int deviceId) {
-        for (Channel channel : hardwareChannels) {
-            if (isSameDashAndDeviceId(channel, dashId, deviceId)) {
-                channel.close();
-            }
+        for (Channel channel : hardByDevice.get(key(dashId, deviceId))) {
+            channel.close();
         }
     }
 
     public void closeHardwareChannelByDashId(int dashId) {
-        for (Channel channel : hardwareChannels) {
-            if (isSameDash(channel, dashId)) {
-                channel.close();
-            }
+        for (Channel channel : hardByDash.get(dashId)) {
+            channel.close();
         }
     }
 
@@ -7,6 +7,9 @@ import cc.blynk.server.core.processors.NotificationBase;
 import cc.blynk.utils.AppNameUtil;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
 /**
  * User: ddumanskiy
  * Date: 8/11/13
@@ -33,16 +36,26 @@ public class User {
     public String lastLoggedIP;
     public long lastLoggedAt;
 
-    public Profile profile;
+    public volatile Profile profile;
 
     public boolean isFacebookUser;
     public boolean isSuperAdmin;
 
     public volatile int energy;
 
+    //incremented on every user file write. pins log records of other generations are stale, see FileManager
+    public long pinsLogGeneration;
+
     public transient int emailMessages;
     private transient long emailSentTs;
 
+    //compressed profile of the cold (idle) user, null when profile is in memory. see evict()
+    private transient volatile byte[] coldProfile;
+    //max dashboards update time of the cold user, as its dashboards are not in memory
+    private transient volatile long coldUpdatedAt;
+    //last time profile was requested via hydrate()
+    private transient volatile long lastAccessTs = System.currentTimeMillis();
+
     //used just for tests and serialization
     public User() {
         this.lastModifiedTs = System.currentTimeMillis();
@@ -91,6 +104,85 @@ public class User {
         return email + "-" + appName;
     }
 
+    //cold user is always serialized with the full profile
+    @JsonProperty("profile")
+    private Profile profileForJson() {
+        return readProfile();
+    }
+
+    public boolean isCold() {
+        return coldProfile != null;
+    }
+
+    public long getColdUpdatedAt() {
+        return coldUpdatedAt;
+    }
+
+    /**
+     * Loads profile of the cold user back to memory and marks user as accessed.
+     * Has to be called before profile access by any path that is not bound to the active user session.
+     *
+     * @return - true if profile was cold
+     */
+    public synchronized boolean hydrate() {
+        this.lastAccessTs = System.currentTimeMillis();
+        byte[] data = coldProfile;
+        if (data == null) {
+            return false;
+        }
+        this.profile = decompress(data);
+        this.coldProfile = null;
+        return true;
+    }
+
+    /**
+     * @return - profile for read only access. For cold user it is decompressed copy that is not kept in memory.
+     */
+    public synchronized Profile readProfile() {
+        byte[] data = coldProfile;
+        return data == null ? profile : decompress(data);
+    }
+
+    private Profile decompress(byte[] data) {
+        try {
+            return JsonParser.parseProfileFromCompressedBytes(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading profile of " + email + "-" + appName, e);
+        }
+    }
+
+    /**
+     * User wasn't accessed since given time and has no unsaved pin values.
+     * Should be checked under user lock together with {@link #evict()}.
+     */
+    public synchronized boolean isEvictable(long idleBefore) {
+        return coldProfile == null && lastAccessTs < idleBefore && !hasDirtyPins();
+    }
+
+    /**
+     * Replaces profile with compressed bytes, only apps are left in memory.
+     * Caller has to hold user lock and release all references to the profile objects before.
+     *
+     * @return - true if profile was moved out of memory
+     */
+    public synchronized boolean evict() {
+        byte[] data = JsonParser.gzipProfile(profile);
+        if (data == null) {
+            return false;
+        }
+        long updatedAt = 0;
+        for (DashBoard dashBoard : profile.dashBoards) {
+            updatedAt = Math.max(updatedAt, Math.max(dashBoard.updatedAt, dashBoard.pinsUpdatedAt));
+        }
+        Profile coldPlaceholder = new Profile();
+        coldPlaceholder.apps = profile.apps;
+
+        this.coldUpdatedAt = updatedAt;
+        this.coldProfile = data;
+        this.profile = coldPlaceholder;
+        return true;
+    }
+
     public boolean notEnoughEnergy(int price) {
         return price > energy && AppNameUtil.BLYNK.equals(appName);
     }
@@ -121,11 +213,19 @@ public class User {
         }
     }
 
+    //profile or pin values were changed
     public boolean isUpdated(long lastStart) {
+        return isProfileUpdated(lastStart) || isPinsUpdated(lastStart);
+    }
+
+    public boolean isProfileUpdated(long lastStart) {
         return (lastStart <= lastModifiedTs) || isDashUpdated(lastStart);
     }
 
     private boolean isDashUpdated(long lastStart) {
+        if (isCold()) {
+            return lastStart <= coldUpdatedAt;
+        }
         for (DashBoard dashBoard : profile.dashBoards) {
             if (lastStart <= dashBoard.updatedAt) {
                 return true;
@@ -134,6 +234,24 @@ public class User {
         return false;
     }
 
+    private boolean isPinsUpdated(long lastStart) {
+        for (DashBoard dashBoard : profile.dashBoards) {
+            if (lastStart <= dashBoard.pinsUpdatedAt) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean hasDirtyPins() {
+        for (DashBoard dashBoard : profile.dashBoards) {
+            if (dashBoard.hasDirtyPins()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
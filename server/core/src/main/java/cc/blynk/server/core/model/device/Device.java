@@ -2,6 +2,7 @@ package cc.blynk.server.core.model.device;
 
 import cc.blynk.server.core.model.serialization.JsonParser;
 import cc.blynk.server.core.model.widgets.Target;
+import cc.blynk.server.core.reporting.SeriesIdCache;
 
 /**
  * The Blynk Project.
@@ -34,6 +35,9 @@ public class Device implements Target {
 
     public volatile String iconName;
 
+    //not serialized, series ids of the pins this device reports
+    public final transient SeriesIdCache seriesIds = new SeriesIdCache();
+
     public boolean isNotValid() {
         return boardType == null || boardType.isEmpty() || boardType.length() > 50
                 || (name != null && name.length() > 50);
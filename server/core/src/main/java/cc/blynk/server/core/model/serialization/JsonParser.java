@@ -24,6 +24,7 @@ import com.fasterxml.jackson.databind.ObjectWriter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
@@ -33,6 +34,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.StringJoiner;
 import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * User: ddumanskiy
@@ -166,6 +168,10 @@ public final class JsonParser {
         userWriter.writeValue(file, user);
     }
 
+    public static byte[] writeUserAsBytes(User user) throws IOException {
+        return userWriter.writeValueAsBytes(user);
+    }
+
     private static String toJson(ObjectWriter writer, Object o) {
         try {
             return writer.writeValueAsString(o);
@@ -208,6 +214,10 @@ public final class JsonParser {
         }
     }
 
+    public static User parseUserFromStream(InputStream is) throws IOException {
+        return userReader.readValue(is);
+    }
+
     public static User parseUserFromFile(File userFile) throws IOException {
         return userReader.readValue(userFile);
     }
@@ -220,6 +230,12 @@ public final class JsonParser {
         return profileReader.readValue(profileString);
     }
 
+    public static Profile parseProfileFromCompressedBytes(byte[] data) throws IOException {
+        try (InputStream is = new InflaterInputStream(new ByteArrayInputStream(data))) {
+            return profileReader.readValue(is);
+        }
+    }
+
     public static FacebookTokenResponse parseFacebookTokenResponse(String response) throws IOException {
         return facebookTokenReader.readValue(response);
     }
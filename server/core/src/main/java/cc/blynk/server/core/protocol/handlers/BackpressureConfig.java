@@ -0,0 +1,42 @@
+package cc.blynk.server.core.protocol.handlers;
+
+import cc.blynk.server.core.stats.GlobalStats;
+import cc.blynk.utils.properties.ServerProperties;
+import io.netty.channel.Channel;
+import io.netty.channel.WriteBufferWaterMark;
+
+/**
+ * Per server outbound buffer watermarks and {@link OutboundConflationHandler} settings.
+ * Read from "{prefix}.write.buffer.low.watermark", "{prefix}.write.buffer.high.watermark" and
+ * "{prefix}.conflation.max.queued.messages" properties.
+ * 0 max queued messages disables conflation, messages are dropped when channel is not writable.
+ */
+public final class BackpressureConfig {
+
+    private static final int DEFAULT_MAX_QUEUED_MESSAGES = 1000;
+
+    public final WriteBufferWaterMark waterMark;
+    public final int maxQueuedMessages;
+
+    public BackpressureConfig(ServerProperties props, String prefix) {
+        this.waterMark = new WriteBufferWaterMark(
+                props.getIntProperty(prefix + ".write.buffer.low.watermark", WriteBufferWaterMark.DEFAULT.low()),
+                props.getIntProperty(prefix + ".write.buffer.high.watermark", WriteBufferWaterMark.DEFAULT.high())
+        );
+        this.maxQueuedMessages = props.getIntProperty(prefix + ".conflation.max.queued.messages",
+                DEFAULT_MAX_QUEUED_MESSAGES);
+    }
+
+    public void apply(Channel channel) {
+        channel.config().setWriteBufferWaterMark(waterMark);
+    }
+
+    public boolean isConflationEnabled() {
+        return maxQueuedMessages > 0;
+    }
+
+    public OutboundConflationHandler newHandler(GlobalStats stats) {
+        return new OutboundConflationHandler(stats, maxQueuedMessages);
+    }
+
+}
@@ -0,0 +1,31 @@
+package cc.blynk.server.core.protocol.handlers;
+
+import cc.blynk.server.core.stats.GlobalStats;
+import cc.blynk.utils.properties.ServerProperties;
+
+/**
+ * Per server settings of the {@link FlushCoalescingHandler}.
+ * Read from "{prefix}.flush.max.pending.bytes" and "{prefix}.flush.max.delay.ms" properties.
+ * 0 max pending bytes disables coalescing for the server.
+ */
+public final class FlushCoalescingConfig {
+
+    private static final int DEFAULT_MAX_PENDING_BYTES = 8 * 1024;
+
+    public final int maxPendingBytes;
+    public final long maxDelayMillis;
+
+    public FlushCoalescingConfig(ServerProperties props, String prefix) {
+        this.maxPendingBytes = props.getIntProperty(prefix + ".flush.max.pending.bytes", DEFAULT_MAX_PENDING_BYTES);
+        this.maxDelayMillis = props.getLongProperty(prefix + ".flush.max.delay.ms", 0);
+    }
+
+    public boolean isEnabled() {
+        return maxPendingBytes > 0;
+    }
+
+    public FlushCoalescingHandler newHandler(GlobalStats stats) {
+        return new FlushCoalescingHandler(stats, maxPendingBytes, maxDelayMillis);
+    }
+
+}
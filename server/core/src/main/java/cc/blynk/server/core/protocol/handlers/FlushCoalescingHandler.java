@@ -0,0 +1,156 @@
+package cc.blynk.server.core.protocol.handlers;
+
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Almost every handler responds with writeAndFlush(), so every small response is separate syscall.
+ * This handler defers flushes till the end of the read batch (channelReadComplete) or,
+ * for writes that are not triggered by read (for example, hardware message forwarded to app channel),
+ * till the end of the current event loop task. So many responses are written to the socket at once.
+ *
+ * Pending data is flushed right away when it exceeds maxPendingBytes. When maxDelayMillis is set
+ * flush outside of read batch is scheduled with that delay instead of the end of the current task.
+ *
+ * Should be first outbound handler after ssl (if any), so it sees encoded bytes.
+ */
+public final class FlushCoalescingHandler extends ChannelDuplexHandler {
+
+    private final GlobalStats stats;
+    private final int maxPendingBytes;
+    private final long maxDelayMillis;
+
+    private ChannelHandlerContext ctx;
+    private Runnable flushTask;
+
+    private boolean readInProgress;
+    private int pendingFlushes;
+    private int pendingBytes;
+    private boolean flushTaskSubmitted;
+    private ScheduledFuture<?> scheduledFlush;
+
+    public FlushCoalescingHandler(GlobalStats stats, int maxPendingBytes, long maxDelayMillis) {
+        this.stats = stats;
+        this.maxPendingBytes = maxPendingBytes;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+        this.flushTask = () -> {
+            flushTaskSubmitted = false;
+            scheduledFlush = null;
+            flushIfNeeded(this.ctx);
+        };
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBuf) {
+            pendingBytes += ((ByteBuf) msg).readableBytes();
+        } else if (msg instanceof ByteBufHolder) {
+            pendingBytes += ((ByteBufHolder) msg).content().readableBytes();
+        }
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        pendingFlushes++;
+        if (pendingBytes >= maxPendingBytes) {
+            flushNow(ctx);
+        } else if (!readInProgress) {
+            scheduleFlush(ctx);
+        }
+        //otherwise will be flushed on channelReadComplete
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        readInProgress = true;
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        readInProgress = false;
+        flushIfNeeded(ctx);
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (!ctx.channel().isWritable()) {
+            //outbound buffer is full, let it drain
+            flushIfNeeded(ctx);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        flushIfNeeded(ctx);
+        ctx.fireExceptionCaught(cause);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushIfNeeded(ctx);
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushIfNeeded(ctx);
+        ctx.close(promise);
+    }
+
+    @Override
+    public void deregister(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        //channel may be moved to another event loop, so nothing should be left for the current one
+        flushIfNeeded(ctx);
+        ctx.deregister(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        flushIfNeeded(ctx);
+    }
+
+    private void scheduleFlush(ChannelHandlerContext ctx) {
+        if (maxDelayMillis > 0) {
+            if (scheduledFlush == null) {
+                scheduledFlush = ctx.channel().eventLoop().schedule(flushTask, maxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        } else if (!flushTaskSubmitted) {
+            flushTaskSubmitted = true;
+            ctx.channel().eventLoop().execute(flushTask);
+        }
+    }
+
+    private void flushIfNeeded(ChannelHandlerContext ctx) {
+        if (pendingFlushes > 0) {
+            flushNow(ctx);
+        }
+    }
+
+    private void flushNow(ChannelHandlerContext ctx) {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        stats.markFlush(pendingFlushes);
+        pendingFlushes = 0;
+        pendingBytes = 0;
+        ctx.flush();
+    }
+
+}
@@ -0,0 +1,197 @@
+package cc.blynk.server.core.protocol.handlers;
+
+import cc.blynk.server.core.protocol.model.messages.EncodedMessage;
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+
+/**
+ * Per channel outbound queue for the messages broadcasted via session (see {@link EncodedMessage}).
+ * When channel is not writable (outbound buffer is above high watermark) such messages are queued
+ * instead of being dropped. Pin updates are conflated - only latest value of the pin is kept,
+ * so slow client receives the actual state once it catches up.
+ *
+ * When queue is full channel is considered saturated: new messages are dropped and hardware channels
+ * that produce updates for it are paused (autoRead off) till the queue is drained.
+ *
+ * Should be placed right after the message encoder, so it sees not encoded messages.
+ */
+public final class OutboundConflationHandler extends ChannelDuplexHandler {
+
+    private final GlobalStats stats;
+    private final int maxQueuedMessages;
+
+    //pin key or the message itself for not conflatable messages -> latest message
+    private final Map<Object, EncodedMessage> queue = new LinkedHashMap<>();
+    private final List<Channel> pausedSources = new ArrayList<>();
+
+    private ChannelHandlerContext ctx;
+    private volatile boolean saturated;
+
+    public OutboundConflationHandler(GlobalStats stats, int maxQueuedMessages) {
+        this.stats = stats;
+        this.maxQueuedMessages = maxQueuedMessages;
+    }
+
+    /**
+     * Returns key of the pin for pin write message. "vw 1 100" -> "vw 1",
+     * "1-0 vw 1 100" -> "1-0 vw 1". null for other messages.
+     */
+    static String conflationKey(EncodedMessage message) {
+        if (message.command != HARDWARE) {
+            return null;
+        }
+        ByteBuf frame = message.frame;
+        int end = frame.writerIndex();
+        int start = end - message.length;
+
+        int opStart = start;
+        int opEnd = frame.indexOf(opStart, end, (byte) 0);
+        if (opEnd == -1) {
+            return null;
+        }
+        if (opEnd - opStart != 2) {
+            //app messages are prefixed with dashId-deviceId
+            opStart = opEnd + 1;
+            opEnd = frame.indexOf(opStart, end, (byte) 0);
+            if (opEnd - opStart != 2) {
+                return null;
+            }
+        }
+        if (frame.getByte(opStart + 1) != 'w') {
+            return null;
+        }
+        int pinEnd = frame.indexOf(opEnd + 1, end, (byte) 0);
+        if (pinEnd == -1) {
+            return null;
+        }
+        return frame.toString(start, pinEnd - start, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof EncodedMessage && ctx.channel().isActive()
+                && (!queue.isEmpty() || !ctx.channel().isWritable())) {
+            offer((EncodedMessage) msg);
+            //broadcasts are always written with void promise, nobody waits for them
+            promise.trySuccess();
+        } else {
+            ctx.write(msg, promise);
+        }
+    }
+
+    private void offer(EncodedMessage message) {
+        String key = conflationKey(message);
+        if (key != null) {
+            EncodedMessage previous = queue.get(key);
+            if (previous != null) {
+                queue.put(key, message);
+                previous.release();
+                stats.conflatedMessages.increment();
+                return;
+            }
+        }
+        if (queue.size() >= maxQueuedMessages) {
+            saturated = true;
+            message.release();
+            stats.droppedMessages.increment();
+            return;
+        }
+        queue.put(key == null ? message : key, message);
+    }
+
+    /**
+     * Pauses reading from the source channel if this channel can't keep up with the updates.
+     * Source is resumed once the queue is drained or this channel is closed.
+     *
+     * @return true if channel is saturated
+     */
+    public boolean pauseIfSaturated(Channel source) {
+        if (!saturated) {
+            return false;
+        }
+        if (ctx.executor().inEventLoop()) {
+            pause(source);
+        } else {
+            ctx.executor().execute(() -> pause(source));
+        }
+        return true;
+    }
+
+    private void pause(Channel source) {
+        if (saturated && !pausedSources.contains(source)) {
+            pausedSources.add(source);
+            source.config().setAutoRead(false);
+            stats.pausedReads.increment();
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            drain(ctx);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    private void drain(ChannelHandlerContext ctx) {
+        if (queue.isEmpty()) {
+            return;
+        }
+        Iterator<EncodedMessage> iterator = queue.values().iterator();
+        while (iterator.hasNext() && ctx.channel().isWritable()) {
+            EncodedMessage message = iterator.next();
+            iterator.remove();
+            ctx.write(message, ctx.voidPromise());
+        }
+        ctx.flush();
+        if (queue.isEmpty()) {
+            resume();
+        }
+    }
+
+    private void resume() {
+        saturated = false;
+        for (Channel source : pausedSources) {
+            source.config().setAutoRead(true);
+        }
+        pausedSources.clear();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        clear();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        clear();
+    }
+
+    private void clear() {
+        for (EncodedMessage message : queue.values()) {
+            message.release();
+        }
+        queue.clear();
+        resume();
+    }
+
+}
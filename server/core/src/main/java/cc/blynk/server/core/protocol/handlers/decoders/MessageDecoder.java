@@ -3,6 +3,7 @@ package cc.blynk.server.core.protocol.handlers.decoders;
 import cc.blynk.server.core.protocol.enums.Command;
 import cc.blynk.server.core.protocol.model.messages.MessageBase;
 import cc.blynk.server.core.protocol.model.messages.ResponseMessage;
+import cc.blynk.server.core.protocol.model.messages.common.HardwareWriteMessage;
 import cc.blynk.server.core.stats.GlobalStats;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -17,6 +18,8 @@ import static cc.blynk.server.core.protocol.model.messages.MessageFactory.produc
 
 /**
  * Decodes input byte array into java message.
+ * Hardware pipelines may enable decoding of hardware write commands
+ * directly from the buffer, as they are the most of the hardware traffic.
  *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -27,9 +30,16 @@ public class MessageDecoder extends ByteToMessageDecoder {
     private static final Logger log = LogManager.getLogger(MessageDecoder.class);
 
     private final GlobalStats stats;
+    //hardware write commands are decoded without strings, see HardwareWriteMessage
+    private final boolean decodeHardwareWrites;
 
     public MessageDecoder(GlobalStats stats) {
+        this(stats, false);
+    }
+
+    public MessageDecoder(GlobalStats stats, boolean decodeHardwareWrites) {
         this.stats = stats;
+        this.decodeHardwareWrites = decodeHardwareWrites;
     }
 
     @Override
@@ -53,7 +63,14 @@ public class MessageDecoder extends ByteToMessageDecoder {
                 return;
             }
 
-            message = produce(messageId, command, (String) in.readCharSequence(codeOrLength, CharsetUtil.UTF_8));
+            message = null;
+            if (decodeHardwareWrites && command == Command.HARDWARE) {
+                message = HardwareWriteMessage.parse(messageId, in, codeOrLength);
+            }
+            if (message == null) {
+                message = produce(messageId, command,
+                        (String) in.readCharSequence(codeOrLength, CharsetUtil.UTF_8));
+            }
         }
 
         log.trace("Incoming {}", message);
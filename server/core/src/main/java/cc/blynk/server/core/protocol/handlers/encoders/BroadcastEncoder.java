@@ -0,0 +1,102 @@
+package cc.blynk.server.core.protocol.handlers.encoders;
+
+import cc.blynk.server.core.protocol.model.messages.EncodedMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes message that is sent to many channels only once.
+ * Frame is written into pooled direct buffer and every receiver gets retained duplicate of it,
+ * so body is not converted to bytes and copied for every channel.
+ * As app channels may use 4 bytes length ({@link AppMessageEncoder}), there are 2 frames at most,
+ * each created on first use.
+ * Body may end with the buffer (usually part of the received frame), in that case frame is composite
+ * of the header and retained duplicate of that buffer, so forwarded body is never copied.
+ *
+ * Encoder should be released after all writes are submitted.
+ */
+public final class BroadcastEncoder {
+
+    private final short command;
+    private final int msgId;
+    private final byte[] body;
+    //may be null
+    private final ByteBuf bodyTail;
+    private final int length;
+
+    private ByteBuf frame;
+    private ByteBuf appFrame;
+
+    public BroadcastEncoder(short command, int msgId, String body) {
+        this(command, msgId, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public BroadcastEncoder(short command, int msgId, byte[] body) {
+        this(command, msgId, body, null);
+    }
+
+    /**
+     * @param bodyTail - readable bytes of the buffer are sent right after the body,
+     *                   buffer indexes are not changed. Buffer should stay valid until encoder is released.
+     */
+    public BroadcastEncoder(short command, int msgId, byte[] body, ByteBuf bodyTail) {
+        this.command = command;
+        this.msgId = msgId;
+        this.body = body;
+        this.bodyTail = bodyTail;
+        this.length = body.length + (bodyTail == null ? 0 : bodyTail.readableBytes());
+    }
+
+    public void writeAndFlush(Channel channel) {
+        ByteBuf frame = channel.pipeline().get(AppMessageEncoder.class) == null ? frame() : appFrame();
+        channel.writeAndFlush(new EncodedMessage(msgId, command, length, frame.retainedDuplicate()),
+                channel.voidPromise());
+    }
+
+    private ByteBuf frame() {
+        ByteBuf frame = this.frame;
+        if (frame == null) {
+            frame = withTail(ByteBufAllocator.DEFAULT.directBuffer(5 + body.length)
+                    .writeByte(command)
+                    .writeShort(msgId)
+                    .writeShort(length)
+                    .writeBytes(body));
+            this.frame = frame;
+        }
+        return frame;
+    }
+
+    private ByteBuf appFrame() {
+        ByteBuf appFrame = this.appFrame;
+        if (appFrame == null) {
+            appFrame = withTail(ByteBufAllocator.DEFAULT.directBuffer(7 + body.length)
+                    .writeByte(command)
+                    .writeShort(msgId)
+                    .writeInt(length)
+                    .writeBytes(body));
+            this.appFrame = appFrame;
+        }
+        return appFrame;
+    }
+
+    private ByteBuf withTail(ByteBuf header) {
+        if (bodyTail == null) {
+            return header;
+        }
+        return ByteBufAllocator.DEFAULT.compositeDirectBuffer(2)
+                .addComponents(true, header, bodyTail.retainedDuplicate());
+    }
+
+    public void release() {
+        if (frame != null) {
+            frame.release();
+        }
+        if (appFrame != null) {
+            appFrame.release();
+        }
+    }
+
+}
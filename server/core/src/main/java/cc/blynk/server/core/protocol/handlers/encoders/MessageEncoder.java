@@ -1,10 +1,12 @@
 package cc.blynk.server.core.protocol.handlers.encoders;
 
 import cc.blynk.server.core.protocol.enums.Command;
+import cc.blynk.server.core.protocol.model.messages.EncodedMessage;
 import cc.blynk.server.core.protocol.model.messages.MessageBase;
 import cc.blynk.server.core.stats.GlobalStats;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.MessageToByteEncoder;
 
 /**
@@ -22,6 +24,27 @@ public class MessageEncoder extends MessageToByteEncoder<MessageBase> {
         this.stats = stats;
     }
 
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        //already encoded frame, shared with other channels, so passing as is
+        if (msg instanceof EncodedMessage) {
+            EncodedMessage message = (EncodedMessage) msg;
+            if (ctx.channel().isWritable()) {
+                stats.mark(message.command);
+                ctx.write(message.frame, promise);
+            } else {
+                //client can't keep up (or is already closed), see OutboundConflationHandler
+                message.release();
+                promise.trySuccess();
+                if (ctx.channel().isActive()) {
+                    stats.droppedMessages.increment();
+                }
+            }
+        } else {
+            super.write(ctx, msg, promise);
+        }
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, MessageBase message, ByteBuf out) throws Exception {
         out.writeByte(message.command);
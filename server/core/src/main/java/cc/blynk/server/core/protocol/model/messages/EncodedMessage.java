@@ -0,0 +1,66 @@
+package cc.blynk.server.core.protocol.model.messages;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.ReferenceCounted;
+
+/**
+ * Message that is already encoded into the frame (header + body).
+ * Encoders pass the frame to the channel as is, without copying.
+ * Usually frame is retained duplicate of the buffer shared between many receivers.
+ */
+public final class EncodedMessage extends MessageBase implements ReferenceCounted {
+
+    public final ByteBuf frame;
+
+    public EncodedMessage(int messageId, short command, int length, ByteBuf frame) {
+        super(messageId, command, length);
+        this.frame = frame;
+    }
+
+    @Override
+    public byte[] getBytes() {
+        int headerLength = frame.readableBytes() - length;
+        return ByteBufUtil.getBytes(frame, frame.readerIndex() + headerLength, length);
+    }
+
+    @Override
+    public int refCnt() {
+        return frame.refCnt();
+    }
+
+    @Override
+    public EncodedMessage retain() {
+        frame.retain();
+        return this;
+    }
+
+    @Override
+    public EncodedMessage retain(int increment) {
+        frame.retain(increment);
+        return this;
+    }
+
+    @Override
+    public EncodedMessage touch() {
+        frame.touch();
+        return this;
+    }
+
+    @Override
+    public EncodedMessage touch(Object hint) {
+        frame.touch(hint);
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return frame.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return frame.release(decrement);
+    }
+
+}
@@ -0,0 +1,177 @@
+package cc.blynk.server.core.protocol.model.messages.common;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCounted;
+
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static cc.blynk.utils.StringUtils.BODY_SEPARATOR;
+
+/**
+ * Hardware write command ("vw 1 100", "aw 1 100", "dw 1 1") decoded straight from the frame.
+ * Pin type and pin are parsed from the bytes, body is kept as retained slice of the frame.
+ * Value string is created on first use, body could be forwarded as bytes via {@link #content()}.
+ * Message holds reference to the frame, so it should be released after processing.
+ */
+public final class HardwareWriteMessage extends MessageBase implements ReferenceCounted {
+
+    //minimum command - "vw 1 1"
+    private static final int MIN_LENGTH = 6;
+
+    public final PinType pinType;
+    public final byte pin;
+
+    private final ByteBuf body;
+    private final int valueIndex;
+
+    private String value;
+    private String bodyString;
+
+    private HardwareWriteMessage(int messageId, int length, PinType pinType, byte pin,
+                                 ByteBuf body, int valueIndex) {
+        super(messageId, HARDWARE, length);
+        this.pinType = pinType;
+        this.pin = pin;
+        this.body = body;
+        this.valueIndex = valueIndex;
+    }
+
+    /**
+     * Parses body of the hardware command from the buffer.
+     * Buffer is not touched in case body is not a simple write command,
+     * such commands are handled as regular string messages.
+     *
+     * @return - message or null if body is not a simple write command
+     */
+    public static HardwareWriteMessage parse(int messageId, ByteBuf in, int length) {
+        if (length < MIN_LENGTH) {
+            return null;
+        }
+        int start = in.readerIndex();
+        if (in.getByte(start + 1) != 'w' || in.getByte(start + 2) != BODY_SEPARATOR) {
+            return null;
+        }
+        PinType pinType;
+        switch (in.getByte(start)) {
+            case 'v' :
+                pinType = PinType.VIRTUAL;
+                break;
+            case 'a' :
+                pinType = PinType.ANALOG;
+                break;
+            case 'd' :
+                pinType = PinType.DIGITAL;
+                break;
+            default :
+                return null;
+        }
+
+        int end = start + length;
+        int separatorIndex = start + 3;
+        int pin = 0;
+        for (; separatorIndex < end; separatorIndex++) {
+            byte b = in.getByte(separatorIndex);
+            if (b == BODY_SEPARATOR) {
+                break;
+            }
+            if (b < '0' || b > '9') {
+                return null;
+            }
+            pin = pin * 10 + (b - '0');
+            if (pin > Byte.MAX_VALUE) {
+                return null;
+            }
+        }
+        //no pin or no value
+        if (separatorIndex == start + 3 || separatorIndex >= end - 1) {
+            return null;
+        }
+
+        return new HardwareWriteMessage(messageId, length, pinType, (byte) pin,
+                in.readRetainedSlice(length), separatorIndex + 1 - start);
+    }
+
+    /**
+     * Value of the pin, created on first call.
+     */
+    public String value() {
+        String value = this.value;
+        if (value == null) {
+            value = body.toString(valueIndex, body.readableBytes() - valueIndex, CharsetUtil.UTF_8);
+            this.value = value;
+        }
+        return value;
+    }
+
+    /**
+     * Whole body of the command as slice of the frame. Should not be modified or released.
+     */
+    public ByteBuf content() {
+        return body;
+    }
+
+    /**
+     * Whole body of the command, created on first call.
+     */
+    public String body() {
+        String bodyString = this.bodyString;
+        if (bodyString == null) {
+            bodyString = body.toString(CharsetUtil.UTF_8);
+            this.bodyString = bodyString;
+        }
+        return bodyString;
+    }
+
+    @Override
+    public byte[] getBytes() {
+        return ByteBufUtil.getBytes(body);
+    }
+
+    @Override
+    public int refCnt() {
+        return body.refCnt();
+    }
+
+    @Override
+    public HardwareWriteMessage retain() {
+        body.retain();
+        return this;
+    }
+
+    @Override
+    public HardwareWriteMessage retain(int increment) {
+        body.retain(increment);
+        return this;
+    }
+
+    @Override
+    public HardwareWriteMessage touch() {
+        body.touch();
+        return this;
+    }
+
+    @Override
+    public HardwareWriteMessage touch(Object hint) {
+        body.touch(hint);
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return body.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return body.release(decrement);
+    }
+
+    @Override
+    public String toString() {
+        return "HardwareWriteMessage{" + super.toString() + ", body='" + body() + "'}";
+    }
+
+}
@@ -0,0 +1,62 @@
+package cc.blynk.server.core.quota;
+
+import cc.blynk.server.Limits;
+
+/**
+ * Hierarchical message quota. Every message has to get a token from the channel bucket,
+ * the user bucket and the global bucket, in that order. So single noisy channel is limited first,
+ * many channels of the same user are limited by the user tier and the global tier protects the server.
+ * When message is rejected by some tier, tokens already taken from the previous tiers are returned.
+ */
+public class QuotaManager {
+
+    private final int channelLimit;
+    private final int userLimit;
+    private final TokenBucket global;
+
+    public QuotaManager(Limits limits) {
+        this(limits.userQuotaLimit, limits.userTotalQuotaLimit, limits.globalQuotaLimit);
+    }
+
+    public QuotaManager(int channelLimit, int userLimit, int globalLimit) {
+        this.channelLimit = channelLimit;
+        this.userLimit = userLimit;
+        this.global = newBucket(globalLimit);
+    }
+
+    //limit is messages per second, capacity is 1 second of messages
+    private static TokenBucket newBucket(int limit) {
+        return limit > 0 ? new TokenBucket(limit, limit) : TokenBucket.UNLIMITED;
+    }
+
+    public TokenBucket newChannelBucket() {
+        return newBucket(channelLimit);
+    }
+
+    public UserQuota newUserQuota() {
+        return new UserQuota(newBucket(userLimit));
+    }
+
+    public boolean tryAcquire(TokenBucket channel, UserQuota user) {
+        if (!channel.tryAcquire()) {
+            return false;
+        }
+        if (!tryAcquire(user)) {
+            channel.release();
+            return false;
+        }
+        return true;
+    }
+
+    public boolean tryAcquire(UserQuota user) {
+        if (!user.bucket.tryAcquire()) {
+            return false;
+        }
+        if (!global.tryAcquire()) {
+            user.bucket.release();
+            return false;
+        }
+        return true;
+    }
+
+}
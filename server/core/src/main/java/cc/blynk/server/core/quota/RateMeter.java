@@ -0,0 +1,47 @@
+package cc.blynk.server.core.quota;
+
+/**
+ * Counts events within current second and keeps the count of the previous one,
+ * so rate is read in O(1) without ticking or iterating.
+ * Updated from single event loop, reads from other threads are approximate, that's fine for monitoring.
+ */
+public final class RateMeter {
+
+    private static final long NANOS_IN_SECOND = 1_000_000_000L;
+
+    private volatile long second;
+    private volatile int current;
+    private volatile int previous;
+
+    public void mark() {
+        mark(System.nanoTime() / NANOS_IN_SECOND);
+    }
+
+    void mark(long now) {
+        if (now != second) {
+            previous = now == second + 1 ? current : 0;
+            current = 0;
+            second = now;
+        }
+        current++;
+    }
+
+    /**
+     * Returns number of events within last completed second.
+     */
+    public int getRate() {
+        return getRate(System.nanoTime() / NANOS_IN_SECOND);
+    }
+
+    int getRate(long now) {
+        long second = this.second;
+        if (now == second) {
+            return previous;
+        }
+        if (now == second + 1) {
+            return current;
+        }
+        return 0;
+    }
+
+}
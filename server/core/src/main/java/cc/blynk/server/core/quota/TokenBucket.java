@@ -0,0 +1,66 @@
+package cc.blynk.server.core.quota;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Token bucket implemented as generic cell rate algorithm: instead of the token count and last refill time
+ * only "theoretical arrival time" of the next message is stored. Every accepted message moves it one
+ * emission interval forward, message is rejected when it is more than burst ahead of the current time.
+ * So refill is computed from the monotonic clock on demand and the whole state is single long,
+ * updated with CAS. Uncontended for channel and user buckets, safe for the global one.
+ */
+public final class TokenBucket {
+
+    private static final AtomicLongFieldUpdater<TokenBucket> TAT_UPDATER =
+            AtomicLongFieldUpdater.newUpdater(TokenBucket.class, "tat");
+
+    public static final TokenBucket UNLIMITED = new TokenBucket(0, 0);
+
+    private final long emissionIntervalNanos;
+    private final long burstNanos;
+
+    private volatile long tat;
+
+    /**
+     * @param ratePerSecond - refill rate. 0 - unlimited
+     * @param capacity - max number of messages accepted at once
+     */
+    public TokenBucket(int ratePerSecond, int capacity) {
+        this.emissionIntervalNanos = ratePerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / ratePerSecond : 0;
+        this.burstNanos = emissionIntervalNanos * Math.max(1, capacity);
+        this.tat = System.nanoTime();
+    }
+
+    public boolean isUnlimited() {
+        return emissionIntervalNanos == 0;
+    }
+
+    public boolean tryAcquire() {
+        return isUnlimited() || tryAcquire(System.nanoTime());
+    }
+
+    boolean tryAcquire(long now) {
+        for (;;) {
+            long tat = this.tat;
+            //nanoTime may overflow, so comparing difference
+            long newTat = (tat - now < 0 ? now : tat) + emissionIntervalNanos;
+            if (newTat - now > burstNanos) {
+                return false;
+            }
+            if (TAT_UPDATER.compareAndSet(this, tat, newTat)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns token taken by the successful {@link #tryAcquire()}, e.g. when message was rejected by other tier.
+     */
+    public void release() {
+        if (!isUnlimited()) {
+            TAT_UPDATER.addAndGet(this, -emissionIntervalNanos);
+        }
+    }
+
+}
@@ -0,0 +1,16 @@
+package cc.blynk.server.core.quota;
+
+/**
+ * Per user tier of the quota. Shared by all app and hardware channels of the user.
+ */
+public final class UserQuota {
+
+    public final TokenBucket bucket;
+    public final RateMeter appRate = new RateMeter();
+    public final RateMeter hardRate = new RateMeter();
+
+    public UserQuota(TokenBucket bucket) {
+        this.bucket = bucket;
+    }
+
+}
@@ -0,0 +1,90 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.utils.properties.ServerProperties;
+
+import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.DAY;
+
+/**
+ * Defines how long reporting points of every granularity are kept on disk
+ * and how long raw values are kept in DB.
+ * Only minute points expire by default, removal of raw values and
+ * hourly and daily points is enabled explicitly.
+ * Coarser granularities are aggregated independently from the raw values,
+ * so dropping old raw values or minute points leaves hourly and daily points untouched.
+ */
+public class RetentionPolicy {
+
+    private static final long FOREVER = 0;
+
+    private final long rawMaxAge;
+    private final long minuteMaxAge;
+    private final long hourlyMaxAge;
+    private final long dailyMaxAge;
+
+    public RetentionPolicy(ServerProperties props) {
+        this(props.getLongProperty("reporting.retention.raw.days", FOREVER) * DAY,
+             props.getLongProperty("reporting.retention.minute.days", 30) * DAY,
+             props.getLongProperty("reporting.retention.hourly.days", FOREVER) * DAY,
+             props.getLongProperty("reporting.retention.daily.days", FOREVER) * DAY);
+    }
+
+    public RetentionPolicy(long rawMaxAge, long minuteMaxAge, long hourlyMaxAge, long dailyMaxAge) {
+        this.rawMaxAge = rawMaxAge;
+        this.minuteMaxAge = minuteMaxAge;
+        this.hourlyMaxAge = hourlyMaxAge;
+        this.dailyMaxAge = dailyMaxAge;
+    }
+
+    private long getMaxAge(GraphGranularityType type) {
+        switch (type) {
+            case HOURLY :
+                return hourlyMaxAge;
+            case DAILY :
+                return dailyMaxAge;
+            default :
+                return minuteMaxAge;
+        }
+    }
+
+    /**
+     * @return - ts of the oldest point of the series that should be kept
+     *           or -1 if all points of the series are kept forever.
+     */
+    public long getMinTs(String fileName, long now) {
+        GraphGranularityType type = getType(fileName);
+        if (type == null) {
+            return -1;
+        }
+        long maxAge = getMaxAge(type);
+        if (maxAge <= FOREVER) {
+            return -1;
+        }
+        return now - maxAge;
+    }
+
+    /**
+     * @return - ts of the oldest raw value that should be kept
+     *           or -1 if raw values are kept forever.
+     */
+    public long getRawMinTs(long now) {
+        if (rawMaxAge <= FOREVER) {
+            return -1;
+        }
+        return now - rawMaxAge;
+    }
+
+    /**
+     * Resolves granularity from the series file name.
+     * See {@link cc.blynk.server.core.dao.ReportingDao#generateFilename}.
+     */
+    private static GraphGranularityType getType(String fileName) {
+        for (GraphGranularityType type : GraphGranularityType.values()) {
+            if (fileName.endsWith("_" + type.label + ".bin")) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+}
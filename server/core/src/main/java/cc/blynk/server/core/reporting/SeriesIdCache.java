@@ -0,0 +1,72 @@
+package cc.blynk.server.core.reporting;
+
+/**
+ * Small per device cache of series ids, so hardware write doesn't need to build
+ * and hash reporting key to find its series. Devices usually have only few pins,
+ * so entries are kept in copy-on-write array and lookup is linear scan.
+ */
+public final class SeriesIdCache {
+
+    private static final long[] EMPTY = {};
+
+    //(pinKey << 32) | seriesId
+    private volatile long[] entries = EMPTY;
+
+    private static int pinKey(char pinType, byte pin) {
+        return (pinType << 8) | (pin & 0xFF);
+    }
+
+    /**
+     * @return - cached series id or -1
+     */
+    public int get(char pinType, byte pin) {
+        int pinKey = pinKey(pinType, pin);
+        for (long entry : entries) {
+            if ((int) (entry >>> 32) == pinKey) {
+                return (int) entry;
+            }
+        }
+        return -1;
+    }
+
+    public synchronized void put(char pinType, byte pin, int seriesId) {
+        long[] entries = this.entries;
+        int index = indexOf(entries, pinKey(pinType, pin));
+        long entry = ((long) pinKey(pinType, pin) << 32) | (seriesId & 0xFFFFFFFFL);
+        long[] newEntries;
+        if (index == -1) {
+            newEntries = new long[entries.length + 1];
+            System.arraycopy(entries, 0, newEntries, 0, entries.length);
+            newEntries[entries.length] = entry;
+        } else {
+            newEntries = entries.clone();
+            newEntries[index] = entry;
+        }
+        this.entries = newEntries;
+    }
+
+    public synchronized void remove(char pinType, byte pin) {
+        long[] entries = this.entries;
+        int index = indexOf(entries, pinKey(pinType, pin));
+        if (index != -1) {
+            long[] newEntries = new long[entries.length - 1];
+            System.arraycopy(entries, 0, newEntries, 0, index);
+            System.arraycopy(entries, index + 1, newEntries, index, entries.length - index - 1);
+            this.entries = newEntries;
+        }
+    }
+
+    public synchronized void clear() {
+        this.entries = EMPTY;
+    }
+
+    private static int indexOf(long[] entries, int pinKey) {
+        for (int i = 0; i < entries.length; i++) {
+            if ((int) (entries[i] >>> 32) == pinKey) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
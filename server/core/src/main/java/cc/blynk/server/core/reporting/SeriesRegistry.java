@@ -0,0 +1,172 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Interns every reporting series (user, app, dash, device, pin) to the int id,
+ * so aggregation structures could be indexed by id instead of hashing of composite key.
+ * Registry is shared by the aggregator, the live graph cache and the raw data pipeline.
+ *
+ * Ids are dense and stable while series exists. Removed id keeps its key until
+ * it is recycled, so data that is still pending could be flushed. Id is recycled
+ * only after one more full {@link #recycle(IntPredicate, IntConsumer)} cycle, so threads
+ * that cached it just before removal have enough time to finish, and only when
+ * it has no pending data anymore. Series registered again before its id
+ * is recycled gets the same id back, so pending data is not split between two ids.
+ */
+public class SeriesRegistry {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final ConcurrentHashMap<BaseReportingKey, Integer> ids = new ConcurrentHashMap<>();
+    private volatile BaseReportingKey[] keys = new BaseReportingKey[INITIAL_CAPACITY];
+    private int nextId;
+
+    private int[] freeIds = new int[16];
+    private int freeIdsSize;
+    private List<Integer> removedIds = new ArrayList<>();
+    private List<Integer> retiredIds = new ArrayList<>();
+    //removed series that are not recycled yet
+    private final Map<BaseReportingKey, Integer> pendingIds = new HashMap<>();
+
+    public int getOrCreateId(BaseReportingKey key) {
+        Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        return create(key);
+    }
+
+    /**
+     * @return - id of the series or -1 if series is not registered
+     */
+    public int getId(BaseReportingKey key) {
+        Integer id = ids.get(key);
+        return id == null ? -1 : id;
+    }
+
+    private synchronized int create(BaseReportingKey key) {
+        Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        id = pendingIds.remove(key);
+        if (id != null) {
+            //key is still in keys, as id wasn't recycled
+            removedIds.remove(id);
+            retiredIds.remove(id);
+            ids.put(key, id);
+            return id;
+        }
+        BaseReportingKey[] keys = this.keys;
+        int newId;
+        if (freeIdsSize > 0) {
+            newId = freeIds[--freeIdsSize];
+        } else {
+            newId = nextId++;
+            if (newId == keys.length) {
+                BaseReportingKey[] newKeys = new BaseReportingKey[keys.length * 2];
+                System.arraycopy(keys, 0, newKeys, 0, keys.length);
+                keys = newKeys;
+            }
+        }
+        keys[newId] = key;
+        //publishes key together with array
+        this.keys = keys;
+        ids.put(key, newId);
+        return newId;
+    }
+
+    /**
+     * @return - key of the series or null if id was recycled
+     */
+    public BaseReportingKey getKey(int id) {
+        BaseReportingKey[] keys = this.keys;
+        return id < keys.length ? keys[id] : null;
+    }
+
+    public synchronized int remove(BaseReportingKey key) {
+        Integer id = ids.remove(key);
+        if (id == null) {
+            return -1;
+        }
+        removedIds.add(id);
+        pendingIds.put(key, id);
+        return id;
+    }
+
+    /**
+     * Removes all series that match filter. Requires full scan, so should be used only
+     * for rare operations like device or user removal.
+     *
+     * @return - number of removed series
+     */
+    public synchronized int removeAll(Predicate<BaseReportingKey> filter) {
+        int counter = 0;
+        for (Map.Entry<BaseReportingKey, Integer> entry : ids.entrySet()) {
+            if (filter.test(entry.getKey()) && ids.remove(entry.getKey(), entry.getValue())) {
+                removedIds.add(entry.getValue());
+                pendingIds.put(entry.getKey(), entry.getValue());
+                counter++;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Makes ids removed before previous call available for new series.
+     * Ids that still have pending data are kept till the next call.
+     *
+     * @param hasPendingData - true in case data of the id is not flushed yet
+     * @param cleaner - resets all state stored for the id before it is reused
+     * @return - number of recycled ids
+     */
+    public synchronized int recycle(IntPredicate hasPendingData, IntConsumer cleaner) {
+        List<Integer> stillPending = new ArrayList<>();
+        BaseReportingKey[] keys = this.keys;
+        int recycled = 0;
+        for (int id : retiredIds) {
+            if (hasPendingData.test(id)) {
+                stillPending.add(id);
+                continue;
+            }
+            cleaner.accept(id);
+            pendingIds.remove(keys[id]);
+            keys[id] = null;
+            if (freeIdsSize == freeIds.length) {
+                int[] newFreeIds = new int[freeIds.length * 2];
+                System.arraycopy(freeIds, 0, newFreeIds, 0, freeIds.length);
+                freeIds = newFreeIds;
+            }
+            freeIds[freeIdsSize++] = id;
+            recycled++;
+        }
+        this.keys = keys;
+
+        retiredIds = removedIds;
+        retiredIds.addAll(stillPending);
+        removedIds = new ArrayList<>();
+        return recycled;
+    }
+
+    /**
+     * @return - upper bound (exclusive) of all ids issued so far
+     */
+    public synchronized int size() {
+        return nextId;
+    }
+
+    public int getSeriesCount() {
+        return ids.size();
+    }
+
+}
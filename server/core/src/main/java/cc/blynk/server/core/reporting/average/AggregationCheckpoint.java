@@ -0,0 +1,209 @@
+package cc.blynk.server.core.reporting.average;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Compact binary checkpoint of in-flight aggregation buckets.
+ * Checkpoint is written to the temp file, synced to disk and atomically renamed, so file on disk
+ * is always complete, even if server is killed or power is lost during checkpoint.
+ *
+ * Format : [int magic][int version][int count] records... [long crc32]
+ * Record : [utf email][utf appName][int dashId][int deviceId][char pinType][byte pin]
+ *          [long bucket][double sum][long count][double min][double max]
+ * Email and app name are written only when they differ from previous record,
+ * records are grouped by user, so this saves most of the space.
+ */
+public final class AggregationCheckpoint {
+
+    private static final Logger log = LogManager.getLogger(AggregationCheckpoint.class);
+
+    private static final int MAGIC = 0xB1A6C4E7;
+    private static final int VERSION = 1;
+
+    private static final byte SAME_USER = 0;
+    private static final byte NEW_USER = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private AggregationCheckpoint() {
+    }
+
+    @FunctionalInterface
+    public interface RecordConsumer {
+        void accept(AggregationKey key, double sum, long count, double min, double max);
+    }
+
+    public static void write(Path path, Map<AggregationKey, AggregationValue> buckets) throws IOException {
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+
+        //grouping by user, so user fields are written once
+        Map<BaseReportingKey, Map<AggregationKey, AggregationValue>> byUser = new HashMap<>();
+        for (Map.Entry<AggregationKey, AggregationValue> entry : buckets.entrySet()) {
+            AggregationKey key = entry.getKey();
+            BaseReportingKey userKey = new BaseReportingKey(key.getEmail(), key.getAppName(), 0, 0, PinType.VIRTUAL,
+                    (byte) 0);
+            byUser.computeIfAbsent(userKey, k -> new HashMap<>()).put(key, entry.getValue());
+        }
+
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(tempPath, CREATE, WRITE, TRUNCATE_EXISTING);
+             OutputStream os = Channels.newOutputStream(channel);
+             DataOutputStream dos = new DataOutputStream(
+                     new CheckedOutputStream(new BufferedOutputStream(os, BUFFER_SIZE), crc))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(buckets.size());
+            for (Map<AggregationKey, AggregationValue> userBuckets : byUser.values()) {
+                boolean first = true;
+                for (Map.Entry<AggregationKey, AggregationValue> entry : userBuckets.entrySet()) {
+                    AggregationKey key = entry.getKey();
+                    AggregationValue value = entry.getValue();
+                    if (first) {
+                        dos.writeByte(NEW_USER);
+                        dos.writeUTF(key.getEmail());
+                        dos.writeUTF(key.getAppName());
+                        first = false;
+                    } else {
+                        dos.writeByte(SAME_USER);
+                    }
+                    dos.writeInt(key.getDashId());
+                    dos.writeInt(key.getDeviceId());
+                    dos.writeChar(key.getPinType());
+                    dos.writeByte(key.getPin());
+                    dos.writeLong(key.ts);
+                    dos.writeDouble(value.getSum());
+                    dos.writeLong(value.getCount());
+                    dos.writeDouble(value.getMin());
+                    dos.writeDouble(value.getMax());
+                }
+            }
+            dos.flush();
+            //crc itself is not part of the checksum
+            long checksum = crc.getValue();
+            os.write(longToBytes(checksum));
+            //otherwise rename may reach the disk before the data
+            channel.force(true);
+        }
+
+        Files.move(tempPath, path, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    /**
+     * Passes checkpoint records to the consumer one by one, so records are never kept in memory
+     * and file is read with single {@link #BUFFER_SIZE} buffer. Checksum is verified with separate pass
+     * over the file before first record is decoded, so nothing is passed to the consumer
+     * in case checkpoint is broken.
+     *
+     * @return - number of restored records
+     */
+    public static int read(Path path, RecordConsumer consumer) {
+        long start = System.currentTimeMillis();
+        try {
+            if (!hasValidChecksum(path)) {
+                log.error("Aggregation checkpoint {} is corrupted. Skipping.", path);
+                return 0;
+            }
+            try (DataInputStream dis = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+                if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+                    log.error("Unknown aggregation checkpoint format {}.", path);
+                    return 0;
+                }
+                int count = dis.readInt();
+
+                String email = null;
+                String appName = null;
+                for (int i = 0; i < count; i++) {
+                    if (dis.readByte() == NEW_USER) {
+                        email = dis.readUTF();
+                        appName = dis.readUTF();
+                    }
+                    int dashId = dis.readInt();
+                    int deviceId = dis.readInt();
+                    PinType pinType = PinType.getPinType(dis.readChar());
+                    byte pin = dis.readByte();
+                    long bucket = dis.readLong();
+                    consumer.accept(new AggregationKey(email, appName, dashId, deviceId, pinType, pin, bucket),
+                            dis.readDouble(), dis.readLong(), dis.readDouble(), dis.readDouble());
+                }
+
+                log.info("Restored {} aggregation buckets from {} in {} ms.",
+                        count, path.getFileName(), System.currentTimeMillis() - start);
+                return count;
+            }
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (Exception e) {
+            log.error("Error reading aggregation checkpoint {}.", path, e);
+            return 0;
+        }
+    }
+
+    private static boolean hasValidChecksum(Path path) throws IOException {
+        long dataSize = Files.size(path) - 8;
+        if (dataSize < 0) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream is = Files.newInputStream(path)) {
+            long remaining = dataSize;
+            while (remaining > 0) {
+                int read = is.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                crc.update(buffer, 0, read);
+                remaining -= read;
+            }
+            byte[] checksumBytes = new byte[8];
+            new DataInputStream(is).readFully(checksumBytes);
+            return bytesToLong(checksumBytes) == crc.getValue();
+        }
+    }
+
+    private static byte[] longToBytes(long value) {
+        byte[] result = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            result[i] = (byte) value;
+            value >>>= 8;
+        }
+        return result;
+    }
+
+    private static long bytesToLong(byte[] bytes) {
+        long result = 0;
+        for (byte b : bytes) {
+            result = (result << 8) | (b & 0xFF);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,247 @@
+package cc.blynk.server.core.reporting.average;
+
+import cc.blynk.server.core.reporting.SeriesRegistry;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Aggregation state of single granularity. Holds sum, count, min and max of the current bucket
+ * of every series in primitive arrays indexed by series id, so aggregation of value
+ * doesn't allocate anything. Arrays are split into chunks that are allocated on demand
+ * and every chunk is guarded by few striped locks.
+ *
+ * When value for the newer bucket arrives, current bucket is moved to the small
+ * overflow map where it waits for the flush. Same happens with late values for older buckets.
+ */
+final class AggregationSlab {
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int STRIPES = 16;
+    private static final int STRIPE_MASK = STRIPES - 1;
+
+    private final long period;
+    private final SeriesRegistry seriesRegistry;
+    private final ConcurrentHashMap<AggregationKey, AggregationValue> overflow = new ConcurrentHashMap<>();
+    private volatile Chunk[] chunks = new Chunk[0];
+
+    AggregationSlab(long period, SeriesRegistry seriesRegistry) {
+        this.period = period;
+        this.seriesRegistry = seriesRegistry;
+    }
+
+    void aggregate(int seriesId, long ts, double value) {
+        long bucket = ts / period;
+        Chunk chunk = getChunk(seriesId);
+        int index = seriesId & CHUNK_MASK;
+        synchronized (chunk.locks[index & STRIPE_MASK]) {
+            long count = chunk.counts[index];
+            if (count == 0) {
+                chunk.start(index, bucket, value);
+                return;
+            }
+            long currentBucket = chunk.buckets[index];
+            if (currentBucket == bucket) {
+                chunk.sums[index] += value;
+                chunk.counts[index] = count + 1;
+                if (value < chunk.mins[index]) {
+                    chunk.mins[index] = value;
+                }
+                if (value > chunk.maxs[index]) {
+                    chunk.maxs[index] = value;
+                }
+            } else if (bucket > currentBucket) {
+                moveToOverflow(seriesId, currentBucket,
+                        chunk.sums[index], count, chunk.mins[index], chunk.maxs[index]);
+                chunk.start(index, bucket, value);
+            } else {
+                moveToOverflow(seriesId, bucket, value, 1, value, value);
+            }
+        }
+    }
+
+    private void moveToOverflow(int seriesId, long bucket, double sum, long count, double min, double max) {
+        BaseReportingKey key = seriesRegistry.getKey(seriesId);
+        //series was removed, nothing to store
+        if (key != null) {
+            add(overflow, new AggregationKey(key, bucket), sum, count, min, max);
+        }
+    }
+
+    private static void add(Map<AggregationKey, AggregationValue> map,
+                            AggregationKey key, double sum, long count, double min, double max) {
+        map.compute(key, (k, existing) -> {
+            if (existing == null) {
+                return new AggregationValue(sum, count, min, max);
+            }
+            existing.add(sum, count, min, max);
+            return existing;
+        });
+    }
+
+    private static void add(Map<AggregationKey, AggregationValue> map,
+                            AggregationKey key, AggregationValue value) {
+        add(map, key, value.getSum(), value.getCount(), value.getMin(), value.getMax());
+    }
+
+    private static void add(Map<AggregationKey, AggregationValue> map,
+                            AggregationKey key, Chunk chunk, int index) {
+        add(map, key, chunk.sums[index], chunk.counts[index], chunk.mins[index], chunk.maxs[index]);
+    }
+
+    /**
+     * @return - true in case current bucket of the series is not flushed yet
+     */
+    boolean hasPending(int seriesId) {
+        Chunk[] chunks = this.chunks;
+        int chunkId = seriesId >>> CHUNK_BITS;
+        if (chunkId >= chunks.length) {
+            return false;
+        }
+        Chunk chunk = chunks[chunkId];
+        int index = seriesId & CHUNK_MASK;
+        synchronized (chunk.locks[index & STRIPE_MASK]) {
+            return chunk.counts[index] > 0;
+        }
+    }
+
+    /**
+     * Drops current bucket of the series, so its id could be reused.
+     */
+    void clear(int seriesId) {
+        Chunk chunk = getChunk(seriesId);
+        int index = seriesId & CHUNK_MASK;
+        synchronized (chunk.locks[index & STRIPE_MASK]) {
+            chunk.counts[index] = 0;
+        }
+    }
+
+    /**
+     * Adds restored aggregation, usually from previous server run.
+     */
+    void restore(Map<AggregationKey, AggregationValue> restored) {
+        for (Map.Entry<AggregationKey, AggregationValue> entry : restored.entrySet()) {
+            add(overflow, entry.getKey(), entry.getValue());
+        }
+    }
+
+    void restore(AggregationKey key, double sum, long count, double min, double max) {
+        add(overflow, key, sum, count, min, max);
+    }
+
+    /**
+     * Removes all buckets that are older than given one.
+     *
+     * @return - removed buckets
+     */
+    Map<AggregationKey, AggregationValue> removeOutdated(long nowTruncatedToPeriod) {
+        Map<AggregationKey, AggregationValue> result = new HashMap<>();
+
+        Iterator<AggregationKey> iterator = overflow.keySet().iterator();
+        while (iterator.hasNext()) {
+            AggregationKey key = iterator.next();
+            if (key.isOutdated(nowTruncatedToPeriod)) {
+                AggregationValue value = overflow.remove(key);
+                if (value != null) {
+                    result.put(key, value);
+                }
+            }
+        }
+
+        Chunk[] chunks = this.chunks;
+        for (int chunkId = 0; chunkId < chunks.length; chunkId++) {
+            Chunk chunk = chunks[chunkId];
+            for (int index = 0; index < CHUNK_SIZE; index++) {
+                synchronized (chunk.locks[index & STRIPE_MASK]) {
+                    long count = chunk.counts[index];
+                    if (count > 0 && chunk.buckets[index] < nowTruncatedToPeriod) {
+                        BaseReportingKey key = seriesRegistry.getKey((chunkId << CHUNK_BITS) | index);
+                        if (key != null) {
+                            add(result, new AggregationKey(key, chunk.buckets[index]), chunk, index);
+                        }
+                        chunk.counts[index] = 0;
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return - copy of all buckets, including current ones.
+     */
+    Map<AggregationKey, AggregationValue> snapshot() {
+        Map<AggregationKey, AggregationValue> result = new HashMap<>();
+        for (Map.Entry<AggregationKey, AggregationValue> entry : overflow.entrySet()) {
+            add(result, entry.getKey(), entry.getValue());
+        }
+
+        Chunk[] chunks = this.chunks;
+        for (int chunkId = 0; chunkId < chunks.length; chunkId++) {
+            Chunk chunk = chunks[chunkId];
+            for (int index = 0; index < CHUNK_SIZE; index++) {
+                synchronized (chunk.locks[index & STRIPE_MASK]) {
+                    long count = chunk.counts[index];
+                    BaseReportingKey key;
+                    if (count > 0 && (key = seriesRegistry.getKey((chunkId << CHUNK_BITS) | index)) != null) {
+                        add(result, new AggregationKey(key, chunk.buckets[index]), chunk, index);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private Chunk getChunk(int seriesId) {
+        int chunkId = seriesId >>> CHUNK_BITS;
+        Chunk[] chunks = this.chunks;
+        if (chunkId < chunks.length) {
+            return chunks[chunkId];
+        }
+        return grow(chunkId);
+    }
+
+    private synchronized Chunk grow(int chunkId) {
+        Chunk[] chunks = this.chunks;
+        if (chunkId < chunks.length) {
+            return chunks[chunkId];
+        }
+        Chunk[] newChunks = new Chunk[chunkId + 1];
+        System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+        for (int i = chunks.length; i < newChunks.length; i++) {
+            newChunks[i] = new Chunk();
+        }
+        this.chunks = newChunks;
+        return newChunks[chunkId];
+    }
+
+    private static final class Chunk {
+        private final long[] buckets = new long[CHUNK_SIZE];
+        private final double[] sums = new double[CHUNK_SIZE];
+        private final long[] counts = new long[CHUNK_SIZE];
+        private final double[] mins = new double[CHUNK_SIZE];
+        private final double[] maxs = new double[CHUNK_SIZE];
+        private final Object[] locks = new Object[STRIPES];
+
+        Chunk() {
+            for (int i = 0; i < STRIPES; i++) {
+                locks[i] = new Object();
+            }
+        }
+
+        void start(int index, long bucket, double value) {
+            buckets[index] = bucket;
+            sums[index] = value;
+            counts[index] = 1;
+            mins[index] = value;
+            maxs[index] = value;
+        }
+    }
+
+}
@@ -1,31 +1,84 @@
 package cc.blynk.server.core.reporting.average;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 /**
+ * Rollup of all values of single bucket - sum, count, min and max.
+ * So any graph function could be answered without reading finer data.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 10.08.15.
  */
 public class AggregationValue implements Serializable {
 
+    //compatible with files of previous versions that had no min and max
+    private static final long serialVersionUID = 2165743203609644899L;
+
     private double values = 0;
     private long count = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
 
     public AggregationValue() {
     }
 
-    AggregationValue(double value) {
-        this.values = value;
-        this.count = 1;
+    AggregationValue(double sum, long count, double min, double max) {
+        this.values = sum;
+        this.count = count;
+        this.min = min;
+        this.max = max;
     }
 
     public void update(double val) {
         values += val;
         count++;
+        if (val < min) {
+            min = val;
+        }
+        if (val > max) {
+            max = val;
+        }
+    }
+
+    public void add(double sum, long count, double min, double max) {
+        this.values += sum;
+        this.count += count;
+        if (min < this.min) {
+            this.min = min;
+        }
+        if (max > this.max) {
+            this.max = max;
+        }
+    }
+
+    public double getSum() {
+        return values;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
     }
 
     public double calcAverage() {
         return values / count;
     }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        //stored by previous version, so only average is known
+        if (min == 0 && max == 0) {
+            min = max = calcAverage();
+        }
+    }
 }
@@ -1,20 +1,29 @@
 package cc.blynk.server.core.reporting.average;
 
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.SeriesRegistry;
 import cc.blynk.server.core.reporting.raw.BaseReportingKey;
 import cc.blynk.utils.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.Closeable;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
 
-import static cc.blynk.server.internal.ReportingUtil.read;
-import static cc.blynk.server.internal.ReportingUtil.write;
+import static cc.blynk.server.internal.ReportingUtil.readLegacy;
 
 /**
+ * Aggregates incoming values into minute, hourly and daily averages.
+ * Every series is interned to int id once, after that aggregation of the value
+ * is just update of primitive slabs, without any allocation.
+ *
+ * Not yet flushed buckets are periodically checkpointed to disk in compact binary format
+ * (see {@link AggregationCheckpoint}) and restored on the next start.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 10.08.15.
@@ -26,72 +35,150 @@ public class AverageAggregatorProcessor implements Closeable {
     public static final long MINUTE = 1000 * 60;
     public static final long HOUR = 60 * MINUTE;
     public static final long DAY = 24 * HOUR;
+    public static final String MINUTE_CHECKPOINT_FILENAME = "minute_checkpoint.bin";
+    public static final String HOURLY_CHECKPOINT_FILENAME = "hourly_checkpoint.bin";
+    public static final String DAILY_CHECKPOINT_FILENAME = "daily_checkpoint.bin";
+    //java serialized files of previous versions, read only once for migration
     public static final String MINUTE_TEMP_FILENAME = "minute_temp.bin";
     public static final String HOURLY_TEMP_FILENAME = "hourly_temp.bin";
     public static final String DAILY_TEMP_FILENAME = "daily_temp.bin";
     private final String dataFolder;
-    private final ConcurrentHashMap<AggregationKey, AggregationValue> minute;
-    private final ConcurrentHashMap<AggregationKey, AggregationValue> hourly;
-    private final ConcurrentHashMap<AggregationKey, AggregationValue> daily;
+    private final SeriesRegistry seriesRegistry;
+    private final AggregationSlab minute;
+    private final AggregationSlab hourly;
+    private final AggregationSlab daily;
 
     public AverageAggregatorProcessor(String dataFolder) {
+        this(dataFolder, new SeriesRegistry());
+    }
+
+    public AverageAggregatorProcessor(String dataFolder, SeriesRegistry seriesRegistry) {
         this.dataFolder = dataFolder;
+        this.seriesRegistry = seriesRegistry;
+        this.minute = new AggregationSlab(MINUTE, seriesRegistry);
+        this.hourly = new AggregationSlab(HOUR, seriesRegistry);
+        this.daily = new AggregationSlab(DAY, seriesRegistry);
+
+        //files are independent, so they are replayed in parallel
+        Stream.of(GraphGranularityType.values()).parallel().forEach(this::restore);
+    }
+
+    private void restore(GraphGranularityType type) {
+        AggregationSlab slab = getSlab(type);
+        AggregationCheckpoint.read(Paths.get(dataFolder, getCheckpointFileName(type)), slab::restore);
 
-        Path path;
+        Path legacyPath = Paths.get(dataFolder, getLegacyFileName(type));
+        if (Files.exists(legacyPath)) {
+            log.info("Migrating {} aggregations from {}.", type.label, legacyPath);
+            slab.restore(readLegacy(legacyPath));
+            FileUtils.deleteQuietly(legacyPath);
+        }
+    }
 
-        path = Paths.get(dataFolder, MINUTE_TEMP_FILENAME);
-        this.minute = read(path);
-        FileUtils.deleteQuietly(path);
+    public void collect(BaseReportingKey baseReportingKey, long ts, double val) {
+        collect(seriesRegistry.getOrCreateId(baseReportingKey), ts, val);
+    }
 
-        path = Paths.get(dataFolder, HOURLY_TEMP_FILENAME);
-        this.hourly = read(path);
-        FileUtils.deleteQuietly(path);
+    public void collect(int seriesId, long ts, double val) {
+        minute.aggregate(seriesId, ts, val);
+        hourly.aggregate(seriesId, ts, val);
+        daily.aggregate(seriesId, ts, val);
+    }
 
-        path = Paths.get(dataFolder, DAILY_TEMP_FILENAME);
-        this.daily = read(path);
-        FileUtils.deleteQuietly(path);
+    /**
+     * @return - true in case some of the current buckets of the series are not flushed yet
+     */
+    public boolean hasPending(int seriesId) {
+        return minute.hasPending(seriesId) || hourly.hasPending(seriesId) || daily.hasPending(seriesId);
     }
 
-    private static void aggregate(Map<AggregationKey, AggregationValue> map, AggregationKey key, double value) {
-        AggregationValue aggregationValue = map.get(key);
-        if (aggregationValue == null) {
-            aggregationValue = map.putIfAbsent(key, new AggregationValue(value));
-            if (aggregationValue == null) {
-                return;
-            }
+    /**
+     * Drops all current aggregations of the series before its id is reused.
+     */
+    public void clear(int seriesId) {
+        minute.clear(seriesId);
+        hourly.clear(seriesId);
+        daily.clear(seriesId);
+    }
+
+    private AggregationSlab getSlab(GraphGranularityType type) {
+        switch (type) {
+            case HOURLY :
+                return hourly;
+            case DAILY :
+                return daily;
+            default :
+                return minute;
         }
+    }
 
-        aggregationValue.update(value);
+    /**
+     * Removes all aggregations older than given period.
+     *
+     * @param nowTruncatedToPeriod - current time divided by period of granularity type
+     * @return - removed aggregations, ready to be stored
+     */
+    public Map<AggregationKey, AggregationValue> removeOutdated(GraphGranularityType type,
+                                                               long nowTruncatedToPeriod) {
+        return getSlab(type).removeOutdated(nowTruncatedToPeriod);
     }
 
-    public void collect(BaseReportingKey baseReportingKey, long ts, double val) {
-        aggregate(minute, new AggregationKey(baseReportingKey, ts / MINUTE), val);
-        aggregate(hourly, new AggregationKey(baseReportingKey, ts / HOUR), val);
-        aggregate(daily, new AggregationKey(baseReportingKey, ts / DAY), val);
+    /**
+     * @return - copy of all current minute aggregations.
+     */
+    public Map<AggregationKey, AggregationValue> getMinute() {
+        return minute.snapshot();
+    }
+
+    public Map<AggregationKey, AggregationValue> getHourly() {
+        return hourly.snapshot();
+    }
+
+    public Map<AggregationKey, AggregationValue> getDaily() {
+        return daily.snapshot();
     }
 
-    public ConcurrentHashMap<AggregationKey, AggregationValue> getMinute() {
-        return minute;
+    /**
+     * Writes all not yet flushed buckets to disk, replacing previous checkpoint.
+     * Checkpoint is always written, even if it is empty, so already flushed
+     * buckets are never restored again.
+     */
+    public synchronized void checkpoint() {
+        for (GraphGranularityType type : GraphGranularityType.values()) {
+            Path path = Paths.get(dataFolder, getCheckpointFileName(type));
+            try {
+                AggregationCheckpoint.write(path, getSlab(type).snapshot());
+            } catch (Exception e) {
+                log.error("Error writing {} aggregation checkpoint.", type.label, e);
+            }
+        }
     }
 
-    public ConcurrentHashMap<AggregationKey, AggregationValue> getHourly() {
-        return hourly;
+    private static String getCheckpointFileName(GraphGranularityType type) {
+        switch (type) {
+            case HOURLY :
+                return HOURLY_CHECKPOINT_FILENAME;
+            case DAILY :
+                return DAILY_CHECKPOINT_FILENAME;
+            default :
+                return MINUTE_CHECKPOINT_FILENAME;
+        }
     }
 
-    public ConcurrentHashMap<AggregationKey, AggregationValue> getDaily() {
-        return daily;
+    private static String getLegacyFileName(GraphGranularityType type) {
+        switch (type) {
+            case HOURLY :
+                return HOURLY_TEMP_FILENAME;
+            case DAILY :
+                return DAILY_TEMP_FILENAME;
+            default :
+                return MINUTE_TEMP_FILENAME;
+        }
     }
 
     @Override
     public void close() {
-        if (minute.size() > 100_000) {
-            log.info("Too many minute records ({}). "
-                    + "This may cause performance issues on server start. Skipping.", minute.size());
-        } else {
-            write(Paths.get(dataFolder, MINUTE_TEMP_FILENAME), minute);
-        }
-        write(Paths.get(dataFolder, HOURLY_TEMP_FILENAME), hourly);
-        write(Paths.get(dataFolder, DAILY_TEMP_FILENAME), daily);
+        checkpoint();
     }
 
 }
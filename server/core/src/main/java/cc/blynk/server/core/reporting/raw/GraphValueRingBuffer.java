@@ -0,0 +1,91 @@
+package cc.blynk.server.core.reporting.raw;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Fixed size ring of the last (value, ts) pairs of single series.
+ * Values are stored in primitive array, so adding a value doesn't create garbage.
+ *
+ * Writes are guarded by seqlock - sequence is odd while write is in progress.
+ * Readers never block, they copy the data and retry if sequence was changed meanwhile.
+ * Series is usually written from single hardware channel, however HTTP API
+ * or app may write to it too, so writers are serialized with monitor, which is
+ * uncontended in most cases.
+ */
+public final class GraphValueRingBuffer {
+
+    private final int capacity;
+    //[valueBits, ts] pairs. All accesses are volatile, so seqlock needs no extra fences
+    private final AtomicLongArray entries;
+    private volatile long sequence;
+    //total number of values ever written
+    private volatile long written;
+
+    public GraphValueRingBuffer(int capacity) {
+        this.capacity = capacity;
+        this.entries = new AtomicLongArray(capacity * 2);
+    }
+
+    public synchronized void add(double value, long ts) {
+        long seq = sequence;
+        sequence = seq + 1;
+        long written = this.written;
+        int index = (int) (written % capacity) * 2;
+        entries.set(index, Double.doubleToRawLongBits(value));
+        entries.set(index + 1, ts);
+        this.written = written + 1;
+        sequence = seq + 2;
+    }
+
+    public int size() {
+        return (int) Math.min(written, capacity);
+    }
+
+    /**
+     * Copies last count values (skipping skipCount newest values) to the new buffer.
+     *
+     * @return - buffer with position at the end of data or null if there is no requested data
+     */
+    public ByteBuffer read(int count, int skipCount) {
+        ByteBuffer result = null;
+        while (true) {
+            long seq = sequence;
+            if ((seq & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+
+            long written = this.written;
+            int size = (int) Math.min(written, capacity);
+            int expectedMinimumLength = count + skipCount;
+            int diff = size - expectedMinimumLength;
+            int startReadIndex = Math.max(0, diff);
+            int expectedResultSize = diff < 0 ? count + diff : count;
+            if (expectedResultSize <= 0) {
+                return null;
+            }
+
+            if (result == null || result.capacity() != expectedResultSize * SIZE_OF_REPORT_ENTRY) {
+                result = ByteBuffer.allocate(expectedResultSize * SIZE_OF_REPORT_ENTRY);
+            } else {
+                result.clear();
+            }
+
+            //index of the oldest value in the ring
+            long oldest = written - size;
+            for (int i = 0; i < expectedResultSize; i++) {
+                int index = (int) ((oldest + startReadIndex + i) % capacity) * 2;
+                result.putDouble(Double.longBitsToDouble(entries.get(index)))
+                      .putLong(entries.get(index + 1));
+            }
+
+            if (sequence == seq) {
+                return result;
+            }
+        }
+    }
+
+}
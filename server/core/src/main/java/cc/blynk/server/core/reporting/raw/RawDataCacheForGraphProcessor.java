@@ -2,16 +2,13 @@ package cc.blynk.server.core.reporting.raw;
 
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.reporting.GraphPinRequest;
-import cc.blynk.utils.structure.LimitedArrayDeque;
+import cc.blynk.server.core.reporting.SeriesRegistry;
 
 import java.nio.ByteBuffer;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
-import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
 
 /**
  * Raw data storage for graph LIVE stream.
+ * Keeps ring buffer with last values for every series id.
  *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -21,53 +18,65 @@ public class RawDataCacheForGraphProcessor {
 
     private static final int GRAPH_CACHE_SIZE = 60;
 
-    private final Map<BaseReportingKey, LimitedArrayDeque<GraphValue>> rawStorage;
+    private final SeriesRegistry seriesRegistry;
+    //indexed by series id
+    private volatile GraphValueRingBuffer[] rawStorage = new GraphValueRingBuffer[1024];
 
-    public RawDataCacheForGraphProcessor() {
-        rawStorage = new ConcurrentHashMap<>();
+    public RawDataCacheForGraphProcessor(SeriesRegistry seriesRegistry) {
+        this.seriesRegistry = seriesRegistry;
     }
 
-    public void collect(BaseReportingKey baseReportingKey, GraphValue graphCacheValue) {
-        LimitedArrayDeque<GraphValue> cache = rawStorage.get(baseReportingKey);
+    public void collect(int seriesId, double value, long ts) {
+        GraphValueRingBuffer cache = get(seriesId);
         if (cache == null) {
-            cache = new LimitedArrayDeque<>(GRAPH_CACHE_SIZE);
-            rawStorage.put(baseReportingKey, cache);
+            cache = create(seriesId);
         }
-        cache.add(graphCacheValue);
+        cache.add(value, ts);
     }
 
-    public ByteBuffer getLiveGraphData(User user, GraphPinRequest graphPinRequest) {
-        LimitedArrayDeque<GraphValue> cache = rawStorage.get(new BaseReportingKey(user, graphPinRequest));
+    private GraphValueRingBuffer get(int seriesId) {
+        GraphValueRingBuffer[] rawStorage = this.rawStorage;
+        return seriesId < rawStorage.length ? rawStorage[seriesId] : null;
+    }
 
-        if (cache != null && cache.size() > graphPinRequest.skipCount) {
-            return toByteBuffer(cache, graphPinRequest.count, graphPinRequest.skipCount);
+    private synchronized GraphValueRingBuffer create(int seriesId) {
+        GraphValueRingBuffer[] rawStorage = this.rawStorage;
+        if (seriesId >= rawStorage.length) {
+            GraphValueRingBuffer[] newStorage =
+                    new GraphValueRingBuffer[Math.max(rawStorage.length * 2, seriesId + 1)];
+            System.arraycopy(rawStorage, 0, newStorage, 0, rawStorage.length);
+            rawStorage = newStorage;
         }
+        GraphValueRingBuffer cache = rawStorage[seriesId];
+        if (cache == null) {
+            cache = new GraphValueRingBuffer(GRAPH_CACHE_SIZE);
+            rawStorage[seriesId] = cache;
+        }
+        //publishes new element
+        this.rawStorage = rawStorage;
+        return cache;
+    }
 
-        return null;
+    public synchronized void clear(int seriesId) {
+        GraphValueRingBuffer[] rawStorage = this.rawStorage;
+        if (seriesId < rawStorage.length) {
+            rawStorage[seriesId] = null;
+            this.rawStorage = rawStorage;
+        }
     }
 
-    private ByteBuffer toByteBuffer(LimitedArrayDeque<GraphValue> cache, int count, int skipCount) {
-        int size = cache.size();
-        int expectedMinimumLength = count + skipCount;
-        int diff = size - expectedMinimumLength;
-        int startReadIndex = Math.max(0, diff);
-        int expectedResultSize = diff < 0 ? count + diff : count;
-        if (expectedResultSize <= 0) {
+    public ByteBuffer getLiveGraphData(User user, GraphPinRequest graphPinRequest) {
+        int seriesId = seriesRegistry.getId(new BaseReportingKey(user, graphPinRequest));
+        if (seriesId == -1) {
             return null;
         }
+        GraphValueRingBuffer cache = get(seriesId);
 
-        ByteBuffer byteBuffer = ByteBuffer.allocate(expectedResultSize * SIZE_OF_REPORT_ENTRY);
-
-        int i = 0;
-        int counter = 0;
-        for (GraphValue graphValue : cache) {
-            if (startReadIndex <= i && counter < expectedResultSize) {
-                counter++;
-                byteBuffer.putDouble(graphValue.value)
-                        .putLong(graphValue.ts);
-            }
-            i++;
+        if (cache != null && cache.size() > graphPinRequest.skipCount) {
+            return cache.read(graphPinRequest.count, graphPinRequest.skipCount);
         }
-        return byteBuffer;
+
+        return null;
     }
+
 }
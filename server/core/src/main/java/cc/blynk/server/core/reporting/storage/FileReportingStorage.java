@@ -0,0 +1,551 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static cc.blynk.server.core.dao.ReportingDao.generateFilename;
+import static cc.blynk.server.core.reporting.storage.Rollups.recordSize;
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Default reporting storage. Keeps one file per pin per granularity per user.
+ * Rollups are not stored, as separate rollup file would double number of files,
+ * opens and syncs of every flush, so min, max and sum are answered from averages.
+ * Flush groups points by user folder and file, so every file is opened once
+ * and all its points are appended with single write. User folder is created only
+ * on the first flush of the folder. User folders may be
+ * flushed in parallel, however every folder is handled by single thread.
+ * Optionally serves reads from the pool of memory mapped files.
+ *
+ * Keeps in-memory index of all series files. Every new series is appended to
+ * the index file before its first point is written, so index is restored from that
+ * file on start. Data folder is scanned only once, when there is no index file yet.
+ * Removed series are dropped from the index file when it is rewritten on close.
+ */
+public class FileReportingStorage implements ReportingStorage {
+
+    private static final Logger log = LogManager.getLogger(FileReportingStorage.class);
+
+    private static final String SERIES_INDEX_FILENAME = "series.idx";
+
+    private final String dataFolder;
+
+    //may be null, in that case mmap is disabled
+    public final MappedReportingFileCache mappedFilesCache;
+
+    private final int flushThreads;
+    private final ExecutorService flushExecutor;
+
+    //userReportingDir -> series file names
+    private final ConcurrentHashMap<String, Set<String>> seriesIndex = new ConcurrentHashMap<>();
+    private volatile boolean seriesIndexLoaded;
+    private final Object seriesIndexScanLock = new Object();
+    private final Path seriesIndexPath;
+    //guarded by seriesIndex, new series are appended to the index file only when it has all other series
+    private boolean seriesIndexPersisted;
+    private FileChannel seriesIndexChannel;
+    //retain replaces the file, so it should never interleave with the append of the flush
+    private final ReentrantReadWriteLock retainLock = new ReentrantReadWriteLock();
+    private final LongAdder writtenBytes = new LongAdder();
+    //user folders that are known to exist, so flush doesn't check them every time
+    private final Set<String> createdUserDirs = ConcurrentHashMap.newKeySet();
+
+    public FileReportingStorage(String dataFolder) {
+        this(dataFolder, null);
+    }
+
+    public FileReportingStorage(String dataFolder, MappedReportingFileCache mappedFilesCache) {
+        this(dataFolder, mappedFilesCache, 1);
+    }
+
+    public FileReportingStorage(String dataFolder, MappedReportingFileCache mappedFilesCache, int flushThreads) {
+        this.dataFolder = dataFolder;
+        this.mappedFilesCache = mappedFilesCache;
+        this.flushThreads = flushThreads;
+        //with single thread flush is performed within caller thread
+        this.flushExecutor = flushThreads > 1 ? Executors.newFixedThreadPool(flushThreads) : null;
+        this.seriesIndexPath = Paths.get(dataFolder, SERIES_INDEX_FILENAME);
+        this.seriesIndexLoaded = readSeriesIndex();
+        this.seriesIndexPersisted = seriesIndexLoaded;
+    }
+
+    @Override
+    public ByteBuffer read(String userReportingDir, String fileName, int count, int skip) throws IOException {
+        Path userDataFile = Paths.get(dataFolder, userReportingDir, fileName);
+        int recordSize = recordSize(fileName);
+        if (mappedFilesCache != null) {
+            ByteBuffer mapped = mappedFilesCache.read(userDataFile, count, skip, recordSize);
+            if (mapped != null) {
+                return mapped;
+            }
+        }
+        if (Files.exists(userDataFile)) {
+            return FileUtils.read(userDataFile, count, skip, recordSize);
+        }
+        return null;
+    }
+
+    @Override
+    public Map<AggregationKey, AggregationValue> write(GraphGranularityType type,
+                                                       Map<AggregationKey, AggregationValue> points) {
+        if (points.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        retainLock.readLock().lock();
+        try {
+            return writeGrouped(type, points);
+        } finally {
+            retainLock.readLock().unlock();
+        }
+    }
+
+    private Map<AggregationKey, AggregationValue> writeGrouped(GraphGranularityType type,
+                                                               Map<AggregationKey, AggregationValue> points) {
+        //userDir -> fileName -> points of that file
+        Map<String, Map<String, List<AggregationKey>>> groupedKeys = new HashMap<>();
+        for (AggregationKey key : points.keySet()) {
+            String userReportingDir = FileUtils.getUserReportingDir(key.getEmail(), key.getAppName());
+            String fileName = generateFilename(key.getDashId(),
+                    key.getDeviceId(), key.getPinType(), key.getPin(), type.label);
+            groupedKeys.computeIfAbsent(userReportingDir, k -> new HashMap<>())
+                    .computeIfAbsent(fileName, k -> new ArrayList<>())
+                    .add(key);
+        }
+
+        if (flushExecutor == null || groupedKeys.size() == 1) {
+            Map<AggregationKey, AggregationValue> storedKeys = new HashMap<>(points.size());
+            for (Map.Entry<String, Map<String, List<AggregationKey>>> userEntry : groupedKeys.entrySet()) {
+                writeUserDir(type, userEntry.getKey(), userEntry.getValue(), points, storedKeys);
+            }
+            return storedKeys;
+        }
+
+        //each user folder is always handled by single writer
+        List<List<Map.Entry<String, Map<String, List<AggregationKey>>>>> partitions = new ArrayList<>(flushThreads);
+        for (int i = 0; i < flushThreads; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (Map.Entry<String, Map<String, List<AggregationKey>>> userEntry : groupedKeys.entrySet()) {
+            partitions.get((userEntry.getKey().hashCode() & Integer.MAX_VALUE) % flushThreads).add(userEntry);
+        }
+
+        List<Callable<Map<AggregationKey, AggregationValue>>> tasks = new ArrayList<>(flushThreads);
+        for (List<Map.Entry<String, Map<String, List<AggregationKey>>>> partition : partitions) {
+            if (!partition.isEmpty()) {
+                tasks.add(() -> {
+                    Map<AggregationKey, AggregationValue> storedKeys = new HashMap<>();
+                    for (Map.Entry<String, Map<String, List<AggregationKey>>> userEntry : partition) {
+                        writeUserDir(type, userEntry.getKey(), userEntry.getValue(), points, storedKeys);
+                    }
+                    return storedKeys;
+                });
+            }
+        }
+
+        Map<AggregationKey, AggregationValue> storedKeys = new HashMap<>(points.size());
+        try {
+            for (Future<Map<AggregationKey, AggregationValue>> future : flushExecutor.invokeAll(tasks)) {
+                storedKeys.putAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Reporting flush was interrupted.");
+        } catch (ExecutionException e) {
+            log.error("Error writing reporting data.", e.getCause());
+        }
+        return storedKeys;
+    }
+
+    private void writeUserDir(GraphGranularityType type, String userReportingDir,
+                              Map<String, List<AggregationKey>> files,
+                              Map<AggregationKey, AggregationValue> points,
+                              Map<AggregationKey, AggregationValue> storedKeys) {
+        Path userReportFolder = Paths.get(dataFolder, userReportingDir);
+        if (!createdUserDirs.contains(userReportingDir)) {
+            try {
+                Files.createDirectories(userReportFolder);
+            } catch (Exception e) {
+                log.error("Error creating reporting folder {}. Reason : {}", userReportFolder, e.getMessage());
+                return;
+            }
+            createdUserDirs.add(userReportingDir);
+        }
+
+        for (Map.Entry<String, List<AggregationKey>> fileEntry : files.entrySet()) {
+            List<AggregationKey> keys = fileEntry.getValue();
+            keys.sort(AggregationKey.AGGREGATION_KEY_COMPARATOR);
+
+            ByteBuffer buffer = ByteBuffer.allocate(keys.size() * SIZE_OF_REPORT_ENTRY);
+            for (AggregationKey key : keys) {
+                buffer.putDouble(points.get(key).calcAverage())
+                      .putLong(key.getTs(type));
+            }
+            buffer.flip();
+
+            if (append(userReportingDir, userReportFolder, fileEntry.getKey(), buffer)) {
+                for (AggregationKey key : keys) {
+                    storedKeys.put(key, points.get(key));
+                }
+            } else {
+                //folder may be removed outside of the server, so it is checked again on next flush
+                createdUserDirs.remove(userReportingDir);
+            }
+        }
+    }
+
+    private boolean append(String userReportingDir, Path userReportFolder, String fileName, ByteBuffer buffer) {
+        Path filePath = userReportFolder.resolve(fileName);
+        //series is indexed before its file is created, so it can't be missed after crash
+        addToIndex(userReportingDir, fileName);
+        try (FileChannel channel = FileChannel.open(filePath, CREATE, WRITE, APPEND)) {
+            while (buffer.hasRemaining()) {
+                writtenBytes.add(channel.write(buffer));
+            }
+            if (mappedFilesCache != null) {
+                mappedFilesCache.appended(filePath, channel.size());
+            }
+            return true;
+        } catch (Exception ioe) {
+            log.error("Error writing reporting file. Reason : {}", ioe.getMessage());
+            invalidate(filePath);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean storesRollups() {
+        return false;
+    }
+
+    @Override
+    public int delete(String userReportingDir, Function<Path, Boolean> filter) {
+        Path reportingFolderPath = Paths.get(dataFolder, userReportingDir);
+
+        int removedFilesCounter = 0;
+        try {
+            if (Files.exists(reportingFolderPath)) {
+                try (DirectoryStream<Path> reportingFolder = Files.newDirectoryStream(reportingFolderPath, "*")) {
+                    for (Path reportingFile : reportingFolder) {
+                        if (filter.apply(reportingFile)) {
+                            log.trace("Removing {}", reportingFile);
+                            FileUtils.deleteQuietly(reportingFile);
+                            invalidate(reportingFile);
+                            removeFromIndex(userReportingDir, reportingFile.getFileName().toString());
+                            removedFilesCounter++;
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error removing file : {}.", reportingFolderPath);
+        }
+        return removedFilesCounter;
+    }
+
+    @Override
+    public void delete(String userReportingDir, String fileName) {
+        Path userDataFile = Paths.get(dataFolder, userReportingDir, fileName);
+        FileUtils.deleteQuietly(userDataFile);
+        invalidate(userDataFile);
+        removeFromIndex(userReportingDir, fileName);
+    }
+
+    private void addToIndex(String userReportingDir, String fileName) {
+        Set<String> fileNames = seriesIndex.get(userReportingDir);
+        if (fileNames == null) {
+            fileNames = seriesIndex.computeIfAbsent(userReportingDir, k -> ConcurrentHashMap.newKeySet());
+        }
+        if (!fileNames.contains(fileName)) {
+            synchronized (seriesIndex) {
+                if (fileNames.add(fileName) && seriesIndexPersisted) {
+                    appendToSeriesIndexFile(userReportingDir, fileName);
+                }
+            }
+        }
+    }
+
+    private void appendToSeriesIndexFile(String userReportingDir, String fileName) {
+        ByteBuffer record = ByteBuffer.wrap(
+                (userReportingDir + '/' + fileName + '\n').getBytes(StandardCharsets.UTF_8));
+        try {
+            if (seriesIndexChannel == null) {
+                seriesIndexChannel = FileChannel.open(seriesIndexPath, CREATE, WRITE, APPEND);
+            }
+            while (record.hasRemaining()) {
+                seriesIndexChannel.write(record);
+            }
+        } catch (Exception e) {
+            //index file misses the series now, so it is ignored on next start
+            log.error("Error writing reporting series index. Reason : {}", e.getMessage());
+            seriesIndexPersisted = false;
+            try {
+                closeSeriesIndexChannel();
+            } catch (IOException ignored) {
+                //channel is dropped anyway
+            }
+            FileUtils.deleteQuietly(seriesIndexPath);
+        }
+    }
+
+    /**
+     * @return - true if index was restored from the index file.
+     */
+    private boolean readSeriesIndex() {
+        if (!Files.exists(seriesIndexPath)) {
+            return false;
+        }
+        long start = System.currentTimeMillis();
+        try (BufferedReader reader = Files.newBufferedReader(seriesIndexPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.lastIndexOf('/');
+                //last record may be incomplete after crash, its series is still written again
+                if (separator > 0 && line.endsWith(".bin")) {
+                    seriesIndex.computeIfAbsent(line.substring(0, separator), k -> ConcurrentHashMap.newKeySet())
+                            .add(line.substring(separator + 1));
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error reading reporting series index. Reason : {}", e.getMessage());
+            seriesIndex.clear();
+            FileUtils.deleteQuietly(seriesIndexPath);
+            return false;
+        }
+        log.info("Loaded reporting series index for {} users in {} ms.",
+                seriesIndex.size(), System.currentTimeMillis() - start);
+        return true;
+    }
+
+    /**
+     * Rewrites index file with series that exist at the moment, so removed series are dropped from it.
+     */
+    private void writeSeriesIndex() {
+        synchronized (seriesIndex) {
+            Path tempPath = seriesIndexPath.resolveSibling(SERIES_INDEX_FILENAME + ".tmp");
+            try {
+                closeSeriesIndexChannel();
+                try (BufferedWriter writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+                    for (Map.Entry<String, Set<String>> entry : seriesIndex.entrySet()) {
+                        for (String fileName : entry.getValue()) {
+                            writer.write(entry.getKey());
+                            writer.write('/');
+                            writer.write(fileName);
+                            writer.write('\n');
+                        }
+                    }
+                }
+                Files.move(tempPath, seriesIndexPath, REPLACE_EXISTING, ATOMIC_MOVE);
+                seriesIndexPersisted = true;
+            } catch (Exception e) {
+                log.error("Error writing reporting series index. Reason : {}", e.getMessage());
+            }
+        }
+    }
+
+    private void closeSeriesIndexChannel() throws IOException {
+        if (seriesIndexChannel != null) {
+            seriesIndexChannel.close();
+            seriesIndexChannel = null;
+        }
+    }
+
+    private void removeFromIndex(String userReportingDir, String fileName) {
+        Set<String> fileNames = seriesIndex.get(userReportingDir);
+        if (fileNames != null) {
+            fileNames.remove(fileName);
+        }
+    }
+
+    private void loadSeriesIndex() {
+        if (seriesIndexLoaded) {
+            return;
+        }
+        //flush is not blocked by the scan, series it adds meanwhile are kept in memory
+        synchronized (seriesIndexScanLock) {
+            if (seriesIndexLoaded) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            Path reportingFolderPath = Paths.get(dataFolder);
+            if (Files.exists(reportingFolderPath)) {
+                try (DirectoryStream<Path> reportingFolder = Files.newDirectoryStream(reportingFolderPath)) {
+                    for (Path userReportingDirectory : reportingFolder) {
+                        if (Files.isDirectory(userReportingDirectory)) {
+                            scanUserSeries(userReportingDirectory);
+                        }
+                    }
+                } catch (Exception e) {
+                    log.error("Error loading reporting series index. Reason : {}", e.getMessage());
+                    return;
+                }
+            }
+            synchronized (seriesIndex) {
+                writeSeriesIndex();
+                seriesIndexLoaded = true;
+            }
+            log.info("Built reporting series index for {} users in {} ms.",
+                    seriesIndex.size(), System.currentTimeMillis() - start);
+        }
+    }
+
+    private void scanUserSeries(Path userReportingDirectory) {
+        String userReportingDir = userReportingDirectory.getFileName().toString();
+        try (DirectoryStream<Path> userReportingFolder =
+                     Files.newDirectoryStream(userReportingDirectory, "*.bin")) {
+            Set<String> fileNames = seriesIndex.computeIfAbsent(userReportingDir,
+                    k -> ConcurrentHashMap.newKeySet());
+            for (Path userReportingFile : userReportingFolder) {
+                fileNames.add(userReportingFile.getFileName().toString());
+            }
+        } catch (Exception e) {
+            log.error("Error loading reporting series of {}. Reason : {}", userReportingDir, e.getMessage());
+        }
+    }
+
+    @Override
+    public void forEachSeries(BiConsumer<String, String> consumer) {
+        loadSeriesIndex();
+        for (Map.Entry<String, Set<String>> entry : seriesIndex.entrySet()) {
+            for (String fileName : entry.getValue()) {
+                consumer.accept(entry.getKey(), fileName);
+            }
+        }
+    }
+
+    private void invalidate(Path userDataFile) {
+        if (mappedFilesCache != null) {
+            mappedFilesCache.invalidate(userDataFile);
+        }
+    }
+
+    /**
+     * Points within the file are ordered by ts, so first point that should be kept
+     * is found with binary search and only the tail of the file is copied.
+     * File is replaced and not truncated in place, so existing mappings of that file stay valid.
+     */
+    @Override
+    public long retain(String userReportingDir, String fileName, long minTs) throws IOException {
+        Path userDataFile = Paths.get(dataFolder, userReportingDir, fileName);
+        retainLock.writeLock().lock();
+        int recordSize = recordSize(fileName);
+        try (FileChannel channel = FileChannel.open(userDataFile, READ)) {
+            long count = channel.size() / recordSize;
+            long firstToKeep = findFirstNotOlder(channel, count, recordSize, minTs);
+            if (firstToKeep == 0) {
+                return 0;
+            }
+            if (firstToKeep == count) {
+                FileUtils.deleteQuietly(userDataFile);
+                removeFromIndex(userReportingDir, fileName);
+            } else {
+                Path tempFile = userDataFile.resolveSibling(fileName + ".tmp");
+                try (FileChannel tempChannel = FileChannel.open(tempFile, CREATE, WRITE, TRUNCATE_EXISTING)) {
+                    long position = firstToKeep * recordSize;
+                    long size = count * recordSize;
+                    while (position < size) {
+                        position += channel.transferTo(position, size - position, tempChannel);
+                    }
+                }
+                Files.move(tempFile, userDataFile, REPLACE_EXISTING, ATOMIC_MOVE);
+            }
+            invalidate(userDataFile);
+            return firstToKeep;
+        } catch (NoSuchFileException e) {
+            removeFromIndex(userReportingDir, fileName);
+            return 0;
+        } finally {
+            retainLock.writeLock().unlock();
+        }
+    }
+
+    private static long findFirstNotOlder(FileChannel channel, long count, int recordSize,
+                                          long minTs) throws IOException {
+        ByteBuffer tsBuffer = ByteBuffer.allocate(8);
+        long low = 0;
+        long high = count;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            tsBuffer.clear();
+            //ts is the last field of the record
+            long position = (mid + 1) * recordSize - 8;
+            while (tsBuffer.hasRemaining()) {
+                if (channel.read(tsBuffer, position + tsBuffer.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+            if (tsBuffer.getLong(0) < minTs) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public long compact() {
+        //outdated points are removed in place
+        return 0;
+    }
+
+    @Override
+    public long getWrittenBytes() {
+        return writtenBytes.sum();
+    }
+
+    @Override
+    public void close() {
+        if (flushExecutor != null) {
+            flushExecutor.shutdown();
+        }
+        //without loaded index nothing is appended to the index file
+        if (seriesIndexLoaded) {
+            writeSeriesIndex();
+        }
+        if (mappedFilesCache != null) {
+            mappedFilesCache.invalidateAll();
+        }
+    }
+
+}
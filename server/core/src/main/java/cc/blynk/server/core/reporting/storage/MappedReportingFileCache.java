@@ -0,0 +1,224 @@
+package cc.blynk.server.core.reporting.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Bounded LRU pool of memory mapped reporting files. Used to serve hot
+ * history graph requests without opening the file and copying its tail
+ * into a new heap buffer on every request.
+ *
+ * Reporting files are append only, so mapping of the file prefix stays valid after append.
+ * Append only records new file size and next read of the file extends the mapping
+ * instead of dropping the file from the pool. Files that are replaced or removed
+ * are dropped with {@link #invalidate(Path)}.
+ *
+ * Returned buffers are read-only slices of the mapping and should not be kept
+ * after the request is served. Mappings that are evicted, extended or dropped are
+ * never unmapped explicitly, as slices of them may still be read by other threads
+ * and access to unmapped memory crashes the JVM. They are unmapped by GC
+ * once no slice references them, so pool limits apply only to pooled mappings.
+ */
+public class MappedReportingFileCache {
+
+    private final long maxMappedBytes;
+    private final int maxFiles;
+
+    //access ordered, so iteration starts from least recently used file
+    private final LinkedHashMap<Path, MappedFile> files = new LinkedHashMap<>(16, 0.75F, true);
+    private long mappedBytes;
+    //incremented on every modification, so file mapped concurrently with modification is not cached
+    private long version;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public MappedReportingFileCache(long maxMappedBytes, int maxFiles) {
+        this.maxMappedBytes = maxMappedBytes;
+        this.maxFiles = maxFiles;
+    }
+
+    /**
+     * Same as {@link cc.blynk.utils.FileUtils#read(Path, int, int, int)}, but without copying.
+     *
+     * @return - slice of mapped file (position at the end of data) or null if file doesn't exist,
+     *           has no requested data or is too big to be mapped
+     */
+    public ByteBuffer read(Path userDataFile, int count, int skip, int recordSize) throws IOException {
+        MappedFile mappedFile;
+        boolean grown;
+        long expectedVersion;
+        synchronized (this) {
+            mappedFile = files.get(userDataFile);
+            grown = mappedFile != null && mappedFile.isGrown();
+            expectedVersion = version;
+        }
+
+        MappedByteBuffer mapped;
+        if (mappedFile == null) {
+            misses.increment();
+            mapped = map(userDataFile);
+            if (mapped == null) {
+                return null;
+            }
+            mapped = put(userDataFile, mapped, expectedVersion);
+        } else if (grown) {
+            misses.increment();
+            mapped = map(userDataFile);
+            if (mapped == null) {
+                //file is too big to be mapped now
+                invalidate(userDataFile);
+                return null;
+            }
+            mapped = extend(userDataFile, mappedFile, mapped);
+        } else {
+            hits.increment();
+            mapped = mappedFile.buffer;
+        }
+
+        return slice(mapped, count, skip, recordSize);
+    }
+
+    private MappedByteBuffer map(Path userDataFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(userDataFile, READ)) {
+            long size = channel.size();
+            if (size == 0 || size > maxMappedBytes) {
+                return null;
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private synchronized MappedByteBuffer put(Path userDataFile, MappedByteBuffer mapped, long expectedVersion) {
+        if (version != expectedVersion) {
+            //used only by this read
+            return mapped;
+        }
+        MappedFile existing = files.get(userDataFile);
+        if (existing != null) {
+            return existing.buffer;
+        }
+        files.put(userDataFile, new MappedFile(mapped, mapped.capacity()));
+        mappedBytes += mapped.capacity();
+        evict(mapped);
+        return mapped;
+    }
+
+    /**
+     * Replaces mapping of the file that grew since it was mapped.
+     */
+    private synchronized MappedByteBuffer extend(Path userDataFile, MappedFile old, MappedByteBuffer mapped) {
+        if (files.get(userDataFile) != old) {
+            //file was invalidated or extended by another read
+            return mapped;
+        }
+        //file may grow again while it was mapped
+        files.put(userDataFile, new MappedFile(mapped, Math.max(old.fileSize, mapped.capacity())));
+        mappedBytes += mapped.capacity() - old.buffer.capacity();
+        evict(mapped);
+        return mapped;
+    }
+
+    private void evict(MappedByteBuffer mapped) {
+        Iterator<MappedFile> iterator = files.values().iterator();
+        while ((mappedBytes > maxMappedBytes || files.size() > maxFiles) && iterator.hasNext()) {
+            MappedFile eldest = iterator.next();
+            if (eldest.buffer == mapped) {
+                break;
+            }
+            mappedBytes -= eldest.buffer.capacity();
+            iterator.remove();
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer mapped, int count, int skip, int recordSize) {
+        int size = mapped.capacity();
+        int expectedMinimumLength = (count + skip) * recordSize;
+        int diff = size - expectedMinimumLength;
+        int startReadIndex = Math.max(0, diff);
+        int bufferSize = diff < 0 ? count * recordSize + diff : count * recordSize;
+        if (bufferSize <= 0) {
+            return null;
+        }
+
+        ByteBuffer duplicate = mapped.duplicate();
+        duplicate.limit(startReadIndex + bufferSize).position(startReadIndex);
+        ByteBuffer slice = duplicate.slice();
+        slice.position(slice.limit());
+        return slice;
+    }
+
+    /**
+     * Should be called every time data is appended to the file, so next read will extend the mapping.
+     */
+    public synchronized void appended(Path userDataFile, long newSize) {
+        version++;
+        MappedFile mappedFile = files.get(userDataFile);
+        if (mappedFile != null && newSize > mappedFile.fileSize) {
+            mappedFile.fileSize = newSize;
+        }
+    }
+
+    /**
+     * Should be called every time file is replaced or removed, so next read will map it again.
+     */
+    public synchronized void invalidate(Path userDataFile) {
+        version++;
+        MappedFile removed = files.remove(userDataFile);
+        if (removed != null) {
+            mappedBytes -= removed.buffer.capacity();
+        }
+    }
+
+    /**
+     * Drops all mappings from the pool.
+     */
+    public synchronized void invalidateAll() {
+        version++;
+        files.clear();
+        mappedBytes = 0;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public synchronized long getMappedBytes() {
+        return mappedBytes;
+    }
+
+    public synchronized int getMappedFiles() {
+        return files.size();
+    }
+
+    private static final class MappedFile {
+        final MappedByteBuffer buffer;
+        //size of the file on disk, may be bigger than mapping after append
+        long fileSize;
+
+        MappedFile(MappedByteBuffer buffer, long fileSize) {
+            this.buffer = buffer;
+            this.fileSize = fileSize;
+        }
+
+        boolean isGrown() {
+            return fileSize > buffer.capacity();
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationValue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Storage engine for aggregated reporting data (history graph points).
+ * Every series is identified by user reporting dir and reporting file name
+ * (see {@link cc.blynk.server.core.dao.ReportingDao#generateFilename}),
+ * so storages are interchangeable without changing any other code.
+ *
+ * Every stored point is value (double) and timestamp (long) - 16 bytes.
+ * Rollup series store single 40 bytes record per bucket (see {@link Rollups}),
+ * counts and skips of such series are in records. Rollups are optional,
+ * see {@link #storesRollups()}.
+ */
+public interface ReportingStorage extends Closeable {
+
+    /**
+     * Read bunch of last records of the series.
+     *
+     * @param userReportingDir - user specific reporting dir
+     * @param fileName         - name of the series
+     * @param count            - number of records to read
+     * @param skip             - number of entries to skip from the end
+     * @return - byte buffer with data (position at the end of data) or null if there is no data
+     */
+    ByteBuffer read(String userReportingDir, String fileName, int count, int skip) throws IOException;
+
+    /**
+     * Stores batch of aggregated points of the same granularity.
+     *
+     * @param type   - granularity of the points
+     * @param points - points to store
+     * @return - points that were successfully stored
+     */
+    Map<AggregationKey, AggregationValue> write(GraphGranularityType type,
+                                                Map<AggregationKey, AggregationValue> points);
+
+    /**
+     * @return - true if {@link #write} stores rollup series next to every average series,
+     *           otherwise min, max and sum are calculated from averages
+     */
+    boolean storesRollups();
+
+    /**
+     * Removes all series of the user that match the filter.
+     *
+     * @return - number of removed series
+     */
+    int delete(String userReportingDir, Function<Path, Boolean> filter);
+
+    void delete(String userReportingDir, String fileName);
+
+    /**
+     * Visits all stored series. Series are taken from the storage index, so it doesn't
+     * require scan of all user folders on every call.
+     *
+     * @param consumer - receives user reporting dir and file name of every series
+     */
+    void forEachSeries(BiConsumer<String, String> consumer);
+
+    /**
+     * Removes all points of the series that are older than minTs.
+     *
+     * @return - number of removed points
+     */
+    long retain(String userReportingDir, String fileName, long minTs) throws IOException;
+
+    /**
+     * Reclaims disk space of removed points in case storage doesn't do it in place.
+     *
+     * @return - number of bytes rewritten during operation
+     */
+    long compact() throws IOException;
+
+    /**
+     * @return - total number of bytes written to disk by {@link #write}, including
+     *           all storage specific headers
+     */
+    long getWrittenBytes();
+
+    @Override
+    void close();
+
+}
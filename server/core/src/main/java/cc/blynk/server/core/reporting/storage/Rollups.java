@@ -0,0 +1,171 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
+import cc.blynk.server.core.reporting.average.AggregationValue;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Rollup series keeps min, max, sum and count of every bucket next to the average series.
+ * Every bucket is stored as single 40 bytes record :
+ * [double min][double max][double sum][long count][long ts].
+ * Ts is the last field, same as for regular 16 bytes points, so storages find ts
+ * of any record at (record size - 8) and handle rollup series as any other series.
+ */
+public final class Rollups {
+
+    public static final int SIZE_OF_ROLLUP = 40;
+
+    private static final int MIN_OFFSET = 0;
+    private static final int MAX_OFFSET = 8;
+    private static final int SUM_OFFSET = 16;
+    private static final int COUNT_OFFSET = 24;
+    private static final int TS_OFFSET = 32;
+
+    private static final String HISTORY_PREFIX = "history_";
+    private static final String ROLLUP_PREFIX = "rollup_";
+
+    private Rollups() {
+    }
+
+    /**
+     * See {@link cc.blynk.server.core.dao.ReportingDao#generateFilename}.
+     */
+    public static String toRollupFilename(String fileName) {
+        return ROLLUP_PREFIX + fileName.substring(HISTORY_PREFIX.length());
+    }
+
+    public static boolean isRollupFilename(String fileName) {
+        return fileName.startsWith(ROLLUP_PREFIX);
+    }
+
+    /**
+     * @return - size of single record of the series in bytes
+     */
+    public static int recordSize(String fileName) {
+        return isRollupFilename(fileName) ? SIZE_OF_ROLLUP : SIZE_OF_REPORT_ENTRY;
+    }
+
+    public static void put(ByteBuffer buf, AggregationValue value, long ts) {
+        put(buf, value.getMin(), value.getMax(), value.getSum(), value.getCount(), ts);
+    }
+
+    private static void put(ByteBuffer buf, double min, double max, double sum, long count, long ts) {
+        buf.putDouble(min)
+           .putDouble(max)
+           .putDouble(sum)
+           .putLong(count)
+           .putLong(ts);
+    }
+
+    public static double getMin(ByteBuffer rollups, int position) {
+        return rollups.getDouble(position + MIN_OFFSET);
+    }
+
+    public static double getMax(ByteBuffer rollups, int position) {
+        return rollups.getDouble(position + MAX_OFFSET);
+    }
+
+    public static double getSum(ByteBuffer rollups, int position) {
+        return rollups.getDouble(position + SUM_OFFSET);
+    }
+
+    public static long getCount(ByteBuffer rollups, int position) {
+        return rollups.getLong(position + COUNT_OFFSET);
+    }
+
+    /**
+     * Median can't be calculated from rollups, average is stored as separate series anyway.
+     */
+    public static boolean isRollupFunction(AggregationFunctionType functionType) {
+        return functionType == AggregationFunctionType.MIN
+                || functionType == AggregationFunctionType.MAX
+                || functionType == AggregationFunctionType.SUM;
+    }
+
+    /**
+     * Converts rollups read from the storage to the regular series of requested function.
+     *
+     * @param rollups - rollups with position at the end of data
+     * @return - series with position at the end of data
+     */
+    public static ByteBuffer toSeries(ByteBuffer rollups, AggregationFunctionType functionType) {
+        ((Buffer) rollups).flip();
+        int buckets = rollups.remaining() / SIZE_OF_ROLLUP;
+        int valueOffset = offset(functionType);
+        ByteBuffer result = ByteBuffer.allocate(buckets * SIZE_OF_REPORT_ENTRY);
+        for (int i = 0; i < buckets; i++) {
+            int bucketStart = rollups.position() + i * SIZE_OF_ROLLUP;
+            result.putDouble(rollups.getDouble(bucketStart + valueOffset))
+                  .putLong(rollups.getLong(bucketStart + TS_OFFSET));
+        }
+        return result;
+    }
+
+    /**
+     * Completes rollups with buckets that were stored before rollups were introduced.
+     * Only average is known for such buckets, so it is used as min, max and sum with count 1.
+     *
+     * @param averages - average series with position at the end of data
+     * @param rollups  - rollups of the same series with position at the end of data, may be null
+     * @return - rollups with position at the end of data
+     */
+    public static ByteBuffer merge(ByteBuffer averages, ByteBuffer rollups) {
+        ((Buffer) averages).flip();
+        long firstRollupTs = Long.MAX_VALUE;
+        int rollupsSize = 0;
+        if (rollups != null) {
+            ((Buffer) rollups).flip();
+            rollupsSize = rollups.remaining();
+            if (rollupsSize > 0) {
+                firstRollupTs = rollups.getLong(rollups.position() + TS_OFFSET);
+            }
+        }
+
+        int olderPoints = 0;
+        while (olderPoints * SIZE_OF_REPORT_ENTRY < averages.remaining()
+                && averages.getLong(averages.position() + olderPoints * SIZE_OF_REPORT_ENTRY + 8) < firstRollupTs) {
+            olderPoints++;
+        }
+
+        ByteBuffer result = ByteBuffer.allocate(olderPoints * SIZE_OF_ROLLUP + rollupsSize);
+        for (int i = 0; i < olderPoints; i++) {
+            double avg = averages.getDouble();
+            long ts = averages.getLong();
+            put(result, avg, avg, avg, 1, ts);
+        }
+        if (rollups != null) {
+            result.put(rollups);
+        }
+        return result;
+    }
+
+    /**
+     * Reads single bucket of the rollup series into the value.
+     */
+    public static void read(ByteBuffer rollups, AggregationValue value) {
+        double min = rollups.getDouble();
+        double max = rollups.getDouble();
+        double sum = rollups.getDouble();
+        long count = rollups.getLong();
+        rollups.getLong();
+        value.add(sum, count, min, max);
+    }
+
+    private static int offset(AggregationFunctionType functionType) {
+        switch (functionType) {
+            case MIN :
+                return MIN_OFFSET;
+            case MAX :
+                return MAX_OFFSET;
+            case SUM :
+                return SUM_OFFSET;
+            default :
+                throw new IllegalArgumentException("Function " + functionType + " is not stored in rollups.");
+        }
+    }
+
+}
@@ -0,0 +1,1216 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static cc.blynk.server.core.dao.ReportingDao.generateFilename;
+import static cc.blynk.server.core.reporting.storage.Rollups.toRollupFilename;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Reporting storage that keeps all series in a few append-only segment files
+ * instead of one file per pin per granularity.
+ *
+ * Every flush appends one chunk per series to the active segment:
+ * [series id (int)][data size in bytes (int)][points count * (value (double) + ts (long))].
+ * Rollup series (see {@link Rollups}) have 40 bytes record per bucket instead of the point.
+ * Chunk header keeps size in bytes, so chunks of removed series are skipped without knowing their records.
+ * Series names are stored in separate append-only index file:
+ * [series id (int)][name length (short)][user reporting dir + '/' + file name] or
+ * [series id (int)][-1] for removed series or
+ * [series id (int)][-2][points count (int)] for the oldest points of the series removed by retention.
+ * Names longer than {@link Short#MAX_VALUE} bytes don't fit the record, so such series are not stored.
+ * Every index record is forced to disk before the chunks that depend on it are written.
+ * Chunks of the failed flush are truncated, so they never show up after restart.
+ *
+ * On start index and segment headers are scanned in order to build in-memory
+ * series index with location of every chunk. Space of removed series and points
+ * is reclaimed during {@link #compact()}.
+ */
+public class SegmentedReportingStorage implements ReportingStorage {
+
+    private static final Logger log = LogManager.getLogger(SegmentedReportingStorage.class);
+
+    public static final String SEGMENTS_FOLDER = "segments";
+    private static final String INDEX_FILENAME = "series.idx";
+    private static final String COMPACTION_MARKER_FILENAME = "compaction";
+    private static final String SEGMENT_PREFIX = "segment_";
+    private static final String SEGMENT_EXTENSION = ".seg";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final String COMPACTED_PREFIX = "compacted_";
+
+    //series id + data size
+    private static final int CHUNK_HEADER_SIZE = 8;
+    private static final short REMOVED_SERIES = -1;
+    private static final short RETAINED_SERIES = -2;
+    //name length is stored as short, negative values are reserved for the records above
+    private static final int MAX_NAME_LENGTH = Short.MAX_VALUE;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+    private final Path segmentsFolder;
+    private final long maxSegmentSize;
+
+    //guards in-memory index and segments map. disk reads are performed under read lock,
+    //so segments can't be removed while they are read.
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    //userReportingDir -> fileName -> series
+    private final Map<String, Map<String, Series>> index = new HashMap<>();
+    private final TreeMap<Integer, FileChannel> segments = new TreeMap<>();
+
+    //only one compaction at a time, compaction holds storage monitor only at the start and at the end
+    private final Object compactionLock = new Object();
+
+    //modified only within synchronized mutators
+    private FileChannel indexChannel;
+    private int activeSegmentId;
+    private long activeSegmentSize;
+    private int lastSeriesId;
+    //size of removed points that are still on disk
+    private long garbageSize;
+    private final LongAdder writtenBytes = new LongAdder();
+
+    public SegmentedReportingStorage(String dataFolder, long maxSegmentSize) {
+        this.segmentsFolder = Paths.get(dataFolder, SEGMENTS_FOLDER);
+        this.maxSegmentSize = Math.min(maxSegmentSize, Integer.MAX_VALUE);
+        try {
+            Files.createDirectories(segmentsFolder);
+            finishCompaction();
+            Map<Integer, Series> seriesById = loadIndex();
+            loadSegments(seriesById);
+            this.indexChannel = FileChannel.open(segmentsFolder.resolve(INDEX_FILENAME), CREATE, WRITE);
+            log.info("Loaded {} reporting series from {} segments.", seriesById.size(), segments.size());
+        } catch (IOException e) {
+            throw new RuntimeException("Error loading reporting segments from " + segmentsFolder, e);
+        }
+    }
+
+    private Map<Integer, Series> loadIndex() throws IOException {
+        Map<Integer, Series> seriesById = new HashMap<>();
+        Path indexPath = segmentsFolder.resolve(INDEX_FILENAME);
+        if (Files.notExists(indexPath)) {
+            return seriesById;
+        }
+
+        long validLength = 0;
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            while (true) {
+                int id = dis.readInt();
+                short length = dis.readShort();
+                if (length == REMOVED_SERIES) {
+                    Series removed = seriesById.remove(id);
+                    if (removed != null) {
+                        removeFromIndex(removed);
+                    }
+                    validLength += 6;
+                } else if (length == RETAINED_SERIES) {
+                    int removedPoints = dis.readInt();
+                    Series series = seriesById.get(id);
+                    if (series != null) {
+                        series.pendingRemovedPoints += removedPoints;
+                    }
+                    validLength += 10;
+                } else {
+                    byte[] name = new byte[length];
+                    dis.readFully(name);
+                    Series series = Series.parse(id, new String(name, StandardCharsets.UTF_8));
+                    seriesById.put(id, series);
+                    index.computeIfAbsent(series.userReportingDir, k -> new HashMap<>())
+                            .put(series.fileName, series);
+                    validLength += 6 + length;
+                }
+                lastSeriesId = Math.max(lastSeriesId, id);
+            }
+        } catch (EOFException eof) {
+            //end of index or partially written last record
+        }
+
+        try (FileChannel channel = FileChannel.open(indexPath, WRITE)) {
+            if (channel.size() > validLength) {
+                log.warn("Reporting series index is corrupted at {}. Truncating.", validLength);
+                channel.truncate(validLength);
+            }
+        }
+        return seriesById;
+    }
+
+    private void loadSegments(Map<Integer, Series> seriesById) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(segmentsFolder, "*" + SEGMENT_EXTENSION)) {
+            for (Path segmentPath : stream) {
+                segments.put(parseSegmentId(segmentPath), FileChannel.open(segmentPath, READ, WRITE));
+            }
+        }
+
+        for (Map.Entry<Integer, FileChannel> entry : segments.entrySet()) {
+            int segmentId = entry.getKey();
+            FileChannel channel = entry.getValue();
+            long size = channel.size();
+            long position = 0;
+            InputStream is = new BufferedInputStream(Channels.newInputStream(channel.position(0)),
+                    WRITE_BUFFER_SIZE);
+            DataInputStream dis = new DataInputStream(is);
+            while (position + CHUNK_HEADER_SIZE <= size) {
+                int seriesId = dis.readInt();
+                int dataSize = dis.readInt();
+                long chunkSize = CHUNK_HEADER_SIZE + (long) dataSize;
+                if (dataSize < 0 || position + chunkSize > size) {
+                    break;
+                }
+                Series series = seriesById.get(seriesId);
+                if (series != null) {
+                    series.addChunk(segmentId, position + CHUNK_HEADER_SIZE, dataSize / series.recordSize);
+                } else {
+                    garbageSize += chunkSize;
+                }
+                skipFully(dis, chunkSize - CHUNK_HEADER_SIZE);
+                position += chunkSize;
+            }
+            if (position < size) {
+                log.warn("Reporting segment {} is corrupted at {}. Truncating.", segmentId, position);
+                channel.truncate(position);
+            }
+            activeSegmentId = segmentId;
+            activeSegmentSize = position;
+        }
+
+        for (Series series : seriesById.values()) {
+            if (series.pendingRemovedPoints > 0) {
+                garbageSize += series.removeFirst(series.pendingRemovedPoints) * series.recordSize;
+                series.pendingRemovedPoints = 0;
+            }
+        }
+
+        if (segments.isEmpty()) {
+            openSegment(0);
+        }
+    }
+
+    private static void skipFully(DataInputStream dis, long bytes) throws IOException {
+        while (bytes > 0) {
+            int skipped = dis.skipBytes((int) Math.min(bytes, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            bytes -= skipped;
+        }
+    }
+
+    private static int parseSegmentId(Path segmentPath) {
+        String name = segmentPath.getFileName().toString();
+        int end = name.indexOf('.');
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), end));
+    }
+
+    private Path segmentPath(int segmentId, String extension) {
+        return segmentsFolder.resolve(SEGMENT_PREFIX + segmentId + extension);
+    }
+
+    private void openSegment(int segmentId) throws IOException {
+        FileChannel channel = openSegmentChannel(segmentPath(segmentId, SEGMENT_EXTENSION));
+        lock.writeLock().lock();
+        try {
+            segments.put(segmentId, channel);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        activeSegmentId = segmentId;
+        activeSegmentSize = 0;
+    }
+
+    FileChannel openSegmentChannel(Path segmentPath) throws IOException {
+        return FileChannel.open(segmentPath, CREATE, READ, WRITE);
+    }
+
+    private Series getSeries(String userReportingDir, String fileName) {
+        Map<String, Series> userSeries = index.get(userReportingDir);
+        if (userSeries == null) {
+            return null;
+        }
+        return userSeries.get(fileName);
+    }
+
+    private void removeFromIndex(Series series) {
+        Map<String, Series> userSeries = index.get(series.userReportingDir);
+        if (userSeries != null) {
+            userSeries.remove(series.fileName);
+            if (userSeries.isEmpty()) {
+                index.remove(series.userReportingDir);
+            }
+        }
+    }
+
+    @Override
+    public ByteBuffer read(String userReportingDir, String fileName, int count, int skip) throws IOException {
+        lock.readLock().lock();
+        try {
+            Series series = getSeries(userReportingDir, fileName);
+            if (series == null) {
+                return null;
+            }
+
+            long end = series.pointsCount - skip;
+            long start = Math.max(0, end - count);
+            if (end <= start) {
+                return null;
+            }
+            return readPoints(series.chunks, series.chunksSize, series.pointsCount, series.recordSize, start, end);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads points [start, end) of the series with given chunks. Should be called under read lock.
+     *
+     * @return - byte buffer with data (position at the end of data)
+     */
+    private ByteBuffer readPoints(long[] chunks, int chunksSize, long pointsCount, int recordSize,
+                                  long start, long end) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) (end - start) * recordSize);
+        long chunkEnd = pointsCount;
+        for (int i = chunksSize - 1; i >= 0 && chunkEnd > start; i--) {
+            long chunkStart = chunkEnd - Series.count(chunks, i);
+            if (chunkStart < end) {
+                long from = Math.max(start, chunkStart);
+                long to = Math.min(end, chunkEnd);
+                ByteBuffer target = buf.duplicate();
+                target.limit((int) (to - start) * recordSize);
+                target.position((int) (from - start) * recordSize);
+                long position = Series.offset(chunks, i) + (from - chunkStart) * recordSize;
+                readFully(segments.get(Series.segmentId(chunks, i)), target, position);
+            }
+            chunkEnd = chunkStart;
+        }
+        buf.position(buf.capacity());
+        return buf;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    @Override
+    public synchronized Map<AggregationKey, AggregationValue> write(GraphGranularityType type,
+                                                                    Map<AggregationKey, AggregationValue> points) {
+        if (points.isEmpty()) {
+            return points;
+        }
+
+        ArrayList<AggregationKey> keys = new ArrayList<>(points.keySet());
+        keys.sort(AggregationKey.AGGREGATION_KEY_COMPARATOR);
+
+        //series -> points of that series ordered by ts
+        Map<Series, List<AggregationKey>> batch = new LinkedHashMap<>();
+        NewSeriesRecords newSeries = new NewSeriesRecords();
+        List<AggregationKey> rejectedKeys = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            for (AggregationKey key : keys) {
+                String userReportingDir = FileUtils.getUserReportingDir(key.getEmail(), key.getAppName());
+                String fileName = generateFilename(key.getDashId(),
+                        key.getDeviceId(), key.getPinType(), key.getPin(), type.label);
+                //rollup name is the longer one, so it is checked first
+                Series rollupSeries = getOrCreateSeries(userReportingDir, toRollupFilename(fileName), newSeries);
+                if (rollupSeries == null) {
+                    rejectedKeys.add(key);
+                    continue;
+                }
+                Series series = getOrCreateSeries(userReportingDir, fileName, newSeries);
+                //rollup goes first, so average point is never stored without its rollup
+                batch.computeIfAbsent(rollupSeries, k -> new ArrayList<>()).add(key);
+                batch.computeIfAbsent(series, k -> new ArrayList<>()).add(key);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        //series names should be on disk before chunks that reference them
+        if (newSeries.size() > 0) {
+            try {
+                ByteBuffer records = newSeries.toByteBuffer();
+                writtenBytes.add(records.remaining());
+                appendToIndex(records);
+            } catch (IOException e) {
+                log.error("Error writing reporting series index. Reason : {}", e.getMessage());
+                dropNewSeries(newSeries);
+                return new HashMap<>();
+            }
+        }
+
+        int segmentId = activeSegmentId;
+        long segmentSize = activeSegmentSize;
+        try {
+            appendChunks(type, points, batch);
+        } catch (IOException e) {
+            log.error("Error writing reporting segment. Reason : {}", e.getMessage());
+            truncateSegments(segmentId, segmentSize);
+            return new HashMap<>();
+        }
+
+        if (rejectedKeys.isEmpty()) {
+            return points;
+        }
+        Map<AggregationKey, AggregationValue> storedPoints = new HashMap<>(points);
+        storedPoints.keySet().removeAll(rejectedKeys);
+        return storedPoints;
+    }
+
+    /**
+     * @return - series or null if series name doesn't fit the index record.
+     */
+    private Series getOrCreateSeries(String userReportingDir, String fileName, NewSeriesRecords newSeries) {
+        Series series = getSeries(userReportingDir, fileName);
+        if (series == null) {
+            byte[] name = Series.name(userReportingDir, fileName).getBytes(StandardCharsets.UTF_8);
+            if (name.length > MAX_NAME_LENGTH) {
+                log.warn("Reporting series name is too long ({} bytes). Skipping.", name.length);
+                return null;
+            }
+            series = new Series(++lastSeriesId, userReportingDir, fileName);
+            index.computeIfAbsent(userReportingDir, k -> new HashMap<>()).put(fileName, series);
+            newSeries.add(series, name);
+        }
+        return series;
+    }
+
+    private void dropNewSeries(NewSeriesRecords newSeries) {
+        lock.writeLock().lock();
+        try {
+            for (Series series : newSeries.series) {
+                removeFromIndex(series);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends records to the index file and forces them to disk. In case of error
+     * partially written records are truncated, so next records are not appended after them.
+     */
+    private void appendToIndex(ByteBuffer records) throws IOException {
+        long indexSize = indexChannel.size();
+        try {
+            writeFully(indexChannel, records, indexSize);
+            indexChannel.force(false);
+        } catch (IOException e) {
+            try {
+                indexChannel.truncate(indexSize);
+            } catch (IOException truncateError) {
+                log.error("Error truncating reporting series index. Reason : {}", truncateError.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Drops chunks of the failed write. Series reference chunks only after the whole write
+     * succeeded, however chunks that are already on disk would be attached to series
+     * on next start, so points retried by the caller would be stored twice.
+     */
+    private void truncateSegments(int segmentId, long segmentSize) {
+        try {
+            lock.writeLock().lock();
+            try {
+                for (; activeSegmentId > segmentId; activeSegmentId--) {
+                    segments.remove(activeSegmentId).close();
+                    Files.deleteIfExists(segmentPath(activeSegmentId, SEGMENT_EXTENSION));
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            segments.get(segmentId).truncate(segmentSize);
+            activeSegmentSize = segmentSize;
+        } catch (IOException e) {
+            log.error("Error truncating reporting segment {}. Reason : {}", segmentId, e.getMessage());
+        }
+    }
+
+    private void appendChunks(GraphGranularityType type, Map<AggregationKey, AggregationValue> points,
+                              Map<Series, List<AggregationKey>> batch) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        List<long[]> chunks = new ArrayList<>(batch.size());
+        List<Series> chunkSeries = new ArrayList<>(batch.size());
+
+        long bufferStart = activeSegmentSize;
+        for (Map.Entry<Series, List<AggregationKey>> entry : batch.entrySet()) {
+            List<AggregationKey> seriesKeys = entry.getValue();
+            boolean rollup = entry.getKey().rollup;
+            int pointsCount = seriesKeys.size();
+            int dataSize = pointsCount * entry.getKey().recordSize;
+            int chunkSize = CHUNK_HEADER_SIZE + dataSize;
+
+            if (buf.position() > 0 && buf.remaining() < chunkSize) {
+                bufferStart = flushBuffer(buf, bufferStart);
+            }
+            if (activeSegmentSize + buf.position() > 0
+                    && activeSegmentSize + buf.position() + chunkSize > maxSegmentSize) {
+                bufferStart = flushBuffer(buf, bufferStart);
+                segments.get(activeSegmentId).force(false);
+                openSegment(activeSegmentId + 1);
+                bufferStart = 0;
+            }
+            if (chunkSize > buf.capacity()) {
+                buf = ByteBuffer.allocateDirect(chunkSize);
+            }
+
+            chunks.add(new long[] {activeSegmentId,
+                    bufferStart + buf.position() + CHUNK_HEADER_SIZE, pointsCount});
+            chunkSeries.add(entry.getKey());
+            buf.putInt(entry.getKey().id)
+               .putInt(dataSize);
+            for (AggregationKey key : seriesKeys) {
+                if (rollup) {
+                    Rollups.put(buf, points.get(key), key.getTs(type));
+                } else {
+                    buf.putDouble(points.get(key).calcAverage())
+                       .putLong(key.getTs(type));
+                }
+            }
+        }
+        flushBuffer(buf, bufferStart);
+        segments.get(activeSegmentId).force(false);
+
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < chunks.size(); i++) {
+                long[] chunk = chunks.get(i);
+                chunkSeries.get(i).addChunk((int) chunk[0], chunk[1], (int) chunk[2]);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private long flushBuffer(ByteBuffer buf, long bufferStart) throws IOException {
+        buf.flip();
+        int length = buf.remaining();
+        writeFully(segments.get(activeSegmentId), buf, bufferStart);
+        writtenBytes.add(length);
+        buf.clear();
+        activeSegmentSize = bufferStart + length;
+        return activeSegmentSize;
+    }
+
+    @Override
+    public synchronized int delete(String userReportingDir, Function<Path, Boolean> filter) {
+        List<Series> removed = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            Map<String, Series> userSeries = index.get(userReportingDir);
+            if (userSeries != null) {
+                for (Iterator<Series> iterator = userSeries.values().iterator(); iterator.hasNext();) {
+                    Series series = iterator.next();
+                    if (filter.apply(Paths.get(series.fileName))) {
+                        iterator.remove();
+                        removed.add(series);
+                        garbageSize += series.pointsCount * series.recordSize;
+                    }
+                }
+                if (userSeries.isEmpty()) {
+                    index.remove(userReportingDir);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        writeRemoved(removed);
+        return removed.size();
+    }
+
+    @Override
+    public synchronized void delete(String userReportingDir, String fileName) {
+        Series series;
+        lock.writeLock().lock();
+        try {
+            series = getSeries(userReportingDir, fileName);
+            if (series != null) {
+                removeFromIndex(series);
+                garbageSize += series.pointsCount * series.recordSize;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (series != null) {
+            List<Series> removed = new ArrayList<>(1);
+            removed.add(series);
+            writeRemoved(removed);
+        }
+    }
+
+    private void writeRemoved(List<Series> removed) {
+        if (removed.isEmpty()) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(removed.size() * 6);
+        for (Series series : removed) {
+            buf.putInt(series.id).putShort(REMOVED_SERIES);
+        }
+        buf.flip();
+        try {
+            appendToIndex(buf);
+        } catch (IOException e) {
+            log.error("Error removing reporting series. Reason : {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean storesRollups() {
+        return true;
+    }
+
+    @Override
+    public void forEachSeries(BiConsumer<String, String> consumer) {
+        List<Series> allSeries = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Map<String, Series> userSeries : index.values()) {
+                allSeries.addAll(userSeries.values());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        //consumer may modify storage, so it is called without lock
+        for (Series series : allSeries) {
+            consumer.accept(series.userReportingDir, series.fileName);
+        }
+    }
+
+    /**
+     * Outdated points are removed only from in-memory index and retention record
+     * is appended to the index file. Disk space is reclaimed later by {@link #compact()}.
+     */
+    @Override
+    public synchronized long retain(String userReportingDir, String fileName, long minTs) throws IOException {
+        Series series;
+        long removedPoints = 0;
+        lock.readLock().lock();
+        try {
+            series = getSeries(userReportingDir, fileName);
+            if (series == null) {
+                return 0;
+            }
+            ByteBuffer tsBuffer = ByteBuffer.allocate(8);
+            for (int i = 0; i < series.chunksSize; i++) {
+                FileChannel channel = segments.get(series.segmentId(i));
+                int count = series.count(i);
+                int low = 0;
+                int high = count;
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    tsBuffer.clear();
+                    //ts is the last field of the record
+                    readFully(channel, tsBuffer, series.offset(i) + (long) (mid + 1) * series.recordSize - 8);
+                    if (tsBuffer.getLong(0) < minTs) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                removedPoints += low;
+                if (low < count) {
+                    break;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (removedPoints == 0) {
+            return 0;
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(10).putInt(series.id).putShort(RETAINED_SERIES)
+                .putInt((int) removedPoints);
+        record.flip();
+        appendToIndex(record);
+
+        lock.writeLock().lock();
+        try {
+            series.removeFirst(removedPoints);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        garbageSize += removedPoints * series.recordSize;
+        return removedPoints;
+    }
+
+    /**
+     * Rewrites all live series into new segments in case at least quarter of
+     * segments space is occupied by removed points. Old segments are removed afterwards.
+     *
+     * Points are copied to temp files without holding the storage monitor, so flush,
+     * retention and removal are not blocked. Monitor is taken only at the end in order to copy
+     * points appended in the meantime and to swap chunks of all series to the new segments.
+     */
+    @Override
+    public long compact() throws IOException {
+        synchronized (compactionLock) {
+            List<SeriesSnapshot> snapshots = new ArrayList<>();
+            synchronized (this) {
+                long totalSize = 0;
+                lock.readLock().lock();
+                try {
+                    for (FileChannel channel : segments.values()) {
+                        totalSize += channel.size();
+                    }
+                    if (garbageSize == 0 || garbageSize * 4 < totalSize) {
+                        return 0;
+                    }
+                    for (Map<String, Series> userSeries : index.values()) {
+                        for (Series series : userSeries.values()) {
+                            snapshots.add(new SeriesSnapshot(series));
+                        }
+                    }
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+
+            try (CompactedSegments compacted = new CompactedSegments()) {
+                for (SeriesSnapshot snapshot : snapshots) {
+                    if (snapshot.pointsCount == 0) {
+                        continue;
+                    }
+                    ByteBuffer data;
+                    lock.readLock().lock();
+                    try {
+                        data = readPoints(snapshot.chunks, snapshot.chunksSize, snapshot.pointsCount,
+                                snapshot.series.recordSize, 0, snapshot.pointsCount);
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                    data.flip();
+                    snapshot.compactedChunk = compacted.append(snapshot.series.id, data, snapshot.pointsCount);
+                }
+
+                synchronized (this) {
+                    return swap(snapshots, compacted);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies points that were appended during compaction, writes new index and replaces
+     * old segments with compacted ones. Should be called under the storage monitor.
+     *
+     * @return - number of bytes rewritten during compaction
+     */
+    private long swap(List<SeriesSnapshot> snapshots, CompactedSegments compacted) throws IOException {
+        Map<Series, SeriesSnapshot> liveSeries = new LinkedHashMap<>();
+        long newGarbageSize = 0;
+        for (SeriesSnapshot snapshot : snapshots) {
+            Series series = snapshot.series;
+            if (getSeries(series.userReportingDir, series.fileName) != series) {
+                newGarbageSize += snapshot.pointsCount * series.recordSize;
+                continue;
+            }
+            //retention may remove points during compaction
+            snapshot.removedSinceSnapshot = Math.min(snapshot.pointsCount,
+                    series.removedPoints - snapshot.removedPoints);
+            newGarbageSize += snapshot.removedSinceSnapshot * series.recordSize;
+            long snapshotEnd = snapshot.removedPoints + snapshot.pointsCount;
+            long appended = series.removedPoints + series.pointsCount
+                    - Math.max(snapshotEnd, series.removedPoints);
+            snapshot.appendedChunk = catchUp(series, appended, compacted);
+            liveSeries.put(series, snapshot);
+        }
+
+        //series created during compaction
+        for (Map<String, Series> userSeries : index.values()) {
+            for (Series series : userSeries.values()) {
+                if (!liveSeries.containsKey(series)) {
+                    SeriesSnapshot snapshot = new SeriesSnapshot(series);
+                    snapshot.appendedChunk = catchUp(series, series.pointsCount, compacted);
+                    liveSeries.put(series, snapshot);
+                }
+            }
+        }
+        compacted.force();
+
+        int firstNewSegmentId = activeSegmentId + 1;
+        compacted.rename(firstNewSegmentId);
+        writeTempIndex(liveSeries);
+        writeCompactionMarker(firstNewSegmentId);
+        compacted.commit();
+
+        lock.writeLock().lock();
+        try {
+            for (SeriesSnapshot snapshot : liveSeries.values()) {
+                Series series = snapshot.series;
+                long[] chunk = snapshot.compactedChunk;
+                long removed = snapshot.removedSinceSnapshot;
+                series.clearChunks();
+                if (chunk != null && chunk[2] > removed) {
+                    series.addChunk(firstNewSegmentId + (int) chunk[0],
+                            chunk[1] + removed * series.recordSize, (int) (chunk[2] - removed));
+                }
+                long[] appendedChunk = snapshot.appendedChunk;
+                if (appendedChunk != null) {
+                    series.addChunk(firstNewSegmentId + (int) appendedChunk[0],
+                            appendedChunk[1], (int) appendedChunk[2]);
+                }
+            }
+            for (FileChannel oldSegment : segments.values()) {
+                oldSegment.close();
+            }
+            segments.clear();
+            indexChannel.close();
+            finishCompaction();
+            for (int id = firstNewSegmentId; id < firstNewSegmentId + compacted.size(); id++) {
+                segments.put(id, FileChannel.open(segmentPath(id, SEGMENT_EXTENSION), READ, WRITE));
+            }
+            indexChannel = FileChannel.open(segmentsFolder.resolve(INDEX_FILENAME), CREATE, WRITE);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        activeSegmentId = firstNewSegmentId + compacted.size() - 1;
+        activeSegmentSize = compacted.lastSize();
+        garbageSize = newGarbageSize;
+        return compacted.getDataSize();
+    }
+
+    /**
+     * Copies last points of the series that were appended after compaction snapshot.
+     *
+     * @return - location of the copied points within compacted segments or null if there is nothing to copy
+     */
+    private long[] catchUp(Series series, long appended, CompactedSegments compacted) throws IOException {
+        if (appended <= 0) {
+            return null;
+        }
+        ByteBuffer data = readPoints(series.chunks, series.chunksSize, series.pointsCount, series.recordSize,
+                series.pointsCount - appended, series.pointsCount);
+        data.flip();
+        return compacted.append(series.id, data, appended);
+    }
+
+    /**
+     * New index has single name record per live series and retention record in case
+     * compacted chunk of the series has points removed during compaction.
+     */
+    private void writeTempIndex(Map<Series, SeriesSnapshot> liveSeries) throws IOException {
+        Path tempIndexPath = segmentsFolder.resolve(INDEX_FILENAME + TEMP_EXTENSION);
+        try (FileChannel channel = FileChannel.open(tempIndexPath, CREATE, WRITE, TRUNCATE_EXISTING);
+             DataOutputStream dos = new DataOutputStream(
+                     new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            for (SeriesSnapshot snapshot : liveSeries.values()) {
+                Series series = snapshot.series;
+                byte[] name = series.name().getBytes(StandardCharsets.UTF_8);
+                dos.writeInt(series.id);
+                dos.writeShort(name.length);
+                dos.write(name);
+                long removed = snapshot.removedSinceSnapshot;
+                if (removed > 0) {
+                    dos.writeInt(series.id);
+                    dos.writeShort(RETAINED_SERIES);
+                    dos.writeInt((int) removed);
+                }
+            }
+            dos.flush();
+            channel.force(false);
+        }
+    }
+
+    private void writeCompactionMarker(int firstNewSegmentId) throws IOException {
+        Path tempMarker = segmentsFolder.resolve(COMPACTION_MARKER_FILENAME + TEMP_EXTENSION);
+        try (FileChannel channel = FileChannel.open(tempMarker, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            writeFully(channel, ByteBuffer.wrap(String.valueOf(firstNewSegmentId).getBytes(StandardCharsets.UTF_8)), 0);
+            channel.force(false);
+        }
+        Files.move(tempMarker, segmentsFolder.resolve(COMPACTION_MARKER_FILENAME), REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    /**
+     * Completes compaction that was interrupted (or just finished). Compacted segments
+     * and new index are written as temp files first. Once they are on disk compaction marker
+     * with the first compacted segment id is written. Only after that temp files are promoted
+     * and old segments are removed. Without marker temp files are just garbage of unfinished compaction.
+     */
+    private void finishCompaction() throws IOException {
+        Path marker = segmentsFolder.resolve(COMPACTION_MARKER_FILENAME);
+        int firstNewSegmentId = Integer.MAX_VALUE;
+        if (Files.exists(marker)) {
+            firstNewSegmentId = Integer.parseInt(
+                    new String(Files.readAllBytes(marker), StandardCharsets.UTF_8).trim());
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(segmentsFolder, SEGMENT_PREFIX + "*")) {
+            for (Path path : stream) {
+                int segmentId = parseSegmentId(path);
+                boolean isTemp = path.getFileName().toString().endsWith(TEMP_EXTENSION);
+                if (isTemp && segmentId >= firstNewSegmentId) {
+                    Files.move(path, segmentPath(segmentId, SEGMENT_EXTENSION), REPLACE_EXISTING, ATOMIC_MOVE);
+                } else if (isTemp || segmentId < firstNewSegmentId && firstNewSegmentId != Integer.MAX_VALUE) {
+                    Files.delete(path);
+                }
+            }
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(segmentsFolder,
+                COMPACTED_PREFIX + "*" + TEMP_EXTENSION)) {
+            for (Path path : stream) {
+                Files.delete(path);
+            }
+        }
+
+        Path tempIndexPath = segmentsFolder.resolve(INDEX_FILENAME + TEMP_EXTENSION);
+        if (Files.exists(tempIndexPath)) {
+            if (firstNewSegmentId == Integer.MAX_VALUE) {
+                Files.delete(tempIndexPath);
+            } else {
+                Files.move(tempIndexPath, segmentsFolder.resolve(INDEX_FILENAME), REPLACE_EXISTING, ATOMIC_MOVE);
+            }
+        }
+        FileUtils.deleteQuietly(marker);
+    }
+
+    @Override
+    public long getWrittenBytes() {
+        return writtenBytes.sum();
+    }
+
+    public int getSeriesCount() {
+        lock.readLock().lock();
+        try {
+            int count = 0;
+            for (Map<String, Series> userSeries : index.values()) {
+                count += userSeries.size();
+            }
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        lock.writeLock().lock();
+        try {
+            for (FileChannel channel : segments.values()) {
+                channel.close();
+            }
+            segments.clear();
+            indexChannel.close();
+        } catch (IOException e) {
+            log.error("Error closing reporting segments.", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Single series with locations of all its chunks.
+     * Chunk is stored as 2 longs : segment id and offset of the first point within segment, points count.
+     */
+    private static final class Series {
+
+        final int id;
+        final String userReportingDir;
+        final String fileName;
+        final boolean rollup;
+        //size of single point or rollup record
+        final int recordSize;
+
+        private long[] chunks = new long[4];
+        private int chunksSize;
+        private long pointsCount;
+        //all points removed from the series so far, so points could be matched between snapshots
+        private long removedPoints;
+        //removed by retention, applied once all chunks are loaded
+        long pendingRemovedPoints;
+
+        Series(int id, String userReportingDir, String fileName) {
+            this.id = id;
+            this.userReportingDir = userReportingDir;
+            this.fileName = fileName;
+            this.rollup = Rollups.isRollupFilename(fileName);
+            this.recordSize = Rollups.recordSize(fileName);
+        }
+
+        static Series parse(int id, String name) {
+            int separator = name.lastIndexOf('/');
+            return new Series(id, name.substring(0, separator), name.substring(separator + 1));
+        }
+
+        String name() {
+            return name(userReportingDir, fileName);
+        }
+
+        static String name(String userReportingDir, String fileName) {
+            return userReportingDir + '/' + fileName;
+        }
+
+        void addChunk(int segmentId, long offset, int count) {
+            if (chunksSize * 2 == chunks.length) {
+                long[] newChunks = new long[chunks.length * 2];
+                System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+                chunks = newChunks;
+            }
+            chunks[chunksSize * 2] = ((long) segmentId << 32) | offset;
+            chunks[chunksSize * 2 + 1] = count;
+            chunksSize++;
+            pointsCount += count;
+        }
+
+        /**
+         * Removes oldest points of the series.
+         *
+         * @return - number of actually removed points
+         */
+        long removeFirst(long count) {
+            long removed = 0;
+            int removedChunks = 0;
+            while (removedChunks < chunksSize && removed < count) {
+                int chunkCount = count(removedChunks);
+                long left = count - removed;
+                if (chunkCount <= left) {
+                    removed += chunkCount;
+                    removedChunks++;
+                } else {
+                    chunks[removedChunks * 2] += left * recordSize;
+                    chunks[removedChunks * 2 + 1] = chunkCount - left;
+                    removed += left;
+                }
+            }
+            if (removedChunks > 0) {
+                System.arraycopy(chunks, removedChunks * 2, chunks, 0, (chunksSize - removedChunks) * 2);
+                chunksSize -= removedChunks;
+            }
+            pointsCount -= removed;
+            removedPoints += removed;
+            return removed;
+        }
+
+        /**
+         * Removes all chunks, number of points removed so far is kept.
+         */
+        void clearChunks() {
+            chunks = new long[4];
+            chunksSize = 0;
+            pointsCount = 0;
+        }
+
+        int segmentId(int i) {
+            return segmentId(chunks, i);
+        }
+
+        long offset(int i) {
+            return offset(chunks, i);
+        }
+
+        int count(int i) {
+            return count(chunks, i);
+        }
+
+        static int segmentId(long[] chunks, int i) {
+            return (int) (chunks[i * 2] >>> 32);
+        }
+
+        static long offset(long[] chunks, int i) {
+            return chunks[i * 2] & 0xFFFFFFFFL;
+        }
+
+        static int count(long[] chunks, int i) {
+            return (int) chunks[i * 2 + 1];
+        }
+    }
+
+    /**
+     * Chunks of the series at the moment compaction started and locations of its compacted chunks.
+     * Points are numbered from the first point ever stored, so points removed or appended
+     * during compaction are found by comparison with the series at the end of compaction.
+     */
+    private static final class SeriesSnapshot {
+
+        final Series series;
+        final long[] chunks;
+        final int chunksSize;
+        final long removedPoints;
+        final long pointsCount;
+
+        //file index, offset and count of all points of the snapshot within compacted segments
+        long[] compactedChunk;
+        //points of the compacted chunk removed by retention during compaction
+        long removedSinceSnapshot;
+        //file index, offset and count of points appended during compaction
+        long[] appendedChunk;
+
+        SeriesSnapshot(Series series) {
+            this.series = series;
+            this.chunks = Arrays.copyOf(series.chunks, series.chunksSize * 2);
+            this.chunksSize = series.chunksSize;
+            this.removedPoints = series.removedPoints;
+            this.pointsCount = series.pointsCount;
+        }
+    }
+
+    /**
+     * Temp files with compacted chunks. Files get segment ids only when compaction is finished,
+     * as new segments may be opened by flush while points are copied.
+     */
+    private final class CompactedSegments implements Closeable {
+
+        private final List<FileChannel> channels = new ArrayList<>();
+        private final List<Path> paths = new ArrayList<>();
+        private long size;
+        private long dataSize;
+        //after marker is written temp files are part of the storage
+        private boolean committed;
+
+        CompactedSegments() throws IOException {
+            open(segmentsFolder.resolve(COMPACTED_PREFIX + 0 + TEMP_EXTENSION));
+        }
+
+        private void open(Path path) throws IOException {
+            channels.add(FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING));
+            paths.add(path);
+            size = 0;
+        }
+
+        /**
+         * @return - location of the chunk : file index, offset of the first point and points count
+         */
+        long[] append(int seriesId, ByteBuffer data, long pointsCount) throws IOException {
+            int chunkDataSize = data.remaining();
+            if (size > 0 && size + CHUNK_HEADER_SIZE + chunkDataSize > maxSegmentSize) {
+                channels.get(channels.size() - 1).force(false);
+                open(segmentsFolder.resolve(COMPACTED_PREFIX + channels.size() + TEMP_EXTENSION));
+            }
+            FileChannel channel = channels.get(channels.size() - 1);
+            ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_SIZE).putInt(seriesId).putInt(chunkDataSize);
+            header.flip();
+            writeFully(channel, header, size);
+            writeFully(channel, data, size + CHUNK_HEADER_SIZE);
+            long[] chunk = new long[] {channels.size() - 1, size + CHUNK_HEADER_SIZE, pointsCount};
+            size += CHUNK_HEADER_SIZE + chunkDataSize;
+            dataSize += chunkDataSize;
+            return chunk;
+        }
+
+        void force() throws IOException {
+            channels.get(channels.size() - 1).force(false);
+        }
+
+        /**
+         * Gives temp files segment ids, they are still temp until compaction marker is written.
+         */
+        void rename(int firstSegmentId) throws IOException {
+            for (int i = 0; i < paths.size(); i++) {
+                Path segmentPath = segmentPath(firstSegmentId + i, TEMP_EXTENSION);
+                Files.move(paths.get(i), segmentPath, REPLACE_EXISTING, ATOMIC_MOVE);
+                paths.set(i, segmentPath);
+            }
+        }
+
+        void commit() {
+            this.committed = true;
+        }
+
+        int size() {
+            return channels.size();
+        }
+
+        long lastSize() {
+            return size;
+        }
+
+        long getDataSize() {
+            return dataSize;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (FileChannel channel : channels) {
+                channel.close();
+            }
+            if (!committed) {
+                for (Path path : paths) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Accumulates index records of newly created series.
+     */
+    private static final class NewSeriesRecords {
+
+        private final List<byte[]> names = new ArrayList<>();
+        private final List<Series> series = new ArrayList<>();
+        private int length;
+
+        void add(Series newSeries, byte[] name) {
+            names.add(name);
+            series.add(newSeries);
+            length += 6 + name.length;
+        }
+
+        int size() {
+            return series.size();
+        }
+
+        ByteBuffer toByteBuffer() {
+            ByteBuffer buf = ByteBuffer.allocate(length);
+            for (int i = 0; i < series.size(); i++) {
+                byte[] name = names.get(i);
+                buf.putInt(series.get(i).id)
+                   .putShort((short) name.length)
+                   .put(name);
+            }
+            buf.flip();
+            return buf;
+        }
+    }
+
+}
@@ -1,5 +1,7 @@
 package cc.blynk.server.core.stats;
 
+import cc.blynk.server.core.stats.metrics.Histogram;
+
 import java.util.concurrent.atomic.LongAdder;
 
 /**
@@ -21,8 +23,44 @@ public class GlobalStats {
     //2 last load adders are used as separate counters
     public final LongAdder[] specificCounters;
 
+    //time in millis spent on storing single granularity of reporting data
+    public final Histogram reportingFlushLatency = new Histogram();
+    //bytes stored during single granularity flush
+    public final Histogram reportingFlushBytes = new Histogram();
+
+    //flushes done by FlushCoalescingHandler and flushes saved by coalescing, e.g. syscalls saved
+    public final LongAdder flushes = new LongAdder();
+    public final LongAdder coalescedFlushes = new LongAdder();
+
+    //logins completed on the channel own event loop and logins that required channel re-registration
+    public final LongAdder sameLoopLogins = new LongAdder();
+    public final LongAdder reRegistrations = new LongAdder();
+    //time in micros till login is completed on the session event loop, includes channel re-registration
+    public final Histogram loginLatency = new Histogram();
+
+    //broadcasted messages dropped and conflated because of the slow clients, see OutboundConflationHandler
+    public final LongAdder droppedMessages = new LongAdder();
+    public final LongAdder conflatedMessages = new LongAdder();
+    //source hardware channels paused till slow app client catches up
+    public final LongAdder pausedReads = new LongAdder();
+
+    //time in millis of single profile saver cycle and bytes written during it
+    public final Histogram profileSaveDuration = new Histogram();
+    public final Histogram profileSaveBytes = new Histogram();
+    //profiles stored as full snapshot and as pin values log
+    public final LongAdder profileSnapshots = new LongAdder();
+    public final LongAdder profilePinLogs = new LongAdder();
+
+    //handlers and blocking executors latency, could be disabled in runtime
+    public final LatencyStats latency;
+
     public GlobalStats() {
+        this(true);
+    }
+
+    public GlobalStats(boolean latencyEnabled) {
         this.totalMessages = new Meter();
+        this.latency = new LatencyStats(latencyEnabled);
 
         //yeah, this is a bit ugly code, but as fast as possible =).
         this.specificCounters = new LongAdder[LAST_COMMAND_INDEX];
@@ -36,6 +74,15 @@ public class GlobalStats {
         specificCounters[cmd].increment();
     }
 
+    public void markFlush(int requestedFlushes) {
+        flushes.increment();
+        coalescedFlushes.add(requestedFlushes - 1);
+    }
+
+    public void markLogin(long startNanos) {
+        loginLatency.record((System.nanoTime() - startNanos) / 1000);
+    }
+
     public void markSpecificCounterOnly(short cmd) {
         specificCounters[cmd].increment();
     }
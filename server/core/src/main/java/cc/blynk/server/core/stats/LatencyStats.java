@@ -0,0 +1,107 @@
+package cc.blynk.server.core.stats;
+
+import cc.blynk.server.core.protocol.enums.Command;
+import cc.blynk.server.core.stats.metrics.Histogram;
+
+/**
+ * Latency histograms (in micros) of the message handlers per command
+ * and of the blocking executors (time in queue and execution time).
+ * Could be turned on and off in runtime. When disabled recording costs single volatile read.
+ */
+public class LatencyStats {
+
+    //the same size as GlobalStats counters, so any command code is valid index
+    private static final int LAST_COMMAND_INDEX = 100;
+
+    private final Histogram[] commands;
+
+    public final ExecutorLatency messaging = new ExecutorLatency();
+    public final ExecutorLatency db = new ExecutorLatency();
+    public final ExecutorLatency history = new ExecutorLatency();
+
+    private volatile boolean enabled;
+
+    public LatencyStats(boolean enabled) {
+        this.enabled = enabled;
+        //histograms only for known commands, unknown commands are rejected before handlers anyway
+        this.commands = new Histogram[LAST_COMMAND_INDEX];
+        for (Short command : Command.VALUES_NAME.keySet()) {
+            commands[command] = new Histogram();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return - start time for {@link #record(short, long)} or 0 when stats are disabled.
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public void record(short command, long startNanos) {
+        if (startNanos == 0 || command < 0 || command >= LAST_COMMAND_INDEX) {
+            return;
+        }
+        Histogram histogram = commands[command];
+        if (histogram != null) {
+            histogram.record((System.nanoTime() - startNanos) / 1000);
+        }
+    }
+
+    /**
+     * @return - histogram of the command or null if command is unknown.
+     */
+    public Histogram getCommand(short command) {
+        return commands[command];
+    }
+
+    /**
+     * Wraps task, so time spent in executor queue and execution time are recorded.
+     * Returns task as is when stats are disabled.
+     */
+    public Runnable wrap(Runnable task, ExecutorLatency executorLatency) {
+        if (!enabled) {
+            return task;
+        }
+        return new TimedTask(task, executorLatency);
+    }
+
+    public static final class ExecutorLatency {
+
+        public final Histogram queueWait = new Histogram();
+        public final Histogram execution = new Histogram();
+
+    }
+
+    private static final class TimedTask implements Runnable {
+
+        private final Runnable task;
+        private final ExecutorLatency executorLatency;
+        private final long submitted;
+
+        private TimedTask(Runnable task, ExecutorLatency executorLatency) {
+            this.task = task;
+            this.executorLatency = executorLatency;
+            this.submitted = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            executorLatency.queueWait.record((start - submitted) / 1000);
+            try {
+                task.run();
+            } finally {
+                executorLatency.execution.record((System.nanoTime() - start) / 1000);
+            }
+        }
+    }
+
+}
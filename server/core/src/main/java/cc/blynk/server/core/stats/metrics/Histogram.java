@@ -0,0 +1,119 @@
+package cc.blynk.server.core.stats.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram with log-linear buckets. Every power of 2 range is split
+ * into 4 buckets, so percentile error is within 25% which is more than enough
+ * for monitoring. Recording is just 2 atomic increments, so could be used on hot paths.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS_COUNT = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(bucketIndex(value));
+        count.increment();
+        sum.add(value);
+        long currentMax;
+        while (value > (currentMax = max.get())) {
+            if (max.compareAndSet(currentMax, value)) {
+                break;
+            }
+        }
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (highestBit - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (highestBit - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Takes snapshot of histogram.
+     *
+     * @param reset - clears histogram after snapshot is taken. Some values
+     *              recorded during snapshot may be lost, that's fine for monitoring
+     */
+    public Snapshot snapshot(boolean reset) {
+        long[] counts = new long[BUCKETS_COUNT];
+        for (int i = 0; i < BUCKETS_COUNT; i++) {
+            counts[i] = reset ? buckets.getAndSet(i, 0) : buckets.get(i);
+        }
+        long totalCount = reset ? count.sumThenReset() : count.sum();
+        long totalSum = reset ? sum.sumThenReset() : sum.sum();
+        long maxValue = reset ? max.getAndSet(0) : max.get();
+        return new Snapshot(counts, totalCount, totalSum, maxValue);
+    }
+
+    public static final class Snapshot {
+
+        private final long[] counts;
+        public final long count;
+        public final long sum;
+        public final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long mean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        /**
+         * @param percentile - value in range 0..100
+         * @return - upper bound of bucket that contains requested percentile, never bigger than max.
+         */
+        public long percentile(double percentile) {
+            long total = 0;
+            for (long bucketCount : counts) {
+                total += bucketCount;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(total * percentile / 100D));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+    }
+
+}
@@ -0,0 +1,21 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.stats.GlobalStats;
+
+public class BackpressureStat {
+
+    //messages not delivered to the slow clients
+    public final long dropped;
+
+    //pin updates superseded by the newer value before they were written
+    public final long conflated;
+
+    //times hardware channel reading was paused because of the slow app
+    public final long pausedReads;
+
+    public BackpressureStat(GlobalStats globalStats, boolean reset) {
+        this.dropped = reset ? globalStats.droppedMessages.sumThenReset() : globalStats.droppedMessages.sum();
+        this.conflated = reset ? globalStats.conflatedMessages.sumThenReset() : globalStats.conflatedMessages.sum();
+        this.pausedReads = reset ? globalStats.pausedReads.sumThenReset() : globalStats.pausedReads.sum();
+    }
+}
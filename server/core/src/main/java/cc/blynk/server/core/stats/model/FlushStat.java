@@ -0,0 +1,17 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.stats.GlobalStats;
+
+public class FlushStat {
+
+    //flushes that actually reached the socket
+    public final long flushes;
+
+    //flushes merged with other flushes, each one is a saved syscall
+    public final long coalesced;
+
+    public FlushStat(GlobalStats globalStats, boolean reset) {
+        this.flushes = reset ? globalStats.flushes.sumThenReset() : globalStats.flushes.sum();
+        this.coalesced = reset ? globalStats.coalescedFlushes.sumThenReset() : globalStats.coalescedFlushes.sum();
+    }
+}
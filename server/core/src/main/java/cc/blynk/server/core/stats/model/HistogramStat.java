@@ -0,0 +1,31 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.stats.metrics.Histogram;
+
+public class HistogramStat {
+
+    public final long count;
+
+    public final long mean;
+
+    public final long p50;
+
+    public final long p95;
+
+    public final long p99;
+
+    public final long max;
+
+    public HistogramStat(Histogram histogram, boolean reset) {
+        this(histogram.snapshot(reset));
+    }
+
+    public HistogramStat(Histogram.Snapshot snapshot) {
+        this.count = snapshot.count;
+        this.mean = snapshot.mean();
+        this.p50 = snapshot.percentile(50);
+        this.p95 = snapshot.percentile(95);
+        this.p99 = snapshot.percentile(99);
+        this.max = snapshot.max;
+    }
+}
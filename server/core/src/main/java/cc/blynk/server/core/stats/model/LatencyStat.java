@@ -0,0 +1,55 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.protocol.enums.Command;
+import cc.blynk.server.core.stats.LatencyStats;
+import cc.blynk.server.core.stats.metrics.Histogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latencies in micros. Only commands and executors that had any tasks are included.
+ */
+public class LatencyStat {
+
+    public final boolean enabled;
+
+    //command name -> handler latency
+    public final Map<String, HistogramStat> commands = new TreeMap<>();
+
+    //executor name -> time in queue and execution time
+    public final Map<String, ExecutorStat> executors = new TreeMap<>();
+
+    public LatencyStat(LatencyStats latencyStats, boolean reset) {
+        this.enabled = latencyStats.isEnabled();
+        for (Map.Entry<Short, String> entry : Command.VALUES_NAME.entrySet()) {
+            Histogram histogram = latencyStats.getCommand(entry.getKey());
+            Histogram.Snapshot snapshot = histogram.snapshot(reset);
+            if (snapshot.count > 0) {
+                commands.put(entry.getValue(), new HistogramStat(snapshot));
+            }
+        }
+        put("messaging", latencyStats.messaging, reset);
+        put("db", latencyStats.db, reset);
+        put("history", latencyStats.history, reset);
+    }
+
+    private void put(String name, LatencyStats.ExecutorLatency executorLatency, boolean reset) {
+        ExecutorStat executorStat = new ExecutorStat(executorLatency, reset);
+        if (executorStat.execution.count > 0 || executorStat.queueWait.count > 0) {
+            executors.put(name, executorStat);
+        }
+    }
+
+    public static class ExecutorStat {
+
+        public final HistogramStat queueWait;
+
+        public final HistogramStat execution;
+
+        ExecutorStat(LatencyStats.ExecutorLatency executorLatency, boolean reset) {
+            this.queueWait = new HistogramStat(executorLatency.queueWait, reset);
+            this.execution = new HistogramStat(executorLatency.execution, reset);
+        }
+    }
+}
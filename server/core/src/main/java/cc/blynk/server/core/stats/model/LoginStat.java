@@ -0,0 +1,23 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.stats.GlobalStats;
+
+public class LoginStat {
+
+    //channels that were already on the session event loop
+    public final long sameLoop;
+
+    //channels moved to the session event loop
+    public final long reRegistrations;
+
+    //login latency in micros
+    public final HistogramStat latency;
+
+    public LoginStat(GlobalStats globalStats, boolean reset) {
+        this.sameLoop = reset ? globalStats.sameLoopLogins.sumThenReset() : globalStats.sameLoopLogins.sum();
+        this.reRegistrations = reset
+                ? globalStats.reRegistrations.sumThenReset()
+                : globalStats.reRegistrations.sum();
+        this.latency = new HistogramStat(globalStats.loginLatency, reset);
+    }
+}
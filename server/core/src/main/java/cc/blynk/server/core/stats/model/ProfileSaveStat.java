@@ -0,0 +1,25 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.stats.GlobalStats;
+
+public class ProfileSaveStat {
+
+    //profiles stored as full snapshot
+    public final long snapshots;
+
+    //profiles with only pin values appended to pins log
+    public final long pinLogs;
+
+    //saver cycle duration in millis
+    public final HistogramStat duration;
+
+    //bytes written per saver cycle
+    public final HistogramStat bytes;
+
+    public ProfileSaveStat(GlobalStats globalStats, boolean reset) {
+        this.snapshots = reset ? globalStats.profileSnapshots.sumThenReset() : globalStats.profileSnapshots.sum();
+        this.pinLogs = reset ? globalStats.profilePinLogs.sumThenReset() : globalStats.profilePinLogs.sum();
+        this.duration = new HistogramStat(globalStats.profileSaveDuration, reset);
+        this.bytes = new HistogramStat(globalStats.profileSaveBytes, reset);
+    }
+}
@@ -0,0 +1,45 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.reporting.storage.FileReportingStorage;
+import cc.blynk.server.core.reporting.storage.MappedReportingFileCache;
+import cc.blynk.server.core.reporting.storage.ReportingStorage;
+import cc.blynk.server.core.stats.GlobalStats;
+
+public class ReportingStat {
+
+    public final long mmapHits;
+
+    public final long mmapMisses;
+
+    public final long mappedBytes;
+
+    public final int mappedFiles;
+
+    public final HistogramStat flushLatency;
+
+    public final HistogramStat flushBytes;
+
+    public ReportingStat(ReportingStorage reportingStorage, GlobalStats globalStats, boolean reset) {
+        long hits = 0;
+        long misses = 0;
+        long bytes = 0;
+        int files = 0;
+
+        if (reportingStorage instanceof FileReportingStorage) {
+            MappedReportingFileCache cache = ((FileReportingStorage) reportingStorage).mappedFilesCache;
+            if (cache != null) {
+                hits = cache.getHits();
+                misses = cache.getMisses();
+                bytes = cache.getMappedBytes();
+                files = cache.getMappedFiles();
+            }
+        }
+
+        this.mmapHits = hits;
+        this.mmapMisses = misses;
+        this.mappedBytes = bytes;
+        this.mappedFiles = files;
+        this.flushLatency = new HistogramStat(globalStats.reportingFlushLatency, reset);
+        this.flushBytes = new HistogramStat(globalStats.reportingFlushBytes, reset);
+    }
+}
@@ -9,6 +9,7 @@ import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.serialization.JsonParser;
 import cc.blynk.server.core.protocol.enums.Command;
+import cc.blynk.server.core.reporting.storage.ReportingStorage;
 import cc.blynk.server.core.stats.GlobalStats;
 import io.netty.buffer.ByteBufAllocator;
 
@@ -30,6 +31,12 @@ public class Stat {
     public final HttpStat http = new HttpStat();
     public final BlockingIOStat ioStat;
     public final MemoryStat memoryStat;
+    public final ReportingStat reportingStat;
+    public final FlushStat flushStat;
+    public final LoginStat loginStat;
+    public final BackpressureStat backpressureStat;
+    public final LatencyStat latencyStat;
+    public final ProfileSaveStat profileSaveStat;
 
     public final int oneMinRate;
     public final int registrations;
@@ -44,7 +51,7 @@ public class Stat {
     public final transient long ts;
 
     public Stat(SessionDao sessionDao, UserDao userDao, BlockingIOProcessor blockingIOProcessor,
-                GlobalStats globalStats, boolean reset) {
+                GlobalStats globalStats, ReportingStorage reportingStorage, boolean reset) {
         //yeap, some stats updates may be lost (because of sumThenReset()),
         //but we don't care, cause this is just for general monitoring
         for (Short command : Command.VALUES_NAME.keySet()) {
@@ -120,11 +127,20 @@ public class Stat {
 
         this.ioStat = new BlockingIOStat(blockingIOProcessor);
         this.memoryStat = new MemoryStat(ByteBufAllocator.DEFAULT);
+        this.reportingStat = new ReportingStat(reportingStorage, globalStats, reset);
+        this.flushStat = new FlushStat(globalStats, reset);
+        this.loginStat = new LoginStat(globalStats, reset);
+        this.backpressureStat = new BackpressureStat(globalStats, reset);
+        this.latencyStat = new LatencyStat(globalStats.latency, reset);
+        this.profileSaveStat = new ProfileSaveStat(globalStats, reset);
     }
 
     private boolean dashUpdated(User user, long now, long period) {
+        if (user.isCold()) {
+            return now - user.getColdUpdatedAt() < period;
+        }
         for (DashBoard dash : user.profile.dashBoards) {
-            if (now - dash.updatedAt < period) {
+            if (now - Math.max(dash.updatedAt, dash.pinsUpdatedAt) < period) {
                 return true;
             }
         }
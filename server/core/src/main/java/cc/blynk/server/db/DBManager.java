@@ -98,7 +98,12 @@ public class DBManager implements Closeable {
 
         this.ds = hikariDataSource;
         this.reportingDBDao = new ReportingDBDao(hikariDataSource);
-        this.userDBDao = new UserDBDao(hikariDataSource);
+        //one connection is left for other daos while users are stored
+        this.userDBDao = new UserDBDao(hikariDataSource,
+                serverProperties.getIntProperty("users.batch.size", 500),
+                Math.max(1, Math.min(serverProperties.getIntProperty("users.save.threads", 2),
+                        config.getMaximumPoolSize() - 1)),
+                serverProperties.getBoolProperty("users.profile.compressed", false));
         this.redeemDBDao = new RedeemDBDao(hikariDataSource);
         this.purchaseDBDao = new PurchaseDBDao(hikariDataSource);
         this.flashedTokensDBDao = new FlashedTokensDBDao(hikariDataSource);
@@ -131,7 +136,7 @@ public class DBManager implements Closeable {
 
         config.setAutoCommit(false);
         config.setConnectionTimeout(serverProperties.getLongProperty("connection.timeout.millis"));
-        config.setMaximumPoolSize(3);
+        config.setMaximumPoolSize(serverProperties.getIntProperty("pool.size", 3));
         config.setMaxLifetime(0);
         config.setConnectionTestQuery("SELECT 1");
         return config;
@@ -173,6 +178,16 @@ public class DBManager implements Closeable {
         }
     }
 
+    /**
+     * Executed within caller thread, so caller could limit the load caused by the removal.
+     */
+    public int cleanOldRawData(long minTs, int limit) throws Exception {
+        if (isDBEnabled()) {
+            return reportingDBDao.cleanOldRawData(minTs, limit);
+        }
+        return 0;
+    }
+
     public Redeem selectRedeemByToken(String token) throws Exception {
         if (isDBEnabled()) {
             return redeemDBDao.selectRedeemByToken(token);
@@ -277,6 +292,7 @@ public class DBManager implements Closeable {
     public void close() {
         if (isDBEnabled()) {
             System.out.println("Closing DB...");
+            userDBDao.close();
             ds.close();
         }
     }
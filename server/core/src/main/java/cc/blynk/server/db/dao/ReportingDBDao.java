@@ -6,7 +6,9 @@ import cc.blynk.server.core.reporting.average.AggregationKey;
 import cc.blynk.server.core.reporting.average.AggregationValue;
 import cc.blynk.server.core.reporting.average.AverageAggregatorProcessor;
 import cc.blynk.server.core.stats.model.CommandStat;
+import cc.blynk.server.core.stats.model.HistogramStat;
 import cc.blynk.server.core.stats.model.HttpStat;
+import cc.blynk.server.core.stats.model.LatencyStat;
 import cc.blynk.server.core.stats.model.Stat;
 import cc.blynk.utils.DateTimeUtils;
 import com.zaxxer.hikari.HikariDataSource;
@@ -55,6 +57,8 @@ public class ReportingDBDao {
     private static final String deleteMinute = "DELETE FROM reporting_average_minute WHERE ts < ?";
     private static final String deleteHour = "DELETE FROM reporting_average_hourly WHERE ts < ?";
     public static final String deleteDaily = "DELETE FROM reporting_average_daily WHERE ts < ?";
+    private static final String deleteRawData = "DELETE FROM reporting_raw_data WHERE ctid IN "
+            + "(SELECT ctid FROM reporting_raw_data WHERE ts < ? LIMIT ?)";
 
     private static final String insertStatMinute =
             "INSERT INTO reporting_app_stat_minute (region, ts, active, active_week, active_month, "
@@ -80,6 +84,10 @@ public class ReportingDBDao {
                     + "is_app_connected, get_pin_data, update_pin, email, push, get_project, qr,"
                     + " get_history_pin_data, total) "
                     + "VALUES (?,?,?,?,?,?,?,?,?,?,?,?)";
+    //latency rows are "command.{name}", "executor.{name}.queue" and "executor.{name}.execution", values in micros
+    private static final String insertLatencyStatMinute =
+            "INSERT INTO reporting_latency_stat_minute (region, ts, name, count, mean, p50, p95, p99, max) "
+                    + "VALUES (?,?,?,?,?,?,?,?,?)";
 
     private static final Logger log = LogManager.getLogger(ReportingDBDao.class);
 
@@ -274,6 +282,44 @@ public class ReportingDBDao {
         } catch (Exception e) {
             log.error("Error inserting real time stat in DB.", e);
         }
+
+        insertLatencyStat(region, timestamp, stat.latencyStat);
+    }
+
+    //separate transaction, so failed latency insert doesn't roll back the main stats
+    private void insertLatencyStat(String region, Timestamp timestamp, LatencyStat ls) {
+        try (Connection connection = ds.getConnection();
+             PreparedStatement latencyStatPS = connection.prepareStatement(insertLatencyStatMinute)) {
+
+            for (Map.Entry<String, HistogramStat> entry : ls.commands.entrySet()) {
+                prepareLatencyInsert(latencyStatPS, region, timestamp, "command." + entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<String, LatencyStat.ExecutorStat> entry : ls.executors.entrySet()) {
+                String name = "executor." + entry.getKey();
+                prepareLatencyInsert(latencyStatPS, region, timestamp, name + ".queue", entry.getValue().queueWait);
+                prepareLatencyInsert(latencyStatPS, region, timestamp, name + ".execution",
+                        entry.getValue().execution);
+            }
+            latencyStatPS.executeBatch();
+
+            connection.commit();
+        } catch (Exception e) {
+            log.error("Error inserting latency stat in DB.", e);
+        }
+    }
+
+    private static void prepareLatencyInsert(PreparedStatement ps, String region, Timestamp timestamp,
+                                             String name, HistogramStat hs) throws SQLException {
+        ps.setString(1, region);
+        ps.setTimestamp(2, timestamp, DateTimeUtils.UTC_CALENDAR);
+        ps.setString(3, name);
+        ps.setLong(4, hs.count);
+        ps.setLong(5, hs.mean);
+        ps.setLong(6, hs.p50);
+        ps.setLong(7, hs.p95);
+        ps.setLong(8, hs.p99);
+        ps.setLong(9, hs.max);
+        ps.addBatch();
     }
 
     public void insert(Map<AggregationKey, AggregationValue> map, GraphGranularityType graphGranularityType) {
@@ -327,5 +373,20 @@ public class ReportingDBDao {
                 minuteRecordsRemoved, hourRecordsRemoved, System.currentTimeMillis() - now.toEpochMilli());
     }
 
-}
+    /**
+     * Removes at most limit outdated raw values within own transaction.
+     */
+    public int cleanOldRawData(long minTs, int limit) throws Exception {
+        try (Connection connection = ds.getConnection();
+             PreparedStatement ps = connection.prepareStatement(deleteRawData)) {
+
+            ps.setTimestamp(1, new Timestamp(minTs), DateTimeUtils.UTC_CALENDAR);
+            ps.setInt(2, limit);
+            int removed = ps.executeUpdate();
 
+            connection.commit();
+            return removed;
+        }
+    }
+
+}
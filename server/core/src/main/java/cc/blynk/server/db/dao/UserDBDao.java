@@ -1,49 +1,94 @@
 package cc.blynk.server.db.dao;
 
 import cc.blynk.server.core.dao.UserKey;
+import cc.blynk.server.core.model.Profile;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.serialization.JsonParser;
 import com.zaxxer.hikari.HikariDataSource;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DeflaterOutputStream;
 
 import static cc.blynk.utils.DateTimeUtils.UTC_CALENDAR;
 
 /**
+ * Users are upserted in bounded batches, batches are stored concurrently over own connections.
+ * Profile json is sent only when it was changed since previous save by this instance.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 09.03.16.
  */
-public class UserDBDao {
+public class UserDBDao implements Closeable {
 
     private static final String upsertUser =
             "INSERT INTO users (email, appName, region, ip, name, pass, last_modified, last_logged,"
-                    + " last_logged_ip, is_facebook_user, is_super_admin, energy, json) "
-                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT (email, appName) DO UPDATE "
+                    + " last_logged_ip, is_facebook_user, is_super_admin, energy, json, json_compressed) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT (email, appName) DO UPDATE "
                     + "SET ip = EXCLUDED.ip, pass = EXCLUDED.pass, name = EXCLUDED.name, "
                     + "last_modified = EXCLUDED.last_modified, "
                     + "last_logged = EXCLUDED.last_logged, last_logged_ip = EXCLUDED.last_logged_ip, "
                     + "is_facebook_user = EXCLUDED.is_facebook_user, is_super_admin = EXCLUDED.is_super_admin, "
-                    + "energy = EXCLUDED.energy, json = EXCLUDED.json, region = EXCLUDED.region";
+                    + "energy = EXCLUDED.energy, json = EXCLUDED.json, json_compressed = EXCLUDED.json_compressed, "
+                    + "region = EXCLUDED.region";
+    //used when profile wasn't changed since last save, so big json isn't sent again
+    private static final String updateUserFields =
+            "UPDATE users SET region = ?, ip = ?, name = ?, pass = ?, last_modified = ?, last_logged = ?, "
+                    + "last_logged_ip = ?, is_facebook_user = ?, is_super_admin = ?, energy = ? "
+                    + "WHERE email = ? AND appName = ?";
     private static final String selectAllUsers = "SELECT * from users where region = ?";
     private static final String selectIpForUser = "SELECT ip FROM users WHERE email = ? AND appName = ?";
     private static final String deleteUser = "DELETE FROM users WHERE email = ? AND appName = ?";
 
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
     private static final Logger log = LogManager.getLogger(UserDBDao.class);
     private final HikariDataSource ds;
+    private final int batchSize;
+    private final boolean compressProfile;
+    //null for single thread, batches are stored on the caller thread
+    private final ExecutorService savePool;
+
+    //hash of the profile json stored to DB by this instance
+    private final ConcurrentMap<UserKey, Long> storedProfileHashes = new ConcurrentHashMap<>();
 
     public UserDBDao(HikariDataSource ds) {
+        this(ds, DEFAULT_BATCH_SIZE, 1, false);
+    }
+
+    /**
+     * @param batchSize - max users upserted within single transaction
+     * @param threads - batches stored concurrently, every batch uses separate connection
+     * @param compressProfile - store profile as deflated json in json_compressed column instead of json
+     */
+    public UserDBDao(HikariDataSource ds, int batchSize, int threads, boolean compressProfile) {
         this.ds = ds;
+        this.batchSize = Math.max(1, batchSize);
+        this.compressProfile = compressProfile;
+        this.savePool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
     }
 
     public int getDBVersion() throws Exception {
@@ -103,7 +148,7 @@ public class UserDBDao {
                             getTs(rs, "last_modified"),
                             getTs(rs, "last_logged"),
                             rs.getString("last_logged_ip"),
-                            JsonParser.parseProfileFromString(rs.getString("json")),
+                            readProfile(rs),
                             rs.getInt("energy")
                             );
 
@@ -118,41 +163,140 @@ public class UserDBDao {
         return users;
     }
 
+    private static Profile readProfile(ResultSet rs) throws Exception {
+        byte[] compressed = rs.getBytes("json_compressed");
+        if (compressed != null) {
+            return JsonParser.parseProfileFromCompressedBytes(compressed);
+        }
+        return JsonParser.parseProfileFromString(rs.getString("json"));
+    }
+
     private static long getTs(ResultSet rs, String fieldName) throws SQLException {
         Timestamp t = rs.getTimestamp(fieldName, UTC_CALENDAR);
         return t == null ? 0 : t.getTime();
     }
 
-    public void save(ArrayList<User> users) {
+    /**
+     * Upserts users in batches of batchSize, every batch is separate transaction.
+     * Users with profile not changed since last save are updated without profile json.
+     *
+     * @return - number of users stored
+     */
+    public int save(List<User> users) {
         long start = System.currentTimeMillis();
         log.info("Storing users...");
 
+        List<List<User>> batches = new ArrayList<>();
+        for (int i = 0; i < users.size(); i += batchSize) {
+            batches.add(users.subList(i, Math.min(i + batchSize, users.size())));
+        }
+
+        int saved = 0;
+        try {
+            if (savePool == null) {
+                for (List<User> batch : batches) {
+                    saved += saveBatch(batch);
+                }
+            } else {
+                List<Callable<Integer>> tasks = new ArrayList<>(batches.size());
+                for (List<User> batch : batches) {
+                    tasks.add(() -> saveBatch(batch));
+                }
+                for (Future<Integer> future : savePool.invokeAll(tasks)) {
+                    saved += future.get();
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error upserting users in DB.", e);
+        }
+
+        log.info("Storing users finished. Time {}. Users saved {} of {}. Batches {}.",
+                System.currentTimeMillis() - start, saved, users.size(), batches.size());
+        return saved;
+    }
+
+    private int saveBatch(List<User> batch) {
+        Map<UserKey, Long> newHashes = new HashMap<>();
+
         try (Connection connection = ds.getConnection();
-             PreparedStatement ps = connection.prepareStatement(upsertUser)) {
-
-            for (User user : users) {
-                ps.setString(1, user.email);
-                ps.setString(2, user.appName);
-                ps.setString(3, user.region);
-                ps.setString(4, user.ip);
-                ps.setString(5, user.name);
-                ps.setString(6, user.pass);
-                ps.setTimestamp(7, new Timestamp(user.lastModifiedTs), UTC_CALENDAR);
-                ps.setTimestamp(8, new Timestamp(user.lastLoggedAt), UTC_CALENDAR);
-                ps.setString(9, user.lastLoggedIP); //finish
-                ps.setBoolean(10, user.isFacebookUser);
-                ps.setBoolean(11, user.isSuperAdmin);
-                ps.setInt(12, user.energy);
-                ps.setString(13, user.profile.toString());
-                ps.addBatch();
+             PreparedStatement upsert = connection.prepareStatement(upsertUser);
+             PreparedStatement update = connection.prepareStatement(updateUserFields)) {
+
+            int upserts = 0;
+            int updates = 0;
+            for (User user : batch) {
+                UserKey userKey = new UserKey(user);
+                String json = user.readProfile().toString();
+                long hash = hash(json);
+                Long storedHash = storedProfileHashes.get(userKey);
+                if (storedHash != null && storedHash == hash) {
+                    setUserFields(update, user, 1);
+                    update.setString(11, user.email);
+                    update.setString(12, user.appName);
+                    update.addBatch();
+                    updates++;
+                } else {
+                    upsert.setString(1, user.email);
+                    upsert.setString(2, user.appName);
+                    setUserFields(upsert, user, 3);
+                    if (compressProfile) {
+                        upsert.setNull(13, Types.VARCHAR);
+                        upsert.setBytes(14, compress(json));
+                    } else {
+                        upsert.setString(13, json);
+                        upsert.setNull(14, Types.BINARY);
+                    }
+                    upsert.addBatch();
+                    upserts++;
+                    newHashes.put(userKey, hash);
+                }
             }
 
-            ps.executeBatch();
+            if (upserts > 0) {
+                upsert.executeBatch();
+            }
+            if (updates > 0) {
+                update.executeBatch();
+            }
             connection.commit();
         } catch (Exception e) {
-            log.error("Error upserting users in DB.", e);
+            log.error("Error upserting users batch in DB.", e);
+            return 0;
+        }
+
+        storedProfileHashes.putAll(newHashes);
+        return batch.size();
+    }
+
+    private static void setUserFields(PreparedStatement ps, User user, int from) throws SQLException {
+        ps.setString(from, user.region);
+        ps.setString(from + 1, user.ip);
+        ps.setString(from + 2, user.name);
+        ps.setString(from + 3, user.pass);
+        ps.setTimestamp(from + 4, new Timestamp(user.lastModifiedTs), UTC_CALENDAR);
+        ps.setTimestamp(from + 5, new Timestamp(user.lastLoggedAt), UTC_CALENDAR);
+        ps.setString(from + 6, user.lastLoggedIP);
+        ps.setBoolean(from + 7, user.isFacebookUser);
+        ps.setBoolean(from + 8, user.isSuperAdmin);
+        ps.setInt(from + 9, user.energy);
+    }
+
+    //64-bit FNV-1a, collisions of 32-bit String.hashCode() are too likely for millions of saves
+    private static long hash(String json) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < json.length(); i++) {
+            hash ^= json.charAt(i);
+            hash *= 0x100000001b3L;
         }
-        log.info("Storing users finished. Time {}. Users saved {}", System.currentTimeMillis() - start, users.size());
+        return hash;
+    }
+
+    private static byte[] compress(String json) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(json.length() / 4);
+        try (OutputStream out = new DeflaterOutputStream(baos)) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+        return baos.toByteArray();
     }
 
     public boolean deleteUser(UserKey userKey) {
@@ -165,6 +309,7 @@ public class UserDBDao {
             ps.setString(2, userKey.appName);
 
             removed = ps.executeUpdate();
+            storedProfileHashes.remove(userKey);
 
             connection.commit();
         } catch (Exception e) {
@@ -173,4 +318,11 @@ public class UserDBDao {
 
         return removed > 0;
     }
+
+    @Override
+    public void close() {
+        if (savePool != null) {
+            savePool.shutdown();
+        }
+    }
 }
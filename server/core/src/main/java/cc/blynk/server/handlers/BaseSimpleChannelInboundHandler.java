@@ -1,12 +1,19 @@
 package cc.blynk.server.handlers;
 
-import cc.blynk.server.Limits;
+import cc.blynk.server.Holder;
+import cc.blynk.server.core.dao.SessionDao;
+import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.protocol.exceptions.BaseServerException;
 import cc.blynk.server.core.protocol.exceptions.QuotaLimitException;
 import cc.blynk.server.core.protocol.handlers.DefaultExceptionHandler;
 import cc.blynk.server.core.protocol.model.messages.MessageBase;
+import cc.blynk.server.core.quota.QuotaManager;
+import cc.blynk.server.core.quota.RateMeter;
+import cc.blynk.server.core.quota.TokenBucket;
+import cc.blynk.server.core.quota.UserQuota;
+import cc.blynk.server.core.session.HardwareStateHolder;
 import cc.blynk.server.core.session.StateHolderBase;
-import cc.blynk.server.core.stats.metrics.InstanceLoadMeter;
+import cc.blynk.server.core.stats.LatencyStats;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.util.ReferenceCountUtil;
@@ -29,17 +36,24 @@ public abstract class BaseSimpleChannelInboundHandler<I> extends ChannelInboundH
      */
     private final static int USER_QUOTA_LIMIT_WARN_PERIOD = 60_000;
 
-    private final int userQuotaLimit;
     private final Class<I> type;
-    private final InstanceLoadMeter quotaMeter;
+    private final QuotaManager quotaManager;
+    private final SessionDao sessionDao;
+    private final TokenBucket channelQuota;
+    private final LatencyStats latency;
+    //user tier, resolved on the first message, as session is created after this handler is added
+    private UserQuota userQuota;
+    private RateMeter userRate;
     private long lastQuotaExceededTime;
     private static final QuotaLimitException quotaLimitExceptionCached =
             new QuotaLimitException("User has exceeded message quota limit.");
 
-    protected BaseSimpleChannelInboundHandler(Class<I> type, Limits limits) {
+    protected BaseSimpleChannelInboundHandler(Class<I> type, Holder holder) {
         this.type = type;
-        this.userQuotaLimit = limits.userQuotaLimit;
-        this.quotaMeter = new InstanceLoadMeter();
+        this.quotaManager = holder.quotaManager;
+        this.sessionDao = holder.sessionDao;
+        this.channelQuota = quotaManager.newChannelBucket();
+        this.latency = holder.stats.latency;
     }
 
     private static int getMsgId(Object o) {
@@ -54,12 +68,15 @@ public abstract class BaseSimpleChannelInboundHandler<I> extends ChannelInboundH
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         if (type.isInstance(msg)) {
             try {
-                if (quotaMeter.getOneMinuteRate() > userQuotaLimit) {
+                if (!acquireQuota()) {
                     sendErrorResponseIfTicked();
                     return;
                 }
-                quotaMeter.mark();
+                long start = latency.start();
                 messageReceived(ctx, (I) msg);
+                if (msg instanceof MessageBase) {
+                    latency.record(((MessageBase) msg).command, start);
+                }
             } catch (NumberFormatException nfe) {
                 log.debug("Error parsing number. {}", nfe.getMessage());
                 ctx.writeAndFlush(illegalCommand(getMsgId(msg)), ctx.voidPromise());
@@ -73,6 +90,28 @@ public abstract class BaseSimpleChannelInboundHandler<I> extends ChannelInboundH
         }
     }
 
+    private boolean acquireQuota() {
+        if (userQuota == null && !resolveUserQuota()) {
+            return channelQuota.tryAcquire();
+        }
+        if (quotaManager.tryAcquire(channelQuota, userQuota)) {
+            userRate.mark();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean resolveUserQuota() {
+        StateHolderBase state = getState();
+        Session session = sessionDao.userSession.get(state.userKey);
+        if (session == null) {
+            return false;
+        }
+        this.userQuota = session.quota;
+        this.userRate = state instanceof HardwareStateHolder ? userQuota.hardRate : userQuota.appRate;
+        return true;
+    }
+
     private void sendErrorResponseIfTicked() {
         long now = System.currentTimeMillis();
         //once a minute sending user response message in case limit is exceeded constantly
@@ -96,10 +135,6 @@ public abstract class BaseSimpleChannelInboundHandler<I> extends ChannelInboundH
 
     public abstract StateHolderBase getState();
 
-    public InstanceLoadMeter getQuotaMeter() {
-        return quotaMeter;
-    }
-
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
         handleGeneralException(ctx, cause);
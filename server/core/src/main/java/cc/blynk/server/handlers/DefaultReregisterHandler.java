@@ -1,10 +1,14 @@
 package cc.blynk.server.handlers;
 
 import cc.blynk.server.core.model.auth.Session;
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 
+import java.util.function.Consumer;
+
 /**
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -12,12 +16,42 @@ import io.netty.channel.ChannelHandlerContext;
  */
 public interface DefaultReregisterHandler {
 
+    /**
+     * Runs login completeHandler on the session event loop. Channel is re-registered
+     * only when session can't be moved to the channel event loop, see {@link Session#bindEventLoop(Channel)}.
+     * Bind is completed even if completeHandler fails, so failed login doesn't keep session on the channel loop.
+     */
+    default void completeOnSessionLoop(ChannelHandlerContext ctx, Session session, GlobalStats stats,
+                                       Consumer<Channel> completeHandler) {
+        long start = System.nanoTime();
+        Channel channel = ctx.channel();
+        if (session.bindEventLoop(channel)) {
+            stats.sameLoopLogins.increment();
+            try {
+                completeHandler.accept(channel);
+            } finally {
+                session.bindCompleted(channel);
+            }
+            stats.markLogin(start);
+        } else {
+            stats.reRegistrations.increment();
+            reRegisterChannel(ctx, session, channelFuture -> {
+                try {
+                    completeHandler.accept(channelFuture.channel());
+                } finally {
+                    session.bindCompleted(channelFuture.channel());
+                }
+                stats.markLogin(start);
+            });
+        }
+    }
+
     default void reRegisterChannel(ChannelHandlerContext ctx, Session session, ChannelFutureListener completeHandler) {
         ChannelFuture cf = ctx.deregister();
         cf.addListener(new ChannelFutureListener() {
             @Override
             public void operationComplete(ChannelFuture channelFuture) throws Exception {
-                session.initialEventLoop.register(channelFuture.channel()).addListener(completeHandler);
+                session.getEventLoop().register(channelFuture.channel()).addListener(completeHandler);
             }
         });
     }
@@ -6,7 +6,6 @@ import cc.blynk.server.core.protocol.model.messages.StringMessage;
 
 import java.nio.charset.StandardCharsets;
 
-import static cc.blynk.server.core.protocol.enums.Command.DEVICE_OFFLINE;
 import static cc.blynk.server.core.protocol.enums.Response.DEVICE_NOT_IN_NETWORK;
 import static cc.blynk.server.core.protocol.enums.Response.ENERGY_LIMIT;
 import static cc.blynk.server.core.protocol.enums.Response.FACEBOOK_USER_LOGIN_WITH_PASS;
@@ -24,7 +23,6 @@ import static cc.blynk.server.core.protocol.enums.Response.SERVER_ERROR;
 import static cc.blynk.server.core.protocol.enums.Response.USER_ALREADY_REGISTERED;
 import static cc.blynk.server.core.protocol.enums.Response.USER_NOT_AUTHENTICATED;
 import static cc.blynk.server.core.protocol.enums.Response.USER_NOT_REGISTERED;
-import static cc.blynk.utils.StringUtils.DEVICE_SEPARATOR;
 
 /**
  * Utility class that creates native netty buffers instead of java objects.
@@ -111,11 +109,6 @@ public final class CommonByteBufUtil {
         return new ResponseMessage(msgId, responseCode);
     }
 
-    public static StringMessage deviceOffline(int dashId, int deviceId) {
-        return makeASCIIStringMessage(DEVICE_OFFLINE, 0,
-                String.valueOf(dashId) + DEVICE_SEPARATOR + deviceId);
-    }
-
     public static StringMessage makeUTF8StringMessage(short cmd, int msgId, String data) {
         return new StringMessage(msgId, cmd, data);
     }
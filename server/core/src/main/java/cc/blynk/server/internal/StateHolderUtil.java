@@ -22,18 +22,4 @@ public final class StateHolderUtil {
         return handler == null ? null : (HardwareStateHolder) handler.getState();
     }
 
-    public static boolean isSameDash(Channel channel, int dashId) {
-        BaseSimpleChannelInboundHandler handler = channel.pipeline().get(BaseSimpleChannelInboundHandler.class);
-        return handler.getState().isSameDash(dashId);
-    }
-
-    public static boolean isSameDashAndDeviceId(Channel channel, int dashId, int deviceId) {
-        BaseSimpleChannelInboundHandler handler = channel.pipeline().get(BaseSimpleChannelInboundHandler.class);
-        if (handler == null) {
-            return false;
-        }
-        HardwareStateHolder hardwareStateHolder = (HardwareStateHolder) handler.getState();
-        return hardwareStateHolder.dash.id == dashId && hardwareStateHolder.device.id == deviceId;
-    }
-
 }
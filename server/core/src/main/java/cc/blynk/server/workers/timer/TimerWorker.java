@@ -56,8 +56,15 @@ public class TimerWorker implements Runnable {
     private final ConcurrentMap<TimerKey, BaseAction[]>[] timerExecutors;
     private final static int size = 8640;
 
-    @SuppressWarnings("unchecked")
     public TimerWorker(UserDao userDao, SessionDao sessionDao, GCMWrapper gcmWrapper) {
+        this(userDao, sessionDao, gcmWrapper, true);
+    }
+
+    /**
+     * @param init - false when timers of existing users are added via {@link #index(UserKey, User)}.
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWorker(UserDao userDao, SessionDao sessionDao, GCMWrapper gcmWrapper, boolean init) {
         this.userDao = userDao;
         this.sessionDao = sessionDao;
         this.gcmWrapper = gcmWrapper;
@@ -67,7 +74,9 @@ public class TimerWorker implements Runnable {
         for (int i = 0; i < size; i++) {
             timerExecutors[i] = new ConcurrentHashMap<>();
         }
-        init(userDao.users);
+        if (init) {
+            init(userDao.users);
+        }
     }
 
     private static int hash(int time) {
@@ -77,22 +86,33 @@ public class TimerWorker implements Runnable {
     private void init(ConcurrentMap<UserKey, User> users) {
         int counter = 0;
         for (Map.Entry<UserKey, User> entry : users.entrySet()) {
-            for (DashBoard dashBoard : entry.getValue().profile.dashBoards) {
-                for (Widget widget : dashBoard.widgets) {
-                    if (widget instanceof Timer) {
-                        Timer timer = (Timer) widget;
-                        add(entry.getKey(), timer, dashBoard.id);
-                        counter++;
-                    }
-                    if (widget instanceof Eventor) {
-                        Eventor eventor = (Eventor) widget;
-                        add(entry.getKey(), eventor, dashBoard.id);
-                        counter++;
-                    }
+            counter += index(entry.getKey(), entry.getValue());
+        }
+        log.info("Timers : {}", counter);
+    }
+
+    /**
+     * Adds all timers and eventors of the user. Safe to call from multiple threads for different users.
+     *
+     * @return - number of added widgets
+     */
+    public int index(UserKey userKey, User user) {
+        int counter = 0;
+        for (DashBoard dashBoard : user.profile.dashBoards) {
+            for (Widget widget : dashBoard.widgets) {
+                if (widget instanceof Timer) {
+                    Timer timer = (Timer) widget;
+                    add(userKey, timer, dashBoard.id);
+                    counter++;
+                }
+                if (widget instanceof Eventor) {
+                    Eventor eventor = (Eventor) widget;
+                    add(userKey, eventor, dashBoard.id);
+                    counter++;
                 }
             }
         }
-        log.info("Timers : {}", counter);
+        return counter;
     }
 
     public void add(UserKey userKey, Eventor eventor, int dashId) {
@@ -205,6 +225,7 @@ public class TimerWorker implements Runnable {
             if (key.time.isTickTime(curSeconds, currentDateTime)) {
                 User user = userDao.users.get(key.userKey);
                 if (user != null) {
+                    user.hydrate();
                     DashBoard dash = user.profile.getDashById(key.dashId);
                     if (dash != null && dash.isActive) {
                         activeTimers++;
@@ -250,9 +271,7 @@ public class TimerWorker implements Runnable {
             if (!session.sendMessageToHardware(dashId, HARDWARE, TIMER_MSG_ID, value, deviceIds)) {
                 actuallySendTimers++;
             }
-            for (int deviceId : deviceIds) {
-                session.sendToApps(HARDWARE, TIMER_MSG_ID, dashId, deviceId, value);
-            }
+            session.sendToApps(HARDWARE, TIMER_MSG_ID, dashId, deviceIds, value);
         }
     }
 
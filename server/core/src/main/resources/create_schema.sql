@@ -16,6 +16,7 @@ CREATE TABLE users (
   is_super_admin bool DEFAULT FALSE,
   energy int,
   json text,
+  json_compressed bytea,
   PRIMARY KEY(email, appName)
 );
 
@@ -68,6 +69,7 @@ CREATE TABLE reporting_raw_data (
 
   PRIMARY KEY (email, project_id, device_id, pin, pinType, ts)
 );
+CREATE INDEX reporting_raw_data_ts ON reporting_raw_data (ts);
 
 CREATE TABLE reporting_average_minute (
   email text,
@@ -191,6 +193,19 @@ CREATE TABLE reporting_http_command_stat_minute (
   PRIMARY KEY (region, ts)
 );
 
+CREATE TABLE reporting_latency_stat_minute (
+  region text,
+  ts timestamp,
+  name text,
+  count int8,
+  mean int8,
+  p50 int8,
+  p95 int8,
+  p99 int8,
+  max int8,
+  PRIMARY KEY (region, ts, name)
+);
+
 CREATE TABLE forwarding_tokens (
   token character(32),
   host text,
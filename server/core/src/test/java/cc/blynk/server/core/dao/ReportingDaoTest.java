@@ -1,9 +1,30 @@
 package cc.blynk.server.core.dao;
 
+import cc.blynk.server.core.model.DataStream;
+import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphPeriod;
+import cc.blynk.server.core.reporting.GraphPinRequest;
+import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.server.core.reporting.storage.SegmentedReportingStorage;
+import cc.blynk.utils.AppNameUtil;
+import cc.blynk.utils.FileUtils;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static cc.blynk.server.core.reporting.storage.Rollups.toRollupFilename;
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -34,4 +55,60 @@ public class ReportingDaoTest {
 
     }
 
+    private static Map<AggregationKey, AggregationValue> points(int fromBucket, int toBucket) {
+        Map<AggregationKey, AggregationValue> points = new HashMap<>();
+        for (int bucket = fromBucket; bucket < toBucket; bucket++) {
+            AggregationValue value = new AggregationValue();
+            value.update(bucket);
+            value.update(bucket + 10);
+            points.put(new AggregationKey("test@test.com", AppNameUtil.BLYNK, 1, 0, PinType.VIRTUAL, (byte) 1,
+                    bucket), value);
+        }
+        return points;
+    }
+
+    @Test
+    public void testLegacyAveragesAreReadOnlyBeforeFirstRollup() throws Exception {
+        Path dataFolder = Files.createTempDirectory("reporting");
+        List<String> reads = new ArrayList<>();
+        SegmentedReportingStorage storage = new SegmentedReportingStorage(dataFolder.toString(), 1024 * 1024) {
+            @Override
+            public ByteBuffer read(String userReportingDir, String fileName,
+                                   int count, int skip) throws IOException {
+                reads.add(fileName + ":" + count + ":" + skip);
+                return super.read(userReportingDir, fileName, count, skip);
+            }
+        };
+
+        String userDir = FileUtils.getUserReportingDir("test@test.com", AppNameUtil.BLYNK);
+        String fileName = ReportingDao.generateFilename(1, 0, PinType.VIRTUAL.pintTypeChar, (byte) 1,
+                GraphGranularityType.MINUTE.label);
+        //first 3 buckets are stored before rollups were introduced
+        storage.write(GraphGranularityType.MINUTE, points(0, 3));
+        storage.delete(userDir, toRollupFilename(fileName));
+        storage.write(GraphGranularityType.MINUTE, points(3, 5));
+
+        User user = new User();
+        user.email = "test@test.com";
+        user.appName = AppNameUtil.BLYNK;
+        DataStream dataStream = new DataStream((byte) 1, false, false, PinType.VIRTUAL, null, 0, 255, null);
+        ReportingDao reportingDao = new ReportingDao(dataFolder.toString(), storage, false);
+        try {
+            ByteBuffer min = reportingDao.getReportingData(user, new GraphPinRequest[] {
+                    new GraphPinRequest(1, 0, dataStream, GraphPeriod.ONE_HOUR, 0, AggregationFunctionType.MIN)
+            })[0];
+
+            assertEquals(Arrays.asList(toRollupFilename(fileName) + ":60:0", fileName + ":58:2"), reads);
+            assertEquals(5 * 16, min.remaining());
+            for (int bucket = 0; bucket < 5; bucket++) {
+                //only average is known for legacy buckets
+                assertEquals(bucket < 3 ? bucket + 5 : bucket, min.getDouble(), 0.0001);
+                assertEquals(bucket * GraphGranularityType.MINUTE.period, min.getLong());
+            }
+        } finally {
+            reportingDao.close();
+            org.apache.commons.io.FileUtils.deleteDirectory(dataFolder.toFile());
+        }
+    }
+
 }
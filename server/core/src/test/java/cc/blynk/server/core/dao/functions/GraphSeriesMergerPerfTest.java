@@ -0,0 +1,118 @@
+package cc.blynk.server.core.dao.functions;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
+import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.server.core.reporting.storage.Rollups;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static cc.blynk.server.core.reporting.storage.Rollups.SIZE_OF_ROLLUP;
+
+/**
+ * Compares tag graph merge with TreeMap of boxed ts and graph function per point
+ * (previous implementation) with k-way merge.
+ * Run with -prof gc in order to see allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class GraphSeriesMergerPerfTest {
+
+    @Param({"10", "500"})
+    public int devices;
+
+    @Param({"1440"})
+    public int points;
+
+    private ByteBuffer[] averages;
+    private ByteBuffer[] rollups;
+
+    @Setup
+    public void setup() {
+        averages = new ByteBuffer[devices];
+        rollups = new ByteBuffer[devices];
+        AggregationValue value = new AggregationValue();
+        value.update(1);
+        for (int device = 0; device < devices; device++) {
+            averages[device] = ByteBuffer.allocate(points * 16);
+            rollups[device] = ByteBuffer.allocate(points * SIZE_OF_ROLLUP);
+            for (int i = 0; i < points; i++) {
+                long ts = i * 60_000L;
+                averages[device].putDouble(device + i).putLong(ts);
+                Rollups.put(rollups[device], value, ts);
+            }
+        }
+    }
+
+    //buffers are returned by storage with position at the end of data
+    private static ByteBuffer[] rewind(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            ((Buffer) buffer).clear();
+            ((Buffer) buffer).position(buffer.capacity());
+        }
+        return buffers;
+    }
+
+    @Benchmark
+    public ByteBuffer treeMapMax() {
+        return treeMap(rewind(averages), AggregationFunctionType.MAX);
+    }
+
+    @Benchmark
+    public ByteBuffer kWayMergeMax() {
+        return GraphSeriesMerger.mergeRollups(rewind(rollups), AggregationFunctionType.MAX);
+    }
+
+    @Benchmark
+    public ByteBuffer treeMapMedian() {
+        return treeMap(rewind(averages), AggregationFunctionType.MED);
+    }
+
+    @Benchmark
+    public ByteBuffer kWayMergeMedian() {
+        return GraphSeriesMerger.mergeMedian(rewind(averages));
+    }
+
+    private static ByteBuffer treeMap(ByteBuffer[] buffers, AggregationFunctionType functionType) {
+        TreeMap<Long, GraphFunction> data = new TreeMap<>();
+        for (ByteBuffer localByteBuf : buffers) {
+            ((Buffer) localByteBuf).flip();
+            while (localByteBuf.hasRemaining()) {
+                double newVal = localByteBuf.getDouble();
+                Long ts = localByteBuf.getLong();
+                GraphFunction graphFunctionObj = data.get(ts);
+                if (graphFunctionObj == null) {
+                    graphFunctionObj = functionType.produce();
+                    data.put(ts, graphFunctionObj);
+                }
+                graphFunctionObj.apply(newVal);
+            }
+        }
+
+        ByteBuffer result = ByteBuffer.allocate(data.size() * 16);
+        for (Map.Entry<Long, GraphFunction> entry : data.entrySet()) {
+            result.putDouble(entry.getValue().getResult())
+                    .putLong(entry.getKey());
+        }
+        return result;
+    }
+
+}
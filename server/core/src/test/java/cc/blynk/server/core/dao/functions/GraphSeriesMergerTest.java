@@ -0,0 +1,114 @@
+package cc.blynk.server.core.dao.functions;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
+import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.server.core.reporting.storage.Rollups;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static cc.blynk.server.core.reporting.storage.Rollups.SIZE_OF_ROLLUP;
+import static org.junit.Assert.assertEquals;
+
+public class GraphSeriesMergerTest {
+
+    private static final int DEVICES = 30;
+
+    //every device has own random set of buckets, some devices have no data at all
+    private static long[][] randomBuckets(Random random) {
+        long[][] buckets = new long[DEVICES][];
+        for (int device = 0; device < DEVICES; device++) {
+            int count = device % 7 == 0 ? 0 : random.nextInt(100);
+            buckets[device] = new long[count];
+            long ts = random.nextInt(10);
+            for (int i = 0; i < count; i++) {
+                buckets[device][i] = ts;
+                ts += 1 + random.nextInt(3);
+            }
+        }
+        return buckets;
+    }
+
+    @Test
+    public void testRollupsMergeMatchesTreeMap() {
+        Random random = new Random(17);
+        long[][] buckets = randomBuckets(random);
+
+        ByteBuffer[][] rollups = new ByteBuffer[AggregationFunctionType.values().length][DEVICES];
+        TreeMap<Long, AggregationValue> expected = new TreeMap<>();
+        for (int device = 0; device < DEVICES; device++) {
+            for (ByteBuffer[] functionRollups : rollups) {
+                functionRollups[device] = ByteBuffer.allocate(buckets[device].length * SIZE_OF_ROLLUP);
+            }
+            for (long ts : buckets[device]) {
+                AggregationValue value = new AggregationValue();
+                for (int i = 0; i < 1 + random.nextInt(5); i++) {
+                    value.update(random.nextInt(1000) - 500);
+                }
+                for (ByteBuffer[] functionRollups : rollups) {
+                    Rollups.put(functionRollups[device], value, ts);
+                }
+                expected.computeIfAbsent(ts, k -> new AggregationValue())
+                        .add(value.getSum(), value.getCount(), value.getMin(), value.getMax());
+            }
+        }
+
+        for (AggregationFunctionType functionType : AggregationFunctionType.values()) {
+            if (functionType == AggregationFunctionType.MED) {
+                continue;
+            }
+            ByteBuffer result = GraphSeriesMerger.mergeRollups(rollups[functionType.ordinal()], functionType);
+            result.flip();
+            assertEquals(expected.size() * 16, result.remaining());
+            for (Map.Entry<Long, AggregationValue> entry : expected.entrySet()) {
+                AggregationValue value = entry.getValue();
+                double expectedValue;
+                switch (functionType) {
+                    case MIN :
+                        expectedValue = value.getMin();
+                        break;
+                    case MAX :
+                        expectedValue = value.getMax();
+                        break;
+                    case SUM :
+                        expectedValue = value.getSum();
+                        break;
+                    default :
+                        expectedValue = value.calcAverage();
+                        break;
+                }
+                assertEquals(expectedValue, result.getDouble(), 0.0001);
+                assertEquals((long) entry.getKey(), result.getLong());
+            }
+        }
+    }
+
+    @Test
+    public void testMedianMergeMatchesTreeMap() {
+        Random random = new Random(17);
+        long[][] buckets = randomBuckets(random);
+
+        ByteBuffer[] averages = new ByteBuffer[DEVICES];
+        TreeMap<Long, GraphFunction> expected = new TreeMap<>();
+        for (int device = 0; device < DEVICES; device++) {
+            averages[device] = ByteBuffer.allocate(buckets[device].length * 16);
+            for (long ts : buckets[device]) {
+                double value = random.nextInt(1000);
+                averages[device].putDouble(value).putLong(ts);
+                expected.computeIfAbsent(ts, k -> new MedianGraphFunction()).apply(value);
+            }
+        }
+
+        ByteBuffer result = GraphSeriesMerger.mergeMedian(averages);
+        result.flip();
+        assertEquals(expected.size() * 16, result.remaining());
+        for (Map.Entry<Long, GraphFunction> entry : expected.entrySet()) {
+            assertEquals(entry.getValue().getResult(), result.getDouble(), 0.0001);
+            assertEquals((long) entry.getKey(), result.getLong());
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+package cc.blynk.server.core.model.auth;
+
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static cc.blynk.server.core.model.auth.ChannelIndex.key;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+public class ChannelIndexTest {
+
+    @Test
+    public void testKeysDoNotCollide() {
+        assertNotEquals(key(1, 2), key(2, 1));
+        assertNotEquals(key(1, -1), key(0, -1));
+        assertNotEquals(key(-1, 1), key(1, 1));
+    }
+
+    @Test
+    public void testAddAndRemove() {
+        ChannelIndex index = new ChannelIndex();
+        Channel channel1 = new EmbeddedChannel();
+        Channel channel2 = new EmbeddedChannel();
+        Channel channel3 = new EmbeddedChannel();
+
+        assertSame(ChannelIndex.EMPTY, index.get(key(1, 0)));
+
+        index.add(key(1, 0), channel1);
+        index.add(key(1, 0), channel2);
+        index.add(key(2, 0), channel3);
+        Channel[] snapshot = index.get(key(1, 0));
+        assertArrayEquals(new Channel[] {channel1, channel2}, snapshot);
+        assertArrayEquals(new Channel[] {channel3}, index.get(key(2, 0)));
+
+        index.remove(key(1, 0), channel1);
+        assertArrayEquals(new Channel[] {channel2}, index.get(key(1, 0)));
+        //snapshot returned before change is not modified
+        assertArrayEquals(new Channel[] {channel1, channel2}, snapshot);
+
+        //unknown channel or key
+        index.remove(key(1, 0), channel3);
+        index.remove(key(3, 0), channel3);
+        assertArrayEquals(new Channel[] {channel2}, index.get(key(1, 0)));
+
+        index.remove(channel2);
+        index.remove(channel3);
+        assertSame(ChannelIndex.EMPTY, index.get(key(1, 0)));
+        assertSame(ChannelIndex.EMPTY, index.get(key(2, 0)));
+    }
+
+}
@@ -0,0 +1,93 @@
+package cc.blynk.server.core.model.auth;
+
+import cc.blynk.server.core.stats.GlobalStats;
+import cc.blynk.server.handlers.DefaultReregisterHandler;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoop;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SessionEventLoopTest {
+
+    private static final DefaultEventLoopGroup group = new DefaultEventLoopGroup(1);
+
+    @AfterClass
+    public static void shutdown() {
+        group.shutdownGracefully();
+    }
+
+    @Test
+    public void testIdleSessionMovedToChannelLoop() {
+        EventLoop otherLoop = group.next();
+        Session session = new Session(otherLoop);
+        Channel channel = new EmbeddedChannel();
+
+        assertTrue(session.bindEventLoop(channel));
+        assertSame(channel.eventLoop(), session.getEventLoop());
+    }
+
+    @Test
+    public void testSessionWithChannelsIsNotMoved() {
+        Channel appChannel = new EmbeddedChannel();
+        Session session = new Session(appChannel.eventLoop());
+        assertTrue(session.bindEventLoop(appChannel));
+        session.addAppChannel(appChannel);
+
+        Channel channel = new EmbeddedChannel();
+        assertFalse(session.bindEventLoop(channel));
+        assertSame(appChannel.eventLoop(), session.getEventLoop());
+
+        //all channels are closed, so session follows next channel
+        appChannel.close();
+        channel.close();
+        Channel reconnected = new EmbeddedChannel();
+        assertTrue(session.bindEventLoop(reconnected));
+        assertSame(reconnected.eventLoop(), session.getEventLoop());
+    }
+
+    @Test
+    public void testSessionIsNotMovedWhileOtherLoginInProgress() {
+        Session session = new Session(group.next());
+        Channel first = new EmbeddedChannel();
+        Channel second = new EmbeddedChannel();
+
+        assertTrue(session.bindEventLoop(first));
+        //first channel is not added yet
+        assertFalse(session.bindEventLoop(second));
+        assertSame(first.eventLoop(), session.getEventLoop());
+
+        session.bindCompleted(first);
+        session.bindCompleted(second);
+        assertTrue(session.bindEventLoop(second));
+    }
+
+    @Test
+    public void testFailedLoginCompletesBind() {
+        Session session = new Session(group.next());
+        EmbeddedChannel first = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        DefaultReregisterHandler handler = new DefaultReregisterHandler() { };
+        try {
+            handler.completeOnSessionLoop(first.pipeline().firstContext(), session, new GlobalStats(),
+                    channel -> {
+                        throw new IllegalStateException();
+                    });
+            fail();
+        } catch (IllegalStateException e) {
+            //expected
+        }
+
+        //first channel is still active, but it doesn't hold session anymore
+        Channel second = new EmbeddedChannel();
+        assertTrue(session.bindEventLoop(second));
+        assertSame(second.eventLoop(), session.getEventLoop());
+    }
+
+}
@@ -0,0 +1,144 @@
+package cc.blynk.server.core.protocol.handlers;
+
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FlushCoalescingHandlerTest {
+
+    private static final DefaultEventLoopGroup group = new DefaultEventLoopGroup(1);
+
+    @AfterClass
+    public static void shutdown() {
+        group.shutdownGracefully();
+    }
+
+    private static class FlushCounter extends ChannelOutboundHandlerAdapter {
+        int flushes;
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) throws Exception {
+            flushes++;
+            super.flush(ctx);
+        }
+    }
+
+    //responds to every read with 2 flushed messages
+    private static class Responder extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ctx.writeAndFlush(msg);
+            ctx.writeAndFlush(Unpooled.wrappedBuffer(new byte[] {1}));
+        }
+    }
+
+    @Test
+    public void testFlushesCoalescedTillReadComplete() {
+        GlobalStats stats = new GlobalStats();
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter,
+                new FlushCoalescingHandler(stats, 1024, 0), new Responder());
+
+        channel.writeInbound(Unpooled.wrappedBuffer(new byte[] {1}), Unpooled.wrappedBuffer(new byte[] {2}));
+
+        assertEquals(1, counter.flushes);
+        assertEquals(4, channel.outboundMessages().size());
+        assertEquals(1, stats.flushes.sum());
+        assertEquals(3, stats.coalescedFlushes.sum());
+        channel.finishAndReleaseAll();
+    }
+
+    //EmbeddedChannel runs pending tasks on every write, so real event loop is used
+    private static Channel connect(ChannelHandler... handlers) throws Exception {
+        LocalAddress address = new LocalAddress(LocalAddress.ANY.id() + System.nanoTime());
+        new ServerBootstrap().group(group)
+                .channel(LocalServerChannel.class)
+                .childHandler(new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                        ReferenceCountUtil.release(msg);
+                    }
+                })
+                .bind(address).sync();
+        return new Bootstrap().group(group)
+                .channel(LocalChannel.class)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ch.pipeline().addLast(handlers);
+                    }
+                })
+                .connect(address).sync().channel();
+    }
+
+    @Test
+    public void testFlushesOutsideOfReadCoalescedTillEndOfTask() throws Exception {
+        GlobalStats stats = new GlobalStats();
+        FlushCounter counter = new FlushCounter();
+        Channel channel = connect(counter, new FlushCoalescingHandler(stats, 1024, 0));
+
+        int flushesWithinTask = channel.eventLoop().submit(() -> {
+            for (int i = 0; i < 3; i++) {
+                channel.writeAndFlush(Unpooled.wrappedBuffer(new byte[] {1}));
+            }
+            return counter.flushes;
+        }).get();
+        assertEquals(0, flushesWithinTask);
+
+        //flush task was submitted before, so it is already done
+        assertEquals(1, (int) channel.eventLoop().submit(() -> counter.flushes).get());
+        assertEquals(2, stats.coalescedFlushes.sum());
+        channel.close().sync();
+    }
+
+    @Test
+    public void testFlushedRightAwayWhenPendingBytesLimitReached() throws Exception {
+        GlobalStats stats = new GlobalStats();
+        FlushCounter counter = new FlushCounter();
+        Channel channel = connect(counter, new FlushCoalescingHandler(stats, 10, 0));
+
+        int flushesWithinTask = channel.eventLoop().submit(() -> {
+            channel.writeAndFlush(Unpooled.wrappedBuffer(new byte[5]));
+            assertEquals(0, counter.flushes);
+            channel.writeAndFlush(Unpooled.wrappedBuffer(new byte[5]));
+            return counter.flushes;
+        }).get();
+        assertEquals(1, flushesWithinTask);
+
+        //nothing left for the submitted flush task
+        assertEquals(1, (int) channel.eventLoop().submit(() -> counter.flushes).get());
+        assertEquals(1, stats.coalescedFlushes.sum());
+        channel.close().sync();
+    }
+
+    @Test
+    public void testPendingFlushedOnClose() {
+        GlobalStats stats = new GlobalStats();
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter, new FlushCoalescingHandler(stats, 1024, 0));
+
+        channel.pipeline().writeAndFlush(Unpooled.wrappedBuffer(new byte[] {1}));
+        channel.close();
+        assertEquals(1, counter.flushes);
+        assertEquals(1, channel.outboundMessages().size());
+        channel.finishAndReleaseAll();
+    }
+
+}
@@ -0,0 +1,101 @@
+package cc.blynk.server.core.protocol.handlers;
+
+import cc.blynk.server.core.protocol.handlers.encoders.MessageEncoder;
+import cc.blynk.server.core.protocol.model.messages.EncodedMessage;
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE_CONNECTED;
+import static cc.blynk.server.core.protocol.handlers.OutboundConflationHandler.conflationKey;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OutboundConflationHandlerTest {
+
+    private static EncodedMessage message(short command, String body) {
+        byte[] bytes = body.replace(' ', '\0').getBytes(StandardCharsets.UTF_8);
+        ByteBuf frame = Unpooled.buffer()
+                .writeByte(command)
+                .writeShort(1)
+                .writeShort(bytes.length)
+                .writeBytes(bytes);
+        return new EncodedMessage(1, command, bytes.length, frame);
+    }
+
+    private static String body(ByteBuf frame) {
+        String body = frame.toString(5, frame.readableBytes() - 5, StandardCharsets.UTF_8).replace('\0', ' ');
+        frame.release();
+        return body;
+    }
+
+    @Test
+    public void testConflationKey() {
+        assertEquals("vw\u00001", conflationKey(message(HARDWARE, "vw 1 100")));
+        assertEquals("1-0\u0000vw\u000010", conflationKey(message(HARDWARE, "1-0 vw 10 100 200")));
+        assertNull(conflationKey(message(HARDWARE, "vr 1")));
+        assertNull(conflationKey(message(HARDWARE, "vw")));
+        assertNull(conflationKey(message(HARDWARE_CONNECTED, "1-0")));
+    }
+
+    @Test
+    public void testLatestPinValueDeliveredWhenChannelIsWritableAgain() {
+        GlobalStats stats = new GlobalStats();
+        OutboundConflationHandler handler = new OutboundConflationHandler(stats, 2);
+        EmbeddedChannel channel = new EmbeddedChannel(new MessageEncoder(stats), handler);
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(1, 2));
+        Channel source = new EmbeddedChannel();
+
+        //fills outbound buffer without flush
+        channel.write(Unpooled.wrappedBuffer(new byte[10]));
+        assertFalse(channel.isWritable());
+        assertFalse(handler.pauseIfSaturated(source));
+
+        channel.write(message(HARDWARE, "1-0 vw 1 1"));
+        channel.write(message(HARDWARE, "1-0 vw 1 2"));
+        channel.write(message(HARDWARE, "1-0 vw 2 1"));
+        channel.write(message(HARDWARE, "1-0 vw 3 1"));
+        assertEquals(1, stats.conflatedMessages.sum());
+        assertEquals(1, stats.droppedMessages.sum());
+
+        assertTrue(handler.pauseIfSaturated(source));
+        assertFalse(source.config().isAutoRead());
+        assertEquals(1, stats.pausedReads.sum());
+
+        channel.flush();
+        assertEquals(10, ((ByteBuf) channel.readOutbound()).readableBytes());
+        assertEquals("1-0 vw 1 2", body(channel.readOutbound()));
+        assertEquals("1-0 vw 2 1", body(channel.readOutbound()));
+        assertNull(channel.readOutbound());
+        assertTrue(source.config().isAutoRead());
+
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testQueuedMessagesReleasedOnClose() {
+        GlobalStats stats = new GlobalStats();
+        EmbeddedChannel channel = new EmbeddedChannel(new MessageEncoder(stats),
+                new OutboundConflationHandler(stats, 10));
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(1, 2));
+
+        channel.write(Unpooled.wrappedBuffer(new byte[10]));
+        EncodedMessage message = message(HARDWARE, "vw 1 1");
+        channel.write(message);
+        assertEquals(1, message.refCnt());
+
+        channel.close();
+        assertEquals(0, message.refCnt());
+        channel.finishAndReleaseAll();
+    }
+
+}
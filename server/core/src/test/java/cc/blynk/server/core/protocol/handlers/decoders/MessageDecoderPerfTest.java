@@ -0,0 +1,91 @@
+package cc.blynk.server.core.protocol.handlers.decoders;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.protocol.enums.Command;
+import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.protocol.model.messages.common.HardwareWriteMessage;
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.CharsetUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static cc.blynk.utils.StringUtils.split3;
+
+/**
+ * Compares decoding of hardware write command into string message, with split of the body
+ * as done by HardwareLogic, with decoding straight from the buffer.
+ * Run with -prof gc in order to see allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class MessageDecoderPerfTest {
+
+    @Param({"vw 1 1", "vw 99 22222.32", "aw 10 dsfdsfdsfdsfdsfdsfdsfdsfd gfdsgdfg"})
+    public String body;
+
+    private final MessageDecoder stringDecoder = new MessageDecoder(new GlobalStats());
+    private final MessageDecoder bufferDecoder = new MessageDecoder(new GlobalStats(), true);
+    private final List<Object> out = new ArrayList<>(1);
+    private ByteBuf frame;
+
+    @Setup
+    public void setup() {
+        byte[] bodyBytes = body.replaceAll(" ", "\0").getBytes(CharsetUtil.UTF_8);
+        frame = PooledByteBufAllocator.DEFAULT.directBuffer();
+        frame.writeByte(Command.HARDWARE)
+             .writeShort(1)
+             .writeShort(bodyBytes.length)
+             .writeBytes(bodyBytes);
+    }
+
+    @TearDown
+    public void tearDown() {
+        frame.release();
+    }
+
+    @Benchmark
+    public void stringDecoder(Blackhole blackhole) throws Exception {
+        frame.readerIndex(0);
+        out.clear();
+        stringDecoder.decode(null, frame, out);
+        StringMessage message = (StringMessage) out.get(0);
+        String[] splitBody = split3(message.body);
+        blackhole.consume(PinType.getPinType(splitBody[0].charAt(0)));
+        blackhole.consume(Byte.parseByte(splitBody[1]));
+        blackhole.consume(splitBody[2]);
+    }
+
+    @Benchmark
+    public void bufferDecoder(Blackhole blackhole) throws Exception {
+        frame.readerIndex(0);
+        out.clear();
+        bufferDecoder.decode(null, frame, out);
+        HardwareWriteMessage message = (HardwareWriteMessage) out.get(0);
+        blackhole.consume(message.pinType);
+        blackhole.consume(message.pin);
+        blackhole.consume(message.value());
+        message.release();
+    }
+
+}
@@ -0,0 +1,67 @@
+package cc.blynk.server.core.protocol.handlers.decoders;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.protocol.enums.Command;
+import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.protocol.model.messages.common.HardwareWriteMessage;
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageDecoderTest {
+
+    private static ByteBuf frame(short command, String body) {
+        byte[] bodyBytes = body.replaceAll(" ", "\0").getBytes(CharsetUtil.UTF_8);
+        return Unpooled.buffer()
+                .writeByte(command)
+                .writeShort(1)
+                .writeShort(bodyBytes.length)
+                .writeBytes(bodyBytes);
+    }
+
+    private static Object decode(boolean decodeHardwareWrites, short command, String body) {
+        EmbeddedChannel channel = new EmbeddedChannel(new MessageDecoder(new GlobalStats(), decodeHardwareWrites));
+        assertTrue(channel.writeInbound(frame(command, body)));
+        Object message = channel.readInbound();
+        assertFalse(channel.finish());
+        return message;
+    }
+
+    @Test
+    public void testHardwareWriteDecodedFromBuffer() {
+        HardwareWriteMessage message = (HardwareWriteMessage) decode(true, Command.HARDWARE, "vw 99 22.5 1");
+        assertEquals(1, message.id);
+        assertEquals(PinType.VIRTUAL, message.pinType);
+        assertEquals(99, message.pin);
+        assertEquals("22.5\u00001", message.value());
+        assertEquals("vw\u000099\u000022.5\u00001", message.body());
+        assertEquals(1, message.refCnt());
+        assertTrue(message.release());
+
+        message = (HardwareWriteMessage) decode(true, Command.HARDWARE, "dw 127 1");
+        assertEquals(PinType.DIGITAL, message.pinType);
+        assertEquals(127, message.pin);
+        assertEquals("1", message.value());
+        message.release();
+    }
+
+    @Test
+    public void testOtherCommandsDecodedAsStrings() {
+        String[] bodies = {"vr 1", "vw 1", "vw 1 ", "vw 128 1", "vw -1 1", "vw a 1", "Vw 1 1", "xw 1 1"};
+        for (String body : bodies) {
+            StringMessage message = (StringMessage) decode(true, Command.HARDWARE, body);
+            assertEquals(body.replaceAll(" ", "\0"), message.body);
+        }
+
+        assertTrue(decode(false, Command.HARDWARE, "vw 1 1") instanceof StringMessage);
+        assertTrue(decode(true, Command.BRIDGE, "vw 1 1") instanceof StringMessage);
+    }
+
+}
@@ -0,0 +1,81 @@
+package cc.blynk.server.core.protocol.handlers.encoders;
+
+import cc.blynk.server.core.protocol.enums.Command;
+import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares sending of the same message to many channels via string message
+ * (encoded for every channel) with frame encoded once and shared between channels.
+ * Run with -prof gc in order to see allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class BroadcastEncoderPerfTest {
+
+    @Param({"1", "10", "100"})
+    public int channelsNum;
+
+    private final String body = "1-0\0vw\u00001\0dsfdsfdsfdsfdsfdsfdsfdsfd";
+    private EmbeddedChannel[] channels;
+
+    @Setup
+    public void setup() {
+        GlobalStats stats = new GlobalStats();
+        channels = new EmbeddedChannel[channelsNum];
+        for (int i = 0; i < channelsNum; i++) {
+            channels[i] = new EmbeddedChannel(new MessageEncoder(stats));
+            channels[i].config().setOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+        }
+    }
+
+    private void releaseOutbound() {
+        for (EmbeddedChannel channel : channels) {
+            ((ByteBuf) channel.readOutbound()).release();
+        }
+    }
+
+    @Benchmark
+    public void stringMessage() {
+        StringMessage message = new StringMessage(7777, Command.HARDWARE, body);
+        for (EmbeddedChannel channel : channels) {
+            channel.writeAndFlush(message, channel.voidPromise());
+        }
+        releaseOutbound();
+    }
+
+    @Benchmark
+    public void broadcast() {
+        BroadcastEncoder broadcast = new BroadcastEncoder(Command.HARDWARE, 7777, body);
+        try {
+            for (EmbeddedChannel channel : channels) {
+                broadcast.writeAndFlush(channel);
+            }
+        } finally {
+            broadcast.release();
+        }
+        releaseOutbound();
+    }
+
+}
@@ -0,0 +1,94 @@
+package cc.blynk.server.core.protocol.handlers.encoders;
+
+import cc.blynk.server.core.protocol.enums.Command;
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class BroadcastEncoderTest {
+
+    private static void assertFrame(ByteBuf frame, int lengthBytes, String body) {
+        assertEquals(Command.HARDWARE, frame.readUnsignedByte());
+        assertEquals(7777, frame.readUnsignedShort());
+        int length = lengthBytes == 2 ? frame.readUnsignedShort() : frame.readInt();
+        assertEquals(body.getBytes(CharsetUtil.UTF_8).length, length);
+        assertEquals(body, frame.toString(CharsetUtil.UTF_8));
+    }
+
+    @Test
+    public void testFrameSharedBetweenChannels() {
+        GlobalStats stats = new GlobalStats();
+        EmbeddedChannel hardChannel1 = new EmbeddedChannel(new MessageEncoder(stats));
+        EmbeddedChannel hardChannel2 = new EmbeddedChannel(new MessageEncoder(stats));
+        EmbeddedChannel appChannel = new EmbeddedChannel(new AppMessageEncoder(stats));
+
+        String body = "1-0\0vw\u00001\0тест";
+        BroadcastEncoder broadcast = new BroadcastEncoder(Command.HARDWARE, 7777, body);
+        broadcast.writeAndFlush(hardChannel1);
+        broadcast.writeAndFlush(hardChannel2);
+        broadcast.writeAndFlush(appChannel);
+        broadcast.release();
+
+        ByteBuf frame1 = hardChannel1.readOutbound();
+        ByteBuf frame2 = hardChannel2.readOutbound();
+        ByteBuf appFrame = appChannel.readOutbound();
+
+        int bodyLength = body.getBytes(CharsetUtil.UTF_8).length;
+        assertFrame(frame1.duplicate(), 2, body);
+        assertFrame(frame2.duplicate(), 2, body);
+        assertFrame(appFrame.duplicate(), 4, body);
+        assertEquals(5 + bodyLength, frame1.readableBytes());
+        assertEquals(7 + bodyLength, appFrame.readableBytes());
+
+        //frames are duplicates of the same buffer
+        ByteBuf shared = frame1.unwrap();
+        assertEquals(shared, frame2.unwrap());
+        assertEquals(2, shared.refCnt());
+        frame1.release();
+        frame2.release();
+        assertEquals(0, shared.refCnt());
+        ByteBuf sharedApp = appFrame.unwrap();
+        appFrame.release();
+        assertEquals(0, sharedApp.refCnt());
+
+        assertFalse(hardChannel1.finish());
+        assertFalse(hardChannel2.finish());
+        assertFalse(appChannel.finish());
+    }
+
+    @Test
+    public void testBodyTailIsNotCopied() {
+        GlobalStats stats = new GlobalStats();
+        EmbeddedChannel hardChannel = new EmbeddedChannel(new MessageEncoder(stats));
+        EmbeddedChannel appChannel = new EmbeddedChannel(new AppMessageEncoder(stats));
+
+        ByteBuf received = Unpooled.directBuffer().writeBytes("vw\u00001\u0000100".getBytes(CharsetUtil.UTF_8));
+        BroadcastEncoder broadcast = new BroadcastEncoder(Command.HARDWARE, 7777,
+                "1-0\0".getBytes(CharsetUtil.UTF_8), received);
+        broadcast.writeAndFlush(hardChannel);
+        broadcast.writeAndFlush(appChannel);
+        broadcast.release();
+        //received frame is released by the decoder
+        received.release();
+        assertEquals(2, received.refCnt());
+
+        ByteBuf frame = hardChannel.readOutbound();
+        ByteBuf appFrame = appChannel.readOutbound();
+        assertFrame(frame.duplicate(), 2, "1-0\0vw\u00001\u0000100");
+        assertFrame(appFrame.duplicate(), 4, "1-0\0vw\u00001\u0000100");
+
+        frame.release();
+        appFrame.release();
+        assertEquals(0, received.refCnt());
+
+        assertFalse(hardChannel.finish());
+        assertFalse(appChannel.finish());
+    }
+
+}
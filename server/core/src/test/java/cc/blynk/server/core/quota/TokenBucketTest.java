@@ -0,0 +1,101 @@
+package cc.blynk.server.core.quota;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBurstAcceptedThenRefilledWithRate() {
+        TokenBucket bucket = new TokenBucket(10, 10);
+        long now = System.nanoTime();
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(bucket.tryAcquire(now));
+        }
+        assertFalse(bucket.tryAcquire(now));
+
+        //100 ms is 1 message for 10 req/sec
+        assertTrue(bucket.tryAcquire(now + SECOND / 10));
+        assertFalse(bucket.tryAcquire(now + SECOND / 10));
+
+        //idle bucket is refilled only up to the capacity
+        long later = now + 10 * SECOND;
+        for (int i = 0; i < 10; i++) {
+            assertTrue(bucket.tryAcquire(later));
+        }
+        assertFalse(bucket.tryAcquire(later));
+    }
+
+    @Test
+    public void testUnlimited() {
+        assertTrue(TokenBucket.UNLIMITED.isUnlimited());
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(TokenBucket.UNLIMITED.tryAcquire());
+        }
+    }
+
+    @Test
+    public void testUserTierLimitsAllChannels() {
+        QuotaManager quotaManager = new QuotaManager(5, 8, 0);
+        UserQuota user = quotaManager.newUserQuota();
+        TokenBucket app = quotaManager.newChannelBucket();
+        TokenBucket hard = quotaManager.newChannelBucket();
+
+        int accepted = 0;
+        for (int i = 0; i < 10; i++) {
+            if (quotaManager.tryAcquire(app, user)) {
+                accepted++;
+            }
+            if (quotaManager.tryAcquire(hard, user)) {
+                accepted++;
+            }
+        }
+        assertEquals(8, accepted);
+    }
+
+    @Test
+    public void testRejectedMessageDoesNotConsumeChannelToken() {
+        QuotaManager quotaManager = new QuotaManager(5, 2, 0);
+        TokenBucket app = quotaManager.newChannelBucket();
+        UserQuota user = quotaManager.newUserQuota();
+
+        assertTrue(quotaManager.tryAcquire(app, user));
+        assertTrue(quotaManager.tryAcquire(app, user));
+        for (int i = 0; i < 10; i++) {
+            assertFalse(quotaManager.tryAcquire(app, user));
+        }
+
+        //3 channel tokens are left, rejected messages didn't take any
+        UserQuota otherUser = quotaManager.newUserQuota();
+        assertTrue(quotaManager.tryAcquire(app, otherUser));
+        assertTrue(quotaManager.tryAcquire(app, otherUser));
+        assertTrue(quotaManager.tryAcquire(app, quotaManager.newUserQuota()));
+        assertFalse(quotaManager.tryAcquire(app, quotaManager.newUserQuota()));
+    }
+
+    @Test
+    public void testRateMeter() {
+        RateMeter meter = new RateMeter();
+        meter.mark(100);
+        meter.mark(100);
+        assertEquals(0, meter.getRate(100));
+        assertEquals(2, meter.getRate(101));
+
+        meter.mark(101);
+        assertEquals(2, meter.getRate(101));
+        assertEquals(1, meter.getRate(102));
+        assertEquals(0, meter.getRate(103));
+
+        meter.mark(105);
+        assertEquals(0, meter.getRate(105));
+    }
+
+}
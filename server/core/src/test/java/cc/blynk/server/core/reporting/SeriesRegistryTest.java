@@ -0,0 +1,105 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.utils.AppNameUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SeriesRegistryTest {
+
+    private static BaseReportingKey key(int deviceId, int pin) {
+        return new BaseReportingKey("test@test.com", AppNameUtil.BLYNK, 1, deviceId, PinType.VIRTUAL, (byte) pin);
+    }
+
+    @Test
+    public void testIdsAreStableAndRecycledAfterGracePeriod() {
+        SeriesRegistry registry = new SeriesRegistry();
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(i, registry.getOrCreateId(key(i / 100, i % 100)));
+        }
+        assertEquals(1500, registry.getOrCreateId(key(15, 0)));
+        assertEquals(key(15, 0), registry.getKey(1500));
+
+        assertEquals(100, registry.removeAll(key -> key.deviceId == 3));
+        assertEquals(-1, registry.getId(key(3, 5)));
+        //key is still available for pending data
+        assertEquals(key(3, 5), registry.getKey(305));
+
+        List<Integer> cleaned = new ArrayList<>();
+        assertEquals(0, registry.recycle(id -> false, cleaned::add));
+        assertTrue(cleaned.isEmpty());
+        assertEquals(2000, registry.getOrCreateId(key(100, 0)));
+
+        assertEquals(100, registry.recycle(id -> false, cleaned::add));
+        assertEquals(100, cleaned.size());
+        assertNull(registry.getKey(305));
+
+        int reused = registry.getOrCreateId(key(3, 5));
+        assertTrue(reused >= 300 && reused < 400);
+        assertEquals(reused, registry.getOrCreateId(key(3, 5)));
+        assertEquals(2001, registry.size());
+    }
+
+    @Test
+    public void testIdWithPendingDataIsNotRecycled() {
+        SeriesRegistry registry = new SeriesRegistry();
+        int first = registry.getOrCreateId(key(1, 1));
+        int second = registry.getOrCreateId(key(1, 2));
+        registry.remove(key(1, 1));
+        registry.remove(key(1, 2));
+
+        List<Integer> cleaned = new ArrayList<>();
+        assertEquals(0, registry.recycle(id -> true, cleaned::add));
+        //hourly bucket of the first series is still open
+        assertEquals(1, registry.recycle(id -> id == first, cleaned::add));
+        assertEquals(second, (int) cleaned.get(0));
+        assertEquals(key(1, 1), registry.getKey(first));
+        assertNull(registry.getKey(second));
+
+        assertEquals(1, registry.recycle(id -> false, cleaned::add));
+        assertNull(registry.getKey(first));
+    }
+
+    @Test
+    public void testPendingIdIsReusedForSameKey() {
+        SeriesRegistry registry = new SeriesRegistry();
+        int id = registry.getOrCreateId(key(1, 1));
+        registry.getOrCreateId(key(1, 2));
+        registry.remove(key(1, 1));
+        assertEquals(0, registry.recycle(seriesId -> false, seriesId -> { }));
+
+        assertEquals(id, registry.getOrCreateId(key(1, 1)));
+        assertEquals(0, registry.recycle(seriesId -> false, seriesId -> { }));
+        assertEquals(key(1, 1), registry.getKey(id));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void testDeviceCache() {
+        SeriesIdCache cache = new SeriesIdCache();
+        cache.put('v', (byte) 1, 10);
+        cache.put('d', (byte) 1, 11);
+        cache.put('v', (byte) -1, 12);
+        assertEquals(10, cache.get('v', (byte) 1));
+        assertEquals(11, cache.get('d', (byte) 1));
+        assertEquals(12, cache.get('v', (byte) -1));
+        assertEquals(-1, cache.get('a', (byte) 1));
+
+        cache.put('v', (byte) 1, 20);
+        assertEquals(20, cache.get('v', (byte) 1));
+        cache.remove('v', (byte) 1);
+        assertEquals(-1, cache.get('v', (byte) 1));
+        assertNotEquals(-1, cache.get('d', (byte) 1));
+        cache.clear();
+        assertEquals(-1, cache.get('d', (byte) 1));
+    }
+
+}
@@ -1,10 +1,12 @@
 package cc.blynk.server.core.reporting.average;
 
-import cc.blynk.server.core.dao.ReportingDao;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.reporting.raw.BaseReportingKey;
 import cc.blynk.utils.AppNameUtil;
+import cc.blynk.utils.FileUtils;
+import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
@@ -13,12 +15,15 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
 
 import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.DAY;
 import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.HOUR;
 import static cc.blynk.server.internal.ReportingUtil.getReportingFolder;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * The Blynk Project.
@@ -34,6 +39,13 @@ public class AverageAggregatorTest {
         return dateTime.toInstant(ZoneOffset.ofTotalSeconds(0)).toEpochMilli();
     }
 
+    @Before
+    public void cleanCheckpoints() {
+        FileUtils.deleteQuietly(Paths.get(reportingFolder, AverageAggregatorProcessor.MINUTE_CHECKPOINT_FILENAME));
+        FileUtils.deleteQuietly(Paths.get(reportingFolder, AverageAggregatorProcessor.HOURLY_CHECKPOINT_FILENAME));
+        FileUtils.deleteQuietly(Paths.get(reportingFolder, AverageAggregatorProcessor.DAILY_CHECKPOINT_FILENAME));
+    }
+
     @Test
     public void testAverageWorksOkForOnePin() {
         AverageAggregatorProcessor averageAggregator = new AverageAggregatorProcessor("");
@@ -100,7 +112,7 @@ public class AverageAggregatorTest {
     }
 
     @Test
-    public void testTempFilesCreated() throws IOException {
+    public void testCheckpointFilesCreated() throws IOException {
         Path dir = Paths.get(reportingFolder, "");
         if (Files.notExists(dir)) {
             Files.createDirectories(dir);
@@ -143,8 +155,8 @@ public class AverageAggregatorTest {
 
         averageAggregator.close();
 
-        assertTrue(Files.exists(Paths.get(reportingFolder, AverageAggregatorProcessor.HOURLY_TEMP_FILENAME)));
-        assertTrue(Files.exists(Paths.get(reportingFolder, AverageAggregatorProcessor.DAILY_TEMP_FILENAME)));
+        assertTrue(Files.exists(Paths.get(reportingFolder, AverageAggregatorProcessor.HOURLY_CHECKPOINT_FILENAME)));
+        assertTrue(Files.exists(Paths.get(reportingFolder, AverageAggregatorProcessor.DAILY_CHECKPOINT_FILENAME)));
 
         averageAggregator = new AverageAggregatorProcessor(reportingFolder);
 
@@ -152,14 +164,67 @@ public class AverageAggregatorTest {
         assertEquals(1, averageAggregator.getDaily().size());
         assertEquals(expectedDailyAverage, averageAggregator.getDaily().get(new AggregationKey(new BaseReportingKey(user.email, user.appName, dashId, 0, pinType, pin), getMillis(2015, 8, 1, 0, 0) / DAY)).calcAverage(), 0);
 
-        assertTrue(Files.notExists(Paths.get(reportingFolder, AverageAggregatorProcessor.HOURLY_TEMP_FILENAME)));
-        assertTrue(Files.notExists(Paths.get(reportingFolder, AverageAggregatorProcessor.DAILY_TEMP_FILENAME)));
+        //flushed buckets are not restored again
+        averageAggregator.removeOutdated(GraphGranularityType.HOURLY, Long.MAX_VALUE);
+        averageAggregator.checkpoint();
+        averageAggregator = new AverageAggregatorProcessor(reportingFolder);
+        assertEquals(0, averageAggregator.getHourly().size());
+        assertEquals(1, averageAggregator.getDaily().size());
+    }
+
+    @Test
+    public void testCorruptedCheckpointIsSkipped() throws Exception {
+        Path path = Paths.get(reportingFolder, AverageAggregatorProcessor.HOURLY_CHECKPOINT_FILENAME);
+        Files.createDirectories(path.getParent());
+        Map<AggregationKey, AggregationValue> buckets = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            AggregationValue value = new AggregationValue();
+            value.update(i);
+            buckets.put(new AggregationKey("test" + (i % 10) + "@test.com", AppNameUtil.BLYNK, 1, i, PinType.VIRTUAL, (byte) i, i), value);
+        }
+        AggregationCheckpoint.write(path, buckets);
+
+        Map<AggregationKey, AggregationValue> restored = new HashMap<>();
+        assertEquals(100, AggregationCheckpoint.read(path, (key, sum, count, min, max) -> restored.put(key, new AggregationValue(sum, count, min, max))));
+        assertEquals(buckets.size(), restored.size());
+        for (Map.Entry<AggregationKey, AggregationValue> entry : buckets.entrySet()) {
+            assertEquals(entry.getValue().calcAverage(), restored.get(entry.getKey()).calcAverage(), 0);
+            assertEquals(entry.getValue().getMin(), restored.get(entry.getKey()).getMin(), 0);
+            assertEquals(entry.getValue().getMax(), restored.get(entry.getKey()).getMax(), 0);
+        }
 
-        ReportingDao reportingDao = new ReportingDao(reportingFolder, true);
+        byte[] data = Files.readAllBytes(path);
+        data[data.length / 2] ^= 1;
+        Files.write(path, data);
 
-        reportingDao.delete(user, dashId, 0, PinType.VIRTUAL, pin);
-        assertTrue(Files.notExists(Paths.get(reportingFolder, AverageAggregatorProcessor.HOURLY_TEMP_FILENAME)));
-        assertTrue(Files.notExists(Paths.get(reportingFolder, AverageAggregatorProcessor.DAILY_TEMP_FILENAME)));
+        assertEquals(0, AggregationCheckpoint.read(path, (key, sum, count, min, max) -> fail()));
+        assertEquals(0, new AverageAggregatorProcessor(reportingFolder).getHourly().size());
+    }
+
+    @Test
+    public void testRemoveOutdatedWithLateValues() {
+        AverageAggregatorProcessor averageAggregator = new AverageAggregatorProcessor("");
+        BaseReportingKey key = new BaseReportingKey("test@test.com", AppNameUtil.BLYNK, 1, 0, PinType.VIRTUAL, (byte) 1);
+
+        long ts = getMillis(2015, 8, 1, 10, 0);
+        averageAggregator.collect(key, ts, 10);
+        averageAggregator.collect(key, ts + HOUR, 20);
+        //late value for the previous hour
+        averageAggregator.collect(key, ts + 1, 30);
+        averageAggregator.collect(key, ts + HOUR + 1, 40);
+
+        Map<AggregationKey, AggregationValue> outdated =
+                averageAggregator.removeOutdated(GraphGranularityType.HOURLY, (ts + HOUR) / HOUR);
+        assertEquals(1, outdated.size());
+        assertEquals(20, outdated.get(new AggregationKey(key, ts / HOUR)).calcAverage(), 0);
+
+        assertEquals(1, averageAggregator.getHourly().size());
+        assertEquals(30, averageAggregator.getHourly().get(new AggregationKey(key, ts / HOUR + 1)).calcAverage(), 0);
+
+        outdated = averageAggregator.removeOutdated(GraphGranularityType.HOURLY, (ts + 2 * HOUR) / HOUR);
+        assertEquals(1, outdated.size());
+        assertTrue(averageAggregator.getHourly().isEmpty());
+        assertEquals(1, averageAggregator.getDaily().size());
     }
 
 }
@@ -0,0 +1,76 @@
+package cc.blynk.server.core.reporting.raw;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class GraphValueRingBufferTest {
+
+    @Test
+    public void testReadLastValues() {
+        GraphValueRingBuffer ringBuffer = new GraphValueRingBuffer(4);
+        assertNull(ringBuffer.read(10, 0));
+
+        for (int i = 0; i < 6; i++) {
+            ringBuffer.add(i, i * 10);
+        }
+        assertEquals(4, ringBuffer.size());
+
+        ByteBuffer data = ringBuffer.read(10, 0);
+        data.flip();
+        assertEquals(4 * 16, data.remaining());
+        for (int i = 2; i < 6; i++) {
+            assertEquals(i, data.getDouble(), 0);
+            assertEquals(i * 10, data.getLong());
+        }
+
+        data = ringBuffer.read(2, 1);
+        data.flip();
+        assertEquals(3, data.getDouble(), 0);
+        assertEquals(4, data.getDouble(16), 0);
+
+        assertNull(ringBuffer.read(2, 4));
+    }
+
+    @Test
+    public void testReadsAreConsistentWithConcurrentWriter() throws Exception {
+        GraphValueRingBuffer ringBuffer = new GraphValueRingBuffer(60);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<String> error = new AtomicReference<>();
+
+        Thread reader = new Thread(() -> {
+            while (running.get()) {
+                ByteBuffer data = ringBuffer.read(60, 0);
+                if (data == null) {
+                    continue;
+                }
+                data.flip();
+                long prevTs = -1;
+                while (data.hasRemaining()) {
+                    double value = data.getDouble();
+                    long ts = data.getLong();
+                    //every pair is written together and values are in order
+                    if (value != ts || ts <= prevTs) {
+                        error.set("Inconsistent read : " + value + " " + ts + " " + prevTs);
+                    }
+                    prevTs = ts;
+                }
+            }
+        });
+        reader.start();
+
+        for (int i = 0; i < 1_000_000; i++) {
+            ringBuffer.add(i, i);
+        }
+        running.set(false);
+        reader.join();
+
+        assertNull(error.get());
+    }
+
+}
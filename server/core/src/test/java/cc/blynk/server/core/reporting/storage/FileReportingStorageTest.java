@@ -0,0 +1,168 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.utils.AppNameUtil;
+import cc.blynk.utils.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static cc.blynk.server.core.dao.ReportingDao.generateFilename;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileReportingStorageTest {
+
+    private Path dataFolder;
+
+    @Before
+    public void init() throws IOException {
+        dataFolder = Files.createTempDirectory("reporting");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        org.apache.commons.io.FileUtils.deleteDirectory(dataFolder.toFile());
+    }
+
+    @Test
+    public void testParallelGroupedFlush() throws IOException {
+        FileReportingStorage storage = new FileReportingStorage(dataFolder.toString(), null, 4);
+
+        Map<AggregationKey, AggregationValue> points = new HashMap<>();
+        for (int user = 0; user < 20; user++) {
+            for (byte pin = 0; pin < 3; pin++) {
+                //reversed order, storage should sort points of every file by ts
+                for (int ts = 9; ts >= 0; ts--) {
+                    AggregationValue value = new AggregationValue();
+                    value.update(ts);
+                    points.put(new AggregationKey("user" + user + "@test.com", AppNameUtil.BLYNK,
+                            1, 0, PinType.VIRTUAL, pin, ts), value);
+                }
+            }
+        }
+
+        assertEquals(points.size(), storage.write(GraphGranularityType.MINUTE, points).size());
+
+        for (int user = 0; user < 20; user++) {
+            String userDir = FileUtils.getUserReportingDir("user" + user + "@test.com", AppNameUtil.BLYNK);
+            for (byte pin = 0; pin < 3; pin++) {
+                ByteBuffer data = storage.read(userDir, generateFilename(1, 0,
+                        PinType.VIRTUAL.pintTypeChar, pin, GraphGranularityType.MINUTE.label), 100, 0);
+                assertNotNull(data);
+                data.flip();
+                assertEquals(10 * 16, data.remaining());
+                for (int ts = 0; ts < 10; ts++) {
+                    assertEquals(ts, data.getDouble(), 0.0001);
+                    assertEquals(ts * GraphGranularityType.MINUTE.period, data.getLong());
+                }
+            }
+        }
+        storage.close();
+    }
+
+    @Test
+    public void testRetainFromSeriesIndex() throws IOException {
+        FileReportingStorage storage = new FileReportingStorage(dataFolder.toString());
+
+        Map<AggregationKey, AggregationValue> points = new HashMap<>();
+        for (int ts = 0; ts < 100; ts++) {
+            AggregationValue value = new AggregationValue();
+            value.update(ts);
+            points.put(new AggregationKey("test@test.com", AppNameUtil.BLYNK, 1, 0, PinType.VIRTUAL, (byte) 1, ts), value);
+            points.put(new AggregationKey("test@test.com", AppNameUtil.BLYNK, 1, 0, PinType.VIRTUAL, (byte) 2, ts / 2), value);
+        }
+        storage.write(GraphGranularityType.MINUTE, points);
+        storage.close();
+
+        //index is loaded from disk
+        storage = new FileReportingStorage(dataFolder.toString());
+        List<String> series = new ArrayList<>();
+        storage.forEachSeries((userDir, fileName) -> series.add(fileName));
+        assertEquals(2, series.size());
+
+        String userDir = FileUtils.getUserReportingDir("test@test.com", AppNameUtil.BLYNK);
+        String fileName = generateFilename(1, 0, PinType.VIRTUAL.pintTypeChar, (byte) 1, GraphGranularityType.MINUTE.label);
+        long minTs = 60 * GraphGranularityType.MINUTE.period;
+        assertEquals(60, storage.retain(userDir, fileName, minTs));
+        assertEquals(0, storage.retain(userDir, fileName, minTs));
+
+        ByteBuffer data = storage.read(userDir, fileName, 100, 0);
+        data.flip();
+        assertEquals(40 * 16, data.remaining());
+        assertEquals(60, data.getDouble(), 0.0001);
+        assertEquals(minTs, data.getLong());
+
+        //all points are outdated, so series is removed
+        String oldFileName = generateFilename(1, 0, PinType.VIRTUAL.pintTypeChar, (byte) 2, GraphGranularityType.MINUTE.label);
+        assertEquals(50, storage.retain(userDir, oldFileName, minTs));
+        series.clear();
+        storage.forEachSeries((dir, name) -> series.add(name));
+        assertEquals(1, series.size());
+        assertNull(storage.read(userDir, oldFileName, 100, 0));
+        storage.close();
+    }
+
+    @Test
+    public void testSeriesIndexIsPersisted() throws IOException {
+        FileReportingStorage storage = new FileReportingStorage(dataFolder.toString());
+        Map<AggregationKey, AggregationValue> points = new HashMap<>();
+        AggregationValue value = new AggregationValue();
+        value.update(1);
+        points.put(new AggregationKey("test@test.com", AppNameUtil.BLYNK, 1, 0, PinType.VIRTUAL, (byte) 1, 1), value);
+        storage.write(GraphGranularityType.MINUTE, points);
+
+        //there is no index file yet, so data folder is scanned once and index file is created
+        List<String> series = new ArrayList<>();
+        storage.forEachSeries((userDir, fileName) -> series.add(fileName));
+        assertEquals(1, series.size());
+        assertTrue(Files.exists(dataFolder.resolve("series.idx")));
+
+        //new series is appended to the index file, even without clean shutdown
+        points.clear();
+        points.put(new AggregationKey("test@test.com", AppNameUtil.BLYNK, 1, 0, PinType.VIRTUAL, (byte) 2, 1), value);
+        storage.write(GraphGranularityType.MINUTE, points);
+        String userDir = FileUtils.getUserReportingDir("test@test.com", AppNameUtil.BLYNK);
+        //file that is not written via storage is not visible, as folders are not scanned
+        Files.createFile(dataFolder.resolve(userDir).resolve("unknown.bin"));
+
+        storage = new FileReportingStorage(dataFolder.toString());
+        series.clear();
+        storage.forEachSeries((dir, fileName) -> series.add(fileName));
+        assertEquals(2, series.size());
+        storage.delete(userDir, generateFilename(1, 0, PinType.VIRTUAL.pintTypeChar, (byte) 2,
+                GraphGranularityType.MINUTE.label));
+        storage.close();
+
+        //removed series is dropped from the index file on close
+        storage = new FileReportingStorage(dataFolder.toString());
+        series.clear();
+        storage.forEachSeries((dir, fileName) -> series.add(fileName));
+        assertEquals(1, series.size());
+        storage.close();
+
+        //without index file folders are scanned once
+        Files.delete(dataFolder.resolve("series.idx"));
+        storage = new FileReportingStorage(dataFolder.toString());
+        series.clear();
+        storage.forEachSeries((dir, fileName) -> series.add(fileName));
+        assertEquals(2, series.size());
+        assertTrue(series.contains("unknown.bin"));
+        storage.close();
+    }
+
+}
@@ -0,0 +1,126 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.utils.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class MappedReportingFileCacheTest {
+
+    private Path dataFolder;
+
+    @Before
+    public void init() throws IOException {
+        dataFolder = Files.createTempDirectory("mmap");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        org.apache.commons.io.FileUtils.deleteDirectory(dataFolder.toFile());
+    }
+
+    private Path createFile(String name, int count) throws IOException {
+        Path file = dataFolder.resolve(name);
+        for (int i = 0; i < count; i++) {
+            FileUtils.write(file, i, i);
+        }
+        return file;
+    }
+
+    @Test
+    public void testReadIsSameAsFileRead() throws IOException {
+        Path file = createFile("test.bin", 100);
+        MappedReportingFileCache cache = new MappedReportingFileCache(1024 * 1024, 10);
+
+        int[][] requests = {{10, 0}, {10, 5}, {100, 0}, {200, 0}, {50, 60}, {10, 95}};
+        for (int[] request : requests) {
+            ByteBuffer expected = FileUtils.read(file, request[0], request[1]);
+            ByteBuffer mapped = cache.read(file, request[0], request[1], SIZE_OF_REPORT_ENTRY);
+            expected.flip();
+            mapped.flip();
+            assertEquals(expected, mapped);
+        }
+        assertNull(cache.read(file, 10, 100, SIZE_OF_REPORT_ENTRY));
+        assertNull(cache.read(dataFolder.resolve("missing.bin"), 10, 0, SIZE_OF_REPORT_ENTRY));
+
+        //first read and missing file
+        assertEquals(2, cache.getMisses());
+        assertEquals(requests.length, cache.getHits());
+        assertEquals(100 * 16, cache.getMappedBytes());
+    }
+
+    @Test
+    public void testInvalidateAndEviction() throws IOException {
+        Path file1 = createFile("test1.bin", 10);
+        Path file2 = createFile("test2.bin", 10);
+        MappedReportingFileCache cache = new MappedReportingFileCache(1024 * 1024, 1);
+
+        cache.read(file1, 10, 0, SIZE_OF_REPORT_ENTRY);
+        FileUtils.write(file1, 10, 10);
+        ByteBuffer stale = cache.read(file1, 1, 0, SIZE_OF_REPORT_ENTRY);
+        stale.flip();
+        assertEquals(9, stale.getDouble(), 0);
+
+        cache.invalidate(file1);
+        ByteBuffer fresh = cache.read(file1, 1, 0, SIZE_OF_REPORT_ENTRY);
+        fresh.flip();
+        assertEquals(10, fresh.getDouble(), 0);
+        assertFalse(fresh.hasArray());
+
+        cache.read(file2, 10, 0, SIZE_OF_REPORT_ENTRY);
+        assertEquals(1, cache.getMappedFiles());
+        assertEquals(10 * 16, cache.getMappedBytes());
+    }
+
+    @Test
+    public void testAppendExtendsMapping() throws IOException {
+        Path file = createFile("test.bin", 10);
+        MappedReportingFileCache cache = new MappedReportingFileCache(1024 * 1024, 10);
+
+        cache.read(file, 10, 0, SIZE_OF_REPORT_ENTRY);
+        FileUtils.write(file, 10, 10);
+        cache.appended(file, Files.size(file));
+        assertEquals(1, cache.getMappedFiles());
+
+        ByteBuffer extended = cache.read(file, 1, 0, SIZE_OF_REPORT_ENTRY);
+        extended.flip();
+        assertEquals(10, extended.getDouble(), 0);
+        assertEquals(11 * 16, cache.getMappedBytes());
+
+        cache.read(file, 1, 0, SIZE_OF_REPORT_ENTRY);
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testSliceOfDroppedMappingStaysReadable() throws IOException {
+        Path file1 = createFile("test1.bin", 10);
+        Path file2 = createFile("test2.bin", 10);
+        MappedReportingFileCache cache = new MappedReportingFileCache(1024 * 1024, 1);
+
+        ByteBuffer slice = cache.read(file1, 10, 0, SIZE_OF_REPORT_ENTRY);
+        //mapping of file1 is evicted while request still reads it
+        cache.read(file2, 10, 0, SIZE_OF_REPORT_ENTRY);
+        cache.invalidateAll();
+        assertEquals(0, cache.getMappedFiles());
+        assertEquals(0, cache.getMappedBytes());
+
+        slice.flip();
+        assertEquals(10 * SIZE_OF_REPORT_ENTRY, slice.remaining());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, slice.getDouble(), 0.0001);
+            slice.getLong();
+        }
+    }
+
+}
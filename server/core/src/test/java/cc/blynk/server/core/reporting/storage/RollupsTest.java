@@ -0,0 +1,159 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.utils.AppNameUtil;
+import cc.blynk.utils.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static cc.blynk.server.core.dao.ReportingDao.generateFilename;
+import static cc.blynk.server.core.reporting.storage.Rollups.SIZE_OF_ROLLUP;
+import static cc.blynk.server.core.reporting.storage.Rollups.toRollupFilename;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RollupsTest {
+
+    private static final String EMAIL = "test@test.com";
+
+    private Path dataFolder;
+
+    @Before
+    public void init() throws IOException {
+        dataFolder = Files.createTempDirectory("reporting");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        org.apache.commons.io.FileUtils.deleteDirectory(dataFolder.toFile());
+    }
+
+    private static Map<AggregationKey, AggregationValue> points() {
+        Map<AggregationKey, AggregationValue> points = new HashMap<>();
+        for (int bucket = 0; bucket < 10; bucket++) {
+            AggregationValue value = new AggregationValue();
+            value.update(bucket);
+            value.update(bucket + 10);
+            value.update(bucket + 20);
+            points.put(new AggregationKey(EMAIL, AppNameUtil.BLYNK, 1, 0, PinType.VIRTUAL, (byte) 1,
+                    bucket), value);
+        }
+        return points;
+    }
+
+    private static void assertSeries(ByteBuffer series, int bucketsCount, int delta) {
+        series.flip();
+        assertEquals(bucketsCount * 16, series.remaining());
+        for (int bucket = 0; bucket < bucketsCount; bucket++) {
+            assertEquals(bucket + delta, series.getDouble(), 0.0001);
+            assertEquals(bucket * GraphGranularityType.MINUTE.period, series.getLong());
+        }
+    }
+
+    private void testRollupsStored(ReportingStorage storage) throws IOException {
+        Map<AggregationKey, AggregationValue> points = points();
+        assertEquals(points.size(), storage.write(GraphGranularityType.MINUTE, points).size());
+
+        String userDir = FileUtils.getUserReportingDir(EMAIL, AppNameUtil.BLYNK);
+        String fileName = generateFilename(1, 0, PinType.VIRTUAL.pintTypeChar, (byte) 1,
+                GraphGranularityType.MINUTE.label);
+
+        assertSeries(storage.read(userDir, fileName, 10, 0), 10, 10);
+
+        int count = 10;
+        assertSeries(Rollups.toSeries(storage.read(userDir, toRollupFilename(fileName), count, 0),
+                AggregationFunctionType.MIN), 10, 0);
+        assertSeries(Rollups.toSeries(storage.read(userDir, toRollupFilename(fileName), count, 0),
+                AggregationFunctionType.MAX), 10, 20);
+
+        ByteBuffer sums = Rollups.toSeries(storage.read(userDir, toRollupFilename(fileName), count, 0),
+                AggregationFunctionType.SUM);
+        sums.flip();
+        for (int bucket = 0; bucket < 10; bucket++) {
+            assertEquals(3 * bucket + 30, sums.getDouble(), 0.0001);
+            assertEquals(bucket * GraphGranularityType.MINUTE.period, sums.getLong());
+        }
+
+        //retention removes whole buckets of the rollup series
+        long minTs = 5 * GraphGranularityType.MINUTE.period;
+        assertEquals(5, storage.retain(userDir, toRollupFilename(fileName), minTs));
+        ByteBuffer rollups = storage.read(userDir, toRollupFilename(fileName), count, 0);
+        assertNotNull(rollups);
+        assertEquals(5 * SIZE_OF_ROLLUP, rollups.position());
+        storage.close();
+    }
+
+    @Test
+    public void testFileStorageKeepsOnlyAverages() throws IOException {
+        FileReportingStorage storage = new FileReportingStorage(dataFolder.toString());
+        Map<AggregationKey, AggregationValue> points = points();
+        assertEquals(points.size(), storage.write(GraphGranularityType.MINUTE, points).size());
+
+        String userDir = FileUtils.getUserReportingDir(EMAIL, AppNameUtil.BLYNK);
+        String fileName = generateFilename(1, 0, PinType.VIRTUAL.pintTypeChar, (byte) 1,
+                GraphGranularityType.MINUTE.label);
+        assertFalse(storage.storesRollups());
+        assertSeries(storage.read(userDir, fileName, 10, 0), 10, 10);
+        assertNull(storage.read(userDir, toRollupFilename(fileName), 10, 0));
+        //no rollup file next to the average file
+        assertEquals(10 * 16, storage.getWrittenBytes());
+        storage.close();
+    }
+
+    @Test
+    public void testSegmentedStorageRollups() throws IOException {
+        SegmentedReportingStorage storage = new SegmentedReportingStorage(dataFolder.toString(), 1024 * 1024);
+        assertTrue(storage.storesRollups());
+        testRollupsStored(storage);
+    }
+
+    @Test
+    public void testMergeWithAveragesStoredBeforeRollups() {
+        ByteBuffer averages = ByteBuffer.allocate(4 * 16);
+        for (int i = 0; i < 4; i++) {
+            averages.putDouble(i).putLong(i);
+        }
+
+        AggregationValue value = new AggregationValue();
+        value.update(10);
+        value.update(20);
+        ByteBuffer rollups = ByteBuffer.allocate(2 * SIZE_OF_ROLLUP);
+        Rollups.put(rollups, value, 2);
+        Rollups.put(rollups, value, 3);
+
+        ByteBuffer merged = Rollups.merge(averages, rollups);
+        merged.flip();
+        assertEquals(4 * SIZE_OF_ROLLUP, merged.remaining());
+
+        for (int i = 0; i < 4; i++) {
+            AggregationValue restored = new AggregationValue();
+            Rollups.read(merged, restored);
+            if (i < 2) {
+                assertEquals(i, restored.getMin(), 0);
+                assertEquals(i, restored.getMax(), 0);
+                assertEquals(1, restored.getCount());
+            } else {
+                assertEquals(10, restored.getMin(), 0);
+                assertEquals(20, restored.getMax(), 0);
+                assertEquals(30, restored.getSum(), 0);
+                assertEquals(2, restored.getCount());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,253 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.utils.AppNameUtil;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static cc.blynk.server.core.dao.ReportingDao.generateFilename;
+import static cc.blynk.server.core.reporting.storage.Rollups.SIZE_OF_ROLLUP;
+import static cc.blynk.server.core.reporting.storage.Rollups.toRollupFilename;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentedReportingStorageTest {
+
+    private Path dataFolder;
+
+    @Before
+    public void init() throws IOException {
+        dataFolder = Files.createTempDirectory("segments");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        FileUtils.deleteDirectory(dataFolder.toFile());
+    }
+
+    private static Map<AggregationKey, AggregationValue> points(String email, byte pin, long fromTs, int count) {
+        Map<AggregationKey, AggregationValue> points = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            AggregationValue value = new AggregationValue();
+            value.update(fromTs + i);
+            points.put(new AggregationKey(email, AppNameUtil.BLYNK, 1, 0, PinType.VIRTUAL, pin, fromTs + i), value);
+        }
+        return points;
+    }
+
+    private static String fileName(byte pin) {
+        return generateFilename(1, 0, PinType.VIRTUAL.pintTypeChar, pin, GraphGranularityType.MINUTE.label);
+    }
+
+    private static void assertPoints(ByteBuffer data, long fromTs, int count) {
+        assertNotNull(data);
+        data.flip();
+        assertEquals(count * 16, data.remaining());
+        for (int i = 0; i < count; i++) {
+            assertEquals(fromTs + i, data.getDouble(), 0.0001);
+            assertEquals((fromTs + i) * GraphGranularityType.MINUTE.period, data.getLong());
+        }
+    }
+
+    @Test
+    public void testWriteAndReadAcrossChunks() throws IOException {
+        SegmentedReportingStorage storage = new SegmentedReportingStorage(dataFolder.toString(), 1024);
+        storage.write(GraphGranularityType.MINUTE, points("test@test.com", (byte) 1, 0, 10));
+        storage.write(GraphGranularityType.MINUTE, points("test@test.com", (byte) 1, 10, 10));
+        storage.write(GraphGranularityType.MINUTE, points("test@test.com", (byte) 2, 0, 5));
+
+        assertPoints(storage.read("test@test.com", fileName((byte) 1), 20, 0), 0, 20);
+        assertPoints(storage.read("test@test.com", fileName((byte) 1), 5, 0), 15, 5);
+        assertPoints(storage.read("test@test.com", fileName((byte) 1), 8, 6), 6, 8);
+        assertPoints(storage.read("test@test.com", fileName((byte) 1), 100, 0), 0, 20);
+        assertPoints(storage.read("test@test.com", fileName((byte) 2), 100, 0), 0, 5);
+        assertNull(storage.read("test@test.com", fileName((byte) 1), 10, 20));
+        assertNull(storage.read("test@test.com", fileName((byte) 3), 10, 0));
+        storage.close();
+    }
+
+    @Test
+    public void testIndexIsRestoredAfterRestart() throws IOException {
+        SegmentedReportingStorage storage = new SegmentedReportingStorage(dataFolder.toString(), 1024);
+        storage.write(GraphGranularityType.MINUTE, points("test@test.com", (byte) 1, 0, 100));
+        storage.write(GraphGranularityType.MINUTE, points("test2@test.com", (byte) 1, 0, 3));
+        storage.delete("test2@test.com", fileName((byte) 1));
+        storage.delete("test2@test.com", toRollupFilename(fileName((byte) 1)));
+        storage.close();
+
+        storage = new SegmentedReportingStorage(dataFolder.toString(), 1024);
+        //average and rollup series
+        assertEquals(2, storage.getSeriesCount());
+        assertPoints(storage.read("test@test.com", fileName((byte) 1), 100, 0), 0, 100);
+        assertNull(storage.read("test2@test.com", fileName((byte) 1), 10, 0));
+
+        storage.write(GraphGranularityType.MINUTE, points("test@test.com", (byte) 1, 100, 10));
+        assertPoints(storage.read("test@test.com", fileName((byte) 1), 110, 0), 0, 110);
+        storage.close();
+    }
+
+    @Test
+    public void testRetainAndCompact() throws IOException {
+        SegmentedReportingStorage storage = new SegmentedReportingStorage(dataFolder.toString(), 1024);
+        for (int i = 0; i < 10; i++) {
+            storage.write(GraphGranularityType.MINUTE, points("test@test.com", (byte) 1, i * 10, 10));
+            storage.write(GraphGranularityType.MINUTE, points("test@test.com", (byte) 2, i * 10, 10));
+        }
+        assertEquals(2, storage.delete("test@test.com", path -> path.toString().equals(fileName((byte) 2))
+                || path.toString().equals(toRollupFilename(fileName((byte) 2)))));
+
+        //starts in the middle of the chunk
+        long minTs = 65 * GraphGranularityType.MINUTE.period;
+        assertEquals(65, storage.retain("test@test.com", fileName((byte) 1), minTs));
+        assertEquals(0, storage.retain("test@test.com", fileName((byte) 1), minTs));
+        assertPoints(storage.read("test@test.com", fileName((byte) 1), 100, 0), 65, 35);
+        storage.close();
+
+        //retention is restored from the index before compaction
+        storage = new SegmentedReportingStorage(dataFolder.toString(), 1024);
+        assertPoints(storage.read("test@test.com", fileName((byte) 1), 100, 0), 65, 35);
+
+        assertEquals(35 * 16 + 100 * SIZE_OF_ROLLUP, storage.compact());
+        assertEquals(0, storage.compact());
+        assertPoints(storage.read("test@test.com", fileName((byte) 1), 100, 0), 65, 35);
+        storage.close();
+
+        storage = new SegmentedReportingStorage(dataFolder.toString(), 1024);
+        assertEquals(2, storage.getSeriesCount());
+        assertPoints(storage.read("test@test.com", fileName((byte) 1), 100, 0), 65, 35);
+        storage.close();
+    }
+
+    @Test
+    public void testWritesDuringCompactionArePersisted() throws Exception {
+        SegmentedReportingStorage storage = new SegmentedReportingStorage(dataFolder.toString(), 1024);
+        storage.write(GraphGranularityType.MINUTE, points("test@test.com", (byte) 1, 0, 50));
+        storage.write(GraphGranularityType.MINUTE, points("test@test.com", (byte) 2, 0, 50));
+        storage.delete("test@test.com", fileName((byte) 2));
+
+        SegmentedReportingStorage writingStorage = storage;
+        AtomicReference<IOException> writerError = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 50; i++) {
+                    writingStorage.write(GraphGranularityType.MINUTE, points("test@test.com", (byte) 1, 50 + i, 1));
+                    writingStorage.write(GraphGranularityType.MINUTE, points("test@test.com", (byte) 3, i, 1));
+                    //garbage for the next compaction
+                    writingStorage.write(GraphGranularityType.MINUTE, points("test@test.com", (byte) 4, 0, 50));
+                    writingStorage.delete("test@test.com", fileName((byte) 4));
+                    if (i == 25) {
+                        writingStorage.retain("test@test.com", fileName((byte) 1),
+                                10 * GraphGranularityType.MINUTE.period);
+                    }
+                }
+            } catch (IOException e) {
+                writerError.set(e);
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            storage.compact();
+        }
+        writer.join();
+        assertNull(writerError.get());
+        storage.compact();
+        assertPoints(storage.read("test@test.com", fileName((byte) 1), 1000, 0), 10, 90);
+        storage.close();
+
+        storage = new SegmentedReportingStorage(dataFolder.toString(), 1024);
+        assertPoints(storage.read("test@test.com", fileName((byte) 1), 1000, 0), 10, 90);
+        assertPoints(storage.read("test@test.com", fileName((byte) 3), 1000, 0), 0, 50);
+        assertNull(storage.read("test@test.com", fileName((byte) 2), 100, 0));
+        storage.close();
+    }
+
+    @Test
+    public void testUnfinishedCompactionIsDiscarded() throws IOException {
+        SegmentedReportingStorage storage = new SegmentedReportingStorage(dataFolder.toString(), 1024);
+        storage.write(GraphGranularityType.MINUTE, points("test@test.com", (byte) 1, 0, 50));
+        storage.close();
+
+        //compaction crashed before the marker was written
+        Path segmentsFolder = dataFolder.resolve(SegmentedReportingStorage.SEGMENTS_FOLDER);
+        Files.write(segmentsFolder.resolve("compacted_0.tmp"), new byte[] {1, 2, 3});
+        Files.write(segmentsFolder.resolve("segment_100.tmp"), new byte[] {1, 2, 3});
+        Files.write(segmentsFolder.resolve("series.idx.tmp"), new byte[] {1, 2, 3});
+
+        storage = new SegmentedReportingStorage(dataFolder.toString(), 1024);
+        assertPoints(storage.read("test@test.com", fileName((byte) 1), 100, 0), 0, 50);
+        assertFalse(Files.exists(segmentsFolder.resolve("compacted_0.tmp")));
+        assertFalse(Files.exists(segmentsFolder.resolve("segment_100.tmp")));
+        assertFalse(Files.exists(segmentsFolder.resolve("series.idx.tmp")));
+        storage.close();
+    }
+
+    @Test
+    public void testFailedWriteIsTruncated() throws IOException {
+        SegmentedReportingStorage storage = new SegmentedReportingStorage(dataFolder.toString(), 1024) {
+            @Override
+            FileChannel openSegmentChannel(Path segmentPath) throws IOException {
+                if (segmentPath.getFileName().toString().equals("segment_1.seg")) {
+                    throw new IOException("No space left on device");
+                }
+                return super.openSegmentChannel(segmentPath);
+            }
+        };
+        storage.write(GraphGranularityType.MINUTE, points("test@test.com", (byte) 1, 0, 5));
+        Path segment = dataFolder.resolve(SegmentedReportingStorage.SEGMENTS_FOLDER).resolve("segment_0.seg");
+        long segmentSize = Files.size(segment);
+
+        //rollup chunk fits the segment and is flushed before the next segment fails to open
+        assertTrue(storage.write(GraphGranularityType.MINUTE, points("test@test.com", (byte) 2, 0, 15)).isEmpty());
+        assertEquals(segmentSize, Files.size(segment));
+        assertNull(storage.read("test@test.com", fileName((byte) 2), 100, 0));
+        storage.close();
+
+        storage = new SegmentedReportingStorage(dataFolder.toString(), 1024);
+        assertPoints(storage.read("test@test.com", fileName((byte) 1), 100, 0), 0, 5);
+        assertNull(storage.read("test@test.com", fileName((byte) 2), 100, 0));
+        //retried by the caller
+        assertEquals(15, storage.write(GraphGranularityType.MINUTE, points("test@test.com", (byte) 2, 0, 15)).size());
+        storage.close();
+
+        storage = new SegmentedReportingStorage(dataFolder.toString(), 1024);
+        assertPoints(storage.read("test@test.com", fileName((byte) 2), 100, 0), 0, 15);
+        storage.close();
+    }
+
+    @Test
+    public void testTooLongSeriesNameIsRejected() throws IOException {
+        SegmentedReportingStorage storage = new SegmentedReportingStorage(dataFolder.toString(), 1024 * 1024);
+        StringBuilder email = new StringBuilder();
+        while (email.length() < Short.MAX_VALUE) {
+            email.append("long");
+        }
+        Map<AggregationKey, AggregationValue> points = points(email.toString(), (byte) 1, 0, 3);
+        points.putAll(points("test@test.com", (byte) 1, 0, 3));
+
+        assertEquals(3, storage.write(GraphGranularityType.MINUTE, points).size());
+        assertEquals(2, storage.getSeriesCount());
+        storage.close();
+
+        storage = new SegmentedReportingStorage(dataFolder.toString(), 1024 * 1024);
+        assertPoints(storage.read("test@test.com", fileName((byte) 1), 100, 0), 0, 3);
+        storage.close();
+    }
+
+}
@@ -0,0 +1,48 @@
+package cc.blynk.server.core.stats;
+
+import cc.blynk.server.core.protocol.enums.Command;
+import cc.blynk.server.core.stats.model.LatencyStat;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyStatsTest {
+
+    @Test
+    public void testNothingRecordedWhenDisabled() {
+        LatencyStats latency = new LatencyStats(false);
+        Runnable task = () -> { };
+
+        assertEquals(0, latency.start());
+        latency.record(Command.HARDWARE, latency.start());
+        assertSame(task, latency.wrap(task, latency.messaging));
+        assertEquals(0, latency.getCommand(Command.HARDWARE).getCount());
+    }
+
+    @Test
+    public void testCommandAndExecutorRecorded() {
+        LatencyStats latency = new LatencyStats(true);
+
+        latency.record(Command.HARDWARE, latency.start());
+        Runnable task = latency.wrap(() -> { }, latency.history);
+        assertNotSame(task, latency.wrap(task, latency.history));
+        task.run();
+
+        LatencyStat stat = new LatencyStat(latency, true);
+        assertTrue(stat.enabled);
+        assertEquals(1, stat.commands.size());
+        assertEquals(1, stat.commands.get("Hardware").count);
+        assertEquals(1, stat.executors.size());
+        assertEquals(1, stat.executors.get("history").queueWait.count);
+        assertEquals(1, stat.executors.get("history").execution.count);
+
+        //reset
+        stat = new LatencyStat(latency, false);
+        assertTrue(stat.commands.isEmpty());
+        assertTrue(stat.executors.isEmpty());
+    }
+
+}
@@ -19,8 +19,10 @@ import java.util.Calendar;
 import java.util.TimeZone;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * The Blynk Project.
@@ -114,6 +116,32 @@ public class RawDataDBTest {
 
     }
 
+    @Test
+    public void testCleanOldRawData() throws Exception {
+        RawDataProcessor rawDataProcessor = new RawDataProcessor(true);
+        BaseReportingKey key = new BaseReportingKey(user.email, user.appName, 1, 2, PinType.VIRTUAL, (byte) 3);
+        rawDataProcessor.collect(key, 1111111111, "1", 1D);
+        rawDataProcessor.collect(key, 1111111112, "2", 2D);
+        rawDataProcessor.collect(key, 1111111113, "3", 3D);
+        dbManager.reportingDBDao.insertRawData(rawDataProcessor.rawStorage);
+
+        //batches are limited
+        assertEquals(1, dbManager.cleanOldRawData(1111111113, 1));
+        assertEquals(1, dbManager.cleanOldRawData(1111111113, 1));
+        assertEquals(0, dbManager.cleanOldRawData(1111111113, 1));
+
+        try (Connection connection = dbManager.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("select * from reporting_raw_data")) {
+
+            assertTrue(rs.next());
+            assertEquals(1111111113, rs.getTimestamp("ts", UTC).getTime());
+            assertFalse(rs.next());
+
+            connection.commit();
+        }
+    }
+
     //todo tests for large batches.
 
 
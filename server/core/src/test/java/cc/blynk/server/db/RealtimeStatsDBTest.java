@@ -3,7 +3,9 @@ package cc.blynk.server.db;
 import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.dao.SessionDao;
 import cc.blynk.server.core.dao.UserDao;
+import cc.blynk.server.core.quota.QuotaManager;
 import cc.blynk.server.core.reporting.average.AverageAggregatorProcessor;
+import cc.blynk.server.core.reporting.storage.ReportingStorage;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.core.stats.model.CommandStat;
 import cc.blynk.server.core.stats.model.HttpStat;
@@ -60,11 +62,11 @@ public class RealtimeStatsDBTest {
         String region = "ua";
         long now = System.currentTimeMillis();
 
-        SessionDao sessionDao = new SessionDao();
+        SessionDao sessionDao = new SessionDao(new QuotaManager(0, 0, 0));
         UserDao userDao = new UserDao(new ConcurrentHashMap<>(), "test", "127.0.0.1");
         BlockingIOProcessor blockingIOProcessor = mock(BlockingIOProcessor.class);
 
-        Stat stat = new Stat(sessionDao, userDao, blockingIOProcessor, new GlobalStats(), false);
+        Stat stat = new Stat(sessionDao, userDao, blockingIOProcessor, new GlobalStats(), mock(ReportingStorage.class), false);
         int i;
 
         final HttpStat hs = stat.http;
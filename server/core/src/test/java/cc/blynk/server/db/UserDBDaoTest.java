@@ -0,0 +1,133 @@
+package cc.blynk.server.db;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.serialization.JsonParser;
+import cc.blynk.server.db.dao.UserDBDao;
+import cc.blynk.utils.AppNameUtil;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks batching of users upsert without real DB, JDBC layer is mocked.
+ */
+public class UserDBDaoTest {
+
+    private HikariDataSource ds;
+    private Connection connection;
+    private PreparedStatement upsert;
+    private PreparedStatement update;
+
+    @Before
+    public void init() throws Exception {
+        ds = mock(HikariDataSource.class);
+        connection = mock(Connection.class);
+        upsert = mock(PreparedStatement.class);
+        update = mock(PreparedStatement.class);
+        when(ds.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(startsWith("INSERT"))).thenReturn(upsert);
+        when(connection.prepareStatement(startsWith("UPDATE"))).thenReturn(update);
+    }
+
+    private static List<User> users(int count) {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            users.add(new User("test" + i + "@gmail.com", "pass", AppNameUtil.BLYNK,
+                    "local", "127.0.0.1", false, false));
+        }
+        return users;
+    }
+
+    @Test
+    public void testUsersAreSavedInBatches() throws Exception {
+        UserDBDao userDBDao = new UserDBDao(ds, 2, 1, false);
+
+        assertEquals(5, userDBDao.save(users(5)));
+
+        verify(ds, times(3)).getConnection();
+        verify(upsert, times(5)).addBatch();
+        verify(upsert, times(3)).executeBatch();
+        verify(connection, times(3)).commit();
+        verify(update, never()).executeBatch();
+    }
+
+    @Test
+    public void testUnchangedProfileIsNotSentAgain() throws Exception {
+        UserDBDao userDBDao = new UserDBDao(ds, 10, 1, false);
+        List<User> users = users(2);
+        userDBDao.save(users);
+
+        DashBoard dash = new DashBoard();
+        dash.id = 1;
+        users.get(1).profile.dashBoards = new DashBoard[] {dash};
+        userDBDao.save(users);
+
+        //first save + changed profile of second user
+        verify(upsert, times(3)).addBatch();
+        verify(update, times(1)).addBatch();
+        verify(update).setString(11, "test0@gmail.com");
+    }
+
+    @Test
+    public void testFailedBatchIsSentAgain() throws Exception {
+        UserDBDao userDBDao = new UserDBDao(ds, 10, 1, false);
+        List<User> users = users(1);
+        when(upsert.executeBatch()).thenThrow(new SQLException("test"));
+        assertEquals(0, userDBDao.save(users));
+
+        doReturn(new int[] {1}).when(upsert).executeBatch();
+        assertEquals(1, userDBDao.save(users));
+
+        verify(upsert, times(2)).addBatch();
+        verify(update, never()).addBatch();
+    }
+
+    @Test
+    public void testCompressedProfile() throws Exception {
+        UserDBDao userDBDao = new UserDBDao(ds, 10, 1, true);
+        List<User> users = users(1);
+        userDBDao.save(users);
+
+        ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+        verify(upsert).setNull(13, Types.VARCHAR);
+        verify(upsert).setBytes(eq(14), captor.capture());
+        assertEquals(users.get(0).profile.toString(),
+                JsonParser.parseProfileFromCompressedBytes(captor.getValue()).toString());
+    }
+
+    @Test
+    public void testBatchesAreSavedConcurrently() throws Exception {
+        UserDBDao userDBDao = new UserDBDao(ds, 3, 2, false);
+        try {
+            assertEquals(10, userDBDao.save(users(10)));
+            verify(ds, times(4)).getConnection();
+            verify(connection, times(4)).commit();
+            verify(connection, times(8)).prepareStatement(anyString());
+            verify(upsert, times(10)).setInt(eq(12), anyInt());
+        } finally {
+            userDBDao.close();
+        }
+    }
+
+}
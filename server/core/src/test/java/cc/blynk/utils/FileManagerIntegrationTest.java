@@ -2,7 +2,10 @@ package cc.blynk.utils;
 
 import cc.blynk.server.core.dao.FileManager;
 import cc.blynk.server.core.dao.UserKey;
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.PinStorageKey;
 import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.enums.PinType;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -10,10 +13,14 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * User: ddumanskiy
@@ -81,4 +88,101 @@ public class FileManagerIntegrationTest {
         assertNotNull(users.get(new UserKey(user1.email, AppNameUtil.BLYNK)));
     }
 
+    @Test
+    public void testPinValuesAppliedFromPinsLog() throws IOException {
+        DashBoard dash = new DashBoard();
+        dash.id = 1;
+        user1.profile.dashBoards = new DashBoard[] {dash};
+        fileManager.overrideUserFile(user1);
+
+        assertEquals(0, fileManager.appendPinValues(user1));
+        dash.update(0, (byte) 1, PinType.VIRTUAL, "100", System.currentTimeMillis());
+        dash.update(0, (byte) 2, PinType.VIRTUAL, "1\0" + "2", System.currentTimeMillis());
+        assertTrue(fileManager.appendPinValues(user1) > 0);
+        assertFalse(dash.hasDirtyPins());
+
+        User restored = fileManager.deserializeUsers().get(new UserKey(user1.email, AppNameUtil.BLYNK));
+        DashBoard restoredDash = restored.profile.getDashById(1);
+        assertEquals("100", restoredDash.pinsStorage.get(new PinStorageKey(0, PinType.VIRTUAL, (byte) 1)));
+        assertEquals("1\0" + "2", restoredDash.pinsStorage.get(new PinStorageKey(0, PinType.VIRTUAL, (byte) 2)));
+        assertFalse(restoredDash.hasDirtyPins());
+
+        //snapshot includes all values, so log is removed
+        fileManager.overrideUserFile(user1);
+        assertFalse(Files.exists(fileManager.generatePinsFileName(user1.email, user1.appName)));
+    }
+
+    @Test
+    public void testStalePinsLogIsNotAppliedOverSnapshot() throws IOException {
+        DashBoard dash = new DashBoard();
+        dash.id = 1;
+        user1.profile.dashBoards = new DashBoard[] {dash};
+        fileManager.overrideUserFile(user1);
+
+        dash.update(0, (byte) 1, PinType.VIRTUAL, "100", System.currentTimeMillis());
+        fileManager.appendPinValues(user1);
+        Path pinsLog = fileManager.generatePinsFileName(user1.email, user1.appName);
+        byte[] staleLog = Files.readAllBytes(pinsLog);
+
+        dash.update(0, (byte) 1, PinType.VIRTUAL, "200", System.currentTimeMillis());
+        fileManager.overrideUserFile(user1);
+        //crash right after user file rename, log wasn't removed
+        Files.write(pinsLog, staleLog);
+
+        dash.update(0, (byte) 2, PinType.VIRTUAL, "5", System.currentTimeMillis());
+        fileManager.appendPinValues(user1);
+
+        DashBoard restored = fileManager.deserializeUsers()
+                .get(new UserKey(user1.email, AppNameUtil.BLYNK)).profile.getDashById(1);
+        assertEquals("200", restored.pinsStorage.get(new PinStorageKey(0, PinType.VIRTUAL, (byte) 1)));
+        assertEquals("5", restored.pinsStorage.get(new PinStorageKey(0, PinType.VIRTUAL, (byte) 2)));
+    }
+
+    @Test
+    public void testPinsStayChangedWhenUserFileWriteFails() throws IOException {
+        DashBoard dash = new DashBoard();
+        dash.id = 1;
+        user1.profile.dashBoards = new DashBoard[] {dash};
+        dash.update(0, (byte) 1, PinType.VIRTUAL, "100", System.currentTimeMillis());
+
+        Path userFile = fileManager.generateFileName(user1.email, user1.appName);
+        //temp file can't be written over directory
+        Path tempPath = Paths.get(userFile.toString() + ".tmp");
+        Files.createDirectories(tempPath);
+        try {
+            fileManager.overrideUserFile(user1);
+            fail();
+        } catch (IOException e) {
+            assertTrue(dash.hasDirtyPins());
+            assertEquals(0, user1.pinsLogGeneration);
+        }
+
+        Files.delete(tempPath);
+        fileManager.overrideUserFile(user1);
+        assertFalse(dash.hasDirtyPins());
+    }
+
+    @Test
+    public void testUsersLoadedFromSnapshot() throws IOException {
+        fileManager.overrideUserFile(user1);
+        DashBoard dash = new DashBoard();
+        dash.id = 1;
+        dash.update(0, (byte) 1, PinType.VIRTUAL, "100", System.currentTimeMillis());
+        user2.profile.dashBoards = new DashBoard[] {dash};
+
+        //user2 is only in snapshot, so it proves users were not read from files
+        assertTrue(fileManager.writeSnapshot(Arrays.asList(user1, user2)) > 0);
+
+        Map<UserKey, User> users = fileManager.loadUsers(true);
+        assertEquals(2, users.size());
+        User restored = users.get(new UserKey(user2.email, AppNameUtil.BLYNK));
+        assertEquals("100", restored.profile.getDashById(1).pinsStorage.get(
+                new PinStorageKey(0, PinType.VIRTUAL, (byte) 1)));
+
+        //snapshot is consumed, next start reads user files
+        assertFalse(Files.exists(fileManager.getSnapshotPath()));
+        users = fileManager.loadUsers(true);
+        assertEquals(1, users.size());
+    }
+
 }
@@ -3,6 +3,7 @@ package cc.blynk.server.admin.http.logic;
 import cc.blynk.core.http.CookiesBaseHttpHandler;
 import cc.blynk.core.http.Response;
 import cc.blynk.core.http.annotation.GET;
+import cc.blynk.core.http.annotation.PUT;
 import cc.blynk.core.http.annotation.Path;
 import cc.blynk.core.http.annotation.QueryParam;
 import cc.blynk.server.Holder;
@@ -17,7 +18,9 @@ import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.device.Device;
 import cc.blynk.server.core.model.serialization.JsonParser;
+import cc.blynk.server.core.reporting.storage.ReportingStorage;
 import cc.blynk.server.core.stats.GlobalStats;
+import cc.blynk.server.core.stats.model.LatencyStat;
 import cc.blynk.server.core.stats.model.Stat;
 import io.netty.channel.ChannelHandler;
 
@@ -45,6 +48,7 @@ public class StatsLogic extends CookiesBaseHttpHandler {
     private final FileManager fileManager;
     private final BlockingIOProcessor blockingIOProcessor;
     private final GlobalStats globalStats;
+    private final ReportingStorage reportingStorage;
 
     public StatsLogic(Holder holder, String rootPath) {
         super(holder, rootPath);
@@ -52,12 +56,27 @@ public class StatsLogic extends CookiesBaseHttpHandler {
         this.fileManager = holder.fileManager;
         this.blockingIOProcessor = holder.blockingIOProcessor;
         this.globalStats = holder.stats;
+        this.reportingStorage = holder.reportingDao.storage;
     }
 
     @GET
     @Path("/realtime")
     public Response getReatime() {
-       return ok(Collections.singletonList(new Stat(sessionDao, userDao, blockingIOProcessor, globalStats, false)));
+       return ok(Collections.singletonList(
+               new Stat(sessionDao, userDao, blockingIOProcessor, globalStats, reportingStorage, false)));
+    }
+
+    @GET
+    @Path("/latency")
+    public Response getLatency() {
+        return ok(JsonParser.toJson(new LatencyStat(globalStats.latency, false)));
+    }
+
+    @PUT
+    @Path("/latency")
+    public Response setLatencyEnabled(@QueryParam("enabled") boolean enabled) {
+        globalStats.latency.setEnabled(enabled);
+        return ok();
     }
 
     @GET
@@ -83,7 +102,7 @@ public class StatsLogic extends CookiesBaseHttpHandler {
     public Response getMessages(@QueryParam("_sortField") String sortField,
                                     @QueryParam("_sortDir") String sortOrder) {
         return ok(sort(convertObjectToMap(
-                new Stat(sessionDao, userDao, blockingIOProcessor, globalStats, false).commands),
+                new Stat(sessionDao, userDao, blockingIOProcessor, globalStats, reportingStorage, false).commands),
                 sortField, sortOrder));
     }
 
@@ -165,7 +184,7 @@ public class StatsLogic extends CookiesBaseHttpHandler {
                 final String name = user.email + "-" + user.appName;
                 if (ip == null) {
                     res.add(new IpNameResponse(name, user.lastLoggedIP));
-                    for (DashBoard dashBoard : user.profile.dashBoards) {
+                    for (DashBoard dashBoard : user.readProfile().dashBoards) {
                         for (Device device : dashBoard.devices) {
                             if (device.lastLoggedIP != null) {
                                 res.add(new IpNameResponse(name, device.lastLoggedIP));
@@ -184,7 +203,7 @@ public class StatsLogic extends CookiesBaseHttpHandler {
     }
 
     private boolean deviceContains(User user, String ip) {
-        for (DashBoard dash : user.profile.dashBoards) {
+        for (DashBoard dash : user.readProfile().dashBoards) {
             for (Device device : dash.devices) {
                 if (device.lastLoggedIP != null && device.lastLoggedIP.contains(ip)) {
                     return true;
@@ -134,6 +134,7 @@ public class UsersLogic extends CookiesBaseHttpHandler {
             return badRequest("No user with such email.");
         }
 
+        tokenManager.hydrate(user);
         DashBoard dash = user.profile.getDashByIdOrThrow(dashId);
         Device device = dash.getDeviceById(deviceId);
 
@@ -164,6 +165,7 @@ public class UsersLogic extends CookiesBaseHttpHandler {
         //user name was changed
         if (!updatedUser.email.equals(oldUser.email)) {
             deleteUserByName(id);
+            tokenManager.hydrate(oldUser);
             for (DashBoard dashBoard : oldUser.profile.dashBoards) {
                 for (Device device : dashBoard.devices) {
                     String token;
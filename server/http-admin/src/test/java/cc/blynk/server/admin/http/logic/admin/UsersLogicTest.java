@@ -9,6 +9,7 @@ import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.dao.UserKey;
 import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.quota.QuotaManager;
 import cc.blynk.server.db.DBManager;
 import cc.blynk.utils.AppNameUtil;
 import io.netty.channel.EventLoop;
@@ -38,7 +39,7 @@ public class UsersLogicTest {
     @Mock
     private UserDao userDao;
     @Spy
-    private SessionDao sessionDao;
+    private SessionDao sessionDao = new SessionDao(new QuotaManager(0, 0, 0));
     @Mock
     private DBManager dbManager;
     @Mock
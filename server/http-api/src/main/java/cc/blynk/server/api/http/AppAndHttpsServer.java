@@ -9,6 +9,8 @@ import cc.blynk.server.application.handlers.main.auth.GetServerHandler;
 import cc.blynk.server.application.handlers.main.auth.RegisterHandler;
 import cc.blynk.server.application.handlers.sharing.auth.AppShareLoginHandler;
 import cc.blynk.server.core.BaseServer;
+import cc.blynk.server.core.protocol.handlers.BackpressureConfig;
+import cc.blynk.server.core.protocol.handlers.FlushCoalescingConfig;
 import cc.blynk.server.handlers.common.UserNotLoggedHandler;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.socket.SocketChannel;
@@ -32,6 +34,8 @@ public class AppAndHttpsServer extends BaseServer {
         final AppShareLoginHandler appShareLoginHandler = new AppShareLoginHandler(holder);
         final UserNotLoggedHandler userNotLoggedHandler = new UserNotLoggedHandler();
         final GetServerHandler getServerHandler = new GetServerHandler(holder);
+        final FlushCoalescingConfig flushConfig = new FlushCoalescingConfig(holder.props, "app");
+        final BackpressureConfig backpressureConfig = new BackpressureConfig(holder.props, "app");
 
         final HttpAndWebSocketUnificatorHandler httpAndWebSocketUnificatorHandler =
                 new HttpAndWebSocketUnificatorHandler(holder, port);
@@ -49,7 +53,13 @@ public class AppAndHttpsServer extends BaseServer {
                         appShareLoginHandler,
                         userNotLoggedHandler,
                         getServerHandler,
-                        httpAndWebSocketUnificatorHandler));
+                        httpAndWebSocketUnificatorHandler,
+                        backpressureConfig));
+                backpressureConfig.apply(ch);
+                if (flushConfig.isEnabled()) {
+                    ch.pipeline().addAfter("HttpsSslContext", "AFlushCoalescing",
+                            flushConfig.newHandler(holder.stats));
+                }
             }
         };
     }
@@ -100,7 +100,7 @@ public class HttpAndHardwareUnificationHandler extends ByteToMessageDecoder impl
         return pipeline
                 .addLast("H_IdleStateHandler", new IdleStateHandler(hardTimeoutSecs, hardTimeoutSecs, 0))
                 .addLast("H_ChannelState", hardwareChannelStateHandler)
-                .addLast("H_MessageDecoder", new MessageDecoder(holder.stats))
+                .addLast("H_MessageDecoder", new MessageDecoder(holder.stats, true))
                 .addLast("H_MessageEncoder", new MessageEncoder(holder.stats))
                 .addLast("H_Login", hardwareLoginHandler)
                 .addLast("H_NotLogged", new HardwareNotLoggedHandler())
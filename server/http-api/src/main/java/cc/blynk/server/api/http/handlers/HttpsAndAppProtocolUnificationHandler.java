@@ -14,6 +14,7 @@ import cc.blynk.server.application.handlers.sharing.auth.AppShareLoginHandler;
 import cc.blynk.server.core.dao.CSVGenerator;
 import cc.blynk.server.core.protocol.handlers.DefaultExceptionHandler;
 import cc.blynk.server.core.protocol.handlers.decoders.AppMessageDecoder;
+import cc.blynk.server.core.protocol.handlers.BackpressureConfig;
 import cc.blynk.server.core.protocol.handlers.encoders.AppMessageEncoder;
 import cc.blynk.server.handlers.common.UserNotLoggedHandler;
 import cc.blynk.utils.HttpUtil;
@@ -49,6 +50,7 @@ public class HttpsAndAppProtocolUnificationHandler extends ByteToMessageDecoder
     private final GetServerHandler getServerHandler;
 
     private final HttpAndWebSocketUnificatorHandler httpAndWebSocketUnificatorHandler;
+    private final BackpressureConfig backpressureConfig;
 
     public HttpsAndAppProtocolUnificationHandler(Holder holder,
                                                  AppChannelStateHandler appChannelStateHandler,
@@ -57,7 +59,8 @@ public class HttpsAndAppProtocolUnificationHandler extends ByteToMessageDecoder
                                                  AppShareLoginHandler appShareLoginHandler,
                                                  UserNotLoggedHandler userNotLoggedHandler,
                                                  GetServerHandler getServerHandler,
-                                                 HttpAndWebSocketUnificatorHandler httpAndWebSocketUnificatorHandler) {
+                                                 HttpAndWebSocketUnificatorHandler httpAndWebSocketUnificatorHandler,
+                                                 BackpressureConfig backpressureConfig) {
         this.holder = holder;
         this.appChannelStateHandler = appChannelStateHandler;
         this.registerHandler = registerHandler;
@@ -67,6 +70,7 @@ public class HttpsAndAppProtocolUnificationHandler extends ByteToMessageDecoder
         this.getServerHandler = getServerHandler;
 
         this.httpAndWebSocketUnificatorHandler = httpAndWebSocketUnificatorHandler;
+        this.backpressureConfig = backpressureConfig;
 
         log.debug("app.socket.idle.timeout = 600 for new protocol");
     }
@@ -110,11 +114,14 @@ public class HttpsAndAppProtocolUnificationHandler extends ByteToMessageDecoder
 
     private ChannelPipeline buildBlynkPipeline(ChannelPipeline pipeline) {
         log.trace("Blynk protocol connection detected.", pipeline.channel());
-        return pipeline
-                .addLast("AReadTimeout", new IdleStateHandler(600, 0, 0))
+        pipeline.addLast("AReadTimeout", new IdleStateHandler(600, 0, 0))
                 .addLast("AChannelState", appChannelStateHandler)
                 .addLast("AMessageDecoder", new AppMessageDecoder(holder.stats))
-                .addLast("AMessageEncoder", new AppMessageEncoder(holder.stats))
+                .addLast("AMessageEncoder", new AppMessageEncoder(holder.stats));
+        if (backpressureConfig.isConflationEnabled()) {
+            pipeline.addLast("AConflation", backpressureConfig.newHandler(holder.stats));
+        }
+        return pipeline
                 .addLast("AGetServer", getServerHandler)
                 .addLast("ARegister", registerHandler)
                 .addLast("ALogin", appLoginHandler)
@@ -37,6 +37,7 @@ import cc.blynk.server.core.model.widgets.others.rtc.RTC;
 import cc.blynk.server.core.processors.EventorProcessor;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandBodyException;
 import cc.blynk.server.core.protocol.exceptions.NoDataException;
+import cc.blynk.server.core.quota.QuotaManager;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.notifications.mail.MailWrapper;
 import cc.blynk.server.notifications.push.GCMWrapper;
@@ -86,13 +87,13 @@ public class HttpAPILogic extends TokenBaseHttpHandler {
     public HttpAPILogic(Holder holder) {
         this(holder.tokenManager, holder.sessionDao, holder.blockingIOProcessor,
                 holder.mailWrapper, holder.gcmWrapper, holder.reportingDao,
-                holder.stats, holder.eventorProcessor);
+                holder.stats, holder.quotaManager, holder.eventorProcessor);
     }
 
     private HttpAPILogic(TokenManager tokenManager, SessionDao sessionDao, BlockingIOProcessor blockingIOProcessor,
                          MailWrapper mailWrapper, GCMWrapper gcmWrapper, ReportingDao reportingDao,
-                         GlobalStats globalStats, EventorProcessor eventorProcessor) {
-        super(tokenManager, sessionDao, globalStats, "");
+                         GlobalStats globalStats, QuotaManager quotaManager, EventorProcessor eventorProcessor) {
+        super(tokenManager, sessionDao, globalStats, quotaManager, "");
         this.blockingIOProcessor = blockingIOProcessor;
         this.mailWrapper = mailWrapper;
         this.gcmWrapper = gcmWrapper;
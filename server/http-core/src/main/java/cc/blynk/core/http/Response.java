@@ -28,6 +28,7 @@ import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERR
 import static io.netty.handler.codec.http.HttpResponseStatus.MOVED_PERMANENTLY;
 import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
 import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpResponseStatus.TOO_MANY_REQUESTS;
 import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 
 /**
@@ -106,6 +107,10 @@ public final class Response extends DefaultFullHttpResponse {
         return new Response(HTTP_1_1, BAD_REQUEST, message, PLAIN_TEXT);
     }
 
+    public static Response tooManyRequests(String message) {
+        return new Response(HTTP_1_1, TOO_MANY_REQUESTS, message, PLAIN_TEXT);
+    }
+
     public static Response serverError() {
         return new Response(HTTP_1_1, INTERNAL_SERVER_ERROR);
     }
@@ -7,6 +7,7 @@ import cc.blynk.server.core.dao.TokenManager;
 import cc.blynk.server.core.dao.TokenValue;
 import cc.blynk.server.core.dao.UserKey;
 import cc.blynk.server.core.model.auth.Session;
+import cc.blynk.server.core.quota.QuotaManager;
 import cc.blynk.server.core.stats.GlobalStats;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
@@ -19,9 +20,14 @@ import io.netty.handler.codec.http.FullHttpResponse;
  */
 public abstract class TokenBaseHttpHandler extends BaseHttpHandler {
 
+    private final GlobalStats globalStats;
+    private final QuotaManager quotaManager;
+
     public TokenBaseHttpHandler(TokenManager tokenManager, SessionDao sessionDao,
-                                GlobalStats globalStats, String rootPath) {
+                                GlobalStats globalStats, QuotaManager quotaManager, String rootPath) {
         super(tokenManager, sessionDao, globalStats, rootPath);
+        this.globalStats = globalStats;
+        this.quotaManager = quotaManager;
     }
 
     @Override
@@ -42,17 +48,33 @@ public abstract class TokenBaseHttpHandler extends BaseHttpHandler {
         }
 
         Session session = sessionDao.getOrCreateSessionByUser(new UserKey(tokenValue.user), ctx.channel().eventLoop());
-        if (session.initialEventLoop != ctx.channel().eventLoop()) {
+        if (!quotaManager.tryAcquire(session.quota)) {
+            log.debug("User {} has exceeded message quota limit.", tokenValue.user.email);
+            ctx.writeAndFlush(Response.tooManyRequests("User has exceeded message quota limit."),
+                    ctx.voidPromise());
+            return;
+        }
+
+        if (session.bindEventLoop(ctx.channel())) {
+            completeLogin(ctx.channel(), session, handler, params);
+        } else {
             log.debug("Re registering http channel. {}", ctx.channel());
+            globalStats.reRegistrations.increment();
             reRegisterChannel(ctx, session, channelFuture -> completeLogin(
-                    channelFuture.channel(), handler.invoke(params)));
-        } else {
-            completeLogin(ctx.channel(), handler.invoke(params));
+                    channelFuture.channel(), session, handler, params));
         }
     }
 
-    private void completeLogin(Channel channel, FullHttpResponse response) {
+    private static void completeLogin(Channel channel, Session session,
+                                      HandlerWrapper handler, Object[] params) {
+        FullHttpResponse response;
+        try {
+            response = handler.invoke(params);
+        } finally {
+            //http channel is never added to the session, so it shouldn't keep session on its loop.
+            //keep-alive channel stays active, so failed request would otherwise keep it pending forever
+            session.bindCompleted(channel);
+        }
         channel.writeAndFlush(response);
-        log.debug("Re registering http channel finished.");
     }
 }
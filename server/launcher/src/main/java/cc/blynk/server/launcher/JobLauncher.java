@@ -2,12 +2,13 @@ package cc.blynk.server.launcher;
 
 import cc.blynk.server.Holder;
 import cc.blynk.server.core.BaseServer;
+import cc.blynk.server.core.reporting.RetentionPolicy;
 import cc.blynk.server.core.reporting.average.AverageAggregatorProcessor;
-import cc.blynk.server.internal.ReportingUtil;
 import cc.blynk.server.workers.CertificateRenewalWorker;
 import cc.blynk.server.workers.HistoryGraphUnusedPinDataCleanerWorker;
+import cc.blynk.server.workers.ProfileEvictionWorker;
 import cc.blynk.server.workers.ProfileSaverWorker;
-import cc.blynk.server.workers.ReportingTruncateWorker;
+import cc.blynk.server.workers.ReportingRetentionWorker;
 import cc.blynk.server.workers.ReportingWorker;
 import cc.blynk.server.workers.ShutdownHookWorker;
 import cc.blynk.server.workers.StatsWorker;
@@ -37,11 +38,7 @@ final class JobLauncher {
 
         long startDelay;
 
-        ReportingWorker reportingWorker = new ReportingWorker(
-                holder.reportingDao,
-                ReportingUtil.getReportingFolder(holder.props.getProperty("data.folder")),
-                holder.dbManager
-        );
+        ReportingWorker reportingWorker = new ReportingWorker(holder.reportingDao, holder.dbManager, holder.stats);
 
         //to start at the beggining of an minute
         startDelay = AverageAggregatorProcessor.MINUTE
@@ -49,13 +46,20 @@ final class JobLauncher {
         scheduler.scheduleAtFixedRate(reportingWorker, startDelay,
                 AverageAggregatorProcessor.MINUTE, MILLISECONDS);
 
-        ProfileSaverWorker profileSaverWorker =
-                new ProfileSaverWorker(holder.userDao, holder.fileManager, holder.dbManager);
+        ProfileSaverWorker profileSaverWorker = new ProfileSaverWorker(holder);
 
-        //running 1 sec later after reporting
-        scheduler.scheduleAtFixedRate(profileSaverWorker, startDelay + 1000,
+        //running 1 sec later after reporting. separate thread, so long save cycle doesn't delay other jobs
+        ScheduledExecutorService profileSaverScheduler = Executors.newSingleThreadScheduledExecutor();
+        profileSaverScheduler.scheduleAtFixedRate(profileSaverWorker, startDelay + 1000,
                 holder.props.getIntProperty("profile.save.worker.period"), MILLISECONDS);
 
+        long idleProfileTtl = holder.props.getLongProperty("profile.idle.ttl.minutes", 0) * 60_000;
+        if (idleProfileTtl > 0) {
+            ProfileEvictionWorker profileEvictionWorker = new ProfileEvictionWorker(
+                    holder.userDao, holder.sessionDao, holder.tokenManager, idleProfileTtl);
+            scheduler.scheduleAtFixedRate(profileEvictionWorker, 1, 1, TimeUnit.MINUTES);
+        }
+
         StatsWorker statsWorker = new StatsWorker(holder);
         scheduler.scheduleAtFixedRate(statsWorker, 1000,
                 holder.props.getIntProperty("stats.print.worker.period"), MILLISECONDS);
@@ -73,9 +77,13 @@ final class JobLauncher {
         //once every 3 days
         scheduler.scheduleAtFixedRate(reportingDataDiskCleaner, 72, 72, HOURS);
 
-        ReportingTruncateWorker reportingTruncateWorker = new ReportingTruncateWorker(holder.reportingDao);
-        //once every week
-        scheduler.scheduleAtFixedRate(reportingTruncateWorker, 1, 144, HOURS);
+        ReportingRetentionWorker reportingRetentionWorker = new ReportingRetentionWorker(
+                holder.reportingDao.storage, holder.dbManager, new RetentionPolicy(holder.props),
+                holder.props.getIntProperty("reporting.retention.max.io.load", 10));
+        //separate thread, as retention job is throttled and may run for a long time
+        ScheduledExecutorService retentionScheduler = Executors.newSingleThreadScheduledExecutor();
+        retentionScheduler.scheduleWithFixedDelay(reportingRetentionWorker, 1,
+                holder.props.getIntProperty("reporting.retention.worker.period", 6), HOURS);
 
         //millis we need to wait to start scheduler at the beginning of a second.
         startDelay = 1000 - (System.currentTimeMillis() % 1000);
@@ -87,7 +95,8 @@ final class JobLauncher {
 
         //shutdown hook thread catcher
         Runtime.getRuntime().addShutdownHook(new Thread(
-                new ShutdownHookWorker(servers, holder, scheduler, profileSaverWorker)
+                new ShutdownHookWorker(servers, holder, scheduler, profileSaverScheduler, retentionScheduler,
+                        profileSaverWorker, reportingRetentionWorker)
         ));
     }
 
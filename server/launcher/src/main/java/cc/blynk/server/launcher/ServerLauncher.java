@@ -97,9 +97,11 @@ public final class ServerLauncher {
                               SmsProperties smsProperties, GCMProperties gcmProperties,
                               TwitterProperties twitterProperties,
                               boolean restore) {
+        long start = System.currentTimeMillis();
         Holder holder = new Holder(serverProperties,
                 mailProperties, smsProperties, gcmProperties, twitterProperties,
                 restore);
+        long holderInitialized = System.currentTimeMillis();
 
         BaseServer[] servers = new BaseServer[] {
                 new HardwareServer(holder),
@@ -113,9 +115,12 @@ public final class ServerLauncher {
         if (startServers(servers)) {
             //Launching all background jobs.
             JobLauncher.start(holder, servers);
+            long started = System.currentTimeMillis();
 
             System.out.println();
             System.out.println("Blynk Server " + JarUtil.getServerVersion() + " successfully started.");
+            System.out.println("Startup took " + (started - start) + " ms. Initialization "
+                    + (holderInitialized - start) + " ms, servers start " + (started - holderInitialized) + " ms.");
             String path = new File(System.getProperty("logs.folder")).getAbsolutePath().replace("/./", "/");
             System.out.println("All server output is stored in folder '" + path + "' file.");
 
@@ -13,6 +13,7 @@ import cc.blynk.server.core.model.widgets.outputs.graph.GraphDataStream;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.model.widgets.ui.tiles.DeviceTiles;
 import cc.blynk.server.core.model.widgets.ui.tiles.TileTemplate;
+import cc.blynk.server.core.reporting.storage.Rollups;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -72,7 +73,7 @@ public class HistoryGraphUnusedPinDataCleanerWorker implements Runnable {
             if (user.isUpdated(lastStart)) {
                 doNotRemovePaths.clear();
                 try {
-                    for (DashBoard dashBoard : user.profile.dashBoards) {
+                    for (DashBoard dashBoard : user.readProfile().dashBoards) {
                         for (Widget widget : dashBoard.widgets) {
                             if (widget instanceof DeviceTiles) {
                                 DeviceTiles deviceTiles = (DeviceTiles) widget;
@@ -119,6 +120,7 @@ public class HistoryGraphUnusedPinDataCleanerWorker implements Runnable {
                                     deviceId,
                                     dataStream.pinType.pintTypeChar, dataStream.pin, type.label);
                             doNotRemovePaths.add(filename);
+                            doNotRemovePaths.add(Rollups.toRollupFilename(filename));
                         }
                     }
                 }
@@ -134,6 +136,7 @@ public class HistoryGraphUnusedPinDataCleanerWorker implements Runnable {
                     String filename = ReportingDao.generateFilename(dashId, graph.deviceId,
                             dataStream.pinType.pintTypeChar, dataStream.pin, type.label);
                     doNotRemovePaths.add(filename);
+                    doNotRemovePaths.add(Rollups.toRollupFilename(filename));
                 }
             }
         }
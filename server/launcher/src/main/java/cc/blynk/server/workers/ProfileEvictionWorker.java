@@ -0,0 +1,69 @@
+package cc.blynk.server.workers;
+
+import cc.blynk.server.core.dao.SessionDao;
+import cc.blynk.server.core.dao.TokenManager;
+import cc.blynk.server.core.dao.UserDao;
+import cc.blynk.server.core.dao.UserKey;
+import cc.blynk.server.core.model.auth.Session;
+import cc.blynk.server.core.model.auth.User;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Map;
+
+/**
+ * Moves profiles of the users that have no connected apps and hardware and weren't accessed
+ * for ttl to the cold tier. Cold profile is kept as compressed bytes and is hydrated on first access.
+ */
+public class ProfileEvictionWorker implements Runnable {
+
+    private static final Logger log = LogManager.getLogger(ProfileEvictionWorker.class);
+
+    private final UserDao userDao;
+    private final SessionDao sessionDao;
+    private final TokenManager tokenManager;
+    private final long ttl;
+
+    public ProfileEvictionWorker(UserDao userDao, SessionDao sessionDao, TokenManager tokenManager, long ttl) {
+        this.userDao = userDao;
+        this.sessionDao = sessionDao;
+        this.tokenManager = tokenManager;
+        this.ttl = ttl;
+    }
+
+    @Override
+    public void run() {
+        try {
+            long now = System.currentTimeMillis();
+            int evicted = evict(now - ttl);
+            log.debug("Evicted {} idle profiles. Time {} ms.", evicted, System.currentTimeMillis() - now);
+        } catch (Throwable t) {
+            log.error("Error evicting idle profiles.", t);
+        }
+    }
+
+    public int evict(long idleBefore) {
+        int evicted = 0;
+        for (Map.Entry<UserKey, User> entry : userDao.getUsers().entrySet()) {
+            User user = entry.getValue();
+            if (user.isCold() || isConnected(sessionDao.userSession.get(entry.getKey()))) {
+                continue;
+            }
+            //the same lock as User.hydrate(), so profile is not evicted while it is loaded by other thread
+            synchronized (user) {
+                if (user.isEvictable(idleBefore)) {
+                    tokenManager.markCold(user);
+                    if (user.evict()) {
+                        evicted++;
+                    }
+                }
+            }
+        }
+        return evicted;
+    }
+
+    private static boolean isConnected(Session session) {
+        return session != null && (session.isAppConnected() || session.isHardwareConnected());
+    }
+
+}
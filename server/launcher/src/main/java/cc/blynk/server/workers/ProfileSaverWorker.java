@@ -1,19 +1,36 @@
 package cc.blynk.server.workers;
 
+import cc.blynk.server.Holder;
 import cc.blynk.server.core.dao.FileManager;
 import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.model.auth.User;
-import cc.blynk.server.core.model.serialization.JsonParser;
+import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.db.DBManager;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.Closeable;
-import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 
 /**
  * Background thread that once a minute stores all user DB to disk in case profile was changed since last saving.
+ * Changed profiles are stored as full snapshots. When only pin values were changed they are appended
+ * to the user pins log, which is compacted into the snapshot once it exceeds maxPinsLogSize.
+ *
+ * User map is walked once per run and users that have to be saved are split evenly into shards,
+ * every shard is saved by separate thread of the saver pool.
+ * Disk writes of all shards are throttled to maxBytesPerSecond (0 - no limit).
+ * Once a day (local mode only) user files changed since previous backup are copied to backup folder.
+ * Backup has only user file, so pending pins log is merged into the user file before backup.
  *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -23,79 +40,199 @@ public class ProfileSaverWorker implements Runnable, Closeable {
 
     private static final Logger log = LogManager.getLogger(ProfileSaverWorker.class);
 
+    private static final int DEFAULT_MAX_PINS_LOG_SIZE = 64 * 1024;
+    private static final long BACKUP_PERIOD = 86_400_000;
+
     //1 min
     private final UserDao userDao;
     private final FileManager fileManager;
     private final DBManager dbManager;
+    private final GlobalStats stats;
+    private final long maxPinsLogSize;
+    private final long maxBytesPerSecond;
+    private final int shards;
+    //null for single shard, it is saved on the caller thread
+    private final ExecutorService saverPool;
+
+    //time when throttled writes are allowed to continue
+    private final AtomicLong nextWriteNanos = new AtomicLong(System.nanoTime());
+    private final LongAdder cycleBytes = new LongAdder();
+
     private long lastStart;
     private long backupTs;
 
     public ProfileSaverWorker(UserDao userDao, FileManager fileManager, DBManager dbManager) {
+        this(userDao, fileManager, dbManager, new GlobalStats(false), 1, DEFAULT_MAX_PINS_LOG_SIZE, 0);
+    }
+
+    public ProfileSaverWorker(Holder holder) {
+        this(holder.userDao, holder.fileManager, holder.dbManager, holder.stats,
+                holder.props.getIntProperty("profile.save.worker.threads", 2),
+                holder.props.getIntProperty("profile.pins.log.max.size", DEFAULT_MAX_PINS_LOG_SIZE),
+                holder.props.getIntProperty("profile.save.worker.max.bytes.per.second", 0));
+    }
+
+    public ProfileSaverWorker(UserDao userDao, FileManager fileManager, DBManager dbManager, GlobalStats stats,
+                              int threads, long maxPinsLogSize, long maxBytesPerSecond) {
         this.userDao = userDao;
         this.fileManager = fileManager;
         this.dbManager = dbManager;
+        this.stats = stats;
+        this.maxPinsLogSize = maxPinsLogSize;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.shards = Math.max(1, threads);
+        this.saverPool = shards == 1 ? null : Executors.newFixedThreadPool(shards);
         this.lastStart = System.currentTimeMillis();
         this.backupTs = 0;
     }
 
     @Override
-    public void run() {
+    public synchronized void run() {
         try {
             log.debug("Starting saving user db.");
 
             final long now = System.currentTimeMillis();
+            cycleBytes.reset();
 
-            ArrayList<User> users = saveModified();
+            ArrayList<User> users = inShards(
+                    user -> user.isProfileUpdated(lastStart) || user.hasDirtyPins(), this::saveModified);
 
             dbManager.saveUsers(users);
 
             //backup only for local mode
             if (!dbManager.isDBEnabled() && users.size() > 0) {
-                archiveUser(now);
+                archiveUsers(now);
             }
 
             lastStart = now;
 
-            log.debug("Saving user db finished. Modified {} users.", users.size());
+            long duration = System.currentTimeMillis() - now;
+            stats.profileSaveDuration.record(duration);
+            stats.profileSaveBytes.record(cycleBytes.sum());
+            log.debug("Saving user db finished. Modified {} users. Written {} bytes. Time {} ms.",
+                    users.size(), cycleBytes.sum(), duration);
         } catch (Throwable t) {
             log.error("Error saving users.", t);
         }
     }
 
-    private void archiveUser(long now) {
-        if (now - backupTs > 86_400_000) {
-            //it is time for backup, once per day.
+    private interface ShardTask {
+        ArrayList<User> run(List<User> shard);
+    }
+
+    /**
+     * Collects users that pass the filter with single walk over the user map
+     * and runs the task over every shard of them.
+     */
+    private ArrayList<User> inShards(Predicate<User> filter, ShardTask shardTask) throws Exception {
+        List<List<User>> partitions = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        int next = 0;
+        for (User user : userDao.getUsers().values()) {
+            if (filter.test(user)) {
+                partitions.get(next).add(user);
+                next = next + 1 == shards ? 0 : next + 1;
+            }
+        }
+
+        if (saverPool == null) {
+            return shardTask.run(partitions.get(0));
+        }
+        List<Callable<ArrayList<User>>> tasks = new ArrayList<>(shards);
+        for (List<User> partition : partitions) {
+            if (!partition.isEmpty()) {
+                tasks.add(() -> shardTask.run(partition));
+            }
+        }
+        ArrayList<User> result = new ArrayList<>();
+        for (Future<ArrayList<User>> future : saverPool.invokeAll(tasks)) {
+            result.addAll(future.get());
+        }
+        return result;
+    }
+
+    private void archiveUsers(long now) throws Exception {
+        if (now - backupTs > BACKUP_PERIOD) {
+            //it is time for backup, once per day. only files changed since last backup are copied
+            long previousBackupTs = backupTs;
             backupTs = now;
-            for (User user : userDao.users.values()) {
-                try {
-                    Path path = fileManager.generateBackupFileName(user.email, user.appName);
-                    JsonParser.writeUser(path.toFile(), user);
-                } catch (Exception e) {
-                    //ignore
+            inShards(user -> true, shard -> archiveChanged(shard, previousBackupTs));
+        }
+    }
+
+    private ArrayList<User> archiveChanged(List<User> shard, long modifiedAfter) {
+        for (User user : shard) {
+            try {
+                if (fileManager.getPinsFileSize(user) > 0) {
+                    throttle(fileManager.overrideUserFile(user));
+                    stats.profileSnapshots.increment();
                 }
+                throttle(fileManager.backupUserFile(user, modifiedAfter));
+            } catch (Exception e) {
+                //ignore
             }
         }
+        return new ArrayList<>();
     }
 
-    private ArrayList<User> saveModified() {
+    private ArrayList<User> saveModified(List<User> shard) {
         ArrayList<User> users = new ArrayList<>();
 
-        for (User user : userDao.getUsers().values()) {
-            if (user.isUpdated(lastStart)) {
-                try {
-                    fileManager.overrideUserFile(user);
+        for (User user : shard) {
+            try {
+                if (user.isProfileUpdated(lastStart)) {
+                    throttle(fileManager.overrideUserFile(user));
+                    stats.profileSnapshots.increment();
+                    users.add(user);
+                } else if (user.hasDirtyPins()) {
+                    throttle(fileManager.appendPinValues(user));
+                    if (fileManager.getPinsFileSize(user) > maxPinsLogSize) {
+                        throttle(fileManager.overrideUserFile(user));
+                        stats.profileSnapshots.increment();
+                    } else {
+                        stats.profilePinLogs.increment();
+                    }
+                    //DB keeps whole profile, so it is updated anyway
                     users.add(user);
-                } catch (Exception e) {
-                    log.error("Error saving : {}.", user);
                 }
+            } catch (Exception e) {
+                log.error("Error saving : {}.", user);
             }
         }
 
         return users;
     }
 
+    /**
+     * Accounts written bytes and sleeps, so writes of all shards stay within maxBytesPerSecond.
+     */
+    private void throttle(long bytes) {
+        cycleBytes.add(bytes);
+        if (maxBytesPerSecond <= 0 || bytes <= 0) {
+            return;
+        }
+        long cost = bytes * 1_000_000_000L / maxBytesPerSecond;
+        long now = System.nanoTime();
+        long prev;
+        long next;
+        do {
+            prev = nextWriteNanos.get();
+            next = (prev - now > 0 ? prev : now) + cost;
+        } while (!nextWriteNanos.compareAndSet(prev, next));
+        try {
+            TimeUnit.NANOSECONDS.sleep(next - now);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     @Override
     public void close() {
         run();
+        if (saverPool != null) {
+            saverPool.shutdown();
+        }
     }
 }
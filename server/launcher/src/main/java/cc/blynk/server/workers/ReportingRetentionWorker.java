@@ -0,0 +1,133 @@
+package cc.blynk.server.workers;
+
+import cc.blynk.server.core.reporting.RetentionPolicy;
+import cc.blynk.server.core.reporting.storage.ReportingStorage;
+import cc.blynk.server.db.DBManager;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes reporting points and raw values that are older than defined by retention policy.
+ * Series are taken from storage index, so no folders scan is required.
+ * Every series is handled separately and worker sleeps between series
+ * in order to keep disk load caused by the job within configured limit.
+ * Raw values are stored only in DB, they are removed in batches, every batch is committed
+ * separately and worker sleeps between batches the same way.
+ */
+public class ReportingRetentionWorker implements Runnable {
+
+    private static final Logger log = LogManager.getLogger(ReportingRetentionWorker.class);
+
+    private static final int RAW_DATA_BATCH_SIZE = 10_000;
+
+    private final ReportingStorage storage;
+    //may be null, in that case raw values are not removed
+    private final DBManager dbManager;
+    private final RetentionPolicy retentionPolicy;
+    //percent of time job is allowed to spend on disk operations
+    private final int maxIoLoad;
+
+    private volatile boolean stopped;
+
+    private long removedPoints;
+    private int retainedSeries;
+
+    public ReportingRetentionWorker(ReportingStorage storage, RetentionPolicy retentionPolicy, int maxIoLoad) {
+        this(storage, null, retentionPolicy, maxIoLoad);
+    }
+
+    public ReportingRetentionWorker(ReportingStorage storage, DBManager dbManager,
+                                    RetentionPolicy retentionPolicy, int maxIoLoad) {
+        this.storage = storage;
+        this.dbManager = dbManager;
+        this.retentionPolicy = retentionPolicy;
+        this.maxIoLoad = Math.max(1, Math.min(100, maxIoLoad));
+    }
+
+    @Override
+    public void run() {
+        try {
+            log.info("Start removing outdated reporting data...");
+            long now = System.currentTimeMillis();
+            removedPoints = 0;
+            retainedSeries = 0;
+
+            storage.forEachSeries((userReportingDir, fileName) -> retain(userReportingDir, fileName, now));
+            long compacted = stopped ? 0 : storage.compact();
+            int removedRawValues = removeRawData(now);
+
+            log.info("Removed {} outdated points from {} series and {} raw values. Compacted {} bytes. Time : {} ms.",
+                    removedPoints, retainedSeries, removedRawValues, compacted, System.currentTimeMillis() - now);
+        } catch (Throwable t) {
+            log.error("Error removing outdated reporting data.", t);
+        }
+    }
+
+    /**
+     * Stops current run after the series that is processed at the moment, so storage could be closed.
+     * Worker is not interrupted, as interrupt closes file channels of the storage.
+     */
+    public void stop() {
+        this.stopped = true;
+    }
+
+    private void retain(String userReportingDir, String fileName, long now) {
+        if (stopped) {
+            return;
+        }
+        long minTs = retentionPolicy.getMinTs(fileName, now);
+        if (minTs < 0) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            long removed = storage.retain(userReportingDir, fileName, minTs);
+            if (removed > 0) {
+                removedPoints += removed;
+                retainedSeries++;
+            }
+        } catch (Exception e) {
+            log.error("Error removing outdated points of {}/{}. Reason : {}",
+                    userReportingDir, fileName, e.getMessage());
+        }
+        throttle(System.nanoTime() - start);
+    }
+
+    private int removeRawData(long now) {
+        long minTs = retentionPolicy.getRawMinTs(now);
+        if (dbManager == null || minTs < 0 || stopped) {
+            return 0;
+        }
+
+        int removedRawValues = 0;
+        int removed;
+        do {
+            long start = System.nanoTime();
+            try {
+                removed = dbManager.cleanOldRawData(minTs, RAW_DATA_BATCH_SIZE);
+            } catch (Exception e) {
+                log.error("Error removing outdated raw data. Reason : {}", e.getMessage());
+                return removedRawValues;
+            }
+            removedRawValues += removed;
+            throttle(System.nanoTime() - start);
+        } while (removed == RAW_DATA_BATCH_SIZE && !stopped);
+        return removedRawValues;
+    }
+
+    private void throttle(long ioDuration) {
+        if (maxIoLoad == 100 || stopped) {
+            return;
+        }
+        long pause = ioDuration * (100 - maxIoLoad) / maxIoLoad;
+        try {
+            TimeUnit.NANOSECONDS.sleep(pause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
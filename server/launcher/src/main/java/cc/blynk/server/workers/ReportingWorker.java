@@ -4,24 +4,18 @@ import cc.blynk.server.core.dao.ReportingDao;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.reporting.average.AggregationKey;
 import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.db.DBManager;
-import cc.blynk.utils.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Map;
 
-import static cc.blynk.server.core.dao.ReportingDao.generateFilename;
-
 /**
  * Worker that runs once a minute. During run - stores all aggregated reporting data
- * to disk. Also sends all data in batches to RDBMS in case DBManager was initialized.
+ * to disk and checkpoints not yet finished aggregations. Also sends all data in batches
+ * to RDBMS in case DBManager was initialized.
  *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -32,24 +26,27 @@ public class ReportingWorker implements Runnable {
     private static final Logger log = LogManager.getLogger(ReportingWorker.class);
 
     private final ReportingDao reportingDao;
-    private final String reportingPath;
     private final DBManager dbManager;
+    private final GlobalStats stats;
 
-    public ReportingWorker(ReportingDao reportingDao, String reportingPath, DBManager dbManager) {
+    public ReportingWorker(ReportingDao reportingDao, DBManager dbManager, GlobalStats stats) {
         this.reportingDao = reportingDao;
-        this.reportingPath = reportingPath;
         this.dbManager = dbManager;
+        this.stats = stats;
     }
 
     @Override
     public void run() {
         try {
-            Map<AggregationKey, AggregationValue> removedKeysMinute =
-                    process(reportingDao.averageAggregator.getMinute(), GraphGranularityType.MINUTE);
-            Map<AggregationKey, AggregationValue> removedKeysHour =
-                    process(reportingDao.averageAggregator.getHourly(), GraphGranularityType.HOURLY);
-            Map<AggregationKey, AggregationValue> removedKeysDay =
-                    process(reportingDao.averageAggregator.getDaily(), GraphGranularityType.DAILY);
+            Map<AggregationKey, AggregationValue> removedKeysMinute = process(GraphGranularityType.MINUTE);
+            Map<AggregationKey, AggregationValue> removedKeysHour = process(GraphGranularityType.HOURLY);
+            Map<AggregationKey, AggregationValue> removedKeysDay = process(GraphGranularityType.DAILY);
+
+            //removed series are flushed at this point, so their ids could be reused
+            reportingDao.recycleRemovedSeries();
+
+            //checkpoint right after flush, so flushed buckets are not restored after crash
+            reportingDao.averageAggregator.checkpoint();
 
             dbManager.insertReporting(removedKeysMinute, GraphGranularityType.MINUTE);
             dbManager.insertReporting(removedKeysHour, GraphGranularityType.HOURLY);
@@ -64,50 +61,32 @@ public class ReportingWorker implements Runnable {
     }
 
     /**
-     * Iterates over all reporting entries that were created during last minute.
-     * And stores all entries one by one to disk.
+     * Takes all reporting entries of previous periods from aggregator
+     * and stores them to disk with single storage write.
      *
-     * @param map - reporting entires that were created during last minute.
      * @param type - type of reporting. Could be minute, hourly, daily.
      * @return - returns list of reporting entries that were successfully flushed to disk.
      */
-    private Map<AggregationKey, AggregationValue>  process(Map<AggregationKey, AggregationValue> map,
-                                                           GraphGranularityType type) {
+    private Map<AggregationKey, AggregationValue> process(GraphGranularityType type) {
         long nowTruncatedToPeriod = System.currentTimeMillis() / type.period;
 
-        ArrayList<AggregationKey> keys = new ArrayList<>(map.keySet());
-        keys.sort(AggregationKey.AGGREGATION_KEY_COMPARATOR);
-
-        Map<AggregationKey, AggregationValue> removedKeys = new HashMap<>();
-
-        for (AggregationKey keyToRemove : keys) {
-            //if prev hour
-            if (keyToRemove.isOutdated(nowTruncatedToPeriod)) {
-                AggregationValue value = map.get(keyToRemove);
+        Map<AggregationKey, AggregationValue> outdatedKeys =
+                reportingDao.averageAggregator.removeOutdated(type, nowTruncatedToPeriod);
 
-                try {
-                    Path userReportFolder = Paths.get(reportingPath,
-                            FileUtils.getUserReportingDir(keyToRemove.getEmail(), keyToRemove.getAppName()));
-                    if (Files.notExists(userReportFolder)) {
-                        Files.createDirectories(userReportFolder);
-                    }
-
-                    String fileName = generateFilename(keyToRemove.getDashId(),
-                            keyToRemove.getDeviceId(), keyToRemove.getPinType(), keyToRemove.getPin(), type.label);
-                    Path filePath = Paths.get(userReportFolder.toString(), fileName);
-
-                    FileUtils.write(filePath, value.calcAverage(), keyToRemove.getTs(type));
-
-                    removedKeys.put(keyToRemove, value);
-                } catch (Exception ioe) {
-                    log.error("Error writing reporting file. Reason : {}", ioe.getMessage());
-                } finally {
-                    map.remove(keyToRemove);
-                }
-            }
+        if (outdatedKeys.isEmpty()) {
+            return outdatedKeys;
         }
 
-        return removedKeys;
+        long start = System.currentTimeMillis();
+        long writtenBytes = reportingDao.storage.getWrittenBytes();
+        Map<AggregationKey, AggregationValue> storedKeys = reportingDao.storage.write(type, outdatedKeys);
+        long duration = System.currentTimeMillis() - start;
+
+        stats.reportingFlushLatency.record(duration);
+        //averages, rollups and storage headers
+        stats.reportingFlushBytes.record(reportingDao.storage.getWrittenBytes() - writtenBytes);
+        log.debug("Stored {} {} reporting entries in {} ms.", storedKeys.size(), type.label, duration);
+        return storedKeys;
     }
 
 }
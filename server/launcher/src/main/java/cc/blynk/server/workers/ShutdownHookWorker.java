@@ -3,7 +3,9 @@ package cc.blynk.server.workers;
 import cc.blynk.server.Holder;
 import cc.blynk.server.core.BaseServer;
 
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Used to close and store all important info to disk.
@@ -17,15 +19,24 @@ public class ShutdownHookWorker implements Runnable {
     private final BaseServer[] servers;
     private final Holder holder;
     private final ProfileSaverWorker profileSaverWorker;
+    private final ReportingRetentionWorker retentionWorker;
     private final ScheduledExecutorService scheduler;
+    private final ScheduledExecutorService profileSaverScheduler;
+    private final ScheduledExecutorService retentionScheduler;
 
     public ShutdownHookWorker(BaseServer[] servers, Holder holder,
                               ScheduledExecutorService scheduler,
-                              ProfileSaverWorker profileSaverWorker) {
+                              ScheduledExecutorService profileSaverScheduler,
+                              ScheduledExecutorService retentionScheduler,
+                              ProfileSaverWorker profileSaverWorker,
+                              ReportingRetentionWorker retentionWorker) {
         this.servers = servers;
         this.holder = holder;
         this.profileSaverWorker = profileSaverWorker;
+        this.retentionWorker = retentionWorker;
         this.scheduler = scheduler;
+        this.profileSaverScheduler = profileSaverScheduler;
+        this.retentionScheduler = retentionScheduler;
     }
 
     @Override
@@ -41,16 +52,43 @@ public class ShutdownHookWorker implements Runnable {
             }
         }
 
-        System.out.println("Stopping scheduler...");
+        //running jobs are finished before profiles are saved and storage and DB are closed
+        System.out.println("Stopping schedulers...");
+        retentionWorker.stop();
+        retentionScheduler.shutdown();
+        profileSaverScheduler.shutdown();
         scheduler.shutdown();
+        awaitTermination(retentionScheduler);
+        awaitTermination(profileSaverScheduler);
+        awaitTermination(scheduler);
 
         System.out.println("Saving user profiles...");
         profileSaverWorker.close();
 
+        //local mode only, DB mode restores users from DB
+        if (holder.props.getBoolProperty("profile.snapshot.enabled", false) && !holder.dbManager.isDBEnabled()) {
+            System.out.println("Storing user snapshot...");
+            try {
+                holder.fileManager.writeSnapshot(holder.userDao.users.values());
+            } catch (Exception e) {
+                System.out.println("Error storing user snapshot : " + e.getMessage());
+            }
+        }
+
         System.out.println("Stopping aggregator...");
         holder.close();
 
         System.out.println("Done.");
     }
 
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.out.println("Job is still running after 1 minute. Continuing shutdown.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
 }
@@ -0,0 +1,67 @@
+package cc.blynk.server.workers;
+
+import cc.blynk.server.core.BlockingIOProcessor;
+import cc.blynk.server.core.dao.SessionDao;
+import cc.blynk.server.core.dao.TokenManager;
+import cc.blynk.server.core.dao.TokenValue;
+import cc.blynk.server.core.dao.UserDao;
+import cc.blynk.server.core.dao.UserKey;
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.serialization.JsonParser;
+import cc.blynk.server.core.quota.QuotaManager;
+import cc.blynk.server.db.DBManager;
+import cc.blynk.utils.AppNameUtil;
+import org.junit.Test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class ProfileEvictionWorkerTest {
+
+    @Test
+    public void testIdleProfileIsEvictedAndHydratedByToken() throws Exception {
+        User user = new User("1", "", AppNameUtil.BLYNK, "local", "127.0.0.1", false, false);
+        DashBoard dash = new DashBoard();
+        dash.id = 1;
+        Device device = new Device(0, "My Device", "ESP8266");
+        device.token = "token";
+        dash.devices = new Device[] {device};
+        user.profile.dashBoards = new DashBoard[] {dash};
+
+        ConcurrentMap<UserKey, User> users = new ConcurrentHashMap<>();
+        users.put(new UserKey(user), user);
+        UserDao userDao = new UserDao(users, "local", "127.0.0.1");
+        TokenManager tokenManager = new TokenManager(users,
+                new DBManager(new BlockingIOProcessor(4, 1), false), "127.0.0.1");
+        ProfileEvictionWorker worker = new ProfileEvictionWorker(userDao,
+                new SessionDao(mock(QuotaManager.class)), tokenManager, 60_000);
+
+        //accessed recently
+        assertEquals(0, worker.evict(System.currentTimeMillis() - 60_000));
+        assertFalse(user.isCold());
+
+        assertEquals(1, worker.evict(System.currentTimeMillis() + 1));
+        assertTrue(user.isCold());
+        assertEquals(0, user.profile.dashBoards.length);
+        //cold user is stored with full profile
+        User stored = JsonParser.parseUserFromString(JsonParser.toJson(user));
+        assertEquals("token", stored.profile.getDashById(1).devices[0].token);
+
+        TokenValue tokenValue = tokenManager.getTokenValueByToken("token");
+        assertFalse(user.isCold());
+        assertFalse(tokenValue.isCold());
+        assertSame(user.profile.getDashById(1), tokenValue.dash);
+        assertNotSame(dash, tokenValue.dash);
+        assertSame(tokenValue.dash.devices[0], tokenValue.device);
+    }
+
+}
@@ -4,7 +4,11 @@ import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.dao.FileManager;
 import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.dao.UserKey;
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.PinStorageKey;
 import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.serialization.JsonParser;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.db.DBManager;
 import cc.blynk.utils.AppNameUtil;
@@ -13,12 +17,18 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -92,4 +102,64 @@ public class ProfileSaverWorkerTest {
         verifyNoMoreInteractions(fileManager);
     }
 
+    @Test
+    public void testShardedSaveWritesAllProfilesAndBackups() throws Exception {
+        String dataFolder = Paths.get(System.getProperty("java.io.tmpdir"), "blynk-saver").toString();
+        org.apache.commons.io.FileUtils.deleteDirectory(new File(dataFolder));
+        FileManager realFileManager = new FileManager(dataFolder, null);
+        GlobalStats globalStats = new GlobalStats();
+
+        ProfileSaverWorker profileSaverWorker = new ProfileSaverWorker(userDao, realFileManager,
+                new DBManager(blockingIOProcessor, true), globalStats, 3, 1024, 0);
+
+        ConcurrentMap<UserKey, User> userMap = new ConcurrentHashMap<>();
+        for (int i = 0; i < 10; i++) {
+            User user = new User("" + i, "", AppNameUtil.BLYNK, "local", "127.0.0.1", false, false);
+            userMap.put(new UserKey(user), user);
+        }
+        when(userDao.getUsers()).thenReturn(userMap);
+
+        profileSaverWorker.close();
+
+        assertEquals(10, globalStats.profileSnapshots.sum());
+        assertEquals(1, globalStats.profileSaveDuration.getCount());
+        File[] userFiles = realFileManager.getDataDir().toFile().listFiles((dir, name) -> name.endsWith(".user"));
+        File[] backupFiles = Paths.get(dataFolder, "backup").toFile().listFiles();
+        assertNotNull(userFiles);
+        assertNotNull(backupFiles);
+        assertEquals(10, userFiles.length);
+        assertEquals(10, backupFiles.length);
+    }
+
+    @Test
+    public void testPinsLogIsMergedBeforeBackup() throws Exception {
+        String dataFolder = Paths.get(System.getProperty("java.io.tmpdir"), "blynk-saver").toString();
+        org.apache.commons.io.FileUtils.deleteDirectory(new File(dataFolder));
+        FileManager realFileManager = new FileManager(dataFolder, null);
+
+        User user = new User("1", "", AppNameUtil.BLYNK, "local", "127.0.0.1", false, false);
+        DashBoard dash = new DashBoard();
+        dash.id = 1;
+        user.profile.dashBoards = new DashBoard[] {dash};
+        realFileManager.overrideUserFile(user);
+        user.lastModifiedTs = 0;
+        ConcurrentMap<UserKey, User> userMap = new ConcurrentHashMap<>();
+        userMap.put(new UserKey(user), user);
+        when(userDao.getUsers()).thenReturn(userMap);
+
+        ProfileSaverWorker profileSaverWorker = new ProfileSaverWorker(userDao, realFileManager,
+                new DBManager(blockingIOProcessor, false), new GlobalStats(), 1, 1024, 0);
+        //pin only change goes to the pins log
+        dash.update(0, (byte) 1, PinType.VIRTUAL, "100", System.currentTimeMillis());
+        profileSaverWorker.close();
+
+        assertFalse(Files.exists(realFileManager.generatePinsFileName(user.email, user.appName)));
+        File[] backupFiles = Paths.get(dataFolder, "backup").toFile().listFiles();
+        assertNotNull(backupFiles);
+        assertEquals(1, backupFiles.length);
+        User backup = JsonParser.parseUserFromFile(backupFiles[0].toPath());
+        assertEquals("100", backup.profile.getDashById(1).pinsStorage.get(
+                new PinStorageKey(0, PinType.VIRTUAL, (byte) 1)));
+    }
+
 }
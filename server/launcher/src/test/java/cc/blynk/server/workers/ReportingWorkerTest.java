@@ -9,6 +9,7 @@ import cc.blynk.server.core.protocol.handlers.DefaultExceptionHandler;
 import cc.blynk.server.core.reporting.average.AggregationKey;
 import cc.blynk.server.core.reporting.average.AggregationValue;
 import cc.blynk.server.core.reporting.average.AverageAggregatorProcessor;
+import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.db.DBManager;
 import cc.blynk.utils.AppNameUtil;
 import cc.blynk.utils.properties.ServerProperties;
@@ -35,6 +36,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 
 /**
@@ -87,7 +90,7 @@ public class ReportingWorkerTest {
         User user = new User();
         user.email = "test";
         user.appName = AppNameUtil.BLYNK;
-        ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock, reportingFolder, new DBManager(blockingIOProcessor, true));
+        ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock, new DBManager(blockingIOProcessor, true), new GlobalStats());
 
         ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
 
@@ -99,10 +102,9 @@ public class ReportingWorkerTest {
 
         map.put(aggregationKey, aggregationValue);
 
-        when(averageAggregator.getMinute()).thenReturn(map);
+        when(averageAggregator.removeOutdated(eq(GraphGranularityType.MINUTE), anyLong())).thenReturn(map);
 
         reportingWorker.run();
-        assertTrue(map.isEmpty());
     }
 
     @Test
@@ -110,7 +112,7 @@ public class ReportingWorkerTest {
         User user = new User();
         user.email = "test";
         user.appName = AppNameUtil.BLYNK;
-        ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock, reportingFolder, new DBManager(blockingIOProcessor, true));
+        ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock, new DBManager(blockingIOProcessor, true), new GlobalStats());
 
         ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
 
@@ -130,9 +132,7 @@ public class ReportingWorkerTest {
         map.put(aggregationKey2, aggregationValue2);
         map.put(aggregationKey3, aggregationValue3);
 
-        when(averageAggregator.getMinute()).thenReturn(new ConcurrentHashMap<>());
-        when(averageAggregator.getHourly()).thenReturn(map);
-        when(averageAggregator.getDaily()).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.removeOutdated(eq(GraphGranularityType.HOURLY), anyLong())).thenReturn(map);
 
         reportingWorker.run();
 
@@ -141,8 +141,6 @@ public class ReportingWorkerTest {
         assertTrue(Files.exists(Paths.get(reportingFolder, "test2",
                 generateFilename(2, 0, PinType.ANALOG.pintTypeChar, (byte) 2, GraphGranularityType.HOURLY.label))));
 
-        assertTrue(map.isEmpty());
-
         ByteBuffer data = reportingDaoMock.getByteBufferFromDisk(user, 1, 0, PinType.ANALOG, (byte) 1, 2, GraphGranularityType.HOURLY, 0);
         assertNotNull(data);
         data.flip();
@@ -167,7 +165,7 @@ public class ReportingWorkerTest {
 
     @Test
     public void testStore2() throws IOException {
-        ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock, reportingFolder, new DBManager(blockingIOProcessor, true));
+        ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock, new DBManager(blockingIOProcessor, true), new GlobalStats());
 
         ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
 
@@ -187,17 +185,13 @@ public class ReportingWorkerTest {
         map.put(aggregationKey2, aggregationValue2);
         map.put(aggregationKey3, aggregationValue3);
 
-        when(averageAggregator.getMinute()).thenReturn(new ConcurrentHashMap<>());
-        when(averageAggregator.getHourly()).thenReturn(map);
-        when(averageAggregator.getDaily()).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.removeOutdated(eq(GraphGranularityType.HOURLY), anyLong())).thenReturn(map);
 
         reportingWorker.run();
 
         assertTrue(Files.exists(Paths.get(reportingFolder, "test",
                 generateFilename(1, 0, PinType.ANALOG.pintTypeChar, (byte) 1, GraphGranularityType.HOURLY.label))));
 
-        assertTrue(map.isEmpty());
-
         User user = new User();
         user.email = "test";
         user.appName = AppNameUtil.BLYNK;
@@ -231,7 +225,7 @@ public class ReportingWorkerTest {
 
     @Test
     public void testDeleteCommand() throws IOException {
-        ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock, reportingFolder, new DBManager(blockingIOProcessor, true));
+        ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock, new DBManager(blockingIOProcessor, true), new GlobalStats());
 
         ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
 
@@ -251,9 +245,7 @@ public class ReportingWorkerTest {
         map.put(aggregationKey2, aggregationValue2);
         map.put(aggregationKey3, aggregationValue3);
 
-        when(averageAggregator.getMinute()).thenReturn(new ConcurrentHashMap<>());
-        when(averageAggregator.getHourly()).thenReturn(map);
-        when(averageAggregator.getDaily()).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.removeOutdated(eq(GraphGranularityType.HOURLY), anyLong())).thenReturn(map);
         when(properties.getProperty("data.folder")).thenReturn(System.getProperty("java.io.tmpdir"));
 
         reportingWorker.run();
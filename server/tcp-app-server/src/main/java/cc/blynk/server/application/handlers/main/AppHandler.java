@@ -156,7 +156,7 @@ public class AppHandler extends BaseSimpleChannelInboundHandler<StringMessage> {
     private final GlobalStats stats;
 
     public AppHandler(Holder holder, AppStateHolder state) {
-        super(StringMessage.class, holder.limits);
+        super(StringMessage.class, holder);
         this.token = new GetTokenLogic(holder);
         this.assignTokenLogic = new AssignTokenLogic(holder);
         this.hardwareApp = new HardwareAppLogic(holder, state.user.email);
@@ -185,7 +185,7 @@ public class AppHandler extends BaseSimpleChannelInboundHandler<StringMessage> {
         this.updateDashSettingLogic = new UpdateDashSettingLogic(holder.limits.widgetSizeLimitBytes);
 
         this.createDeviceLogic = new CreateDeviceLogic(holder);
-        this.deleteDeviceLogic = new DeleteDeviceLogic(holder.tokenManager, holder.sessionDao);
+        this.deleteDeviceLogic = new DeleteDeviceLogic(holder.tokenManager, holder.sessionDao, holder.reportingDao);
 
         this.shareLogic = new ShareLogic(holder.sessionDao);
         this.redeemLogic = new RedeemLogic(holder.dbManager, holder.blockingIOProcessor);
@@ -185,6 +185,7 @@ public class AppLoginHandler extends SimpleChannelInboundHandler<LoginMessage>
     }
 
     private void login(ChannelHandlerContext ctx, int messageId, User user, Version version) {
+        holder.tokenManager.hydrate(user);
         ChannelPipeline pipeline = ctx.pipeline();
         cleanPipeline(pipeline);
 
@@ -199,13 +200,8 @@ public class AppLoginHandler extends SimpleChannelInboundHandler<LoginMessage>
         }
 
         Session session = holder.sessionDao.getOrCreateSessionByUser(appStateHolder.userKey, channel.eventLoop());
-        if (session.initialEventLoop != channel.eventLoop()) {
-            log.debug("Re registering app channel. {}", ctx.channel());
-            reRegisterChannel(ctx, session, channelFuture ->
-                    completeLogin(channelFuture.channel(), session, user, messageId, version));
-        } else {
-            completeLogin(channel, session, user, messageId, version);
-        }
+        completeOnSessionLoop(ctx, session, holder.stats, appChannel ->
+                completeLogin(appChannel, session, user, messageId, version));
     }
 
     private void completeLogin(Channel channel, Session session, User user, int msgId, Version version) {
@@ -159,6 +159,7 @@ public class RegisterHandler extends SimpleChannelInboundHandler<RegisterMessage
         }
 
         int dashId = app.projectIds[0];
+        tokenManager.hydrate(parentUser);
         DashBoard dash = parentUser.profile.getDashByIdOrThrow(dashId);
 
         //todo ugly, but quick. refactor
@@ -1,6 +1,7 @@
 package cc.blynk.server.application.handlers.main.logic;
 
 import cc.blynk.server.Holder;
+import cc.blynk.server.core.dao.TokenManager;
 import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.App;
@@ -29,9 +30,11 @@ public class UpdateFaceLogic {
     private static final Logger log = LogManager.getLogger(UpdateFaceLogic.class);
 
     private final UserDao userDao;
+    private final TokenManager tokenManager;
 
     public UpdateFaceLogic(Holder holder) {
         this.userDao = holder.userDao;
+        this.tokenManager = holder.tokenManager;
     }
 
     public void messageReceived(ChannelHandlerContext ctx, User user, StringMessage message) {
@@ -60,9 +63,12 @@ public class UpdateFaceLogic {
         int count = 0;
         log.info("Updating face {} for user {}.", parentDashId, user.email);
         for (User existingUser : userDao.users.values()) {
+            if (existingUser != user && !appIds.contains(existingUser.appName)) {
+                continue;
+            }
+            tokenManager.hydrate(existingUser);
             for (DashBoard existingDash : existingUser.profile.dashBoards) {
-                if (existingDash.parentId == parentDashId && (existingUser == user
-                        || appIds.contains(existingUser.appName))) {
+                if (existingDash.parentId == parentDashId) {
                     hasFaces = true;
                     //we found child project-face
                     try {
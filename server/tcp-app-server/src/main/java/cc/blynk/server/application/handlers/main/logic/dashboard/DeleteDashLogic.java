@@ -2,6 +2,7 @@ package cc.blynk.server.application.handlers.main.logic.dashboard;
 
 import cc.blynk.server.Holder;
 import cc.blynk.server.application.handlers.main.auth.AppStateHolder;
+import cc.blynk.server.core.dao.ReportingDao;
 import cc.blynk.server.core.dao.SessionDao;
 import cc.blynk.server.core.dao.TokenManager;
 import cc.blynk.server.core.model.DashBoard;
@@ -29,11 +30,13 @@ public class DeleteDashLogic {
     private final TokenManager tokenManager;
     private final TimerWorker timerWorker;
     private final SessionDao sessionDao;
+    private final ReportingDao reportingDao;
 
     public DeleteDashLogic(Holder holder) {
         this.tokenManager = holder.tokenManager;
         this.timerWorker = holder.timerWorker;
         this.sessionDao = holder.sessionDao;
+        this.reportingDao = holder.reportingDao;
     }
 
     public void messageReceived(ChannelHandlerContext ctx, AppStateHolder state, StringMessage message) {
@@ -59,6 +62,7 @@ public class DeleteDashLogic {
 
         user.profile.dashBoards = ArrayUtil.remove(user.profile.dashBoards, index, DashBoard.class);
         tokenManager.deleteDash(dash);
+        reportingDao.removeSeries(user, dash);
         Session session = sessionDao.userSession.get(state.userKey);
         session.closeHardwareChannelByDashId(dashId);
     }
@@ -1,6 +1,7 @@
 package cc.blynk.server.application.handlers.main.logic.dashboard.device;
 
 import cc.blynk.server.application.handlers.main.auth.AppStateHolder;
+import cc.blynk.server.core.dao.ReportingDao;
 import cc.blynk.server.core.dao.SessionDao;
 import cc.blynk.server.core.dao.TokenManager;
 import cc.blynk.server.core.model.DashBoard;
@@ -27,10 +28,12 @@ public class DeleteDeviceLogic {
 
     private final TokenManager tokenManager;
     private final SessionDao sessionDao;
+    private final ReportingDao reportingDao;
 
-    public DeleteDeviceLogic(TokenManager tokenManager, SessionDao sessionDao) {
+    public DeleteDeviceLogic(TokenManager tokenManager, SessionDao sessionDao, ReportingDao reportingDao) {
         this.tokenManager = tokenManager;
         this.sessionDao = sessionDao;
+        this.reportingDao = reportingDao;
     }
 
     public void messageReceived(ChannelHandlerContext ctx, AppStateHolder state, StringMessage message) {
@@ -58,6 +61,7 @@ public class DeleteDeviceLogic {
         session.closeHardwareChannelByDeviceId(dashId, deviceId);
 
         dash.devices = ArrayUtil.remove(dash.devices, existingDeviceIndex, Device.class);
+        reportingDao.removeSeries(state.user, dashId, device);
         dash.updatedAt = System.currentTimeMillis();
         state.user.lastModifiedTs = dash.updatedAt;
 
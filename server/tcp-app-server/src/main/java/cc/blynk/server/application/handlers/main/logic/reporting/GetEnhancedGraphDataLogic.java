@@ -21,6 +21,8 @@ import io.netty.channel.ChannelHandlerContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.nio.ByteBuffer;
+
 import static cc.blynk.server.core.protocol.enums.Command.GET_ENHANCED_GRAPH_DATA;
 import static cc.blynk.server.core.protocol.enums.Command.PROTOCOL_MAX_LENGTH;
 import static cc.blynk.server.internal.CommonByteBufUtil.makeBinaryMessage;
@@ -121,7 +123,7 @@ public class GetEnhancedGraphDataLogic {
                                GraphPinRequest[] requestedPins, int msgId) {
         blockingIOProcessor.executeHistory(() -> {
             try {
-                byte[][] data = reportingDao.getReportingData(user, requestedPins);
+                ByteBuffer[] data = reportingDao.getReportingData(user, requestedPins);
                 byte[] compressed = compress(requestedPins[0].dashId, data);
 
                 if (!isNewProtocol && compressed.length > PROTOCOL_MAX_LENGTH) {
@@ -96,17 +96,12 @@ public class AppShareLoginHandler extends SimpleChannelInboundHandler<ShareLogin
         Session session = holder.sessionDao.getOrCreateSessionByUser(
                 appShareStateHolder.userKey, ctx.channel().eventLoop());
 
-        if (session.initialEventLoop != ctx.channel().eventLoop()) {
-            log.debug("Re registering app channel. {}", ctx.channel());
-            reRegisterChannel(ctx, session, channelFuture ->
-                    completeLogin(channelFuture.channel(), session, user.email, messageId));
-        } else {
-            completeLogin(ctx.channel(), session, user.email, messageId);
-        }
+        completeOnSessionLoop(ctx, session, holder.stats, channel ->
+                completeLogin(channel, session, user.email, dashId, messageId));
     }
 
-    private void completeLogin(Channel channel, Session session, String userName, int msgId) {
-        session.addAppChannel(channel);
+    private void completeLogin(Channel channel, Session session, String userName, int dashId, int msgId) {
+        session.addSharedAppChannel(channel, dashId);
         channel.writeAndFlush(ok(msgId), channel.voidPromise());
         log.info("Shared {} app joined.", userName);
     }
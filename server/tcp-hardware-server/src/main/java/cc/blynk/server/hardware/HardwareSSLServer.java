@@ -2,6 +2,7 @@ package cc.blynk.server.hardware;
 
 import cc.blynk.server.Holder;
 import cc.blynk.server.core.BaseServer;
+import cc.blynk.server.core.protocol.handlers.BackpressureConfig;
 import cc.blynk.server.core.protocol.handlers.decoders.MessageDecoder;
 import cc.blynk.server.core.protocol.handlers.encoders.MessageEncoder;
 import cc.blynk.server.handlers.common.AlreadyLoggedHandler;
@@ -31,6 +32,7 @@ public class HardwareSSLServer extends BaseServer {
         AlreadyLoggedHandler alreadyLoggedHandler = new AlreadyLoggedHandler();
 
         final int hardTimeoutSecs = holder.limits.hardwareIdleTimeout;
+        final BackpressureConfig backpressureConfig = new BackpressureConfig(holder.props, "hardware");
 
         this.channelInitializer = new ChannelInitializer<SocketChannel>() {
             @Override
@@ -39,11 +41,16 @@ public class HardwareSSLServer extends BaseServer {
                     .addLast("HSSL_ReadTimeout", new IdleStateHandler(hardTimeoutSecs, hardTimeoutSecs, 0))
                     .addLast("HSSL", holder.sslContextHolder.sslCtx.newHandler(ch.alloc()))
                     .addLast("HSSLChannelState", hardwareChannelStateHandler)
-                    .addLast("HSSLMessageDecoder", new MessageDecoder(holder.stats))
+                    .addLast("HSSLMessageDecoder", new MessageDecoder(holder.stats, true))
                     .addLast("HSSLMessageEncoder", new MessageEncoder(holder.stats))
                     .addLast("HSSLLogin", hardwareLoginHandler)
                     .addLast("HSSLNotLogged", new HardwareNotLoggedHandler())
                     .addLast("HSSLAlreadyLogged", alreadyLoggedHandler);
+                backpressureConfig.apply(ch);
+                if (backpressureConfig.isConflationEnabled()) {
+                    ch.pipeline().addAfter("HSSLMessageEncoder", "HSSLConflation",
+                            backpressureConfig.newHandler(holder.stats));
+                }
             }
         };
     }
@@ -2,6 +2,8 @@ package cc.blynk.server.hardware;
 
 import cc.blynk.server.Holder;
 import cc.blynk.server.core.BaseServer;
+import cc.blynk.server.core.protocol.handlers.BackpressureConfig;
+import cc.blynk.server.core.protocol.handlers.FlushCoalescingConfig;
 import cc.blynk.server.core.protocol.handlers.decoders.MessageDecoder;
 import cc.blynk.server.core.protocol.handlers.encoders.MessageEncoder;
 import cc.blynk.server.handlers.common.AlreadyLoggedHandler;
@@ -30,6 +32,8 @@ public class HardwareServer extends BaseServer {
         final HardwareChannelStateHandler hardwareChannelStateHandler =
                 new HardwareChannelStateHandler(holder);
         final AlreadyLoggedHandler alreadyLoggedHandler = new AlreadyLoggedHandler();
+        final FlushCoalescingConfig flushConfig = new FlushCoalescingConfig(holder.props, "hardware");
+        final BackpressureConfig backpressureConfig = new BackpressureConfig(holder.props, "hardware");
 
         channelInitializer = new ChannelInitializer<SocketChannel>() {
             @Override
@@ -37,11 +41,19 @@ public class HardwareServer extends BaseServer {
                 ch.pipeline()
                         .addLast("H_IdleStateHandler", new IdleStateHandler(hardTimeoutSecs, hardTimeoutSecs, 0))
                         .addLast("H_ChannelState", hardwareChannelStateHandler)
-                        .addLast("H_MessageDecoder", new MessageDecoder(holder.stats))
+                        .addLast("H_MessageDecoder", new MessageDecoder(holder.stats, true))
                         .addLast("H_MessageEncoder", new MessageEncoder(holder.stats))
                         .addLast("H_Login", hardwareLoginHandler)
                         .addLast("H_NotLogged", new HardwareNotLoggedHandler())
                         .addLast("H_AlreadyLogged", alreadyLoggedHandler);
+                if (flushConfig.isEnabled()) {
+                    ch.pipeline().addFirst("H_FlushCoalescing", flushConfig.newHandler(holder.stats));
+                }
+                backpressureConfig.apply(ch);
+                if (backpressureConfig.isConflationEnabled()) {
+                    ch.pipeline().addAfter("H_MessageEncoder", "H_Conflation",
+                            backpressureConfig.newHandler(holder.stats));
+                }
             }
         };
 
@@ -2,6 +2,7 @@ package cc.blynk.server.hardware;
 
 import cc.blynk.server.Holder;
 import cc.blynk.server.core.BaseServer;
+import cc.blynk.server.core.protocol.handlers.FlushCoalescingConfig;
 import cc.blynk.server.handlers.common.HardwareNotLoggedHandler;
 import cc.blynk.server.hardware.handlers.hardware.HardwareChannelStateHandler;
 import cc.blynk.server.hardware.handlers.hardware.mqtt.auth.MqttHardwareLoginHandler;
@@ -28,6 +29,7 @@ public class MQTTHardwareServer extends BaseServer {
         MqttHardwareLoginHandler mqttHardwareLoginHandler = new MqttHardwareLoginHandler(holder);
         HardwareChannelStateHandler hardwareChannelStateHandler =
                 new HardwareChannelStateHandler(holder);
+        FlushCoalescingConfig flushConfig = new FlushCoalescingConfig(holder.props, "mqtt");
 
         channelInitializer = new ChannelInitializer<SocketChannel>() {
             @Override
@@ -39,6 +41,9 @@ public class MQTTHardwareServer extends BaseServer {
                     .addLast(MqttEncoder.INSTANCE)
                     .addLast(mqttHardwareLoginHandler)
                     .addLast(new HardwareNotLoggedHandler());
+                if (flushConfig.isEnabled()) {
+                    ch.pipeline().addFirst("MqttFlushCoalescing", flushConfig.newHandler(holder.stats));
+                }
             }
         };
 
@@ -2,7 +2,9 @@ package cc.blynk.server.hardware.handlers.hardware;
 
 import cc.blynk.server.Holder;
 import cc.blynk.server.core.dao.TokenValue;
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.protocol.model.messages.common.HardwareWriteMessage;
 import cc.blynk.server.core.session.HardwareStateHolder;
 import cc.blynk.server.core.session.StateHolderBase;
 import cc.blynk.server.handlers.BaseSimpleChannelInboundHandler;
@@ -36,7 +38,7 @@ import static cc.blynk.server.core.protocol.enums.Command.TWEET;
  * Created by Dmitriy Dumanskiy.
  * Created on 29.07.15.
  */
-public class HardwareHandler extends BaseSimpleChannelInboundHandler<StringMessage> {
+public class HardwareHandler extends BaseSimpleChannelInboundHandler<MessageBase> {
 
     public final HardwareStateHolder state;
     private final HardwareLogic hardware;
@@ -49,7 +51,7 @@ public class HardwareHandler extends BaseSimpleChannelInboundHandler<StringMessa
     private final BlynkInternalLogic info;
 
     public HardwareHandler(Holder holder, HardwareStateHolder stateHolder) {
-        super(StringMessage.class, holder.limits);
+        super(MessageBase.class, holder);
         this.hardware = new HardwareLogic(holder, stateHolder.user.email);
         this.bridge = new BridgeLogic(holder.sessionDao, holder.tokenManager);
 
@@ -65,7 +67,15 @@ public class HardwareHandler extends BaseSimpleChannelInboundHandler<StringMessa
     }
 
     @Override
-    public void messageReceived(ChannelHandlerContext ctx, StringMessage msg) {
+    public void messageReceived(ChannelHandlerContext ctx, MessageBase message) {
+        if (message instanceof HardwareWriteMessage) {
+            hardware.messageReceived(ctx, state, (HardwareWriteMessage) message);
+        } else if (message instanceof StringMessage) {
+            messageReceived(ctx, (StringMessage) message);
+        }
+    }
+
+    private void messageReceived(ChannelHandlerContext ctx, StringMessage msg) {
         switch (msg.command) {
             case HARDWARE:
                 hardware.messageReceived(ctx, state, msg);
@@ -112,13 +112,8 @@ public class HardwareLoginHandler extends SimpleChannelInboundHandler<LoginMessa
         Session session = holder.sessionDao.getOrCreateSessionByUser(
                 hardwareStateHolder.userKey, ctx.channel().eventLoop());
 
-        if (session.initialEventLoop != ctx.channel().eventLoop()) {
-            log.debug("Re registering hard channel. {}", ctx.channel());
-            reRegisterChannel(ctx, session, channelFuture ->
-                    completeLogin(channelFuture.channel(), session, user, dash, device, message.id));
-        } else {
-            completeLogin(ctx.channel(), session, user, dash, device, message.id);
-        }
+        completeOnSessionLoop(ctx, session, holder.stats, channel ->
+                completeLogin(channel, session, user, dash, device, message.id));
     }
 
     private void checkTokenOnOtherServer(ChannelHandlerContext ctx, String token, int msgId) {
@@ -11,6 +11,7 @@ import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.processors.BaseProcessorHandler;
 import cc.blynk.server.core.processors.WebhookProcessor;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.protocol.model.messages.common.HardwareWriteMessage;
 import cc.blynk.server.core.session.HardwareStateHolder;
 import io.netty.channel.ChannelHandlerContext;
 
@@ -75,20 +76,50 @@ public class HardwareLogic extends BaseProcessorHandler {
             PinType pinType = PinType.getPinType(splitBody[0].charAt(0));
             byte pin = Byte.parseByte(splitBody[1]);
             String value = splitBody[2];
-            long now = System.currentTimeMillis();
 
-            reportingDao.process(user, dash, deviceId, pin, pinType, value, now);
-            dash.update(deviceId, pin, pinType, value, now);
-
-            Session session = sessionDao.userSession.get(userKey);
-            process(user, dash, deviceId, session, pin, pinType, value, now);
+            Session session = write(userKey, user, dash, deviceId, pinType, pin, value);
 
             if (dash.isActive) {
                 session.sendToApps(HARDWARE, message.id, dash.id, deviceId, body);
+                session.pauseIfAppsSaturated(ctx.channel());
             } else {
                 log.trace("No active dashboard.");
             }
         }
     }
 
+    /**
+     * Fast path for write commands decoded straight from the frame.
+     * Only the value string is created, as it is stored in the widget and pins storage.
+     * Body is forwarded to the apps as bytes of the frame, no body string is created.
+     */
+    public void messageReceived(ChannelHandlerContext ctx, HardwareStateHolder state, HardwareWriteMessage message) {
+        DashBoard dash = state.dash;
+        int deviceId = state.device.id;
+
+        Session session = write(state.userKey, state.user, dash, deviceId,
+                message.pinType, message.pin, message.value());
+
+        if (dash.isActive) {
+            if (session.isAppConnected()) {
+                session.sendToApps(HARDWARE, message.id, dash.id, deviceId, message.content());
+                session.pauseIfAppsSaturated(ctx.channel());
+            }
+        } else {
+            log.trace("No active dashboard.");
+        }
+    }
+
+    private Session write(UserKey userKey, User user, DashBoard dash, int deviceId,
+                          PinType pinType, byte pin, String value) {
+        long now = System.currentTimeMillis();
+
+        reportingDao.process(user, dash, deviceId, pin, pinType, value, now);
+        dash.update(deviceId, pin, pinType, value, now);
+
+        Session session = sessionDao.userSession.get(userKey);
+        process(user, dash, deviceId, session, pin, pinType, value, now);
+        return session;
+    }
+
 }
@@ -96,13 +96,8 @@ public class MqttHardwareLoginHandler extends SimpleChannelInboundHandler<MqttCo
         Session session = holder.sessionDao.getOrCreateSessionByUser(
                 hardwareStateHolder.userKey, ctx.channel().eventLoop());
 
-        if (session.initialEventLoop != ctx.channel().eventLoop()) {
-            log.debug("Re registering hard channel. {}", ctx.channel());
-            reRegisterChannel(ctx, session, channelFuture ->
-                    completeLogin(channelFuture.channel(), session, user, dash, device, -1));
-        } else {
-            completeLogin(ctx.channel(), session, user, dash, device, -1);
-        }
+        completeOnSessionLoop(ctx, session, holder.stats, channel ->
+                completeLogin(channel, session, user, dash, device, -1));
     }
 
     @Override
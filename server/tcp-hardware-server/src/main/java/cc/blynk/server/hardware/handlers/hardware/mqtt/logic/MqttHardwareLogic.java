@@ -88,6 +88,7 @@ public class MqttHardwareLogic {
 
         if (dash.isActive) {
             session.sendToApps(HARDWARE, msg.variableHeader().packetId(), dashId, deviceId, body);
+            session.pauseIfAppsSaturated(ctx.channel());
         } else {
             log.debug("No active dashboard.");
         }
@@ -15,6 +15,7 @@ import java.util.zip.DeflaterOutputStream;
 public final class ByteUtils {
 
     public static final int REPORTING_RECORD_SIZE_BYTES = 16;
+    private static final int COMPRESS_CHUNK_SIZE = 4096;
 
     private ByteUtils() {
     }
@@ -58,6 +59,38 @@ public final class ByteUtils {
         return baos.toByteArray();
     }
 
+    /**
+     * Same as {@link #compress(int, byte[][])}, but for buffers that are ready to be read.
+     * Direct (memory mapped) buffers are passed to deflater in small chunks,
+     * so no full heap copy of the data is made.
+     */
+    public static byte[] compress(int dashId, ByteBuffer[] values) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
+
+        try (OutputStream out = new DeflaterOutputStream(baos)) {
+            writeInt(out, dashId);
+            byte[] chunk = null;
+            for (ByteBuffer data : values) {
+                int length = data.remaining();
+                writeInt(out, length / REPORTING_RECORD_SIZE_BYTES);
+                if (data.hasArray()) {
+                    out.write(data.array(), data.arrayOffset() + data.position(), length);
+                } else {
+                    if (chunk == null) {
+                        chunk = new byte[COMPRESS_CHUNK_SIZE];
+                    }
+                    ByteBuffer duplicate = data.duplicate();
+                    while (duplicate.hasRemaining()) {
+                        int chunkLength = Math.min(chunk.length, duplicate.remaining());
+                        duplicate.get(chunk, 0, chunkLength);
+                        out.write(chunk, 0, chunkLength);
+                    }
+                }
+            }
+        }
+        return baos.toByteArray();
+    }
+
     private static void writeInt(OutputStream out, int value) throws IOException {
         out.write((value >>> 24) & 0xFF);
         out.write((value >>> 16) & 0xFF);
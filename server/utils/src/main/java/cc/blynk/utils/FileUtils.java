@@ -109,11 +109,20 @@ public final class FileUtils {
      * @return - byte buffer with data
      */
     public static ByteBuffer read(Path userDataFile, int count, int skip) throws IOException {
+        return read(userDataFile, count, skip, SIZE_OF_REPORT_ENTRY);
+    }
+
+    /**
+     * Same as {@link #read(Path, int, int)}, but for files with records of another size.
+     *
+     * @param recordSize   - size of single record in bytes
+     */
+    public static ByteBuffer read(Path userDataFile, int count, int skip, int recordSize) throws IOException {
         int size = (int) Files.size(userDataFile);
-        int expectedMinimumLength = (count + skip) * SIZE_OF_REPORT_ENTRY;
+        int expectedMinimumLength = (count + skip) * recordSize;
         int diff = size - expectedMinimumLength;
         int startReadIndex = Math.max(0, diff);
-        int bufferSize = diff < 0 ? count * SIZE_OF_REPORT_ENTRY + diff : count * SIZE_OF_REPORT_ENTRY;
+        int bufferSize = diff < 0 ? count * recordSize + diff : count * recordSize;
         if (bufferSize <= 0) {
             return null;
         }
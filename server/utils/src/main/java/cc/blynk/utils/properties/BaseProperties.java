@@ -123,6 +123,14 @@ public abstract class BaseProperties extends Properties {
         return Boolean.parseBoolean(getProperty(propertyName));
     }
 
+    public boolean getBoolProperty(String propertyName, boolean defaultValue) {
+        String prop = getProperty(propertyName);
+        if (prop == null || prop.isEmpty()) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(prop);
+    }
+
     public long getLongProperty(String propertyName) {
         return Long.parseLong(getProperty(propertyName));
     }